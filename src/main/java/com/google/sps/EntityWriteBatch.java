@@ -0,0 +1,163 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityTranslator;
+import com.google.appengine.api.datastore.Key;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * EntityWriteBatch collects Entity objects that belong to one logical write
+ * (e.g. a whole trip) and commits them with multi-entity puts, split so that
+ * each put stays under the datastore per-RPC limits. It can be used by any
+ * code path that writes several entities: trip creation, edits, or imports.
+ */
+public class EntityWriteBatch {
+
+  // Datastore accepts at most 500 entities in a single put.
+  public static final int MAX_ENTITIES_PER_PUT = 500;
+
+  // Datastore rejects requests over 10MB; leave room for the RPC overhead.
+  public static final int MAX_BYTES_PER_PUT = 9 * 1024 * 1024;
+
+  private final DatastoreService datastore;
+  private final List<Entity> pendingEntities;
+
+  // Number of put RPCs made by commit(), kept for logging and testing.
+  private int numPutCalls;
+
+  /**
+   * Creates a new, empty EntityWriteBatch.
+   *
+   * @param datastore The datastore the entities are committed to. Must be non-null.
+   */
+  public EntityWriteBatch(DatastoreService datastore) {
+    if (datastore == null) {
+      throw new IllegalArgumentException("datastore cannot be null");
+    }
+
+    this.datastore = datastore;
+    this.pendingEntities = new ArrayList<>();
+    this.numPutCalls = 0;
+  }
+
+  /**
+   * Returns a copy of the entity with a complete, datastore-allocated key of
+   * the same kind and parent. The copy is added to the batch.
+   * Children of the returned entity can be built before anything is committed,
+   * since their parent key is already complete.
+   *
+   * @param entity An Entity with an incomplete key. Must be non-null.
+   */
+  public Entity addWithAllocatedKey(Entity entity) {
+    Key allocatedKey = allocateKeys(entity.getKind(), entity.getParent(), 1).get(0);
+    Entity keyedEntity = new Entity(allocatedKey);
+    keyedEntity.setPropertiesFrom(entity);
+    add(keyedEntity);
+    return keyedEntity;
+  }
+
+  /**
+   * Allocates complete keys of the given kind under the given parent key
+   * (null for root entities) in a single RPC.
+   *
+   * @param kind The kind of the keys to allocate.
+   * @param parentKey The parent key of the allocated keys, or null.
+   * @param count The number of keys to allocate. Must be positive.
+   */
+  public List<Key> allocateKeys(String kind, Key parentKey, int count) {
+    List<Key> keys = new ArrayList<>();
+    for (Key key : this.datastore.allocateIds(parentKey, kind, count)) {
+      keys.add(key);
+    }
+    return keys;
+  }
+
+  /**
+   * Adds a single entity to the batch.
+   */
+  public void add(Entity entity) {
+    if (entity == null) {
+      throw new IllegalArgumentException("entity cannot be null");
+    }
+    this.pendingEntities.add(entity);
+  }
+
+  /**
+   * Adds every entity to the batch, in order.
+   */
+  public void addAll(Iterable<Entity> entities) {
+    for (Entity entity : entities) {
+      add(entity);
+    }
+  }
+
+  /**
+   * Returns the number of entities waiting to be committed.
+   */
+  public int size() {
+    return this.pendingEntities.size();
+  }
+
+  /**
+   * Returns the number of put RPCs made by commit() so far.
+   */
+  public int getNumPutCalls() {
+    return this.numPutCalls;
+  }
+
+  /**
+   * Puts all pending entities in datastore, using as few put calls as the
+   * entity count and request size limits allow, then empties the batch.
+   * Returns the keys of the committed entities, in the order they were added.
+   */
+  public List<Key> commit() {
+    List<Key> committedKeys = new ArrayList<>();
+    List<Entity> chunk = new ArrayList<>();
+    int chunkBytes = 0;
+
+    for (Entity entity : this.pendingEntities) {
+      int entityBytes = EntityTranslator.convertToPb(entity).getSerializedSize();
+
+      // Start a new put if this entity would push the chunk over a limit.
+      if (!chunk.isEmpty() && (chunk.size() == MAX_ENTITIES_PER_PUT
+          || chunkBytes + entityBytes > MAX_BYTES_PER_PUT)) {
+        committedKeys.addAll(putChunk(chunk));
+        chunk = new ArrayList<>();
+        chunkBytes = 0;
+      }
+      chunk.add(entity);
+      chunkBytes += entityBytes;
+    }
+
+    if (!chunk.isEmpty()) {
+      committedKeys.addAll(putChunk(chunk));
+    }
+
+    this.pendingEntities.clear();
+    return committedKeys;
+  }
+
+  /**
+   * Puts one chunk of entities in datastore with a single RPC.
+   */
+  private List<Key> putChunk(List<Entity> chunk) {
+    this.numPutCalls++;
+    return this.datastore.put(chunk);
+  }
+}
@@ -0,0 +1,336 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.google.sps.data.Event;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.reflect.Type;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * JsonSerializer holds the one Gson instance shared by every servlet. Gson
+ * is thread-safe, so it is built once, with hand-written TypeAdapters for
+ * Trip, TripDay and Event; those types are written field by field instead of
+ * through reflection. Responses are streamed into the response writer rather
+ * than built as a String first.
+ *
+ * Trips and TripDays are written in the same form as Gson's reflective
+ * output (dates as {"year", "month", "day"} objects), which the trips page
+ * reads. Events are written without the nested "startTime" and "endTime"
+ * trees, which only repeated "strStartTime" and "strEndTime" and were not
+ * read by the calendar.
+ */
+public final class JsonSerializer {
+
+  public static final Gson GSON = new GsonBuilder()
+    .registerTypeAdapter(Trip.class, new TripAdapter().nullSafe())
+    .registerTypeAdapter(TripDay.class, new TripDayAdapter().nullSafe())
+    .registerTypeAdapter(Event.class, new EventAdapter().nullSafe())
+    .create();
+
+  private JsonSerializer() {}
+
+  /**
+   * Writes the value as JSON to the response, followed by a line break.
+   *
+   * @param response The response to write to.
+   * @param value The value to write; may be null.
+   */
+  public static void write(HttpServletResponse response, Object value) throws IOException {
+    write(response, value, value == null ? Object.class : value.getClass());
+  }
+
+  /**
+   * Writes the value of the given (e.g. generic) type as JSON to the
+   * response, followed by a line break.
+   */
+  public static void write(HttpServletResponse response, Object value, Type type)
+      throws IOException {
+    PrintWriter writer = response.getWriter();
+    JsonWriter jsonWriter = GSON.newJsonWriter(writer);
+    GSON.toJson(value, type, jsonWriter);
+    jsonWriter.flush();
+    writer.println();
+  }
+
+  /**
+   * Writes a LocalDate in the form of Gson's reflective output.
+   */
+  private static void writeDate(JsonWriter out, LocalDate date) throws IOException {
+    out.beginObject();
+    out.name("year").value(date.getYear());
+    out.name("month").value(date.getMonthValue());
+    out.name("day").value(date.getDayOfMonth());
+    out.endObject();
+  }
+
+  /**
+   * Reads a LocalDate written by writeDate.
+   */
+  private static LocalDate readDate(JsonReader in) throws IOException {
+    int year = 0;
+    int month = 1;
+    int day = 1;
+    in.beginObject();
+    while (in.hasNext()) {
+      switch (in.nextName()) {
+        case "year":
+          year = in.nextInt();
+          break;
+        case "month":
+          month = in.nextInt();
+          break;
+        case "day":
+          day = in.nextInt();
+          break;
+        default:
+          in.skipValue();
+      }
+    }
+    in.endObject();
+    return LocalDate.of(year, month, day);
+  }
+
+  /**
+   * Reads a LocalDateTime in the form of Gson's reflective output, as written
+   * into older stored trip views.
+   */
+  private static LocalDateTime readDateTime(JsonReader in) throws IOException {
+    LocalDate date = null;
+    int hour = 0;
+    int minute = 0;
+    int second = 0;
+    in.beginObject();
+    while (in.hasNext()) {
+      String name = in.nextName();
+      if (name.equals("date")) {
+        date = readDate(in);
+      } else if (name.equals("time")) {
+        in.beginObject();
+        while (in.hasNext()) {
+          switch (in.nextName()) {
+            case "hour":
+              hour = in.nextInt();
+              break;
+            case "minute":
+              minute = in.nextInt();
+              break;
+            case "second":
+              second = in.nextInt();
+              break;
+            default:
+              in.skipValue();
+          }
+        }
+        in.endObject();
+      } else {
+        in.skipValue();
+      }
+    }
+    in.endObject();
+    return LocalDateTime.of(date, LocalTime.of(hour, minute, second));
+  }
+
+  /**
+   * Writes the value of a string field, skipping null values like Gson does.
+   */
+  private static void writeString(JsonWriter out, String name, String value)
+      throws IOException {
+    if (value != null) {
+      out.name(name).value(value);
+    }
+  }
+
+  private static final class TripAdapter extends TypeAdapter<Trip> {
+    @Override
+    public void write(JsonWriter out, Trip trip) throws IOException {
+      out.beginObject();
+      writeString(out, "tripName", trip.getTripName());
+      writeString(out, "destinationName", trip.getDestinationName());
+      writeString(out, "tripKey", trip.getTripKey());
+      writeString(out, "imageSrc", trip.getImageSrc());
+      out.name("startDate");
+      writeDate(out, trip.getStartDate());
+      out.name("endDate");
+      writeDate(out, trip.getEndDate());
+      out.name("numDays").value(trip.getNumDays());
+      out.endObject();
+    }
+
+    @Override
+    public Trip read(JsonReader in) throws IOException {
+      String tripName = null;
+      String destinationName = null;
+      String tripKey = null;
+      String imageSrc = null;
+      LocalDate startDate = null;
+      LocalDate endDate = null;
+      in.beginObject();
+      while (in.hasNext()) {
+        switch (in.nextName()) {
+          case "tripName":
+            tripName = in.nextString();
+            break;
+          case "destinationName":
+            destinationName = in.nextString();
+            break;
+          case "tripKey":
+            tripKey = in.nextString();
+            break;
+          case "imageSrc":
+            imageSrc = in.nextString();
+            break;
+          case "startDate":
+            startDate = readDate(in);
+            break;
+          case "endDate":
+            endDate = readDate(in);
+            break;
+          default:
+            in.skipValue();
+        }
+      }
+      in.endObject();
+      return new Trip(tripName, destinationName, tripKey, imageSrc,
+        String.valueOf(startDate), String.valueOf(endDate));
+    }
+  }
+
+  private static final class TripDayAdapter extends TypeAdapter<TripDay> {
+    @Override
+    public void write(JsonWriter out, TripDay tripDay) throws IOException {
+      out.beginObject();
+      writeString(out, "origin", tripDay.getOrigin());
+      writeString(out, "destination", tripDay.getDestination());
+      out.name("locations").beginArray();
+      for (String location : tripDay.getLocations()) {
+        out.value(location);
+      }
+      out.endArray();
+      if (tripDay.getDate() != null) {
+        out.name("date");
+        writeDate(out, tripDay.getDate());
+      }
+      out.endObject();
+    }
+
+    @Override
+    public TripDay read(JsonReader in) throws IOException {
+      String origin = null;
+      String destination = null;
+      List<String> locations = new ArrayList<>();
+      LocalDate date = null;
+      in.beginObject();
+      while (in.hasNext()) {
+        switch (in.nextName()) {
+          case "origin":
+            origin = in.nextString();
+            break;
+          case "destination":
+            destination = in.nextString();
+            break;
+          case "locations":
+            in.beginArray();
+            while (in.hasNext()) {
+              locations.add(in.nextString());
+            }
+            in.endArray();
+            break;
+          case "date":
+            date = readDate(in);
+            break;
+          default:
+            in.skipValue();
+        }
+      }
+      in.endObject();
+      return new TripDay(origin, destination, locations, date);
+    }
+  }
+
+  private static final class EventAdapter extends TypeAdapter<Event> {
+    @Override
+    public void write(JsonWriter out, Event event) throws IOException {
+      out.beginObject();
+      writeString(out, "name", event.getName());
+      writeString(out, "address", event.getAddress());
+      writeString(out, "placeId", event.getPlaceId());
+      out.name("strStartTime").value(event.getStrStartTime());
+      out.name("strEndTime").value(event.getStrEndTime());
+      out.name("travelTime").value(event.getTravelTime());
+      out.endObject();
+    }
+
+    /**
+     * Reads an event in the written form, or in Gson's reflective form (with
+     * "startTime" and "endTime" trees) of older stored trip views.
+     */
+    @Override
+    public Event read(JsonReader in) throws IOException {
+      String name = null;
+      String address = null;
+      String placeId = null;
+      LocalDateTime startTime = null;
+      LocalDateTime endTime = null;
+      int travelTime = 0;
+      in.beginObject();
+      while (in.hasNext()) {
+        switch (in.nextName()) {
+          case "name":
+            name = in.nextString();
+            break;
+          case "address":
+            address = in.nextString();
+            break;
+          case "placeId":
+            placeId = in.nextString();
+            break;
+          case "strStartTime":
+            startTime = LocalDateTime.parse(in.nextString());
+            break;
+          case "strEndTime":
+            endTime = LocalDateTime.parse(in.nextString());
+            break;
+          case "startTime":
+            startTime = readDateTime(in);
+            break;
+          case "endTime":
+            endTime = readDateTime(in);
+            break;
+          case "travelTime":
+            travelTime = in.nextInt();
+            break;
+          default:
+            in.skipValue();
+        }
+      }
+      in.endObject();
+      return new Event(name, address, placeId, startTime, travelTime,
+        (int) ChronoUnit.MINUTES.between(startTime, endTime));
+    }
+  }
+}
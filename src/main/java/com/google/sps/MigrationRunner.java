@@ -0,0 +1,359 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.appengine.api.ThreadManager;
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.QueryResultList;
+import com.google.appengine.api.datastore.Text;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.common.util.concurrent.RateLimiter;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * MigrationRunner upgrades live entities to the latest schema version of
+ * their kind (see SchemaVersion) while the app keeps serving. Each kind is
+ * walked in batches read with a cursor; the entities of a batch below the
+ * target version are upgraded by a bounded number of parallel workers,
+ * which apply the registered transforms and write each entity group with
+ * one batched put, on request threads. Writes are rate-limited so that the
+ * migration leaves datastore capacity to user requests. The limit holds
+ * for one runner only: the overall rate relies on runners not overlapping,
+ * which MigrationServlet's queue ensures by running one task at a time.
+ *
+ * After every batch, the position is checkpointed in a "migration" entity,
+ * so a runner on a new instance resumes where the last one stopped. A batch
+ * that fails is not checkpointed and runs again; transforms are only
+ * applied to entities still below the target version, so this is safe.
+ */
+public class MigrationRunner {
+
+  /**
+   * A change to the entities of one kind from one schema version to the
+   * next. Transforms only set and remove properties of the entity they are
+   * given; the runner stamps the new version and writes it.
+   */
+  public interface Transform {
+    void apply(Entity entity);
+  }
+
+  public static final String MIGRATION = "migration";
+
+  // Checkpoint properties: the kind being migrated, as an index into the
+  // registered kinds, the cursor after the last migrated batch, whether all
+  // kinds are done, and the versions the checkpoint migrates to.
+  public static final String KIND_INDEX = "kind-index";
+  public static final String CURSOR = "cursor";
+  public static final String DONE = "done";
+  public static final String TARGET_VERSIONS = "target-versions";
+
+  // Entities read per batch. Every batch stays well inside a request deadline.
+  public static final int DEFAULT_BATCH_SIZE = 200;
+  public static final int DEFAULT_WORKER_COUNT = 4;
+  public static final double DEFAULT_ENTITIES_PER_SECOND = 50;
+
+  // Attempts at an entity group's transaction before the batch fails.
+  private static final int MAX_TRANSACTION_ATTEMPTS = 3;
+
+  private final DatastoreService datastore;
+  private final String name;
+  private final int workerCount;
+  private final RateLimiter rateLimiter;
+
+  // Transforms by kind, indexed by the version they upgrade from. Kinds are
+  // migrated in the order they were first registered.
+  private final Map<String, List<Transform>> transforms = new LinkedHashMap<>();
+
+  /**
+   * Creates a runner without transforms; see register.
+   *
+   * @param datastore The datastore to migrate. Must be non-null.
+   * @param name The name of the checkpoint entity. Must be non-null.
+   * @param workerCount The number of entity groups written at once. Must be positive.
+   * @param entitiesPerSecond The most entities this runner writes per second.
+   * Must be positive.
+   */
+  public MigrationRunner(DatastoreService datastore, String name, int workerCount,
+      double entitiesPerSecond) {
+    if (datastore == null || name == null) {
+      throw new IllegalArgumentException("datastore and name cannot be null");
+    }
+
+    if (workerCount <= 0 || entitiesPerSecond <= 0) {
+      throw new IllegalArgumentException("workerCount and entitiesPerSecond must be positive");
+    }
+
+    this.datastore = datastore;
+    this.name = name;
+    this.workerCount = workerCount;
+    this.rateLimiter = RateLimiter.create(entitiesPerSecond);
+  }
+
+  /**
+   * Registers the transform of the kind from fromVersion to fromVersion + 1.
+   * The transforms of a kind are registered in version order, starting
+   * from 0, the version of entities written before schema versions; the
+   * runner upgrades the kind to the version after its last transform.
+   * Returns this runner.
+   */
+  public MigrationRunner register(String kind, long fromVersion, Transform transform) {
+    if (transform == null) {
+      throw new IllegalArgumentException("transform cannot be null");
+    }
+
+    if (fromVersion != getTargetVersion(kind)) {
+      throw new IllegalArgumentException("The next transform of " + kind
+        + " must be from version " + getTargetVersion(kind));
+    }
+    this.transforms.computeIfAbsent(kind, k -> new ArrayList<>()).add(transform);
+    return this;
+  }
+
+  /**
+   * Returns the version the runner upgrades entities of the kind to, or 0 if
+   * the kind has no transforms.
+   */
+  public long getTargetVersion(String kind) {
+    List<Transform> kindTransforms = this.transforms.get(kind);
+    return kindTransforms == null ? 0 : kindTransforms.size();
+  }
+
+  /**
+   * Returns the key of the checkpoint entity.
+   */
+  public Key getCheckpointKey() {
+    return KeyFactory.createKey(MIGRATION, this.name);
+  }
+
+  /**
+   * Returns true if every entity of the registered kinds has been upgraded
+   * to its target version. Reads the checkpoint by key.
+   */
+  public boolean isDone() {
+    Entity checkpoint = getCheckpoint();
+    return Boolean.TRUE.equals(checkpoint.getProperty(DONE));
+  }
+
+  /**
+   * Runs batches until the migration is done or maxBatches have run. Returns
+   * true if the migration is done.
+   */
+  public boolean run(int maxBatches, int batchSize) {
+    for (int i = 0; i < maxBatches; i++) {
+      if (runBatch(batchSize)) {
+        return true;
+      }
+    }
+    return isDone();
+  }
+
+  /**
+   * Upgrades the next batch of at most batchSize entities, and checkpoints
+   * the position after it. Returns true if the migration is done.
+   */
+  public boolean runBatch(int batchSize) {
+    if (batchSize < 1 || batchSize > EntityWriteBatch.MAX_ENTITIES_PER_PUT) {
+      throw new IllegalArgumentException("batchSize must be an integer between 1 and "
+        + EntityWriteBatch.MAX_ENTITIES_PER_PUT + ", inclusive.");
+    }
+
+    Entity checkpoint = getCheckpoint();
+    if (Boolean.TRUE.equals(checkpoint.getProperty(DONE))) {
+      return true;
+    }
+
+    List<String> kinds = new ArrayList<>(this.transforms.keySet());
+    Long storedKindIndex = (Long) checkpoint.getProperty(KIND_INDEX);
+    int kindIndex = storedKindIndex == null ? 0 : storedKindIndex.intValue();
+    Text cursor = (Text) checkpoint.getProperty(CURSOR);
+    FetchOptions fetchOptions = FetchOptions.Builder.withLimit(batchSize);
+    if (cursor != null) {
+      fetchOptions.startCursor(Cursor.fromWebSafeString(cursor.getValue()));
+    }
+
+    QueryResultList<Entity> entities = kindIndex < kinds.size()
+      ? this.datastore.prepare(new Query(kinds.get(kindIndex))).asQueryResultList(fetchOptions)
+      : null;
+    if (entities != null) {
+      upgradeAll(entities);
+    }
+
+    if (entities != null && entities.size() == batchSize) {
+      checkpoint.setUnindexedProperty(CURSOR,
+        new Text(entities.getCursor().toWebSafeString()));
+    } else if (kindIndex + 1 < kinds.size()) {
+      checkpoint.setUnindexedProperty(KIND_INDEX, (long) kindIndex + 1);
+      checkpoint.removeProperty(CURSOR);
+    } else {
+      checkpoint.setUnindexedProperty(DONE, true);
+      checkpoint.removeProperty(CURSOR);
+    }
+    this.datastore.put(checkpoint);
+    return Boolean.TRUE.equals(checkpoint.getProperty(DONE));
+  }
+
+  /**
+   * Returns true if the entity is below the target version of its kind.
+   */
+  public boolean needsUpgrade(Entity entity) {
+    return SchemaVersion.of(entity) < getTargetVersion(entity.getKind());
+  }
+
+  /**
+   * Applies the transforms from the entity's version to the target version
+   * of its kind, in order, and sets the entity's version to the target.
+   * Entities at or above the target are left as they are.
+   */
+  public void upgrade(Entity entity) {
+    long targetVersion = getTargetVersion(entity.getKind());
+    if (SchemaVersion.of(entity) >= targetVersion) {
+      return;
+    }
+
+    List<Transform> kindTransforms = this.transforms.get(entity.getKind());
+    for (long version = SchemaVersion.of(entity); version < targetVersion; version++) {
+      kindTransforms.get((int) version).apply(entity);
+    }
+    SchemaVersion.set(entity, targetVersion);
+  }
+
+  /**
+   * Upgrades the outdated entities of a batch, one entity group per worker
+   * task. Fails if any group fails, so that the batch is not checkpointed.
+   */
+  private void upgradeAll(List<Entity> entities) {
+    Map<Key, List<Key>> keysByGroup = new LinkedHashMap<>();
+    for (Entity entity : entities) {
+      if (needsUpgrade(entity)) {
+        keysByGroup.computeIfAbsent(getRootKey(entity.getKey()), root -> new ArrayList<>())
+          .add(entity.getKey());
+      }
+    }
+    if (keysByGroup.isEmpty()) {
+      return;
+    }
+
+    // Request threads can call the datastore API, and end with the request.
+    ExecutorService executor = Executors.newFixedThreadPool(this.workerCount,
+      ThreadManager.currentRequestThreadFactory());
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (List<Key> keys : keysByGroup.values()) {
+        futures.add(executor.submit(() -> {
+          this.rateLimiter.acquire(keys.size());
+          upgradeGroup(keys);
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while migrating", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Upgrades the entities of one entity group in a transaction that reads
+   * them again, so that a write made since the batch was queried is not
+   * overwritten. Retries when a user request writes the group meanwhile.
+   */
+  private void upgradeGroup(List<Key> keys) {
+    for (int attempt = 1; ; attempt++) {
+      Transaction transaction = this.datastore.beginTransaction();
+      try {
+        List<Entity> upgraded = new ArrayList<>();
+        // Entities deleted since the query are left out of the get.
+        for (Entity entity : this.datastore.get(transaction, keys).values()) {
+          if (needsUpgrade(entity)) {
+            upgrade(entity);
+            upgraded.add(entity);
+          }
+        }
+        this.datastore.put(transaction, upgraded);
+        transaction.commit();
+        return;
+      } catch (ConcurrentModificationException e) {
+        if (attempt == MAX_TRANSACTION_ATTEMPTS) {
+          throw e;
+        }
+      } finally {
+        if (transaction.isActive()) {
+          transaction.rollback();
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the checkpoint, or a new one if there is none or it migrates to
+   * other versions than this runner.
+   */
+  private Entity getCheckpoint() {
+    String targetVersions = getTargetVersions();
+    try {
+      Entity checkpoint = this.datastore.get(getCheckpointKey());
+      if (targetVersions.equals(checkpoint.getProperty(TARGET_VERSIONS))) {
+        return checkpoint;
+      }
+    } catch (EntityNotFoundException e) {
+      // Not started yet.
+    }
+    Entity checkpoint = new Entity(getCheckpointKey());
+    checkpoint.setUnindexedProperty(TARGET_VERSIONS, targetVersions);
+    return checkpoint;
+  }
+
+  /**
+   * Returns the registered kinds and their target versions, e.g.
+   * "trip=1,event=1".
+   */
+  private String getTargetVersions() {
+    List<String> targetVersions = new ArrayList<>();
+    for (String kind : this.transforms.keySet()) {
+      targetVersions.add(kind + "=" + getTargetVersion(kind));
+    }
+    return String.join(",", targetVersions);
+  }
+
+  private static Key getRootKey(Key key) {
+    while (key.getParent() != null) {
+      key = key.getParent();
+    }
+    return key;
+  }
+}
@@ -0,0 +1,172 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * PlanningContext holds everything one trip calculation needs to know about
+ * its request: the user's form inputs, and the destination name and photo
+ * resolved from them. It is immutable, so servlets can pass it between
+ * methods (and threads) instead of keeping per-request instance fields.
+ */
+public final class PlanningContext {
+
+  private final String tripName;
+  private final String tripDestination;
+  private final String tripDayOfTravel;
+  private final String tripEndDate;
+  private final List<String> pois;
+  private final String destinationName;
+  private final String photoSrc;
+
+  /**
+   * Creates a new PlanningContext for a one-day trip.
+   * See the full constructor for the parameters.
+   */
+  public PlanningContext(String tripName, String tripDestination, String tripDayOfTravel,
+      List<String> pois, String destinationName, String photoSrc) {
+    this(tripName, tripDestination, tripDayOfTravel, null, pois, destinationName, photoSrc);
+  }
+
+  /**
+   * Creates a new PlanningContext.
+   *
+   * @param tripName The human-readable name for the trip.
+   * @param tripDestination The hotel / destination text the user entered.
+   * Must be non-null.
+   * @param tripDayOfTravel The date of the trip, in yyyy-MM-dd date format.
+   * @param tripEndDate The last day of the trip, in yyyy-MM-dd date format,
+   * or null for a one-day trip. The trip can last at most Trip.MAX_NUM_DAYS.
+   * @param pois The POI strings the user entered, in input order. Must be
+   * non-null; use an empty list if there are none.
+   * @param destinationName The name of the destination, as verified by the
+   * Google Maps API.
+   * @param photoSrc The image source / URL to represent the trip.
+   */
+  public PlanningContext(String tripName, String tripDestination, String tripDayOfTravel,
+      String tripEndDate, List<String> pois, String destinationName, String photoSrc) {
+    if (tripDestination == null) {
+      throw new IllegalArgumentException("tripDestination cannot be null");
+    }
+
+    if (pois == null) {
+      throw new IllegalArgumentException("pois cannot be null. Use empty list instead.");
+    }
+
+    this.tripName = tripName;
+    this.tripDestination = tripDestination;
+    this.tripDayOfTravel = tripDayOfTravel;
+    this.tripEndDate = tripEndDate == null ? tripDayOfTravel : tripEndDate;
+    if (tripEndDate != null) {
+      long numDays = getNumDays();
+      if (numDays <= 0 || numDays > Trip.MAX_NUM_DAYS) {
+        throw new IllegalArgumentException(
+          "tripEndDate must be 0 to " + (Trip.MAX_NUM_DAYS - 1) + " days after tripDayOfTravel");
+      }
+    }
+    this.pois = Collections.unmodifiableList(new ArrayList<>(pois));
+    this.destinationName = destinationName;
+    this.photoSrc = photoSrc;
+  }
+
+  /**
+   * Checks the form inputs of a trip request, so that bad input is rejected
+   * before any Maps API call is made for it. See the full constructor for
+   * the parameters.
+   *
+   * @param poiStrings The POI strings the user entered, or null if there are
+   * none. None of them may be empty.
+   * @throws IllegalArgumentException if an input is missing or invalid.
+   */
+  public static void validateInputs(String tripName, String tripDestination,
+      String tripDayOfTravel, String tripEndDate, String[] poiStrings) {
+    if (tripName == null || tripName.trim().isEmpty()) {
+      throw new IllegalArgumentException("tripName cannot be empty");
+    }
+
+    if (tripDestination == null || tripDestination.trim().isEmpty()) {
+      throw new IllegalArgumentException("tripDestination cannot be empty");
+    }
+
+    if (tripDayOfTravel == null) {
+      throw new IllegalArgumentException("tripDayOfTravel cannot be null");
+    }
+
+    if (poiStrings != null) {
+      for (String poi : poiStrings) {
+        if (poi == null || poi.trim().isEmpty()) {
+          throw new IllegalArgumentException("POIs cannot be empty");
+        }
+      }
+    }
+
+    // The constructor checks the dates.
+    new PlanningContext(tripName, tripDestination, tripDayOfTravel, 
+      tripEndDate == null ? tripDayOfTravel : tripEndDate, new ArrayList<>(), null, null);
+  }
+
+  public String getTripName() {
+    return this.tripName;
+  }
+
+  public String getTripDestination() {
+    return this.tripDestination;
+  }
+
+  public String getTripDayOfTravel() {
+    return this.tripDayOfTravel;
+  }
+
+  /**
+   * Returns the last day of the trip; the day of travel for one-day trips.
+   */
+  public String getTripEndDate() {
+    return this.tripEndDate;
+  }
+
+  /**
+   * Returns the number of days of the trip, from the day of travel to the
+   * end date inclusive.
+   */
+  public int getNumDays() {
+    try {
+      return (int) ChronoUnit.DAYS.between(LocalDate.parse(this.tripDayOfTravel),
+        LocalDate.parse(this.tripEndDate)) + 1;
+    } catch (DateTimeParseException e) {
+      throw new IllegalArgumentException("Invalid date format. Must be in yyyy-MM-dd date format.");
+    }
+  }
+
+  /**
+   * Returns the POI strings in input order, as an unmodifiable list.
+   */
+  public List<String> getPois() {
+    return this.pois;
+  }
+
+  public String getDestinationName() {
+    return this.destinationName;
+  }
+
+  public String getPhotoSrc() {
+    return this.photoSrc;
+  }
+}
@@ -0,0 +1,120 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.appengine.api.datastore.RawValue;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.Date;
+
+/**
+ * PropertyCodec converts the date, time and number properties of the Trip,
+ * TripDay and Event Entities. They are written as native Date and long
+ * properties, which datastore can filter and sort on. Entities written
+ * before that hold ISO-8601 and decimal strings; both forms are read until
+ * TypedPropertyMigration has rewritten them.
+ *
+ * Trip dates and event times are local to the trip, with no time zone; they
+ * are stored as Dates at the same wall-clock time in UTC.
+ */
+public final class PropertyCodec {
+
+  private PropertyCodec() {}
+
+  /**
+   * Returns the Date property value of a local date.
+   */
+  public static Date fromLocalDate(LocalDate date) {
+    return fromLocalDateTime(date.atStartOfDay());
+  }
+
+  /**
+   * Returns the Date property value of a yyyy-MM-dd date.
+   *
+   * @throws IllegalArgumentException if the date is not in yyyy-MM-dd format.
+   */
+  public static Date fromDateString(String date) {
+    try {
+      return fromLocalDate(LocalDate.parse(date));
+    } catch (DateTimeParseException e) {
+      throw new IllegalArgumentException("Invalid date format. Must be in yyyy-MM-dd date format.");
+    }
+  }
+
+  /**
+   * Returns the Date property value of a local date-time.
+   */
+  public static Date fromLocalDateTime(LocalDateTime dateTime) {
+    return Date.from(dateTime.toInstant(ZoneOffset.UTC));
+  }
+
+  /**
+   * Returns the local date of a property value: a Date, a yyyy-MM-dd string,
+   * or either one as the RawValue of a projection query.
+   */
+  public static LocalDate toLocalDate(Object value) {
+    value = unwrap(value);
+    if (value instanceof String) {
+      return LocalDate.parse((String) value);
+    }
+    return toLocalDateTime(value).toLocalDate();
+  }
+
+  /**
+   * Returns the local date-time of a property value: a Date, an ISO-8601
+   * local date-time string, or either one as a RawValue.
+   */
+  public static LocalDateTime toLocalDateTime(Object value) {
+    value = unwrap(value);
+    if (value instanceof String) {
+      return LocalDateTime.parse((String) value);
+    }
+    return LocalDateTime.ofInstant(((Date) value).toInstant(), ZoneOffset.UTC);
+  }
+
+  /**
+   * Returns the number of a property value: a Long, or a decimal string.
+   */
+  public static long toLong(Object value) {
+    if (value instanceof String) {
+      return Long.parseLong((String) value);
+    }
+    return ((Number) value).longValue();
+  }
+
+  /**
+   * Returns true if the property value is in the string form written before
+   * native properties.
+   */
+  public static boolean isLegacy(Object value) {
+    return unwrap(value) instanceof String;
+  }
+
+  /**
+   * Returns the typed value of a RawValue read by a projection query; other
+   * values are returned as they are.
+   */
+  private static Object unwrap(Object value) {
+    if (!(value instanceof RawValue)) {
+      return value;
+    }
+    RawValue rawValue = (RawValue) value;
+    // Strings are indexed as bytes, and Dates as microseconds.
+    return rawValue.getValue() instanceof byte[]
+      ? rawValue.asStrictType(String.class) : rawValue.asType(Date.class);
+  }
+}
@@ -0,0 +1,103 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.sps.data.Event;
+
+/**
+ * SchemaVersion numbers the layouts of the Trip, TripDay and Event Entities.
+ * Every entity is written with the current version of its kind; entities
+ * written before schema versions have no version property and are version 0.
+ *
+ * To change the layout of a kind, bump its version here and register the
+ * transform from the previous version in newMigrationRunner; the runner then
+ * upgrades the entities already stored (see MigrationServlet).
+ */
+public final class SchemaVersion {
+
+  public static final String PROPERTY = "schema_version";
+
+  // Version 1: native dates, times and travel times (see PropertyCodec).
+  public static final long TRIP = 1;
+  public static final long TRIP_DAY = 1;
+  public static final long EVENT = 1;
+
+  // Name of the checkpoint of the migration to the current versions.
+  public static final String MIGRATION_NAME = "schema-versions";
+
+  private SchemaVersion() {}
+
+  /**
+   * Returns the version entities of the kind are written with.
+   */
+  public static long current(String kind) {
+    switch (kind) {
+      case Trip.TRIP:
+        return TRIP;
+      case TripDay.QUERY_STRING:
+        return TRIP_DAY;
+      case Event.QUERY_STRING:
+        return EVENT;
+      default:
+        throw new IllegalArgumentException("Unknown kind: " + kind);
+    }
+  }
+
+  /**
+   * Returns the version of the entity, or 0 if it has none.
+   */
+  public static long of(Entity entity) {
+    Long version = (Long) entity.getProperty(PROPERTY);
+    return version == null ? 0 : version;
+  }
+
+  /**
+   * Sets the version of the entity to the current version of its kind.
+   */
+  public static void stamp(Entity entity) {
+    set(entity, current(entity.getKind()));
+  }
+
+  /**
+   * Sets the version of the entity.
+   */
+  public static void set(Entity entity, long version) {
+    entity.setUnindexedProperty(PROPERTY, version);
+  }
+
+  /**
+   * Returns a runner that upgrades the stored entities to the current
+   * versions.
+   */
+  public static MigrationRunner newMigrationRunner(DatastoreService datastore) {
+    MigrationRunner runner = new MigrationRunner(datastore, MIGRATION_NAME,
+      MigrationRunner.DEFAULT_WORKER_COUNT, MigrationRunner.DEFAULT_ENTITIES_PER_SECOND);
+    for (String kind : TypedPropertyMigration.KINDS) {
+      runner.register(kind, 0, TypedPropertyMigration::convert);
+    }
+    return runner;
+  }
+
+  /**
+   * Returns true if every stored entity is at the current version of its
+   * kind, so that readers no longer need to accept older layouts. Reads the
+   * migration checkpoint by key.
+   */
+  public static boolean isMigrated(DatastoreService datastore) {
+    return newMigrationRunner(datastore).isDone();
+  }
+}
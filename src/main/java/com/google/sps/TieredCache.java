@@ -0,0 +1,273 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * TieredCache is a two-tier cache of results from billed Google Maps
+ * requests: a bounded in-memory LRU in front of a datastore kind, so that a
+ * result fetched by one instance is reused by every instance until it
+ * expires. Entries older than their TTL are treated as misses in both tiers.
+ *
+ * Subclasses choose the datastore key of each cache key, and how values are
+ * written to and read from an entity. The cache is thread-safe.
+ *
+ * @param <K> The cache key. Must implement equals and hashCode.
+ * @param <V> The cached value. Must be non-null.
+ */
+public abstract class TieredCache<K, V> {
+
+  // Entity property holding the time the value was fetched, in epoch millis.
+  public static final String FETCHED_AT = "fetched-at";
+
+  // Datastore accepts at most 1000 keys in a single get.
+  private static final int MAX_KEYS_PER_GET = 1000;
+
+  private final DatastoreService datastore;
+  private final long ttlMillis;
+  private final Clock clock;
+  private final Cache<K, CachedValue<V>> memoryCache;
+
+  private final AtomicLong memoryHits = new AtomicLong();
+  private final AtomicLong datastoreHits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * Creates a cache.
+   *
+   * @param datastore The datastore backing the cache. Must be non-null.
+   * @param ttlMillis How long a cached value stays valid. Must be positive.
+   * Subclasses can shorten it per value with getTtlMillis(...).
+   * @param maxMemoryEntries The most entries kept in memory. Must be positive.
+   * @param clock The clock used to timestamp and expire entries. Must be non-null.
+   */
+  protected TieredCache(DatastoreService datastore, long ttlMillis, int maxMemoryEntries,
+      Clock clock) {
+    if (datastore == null) {
+      throw new IllegalArgumentException("datastore cannot be null");
+    }
+
+    if (ttlMillis <= 0) {
+      throw new IllegalArgumentException("ttlMillis must be positive");
+    }
+
+    if (maxMemoryEntries <= 0) {
+      throw new IllegalArgumentException("maxMemoryEntries must be positive");
+    }
+
+    if (clock == null) {
+      throw new IllegalArgumentException("clock cannot be null");
+    }
+
+    this.datastore = datastore;
+    this.ttlMillis = ttlMillis;
+    this.clock = clock;
+    this.memoryCache = CacheBuilder.newBuilder()
+      .maximumSize(maxMemoryEntries)
+      .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+      .ticker(new Ticker() {
+        @Override
+        public long read() {
+          return TimeUnit.MILLISECONDS.toNanos(clock.millis());
+        }
+      })
+      .build();
+  }
+
+  /**
+   * Returns the datastore key of the entity that caches the key.
+   */
+  protected abstract Key toDatastoreKey(K key);
+
+  /**
+   * Sets the properties that describe the key and value on the entity.
+   * Cached values are never queried, so properties should be unindexed.
+   */
+  protected abstract void writeEntity(Entity entity, K key, V value);
+
+  /**
+   * Returns the value stored in the entity, or null if the entity does not
+   * hold a valid value (which is treated as a miss).
+   */
+  protected abstract V readEntity(Entity entity);
+
+  /**
+   * Returns how long the value stays valid. Defaults to the cache TTL; can
+   * only be shortened.
+   */
+  protected long getTtlMillis(V value) {
+    return this.ttlMillis;
+  }
+
+  /**
+   * Returns the cached value of the key, or null if it is not cached or has
+   * expired.
+   */
+  public V get(K key) {
+    List<K> keys = new ArrayList<>();
+    keys.add(key);
+    return getAll(keys).get(key);
+  }
+
+  /**
+   * Returns the cached values of the given keys. Keys that are not cached or
+   * have expired are left out of the map. Keys missing from memory are read
+   * from datastore with as few batch gets as possible.
+   */
+  public Map<K, V> getAll(Collection<K> keys) {
+    Map<K, V> values = new HashMap<>();
+    long now = this.clock.millis();
+
+    List<Key> datastoreKeys = new ArrayList<>();
+    Map<Key, K> keysByDatastoreKey = new HashMap<>();
+    for (K key : new LinkedHashSet<>(keys)) {
+      CachedValue<V> cached = this.memoryCache.getIfPresent(key);
+      if (cached != null && !isExpired(cached, now)) {
+        this.memoryHits.incrementAndGet();
+        values.put(key, cached.value);
+      } else {
+        Key datastoreKey = toDatastoreKey(key);
+        datastoreKeys.add(datastoreKey);
+        keysByDatastoreKey.put(datastoreKey, key);
+      }
+    }
+
+    if (datastoreKeys.isEmpty()) {
+      return values;
+    }
+
+    Map<Key, Entity> entities = new HashMap<>();
+    for (int start = 0; start < datastoreKeys.size(); start += MAX_KEYS_PER_GET) {
+      entities.putAll(this.datastore.get(datastoreKeys.subList(start,
+        Math.min(datastoreKeys.size(), start + MAX_KEYS_PER_GET))));
+    }
+
+    for (Key datastoreKey : datastoreKeys) {
+      K key = keysByDatastoreKey.get(datastoreKey);
+      CachedValue<V> cached = fromEntity(entities.get(datastoreKey));
+      if (cached == null || isExpired(cached, now)) {
+        this.misses.incrementAndGet();
+        continue;
+      }
+      this.datastoreHits.incrementAndGet();
+      this.memoryCache.put(key, cached);
+      values.put(key, cached.value);
+    }
+    return values;
+  }
+
+  /**
+   * Caches a single value.
+   */
+  public void put(K key, V value) {
+    Map<K, V> values = new HashMap<>();
+    values.put(key, value);
+    putAll(values);
+  }
+
+  /**
+   * Caches several values, writing them to datastore with as few batch puts
+   * as the datastore limits allow.
+   */
+  public void putAll(Map<K, V> values) {
+    if (values.isEmpty()) {
+      return;
+    }
+
+    long now = this.clock.millis();
+    EntityWriteBatch writeBatch = new EntityWriteBatch(this.datastore);
+    for (Map.Entry<K, V> entry : values.entrySet()) {
+      if (entry.getValue() == null) {
+        throw new IllegalArgumentException("cached values cannot be null");
+      }
+      CachedValue<V> cached = new CachedValue<>(entry.getValue(), now);
+      this.memoryCache.put(entry.getKey(), cached);
+
+      Entity entity = new Entity(toDatastoreKey(entry.getKey()));
+      writeEntity(entity, entry.getKey(), entry.getValue());
+      entity.setUnindexedProperty(FETCHED_AT, now);
+      writeBatch.add(entity);
+    }
+    writeBatch.commit();
+  }
+
+  /**
+   * Returns the number of lookups answered from memory.
+   */
+  public long getMemoryHitCount() {
+    return this.memoryHits.get();
+  }
+
+  /**
+   * Returns the number of lookups answered from datastore.
+   */
+  public long getDatastoreHitCount() {
+    return this.datastoreHits.get();
+  }
+
+  /**
+   * Returns the number of lookups answered by neither tier.
+   */
+  public long getMissCount() {
+    return this.misses.get();
+  }
+
+  private boolean isExpired(CachedValue<V> cached, long now) {
+    return now - cached.fetchedAtMillis >= Math.min(this.ttlMillis, getTtlMillis(cached.value));
+  }
+
+  /**
+   * Returns the cached value stored in the entity, or null if the entity is
+   * missing or incomplete.
+   */
+  private CachedValue<V> fromEntity(Entity entity) {
+    if (entity == null || !(entity.getProperty(FETCHED_AT) instanceof Long)) {
+      return null;
+    }
+    V value = readEntity(entity);
+    if (value == null) {
+      return null;
+    }
+    return new CachedValue<>(value, (Long) entity.getProperty(FETCHED_AT));
+  }
+
+  /**
+   * A cached value and the time it was fetched from Google.
+   */
+  private static final class CachedValue<V> {
+    private final V value;
+    private final long fetchedAtMillis;
+
+    private CachedValue(V value, long fetchedAtMillis) {
+      this.value = value;
+      this.fetchedAtMillis = fetchedAtMillis;
+    }
+  }
+}
@@ -14,6 +14,7 @@
 
 package com.google.sps;
 
+import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyFactory;
@@ -30,7 +31,7 @@ import java.util.List;
 public class Trip {
 
   // Trip cannot be longer than a month (31 days)
-  private static final int MAX_NUM_DAYS = 31;
+  public static final int MAX_NUM_DAYS = 31;
 
   // Field attributes for the Trip class.
   private String tripName;
@@ -50,6 +51,9 @@ public class Trip {
   public static final String START_DATE = "start_date";
   public static final String END_DATE = "end_date";
 
+  // Version of the trip's content, incremented on every write (see VersionCounter).
+  public static final String VERSION = "version";
+
   /**
    * Creates a new Trip.
    *
@@ -128,11 +132,21 @@ public class Trip {
     tripEntity.setProperty(TRIP_NAME, tripName);
     tripEntity.setProperty(DESTINATION_NAME, destinationName);
     tripEntity.setProperty(IMAGE_SRC, imageSrc);
-    tripEntity.setProperty(START_DATE, startDate);
-    tripEntity.setProperty(END_DATE, endDate);
+    tripEntity.setProperty(START_DATE, PropertyCodec.fromDateString(startDate));
+    tripEntity.setProperty(END_DATE, PropertyCodec.fromDateString(endDate));
+    tripEntity.setUnindexedProperty(VERSION, 1L);
+    SchemaVersion.stamp(tripEntity);
     return tripEntity;
   }
 
+  /**
+   * Allocates the key of a new Trip Entity under the User Entity, so that
+   * the trip can be referred to before it is stored.
+   */
+  public static Key allocateKey(DatastoreService datastore, Key userEntityParentKey) {
+    return datastore.allocateIds(userEntityParentKey, TRIP, 1).getStart();
+  }
+
   /**
    * Build and return a Trip object from the Entity.
    *
@@ -144,8 +158,8 @@ public class Trip {
     String destinationName = (String) tripEntity.getProperty(DESTINATION_NAME);
     String tripKey = KeyFactory.keyToString(tripEntity.getKey());
     String imageSrc = (String) tripEntity.getProperty(IMAGE_SRC);
-    String startDate = (String) tripEntity.getProperty(START_DATE);
-    String endDate = (String) tripEntity.getProperty(END_DATE);
+    String startDate = PropertyCodec.toLocalDate(tripEntity.getProperty(START_DATE)).toString();
+    String endDate = PropertyCodec.toLocalDate(tripEntity.getProperty(END_DATE)).toString();
     Trip trip = new Trip(tripName, destinationName, tripKey, imageSrc, 
       startDate, endDate);
     return trip;
@@ -14,12 +14,14 @@
 
 package com.google.sps;
 
-import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.Key;
+import com.google.sps.places.PlaceSummary;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 
 /**
  * TripDay objects store the trip/route information for a single day.
@@ -28,17 +30,32 @@ public class TripDay {
   private String origin;
   private String destination;
   private List<String> locations;
+  private List<String> placeIds;
   private LocalDate date;
 
   // Entity params
   public static final String ORIGIN = "origin";
   public static final String DESTINATION = "destination";
   public static final String DATE = "date";
+
+  // Place names of the POIs of the day, in route order, as an unindexed list.
+  // The entries of POIs resolved to a place are null; see PLACE_IDS.
+  public static final String LOCATIONS = "locations";
+
+  // Place IDs of the POIs of the day, in route order, as an unindexed list 
+  // parallel to LOCATIONS, with null entries for unresolved POIs. The 
+  // locations of resolved POIs are the addresses of their places.
+  public static final String PLACE_IDS = "place-ids";
+
+  // Directions requests accept a place ID in this form in place of an 
+  // address; used for places that cannot be read.
+  private static final String PLACE_ID_LOCATION_PREFIX = "place_id:";
   
   // query string
   public static final String QUERY_STRING = "trip-day";
 
-  // constants for entity construction
+  // Location Entities, one per POI under its TripDay, hold the locations of
+  // trip days written before the LOCATIONS property; they are only read.
   public static final String LOCATION_ENTITY_TYPE = "location";
   public static final String NAME = "name";
   public static final String ORDER = "order";
@@ -103,30 +120,89 @@ public class TripDay {
   }
 
   /**
-   * Build location entities to be put in datastore. 
-   * @param locations ArrayList of locations (in optimized order) as strings
-   * @param parentKeyId Key of TripDay entity that these locations are a part of  
+   * Returns the place IDs stored in the TripDay Entity, in route order with
+   * null entries for unresolved POIs, or null if the entity has none.
+   */
+  @SuppressWarnings("unchecked")
+  public static List<String> placeIdsFromEntity(Entity tripDayEntity) {
+    if (!tripDayEntity.hasProperty(PLACE_IDS)) {
+      return null;
+    }
+    // Datastore stores an empty list as null.
+    List<String> placeIds = (List<String>) tripDayEntity.getProperty(PLACE_IDS);
+    return placeIds == null ? new ArrayList<>() : new ArrayList<>(placeIds);
+  }
+
+  /**
+   * Returns the locations of the TripDay Entity in route order, see
+   * locationsFromEntity(Entity, List), with the locations of resolved POIs 
+   * taken from their places.
+   *
+   * @param tripDayEntity The TripDay Entity. Must be non-null.
+   * @param locationEntities The Location Entities under the TripDay, in any
+   * order; only read if the entity has no LOCATIONS property.
+   * @param places The places referred to by the day, by place ID; see 
+   * PlaceStore.getAll.
+   */
+  public static List<String> locationsFromEntity(Entity tripDayEntity,
+      List<Entity> locationEntities, Map<String, PlaceSummary> places) {
+    List<String> locations = locationsFromEntity(tripDayEntity, locationEntities);
+    List<String> placeIds = placeIdsFromEntity(tripDayEntity);
+    if (placeIds == null) {
+      return locations;
+    }
+
+    for (int i = 0; i < placeIds.size() && i < locations.size(); i++) {
+      String placeId = placeIds.get(i);
+      if (placeId == null) {
+        continue;
+      }
+      PlaceSummary place = places.get(placeId);
+      locations.set(i, place != null && place.getAddress() != null 
+        ? place.getAddress() : PLACE_ID_LOCATION_PREFIX + placeId);
+    }
+    return locations;
+  }
+
+  /**
+   * Returns the locations stored in the TripDay Entity, in route order, or
+   * null if the entity predates the LOCATIONS property and its locations are
+   * Location Entities.
    */
-  public static List<Entity> locationsToEntities(List<String> locations, Key parentKeyId) {
-    List<Entity> locationEntities = new ArrayList<>();
-    for (int i = 0; i < locations.size(); i++) {
-      Entity locationEntity = new Entity(LOCATION_ENTITY_TYPE, parentKeyId);
-      locationEntity.setProperty(NAME, locations.get(i));
-      locationEntity.setProperty(ORDER, i);
-      locationEntities.add(locationEntity);
+  @SuppressWarnings("unchecked")
+  public static List<String> locationsFromEntity(Entity tripDayEntity) {
+    if (!tripDayEntity.hasProperty(LOCATIONS)) {
+      return null;
     }
-    return locationEntities;
-  } 
+    // Datastore stores an empty list as null.
+    List<String> locations = (List<String>) tripDayEntity.getProperty(LOCATIONS);
+    return locations == null ? new ArrayList<>() : new ArrayList<>(locations);
+  }
 
   /**
-   * Store list location entities to be put in datastore.
-   * @param locationEntities ArrayList of Entities to be put in Datastore
-   * @param datastore Datastore for storing 
+   * Returns the locations of the TripDay Entity in route order: its LOCATIONS
+   * property, or for entities written before it, the names of its Location
+   * Entities sorted by order.
+   *
+   * @param tripDayEntity The TripDay Entity. Must be non-null.
+   * @param locationEntities The Location Entities under the TripDay, in any
+   * order; only read if the entity has no LOCATIONS property.
    */
-  public static void storeLocationsInDatastore(List<Entity> locationEntities, DatastoreService datastore) {
-    for (Entity locationEntity : locationEntities) {
-      datastore.put(locationEntity);
+  public static List<String> locationsFromEntity(Entity tripDayEntity,
+      List<Entity> locationEntities) {
+    List<String> locations = locationsFromEntity(tripDayEntity);
+    if (locations != null) {
+      return locations;
+    }
+
+    List<Entity> sortedLocationEntities = new ArrayList<>(locationEntities);
+    sortedLocationEntities.sort(Comparator.comparingLong(
+      locationEntity -> ((Number) locationEntity.getProperty(ORDER)).longValue()));
+    locations = new ArrayList<>();
+    for (Entity locationEntity : sortedLocationEntities) {
+      locations.add((String) locationEntity.getProperty(NAME));
     }
+    return locations;
   }
 
   /**
@@ -137,6 +213,18 @@ public class TripDay {
     this.locations = temp;
   }
 
+  /**
+   * Set the place IDs of the locations, in the same order, with null entries
+   * for locations that are not resolved to a place. The entity of the 
+   * TripDay then refers to the places instead of storing their locations.
+   */
+  public void setPlaceIds(List<String> placeIds) {
+    if (placeIds != null && placeIds.size() != this.locations.size()) {
+      throw new IllegalArgumentException("placeIds must have one entry per location");
+    }
+    this.placeIds = placeIds == null ? null : new ArrayList<>(placeIds);
+  }
+
   /**
    * Builds entity corresponds to current TripDay
    */
@@ -144,7 +232,9 @@ public class TripDay {
     Entity tripDayEntity = new Entity(QUERY_STRING);
     tripDayEntity.setProperty(ORIGIN, this.origin);
     tripDayEntity.setProperty(DESTINATION, this.destination);
-    tripDayEntity.setProperty(DATE, this.date.toString());
+    tripDayEntity.setProperty(DATE, PropertyCodec.fromLocalDate(this.date));
+    setLocationProperties(tripDayEntity);
+    SchemaVersion.stamp(tripDayEntity);
     return tripDayEntity;
   }
 
@@ -156,22 +246,46 @@ public class TripDay {
     Entity tripDayEntity = new Entity(QUERY_STRING, parentKeyID);
     tripDayEntity.setProperty(ORIGIN, this.origin);
     tripDayEntity.setProperty(DESTINATION, this.destination);
-    tripDayEntity.setProperty(DATE, this.date.toString());
+    tripDayEntity.setProperty(DATE, PropertyCodec.fromLocalDate(this.date));
+    setLocationProperties(tripDayEntity);
+    SchemaVersion.stamp(tripDayEntity);
     return tripDayEntity;
   }
 
   /**
-   * Build tripDay from tripDay entity. Set origin, destination, and date
-   * NOTE: Since Lists cannot be stored in datastore, must call setLocations()
-   * after!
+   * Sets the LOCATIONS property, and the PLACE_IDS property if the place IDs
+   * are set; locations resolved to a place are not stored.
+   */
+  private void setLocationProperties(Entity tripDayEntity) {
+    List<String> storedLocations = new ArrayList<>(this.locations);
+    if (this.placeIds != null) {
+      for (int i = 0; i < this.placeIds.size(); i++) {
+        if (this.placeIds.get(i) != null) {
+          storedLocations.set(i, null);
+        }
+      }
+      tripDayEntity.setUnindexedProperty(PLACE_IDS, new ArrayList<>(this.placeIds));
+    }
+    tripDayEntity.setUnindexedProperty(LOCATIONS, storedLocations);
+  }
+
+  /**
+   * Build tripDay from tripDay entity. Set origin, destination, date and
+   * locations.
+   * NOTE: Entities written before the LOCATIONS property have no locations
+   * here; call setLocations() with their Location Entities after. Locations
+   * resolved to a place are null; see locationsFromEntity(Entity, List, Map).
    */
   public static TripDay tripDayFromEntity(Entity tripDayEntity) {
     String origin = (String) tripDayEntity.getProperty(ORIGIN);
     String destination = (String) tripDayEntity.getProperty(DESTINATION);
-    List<String> locations = new ArrayList<>();
-    String date = (String) tripDayEntity.getProperty(DATE);
+    List<String> locations = locationsFromEntity(tripDayEntity);
+    if (locations == null) {
+      locations = new ArrayList<>();
+    }
+    LocalDate date = PropertyCodec.toLocalDate(tripDayEntity.getProperty(DATE));
 
-    TripDay tripDay = new TripDay(origin, destination, locations, LocalDate.parse(date));
+    TripDay tripDay = new TripDay(origin, destination, locations, date);
     return tripDay;
   }
 }
@@ -0,0 +1,58 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.util.List;
+
+/**
+ * TripPage is one page of a user's trips, in start date order, as written
+ * by /user-trips. The next page is requested with the cursor.
+ */
+public final class TripPage {
+
+  private final List<Trip> trips;
+
+  // Web-safe datastore cursor to the next page; null on the last page.
+  private final String nextCursor;
+
+  /**
+   * Creates a new TripPage.
+   *
+   * @param trips The Trips of the page. Must be non-null.
+   * @param nextCursor The cursor to the next page, or null if there is none.
+   */
+  public TripPage(List<Trip> trips, String nextCursor) {
+    if (trips == null) {
+      throw new IllegalArgumentException("trips cannot be null");
+    }
+
+    this.trips = trips;
+    this.nextCursor = nextCursor;
+  }
+
+  /**
+   * Returns the Trips of this page.
+   */
+  public List<Trip> getTrips() {
+    return this.trips;
+  }
+
+  /**
+   * Returns the cursor to the next page, or null if this is the last page.
+   */
+  public String getNextCursor() {
+    return this.nextCursor;
+  }
+}
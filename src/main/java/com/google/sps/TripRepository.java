@@ -0,0 +1,366 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.PropertyProjection;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.SortDirection;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.sps.data.Event;
+import com.google.sps.places.PlaceDetailsCache;
+import com.google.sps.places.PlaceStore;
+import com.google.sps.places.PlaceSummary;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * TripRepository is the single place the servlets read trips from. Trips
+ * whose key the client already has are loaded with datastore gets instead of
+ * key-filter queries, and the ownership check is done on the key itself: a
+ * trip belongs to a user if the User Entity is its parent. Several trips are
+ * loaded with batch gets, and the children of a trip with one ancestor query
+ * per kind.
+ */
+public class TripRepository {
+
+  // Datastore accepts at most 1000 keys in a single get.
+  public static final int MAX_KEYS_PER_GET = 1000;
+
+  // Bounds of the number of trips in one page of a user's trips.
+  public static final int DEFAULT_PAGE_SIZE = 20;
+  public static final int MAX_PAGE_SIZE = 100;
+
+  // Orders of the pages of a user's trips (see getTripPageOrder).
+  public static final String PAGE_ORDER_START_DATE = "start-date";
+  public static final String PAGE_ORDER_KEY = "key";
+
+  // The Trip properties shown on the trips page; a page of trips is read
+  // from the composite index over them, without loading the entities.
+  private static final String[] TRIP_PAGE_PROPERTIES = {Trip.START_DATE, Trip.TRIP_NAME,
+    Trip.DESTINATION_NAME, Trip.IMAGE_SRC, Trip.END_DATE};
+
+  // A trip has at most Trip.MAX_NUM_DAYS days; fetch their children in one batch.
+  private static final int CHILDREN_CHUNK_SIZE = 256;
+
+  private final DatastoreService datastore;
+  private final PlaceStore placeStore;
+
+  /**
+   * Creates a new TripRepository.
+   *
+   * @param datastore The datastore the trips are read from. Must be non-null.
+   */
+  public TripRepository(DatastoreService datastore) {
+    if (datastore == null) {
+      throw new IllegalArgumentException("datastore cannot be null");
+    }
+
+    this.datastore = datastore;
+    this.placeStore = new PlaceStore(datastore, new PlaceDetailsCache(datastore));
+  }
+
+  /**
+   * Returns true if the key is the key of a Trip Entity under the User Entity.
+   * This needs no datastore access.
+   */
+  public static boolean isTripOfUser(Key userKey, Key tripKey) {
+    return userKey != null && tripKey != null && Trip.TRIP.equals(tripKey.getKind())
+      && userKey.equals(tripKey.getParent());
+  }
+
+  /**
+   * Returns the entity with the given key, or null if there is none.
+   */
+  public Entity getEntity(Key key) {
+    return getEntities(Collections.singletonList(key)).get(key);
+  }
+
+  /**
+   * Returns the entities with the given keys, mapped by key. Keys without an
+   * entity have no entry. The keys are read with as few batch gets as the
+   * per-get key limit allows.
+   *
+   * @param keys The keys to read. Must be non-null.
+   */
+  public Map<Key, Entity> getEntities(Collection<Key> keys) {
+    List<Key> keyList = new ArrayList<>(keys);
+    Map<Key, Entity> entities = new HashMap<>();
+    for (int start = 0; start < keyList.size(); start += MAX_KEYS_PER_GET) {
+      entities.putAll(this.datastore.get(keyList.subList(start,
+        Math.min(start + MAX_KEYS_PER_GET, keyList.size()))));
+    }
+    return entities;
+  }
+
+  /**
+   * Returns the Trip Entity, or null if it does not exist or is not under
+   * the User Entity.
+   *
+   * @param userKey The key of the current User Entity.
+   * @param tripKey The key of the Trip Entity, passed in by the client.
+   */
+  public Entity getTripEntity(Key userKey, Key tripKey) {
+    if (!isTripOfUser(userKey, tripKey)) {
+      return null;
+    }
+    return getEntity(tripKey);
+  }
+
+  /**
+   * Returns the Trip, or null if it does not exist or is not under the User
+   * Entity.
+   */
+  public Trip getTrip(Key userKey, Key tripKey) {
+    Entity tripEntity = getTripEntity(userKey, tripKey);
+    return tripEntity == null ? null : Trip.buildTripFromEntity(tripEntity);
+  }
+
+  /**
+   * Returns the Trips with the given keys, in the order of the keys, read
+   * with batch gets. Keys of missing trips or of trips that are not under
+   * the User Entity are skipped.
+   */
+  public List<Trip> getTrips(Key userKey, List<Key> tripKeys) {
+    List<Key> ownedTripKeys = new ArrayList<>();
+    for (Key tripKey : tripKeys) {
+      if (isTripOfUser(userKey, tripKey)) {
+        ownedTripKeys.add(tripKey);
+      }
+    }
+
+    Map<Key, Entity> tripEntities = getEntities(ownedTripKeys);
+    List<Trip> trips = new ArrayList<>();
+    for (Key tripKey : ownedTripKeys) {
+      Entity tripEntity = tripEntities.get(tripKey);
+      if (tripEntity != null) {
+        trips.add(Trip.buildTripFromEntity(tripEntity));
+      }
+    }
+    return trips;
+  }
+
+  /**
+   * Returns a page of the Trips under the User Entity, in ascending start
+   * date order. The page is read with a projection query over the composite
+   * index on the trips page properties (see index.yaml), so only the Trips of
+   * the page are built.
+   *
+   * Until the schema migration is done (see SchemaVersion.isMigrated), start
+   * dates are a mix of yyyy-MM-dd strings and native Dates, which Datastore
+   * orders by type before value; the Trips are then paged in key order
+   * instead, which every Trip shares, so that no Trip is skipped or repeated.
+   * A cursor from before the migration finishes is not valid after it.
+   *
+   * @param userKey The key of the User Entity. Must be non-null.
+   * @param pageSize The maximum number of Trips in the page; between 1 and
+   * MAX_PAGE_SIZE, inclusive.
+   * @param cursor The web-safe cursor returned with the previous page, or
+   * null for the first page.
+   * @throws IllegalArgumentException if the page size or cursor is invalid.
+   */
+  public TripPage getTripPage(Key userKey, int pageSize, String cursor) {
+    if (pageSize < 1 || pageSize > MAX_PAGE_SIZE) {
+      throw new IllegalArgumentException(
+        "pageSize must be an integer between 1 and " + MAX_PAGE_SIZE + ", inclusive.");
+    }
+
+    Query query = new Query(Trip.TRIP, userKey);
+    if (getTripPageOrder().equals(PAGE_ORDER_START_DATE)) {
+      query.addSort(Trip.START_DATE, SortDirection.ASCENDING);
+      for (String property : TRIP_PAGE_PROPERTIES) {
+        // Dates are projected as RawValues, which PropertyCodec reads.
+        boolean isDate = property.equals(Trip.START_DATE) || property.equals(Trip.END_DATE);
+        query.addProjection(new PropertyProjection(property, isDate ? null : String.class));
+      }
+    } else {
+      query.addSort(Entity.KEY_RESERVED_PROPERTY, SortDirection.ASCENDING);
+    }
+
+    // Read one Trip past the page to learn whether there is a next page.
+    FetchOptions fetchOptions = FetchOptions.Builder.withLimit(pageSize + 1)
+      .prefetchSize(pageSize + 1);
+    if (cursor != null) {
+      fetchOptions.startCursor(Cursor.fromWebSafeString(cursor));
+    }
+
+    QueryResultIterator<Entity> results =
+      this.datastore.prepare(query).asQueryResultIterator(fetchOptions);
+    List<Trip> trips = new ArrayList<>();
+    while (trips.size() < pageSize && results.hasNext()) {
+      trips.add(Trip.buildTripFromEntity(results.next()));
+    }
+
+    Cursor endCursor = results.getCursor();
+    String nextCursor = results.hasNext() ? endCursor.toWebSafeString() : null;
+    return new TripPage(trips, nextCursor);
+  }
+
+  /**
+   * Returns the order getTripPage pages the Trips in: PAGE_ORDER_START_DATE
+   * once the schema migration is done, and PAGE_ORDER_KEY before.
+   */
+  public String getTripPageOrder() {
+    return SchemaVersion.isMigrated(this.datastore) ? PAGE_ORDER_START_DATE : PAGE_ORDER_KEY;
+  }
+
+  /**
+   * Returns the view of the trip, or null if the trip does not exist or is
+   * not under the User Entity. See TripView.load.
+   */
+  public TripView getTripView(Key userKey, Key tripKey) {
+    return TripView.load(this.datastore, userKey, tripKey);
+  }
+
+  /**
+   * Returns the entities of the given kind under the Trip Entity (at any
+   * depth), with a single ancestor query, in key order.
+   */
+  public List<Entity> getChildEntities(String kind, Key tripKey) {
+    return this.datastore.prepare(new Query(kind, tripKey)).asList(FetchOptions.Builder
+      .withPrefetchSize(CHILDREN_CHUNK_SIZE).chunkSize(CHILDREN_CHUNK_SIZE));
+  }
+
+  /**
+   * Returns the Location Entities under the Trip Entity if any of its TripDay
+   * Entities predates the LOCATIONS property, or an empty list without a
+   * query otherwise.
+   */
+  public List<Entity> getLegacyLocationEntities(Key tripKey, List<Entity> tripDayEntities) {
+    for (Entity tripDayEntity : tripDayEntities) {
+      if (!tripDayEntity.hasProperty(TripDay.LOCATIONS)) {
+        return getChildEntities(TripDay.LOCATION_ENTITY_TYPE, tripKey);
+      }
+    }
+    return Collections.emptyList();
+  }
+
+  /**
+   * Returns the TripDay Entities under the Trip Entity, in ascending date order.
+   */
+  public List<Entity> getTripDayEntities(Key tripKey) {
+    List<Entity> tripDayEntities =
+      new ArrayList<>(getChildEntities(TripDay.QUERY_STRING, tripKey));
+    tripDayEntities.sort(Comparator.comparing(
+      tripDayEntity -> PropertyCodec.toLocalDate(tripDayEntity.getProperty(TripDay.DATE))));
+    return tripDayEntities;
+  }
+
+  /**
+   * Returns the TripDays of the trip in ascending date order, each with its
+   * locations in route order. The locations are stored in the TripDay
+   * Entities; only trips written before that read Location Entities, with
+   * one more query.
+   */
+  public List<TripDay> getTripDays(Key tripKey) {
+    List<Entity> tripDayEntities = getTripDayEntities(tripKey);
+    Map<Key, List<Entity>> locationsByTripDay =
+      groupByParent(getLegacyLocationEntities(tripKey, tripDayEntities));
+    Map<String, PlaceSummary> places = getPlaces(tripDayEntities, Collections.emptyList());
+
+    List<TripDay> tripDays = new ArrayList<>();
+    for (Entity tripDayEntity : tripDayEntities) {
+      List<String> locations = TripDay.locationsFromEntity(tripDayEntity, locationsByTripDay
+        .getOrDefault(tripDayEntity.getKey(), Collections.emptyList()), places);
+
+      tripDays.add(new TripDay((String) tripDayEntity.getProperty(TripDay.ORIGIN),
+        (String) tripDayEntity.getProperty(TripDay.DESTINATION), locations,
+        PropertyCodec.toLocalDate(tripDayEntity.getProperty(TripDay.DATE))));
+    }
+    return tripDays;
+  }
+
+  /**
+   * Returns the Events of the trip, read with one query and grouped by the
+   * Key of their TripDay. Each list is ordered by time; TripDays without
+   * events have no entry.
+   */
+  public Map<Key, List<Event>> getEventsByTripDay(Key tripKey) {
+    List<Entity> eventEntities = Event.getEventEntitiesOfTrip(this.datastore, tripKey);
+    Map<String, PlaceSummary> places = getPlaces(Collections.emptyList(), eventEntities);
+
+    Map<Key, List<Event>> eventsByTripDay = new HashMap<>();
+    for (Entity eventEntity : eventEntities) {
+      eventsByTripDay.computeIfAbsent(eventEntity.getParent(), tripDayKey -> new ArrayList<>())
+        .add(Event.eventFromEntity(eventEntity, places));
+    }
+
+    for (List<Event> events : eventsByTripDay.values()) {
+      Collections.sort(events);
+    }
+    return eventsByTripDay;
+  }
+
+  /**
+   * Returns the Events of the trip that start in [start, end), in start time
+   * order, read with one indexed range query; events outside the range are
+   * not read.
+   */
+  public List<Event> getEventsInRange(Key tripKey, LocalDateTime start, LocalDateTime end) {
+    List<Entity> eventEntities = 
+      Event.getEventEntitiesOfTripInRange(this.datastore, tripKey, start, end);
+    Map<String, PlaceSummary> places = getPlaces(Collections.emptyList(), eventEntities);
+
+    List<Event> events = new ArrayList<>();
+    for (Entity eventEntity : eventEntities) {
+      events.add(Event.eventFromEntity(eventEntity, places));
+    }
+    return events;
+  }
+
+  /**
+   * Returns the places the TripDay and Event Entities refer to, by place ID,
+   * read with one batch get; see PlaceStore.getAll.
+   */
+  public Map<String, PlaceSummary> getPlaces(List<Entity> tripDayEntities,
+      List<Entity> eventEntities) {
+    Collection<String> placeIds = new LinkedHashSet<>();
+    for (Entity tripDayEntity : tripDayEntities) {
+      List<String> dayPlaceIds = TripDay.placeIdsFromEntity(tripDayEntity);
+      if (dayPlaceIds != null) {
+        placeIds.addAll(dayPlaceIds);
+      }
+    }
+    for (Entity eventEntity : eventEntities) {
+      placeIds.add(Event.getPlaceReference(eventEntity));
+    }
+    placeIds.remove(null);
+    return this.placeStore.getAll(placeIds);
+  }
+
+  /**
+   * Groups the entities by the key of their parent, keeping their order.
+   */
+  public static Map<Key, List<Entity>> groupByParent(List<Entity> entities) {
+    Map<Key, List<Entity>> entitiesByParent = new HashMap<>();
+    for (Entity entity : entities) {
+      entitiesByParent.computeIfAbsent(entity.getParent(), parent -> new ArrayList<>())
+        .add(entity);
+    }
+    return entitiesByParent;
+  }
+}
@@ -0,0 +1,278 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Text;
+import com.google.sps.data.Event;
+import com.google.sps.places.PlaceSummary;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * TripView is the read model of a trip: the trip header, its days in date
+ * order, and the ordered locations and events of every day, stored as one
+ * JSON document in a single "trip-view" entity under the Trip Entity. The
+ * read pages load it with one get-by-key instead of querying the trip-day,
+ * location and event entities. The view is written in the same batch as
+ * those entities, and rebuilt from them when it is missing (e.g. for trips
+ * planned before views existed) or after they change.
+ */
+public final class TripView {
+
+  private static final Logger logger = Logger.getLogger(TripView.class.getName());
+
+  // Entity kind, key name and property.
+  public static final String TRIP_VIEW = "trip-view";
+  private static final String VIEW_KEY_NAME = "view";
+  private static final String DOCUMENT = "document";
+
+  // Entities are limited to 1MB; larger views are served but not stored.
+  private static final int MAX_DOCUMENT_BYTES = 1000 * 1000;
+
+
+  private final String tripName;
+  private final String destinationName;
+  private final String imageSrc;
+  private final String startDate;
+  private final String endDate;
+  private final List<Day> days;
+
+  private TripView(String tripName, String destinationName, String imageSrc,
+      String startDate, String endDate, List<Day> days) {
+    this.tripName = tripName;
+    this.destinationName = destinationName;
+    this.imageSrc = imageSrc;
+    this.startDate = startDate;
+    this.endDate = endDate;
+    this.days = days;
+  }
+
+  /**
+   * Builds the view of a trip from its normalized entities. The entities
+   * may have incomplete keys, except the Trip and TripDay Entities, whose
+   * keys group the children.
+   *
+   * @param tripEntity The Trip Entity. Must be non-null.
+   * @param tripDayEntities The TripDay Entities of the trip, in any order.
+   * @param locationEntities The Location Entities of the TripDays written
+   * before the LOCATIONS property, in any order; see TripDay.locationsFromEntity.
+   * @param eventEntities The Event Entities of every TripDay; each day's events
+   * keep their order in this list.
+   * @param places The places the TripDay and Event Entities refer to, by place
+   * ID; see TripRepository.getPlaces.
+   */
+  public static TripView build(Entity tripEntity, List<Entity> tripDayEntities,
+      List<Entity> locationEntities, List<Entity> eventEntities,
+      Map<String, PlaceSummary> places) {
+    Map<Key, List<Entity>> locationsByDay = TripRepository.groupByParent(locationEntities);
+    Map<Key, List<Entity>> eventsByDay = TripRepository.groupByParent(eventEntities);
+
+    List<Entity> sortedTripDays = new ArrayList<>(tripDayEntities);
+    sortedTripDays.sort(Comparator.comparing(
+      tripDayEntity -> PropertyCodec.toLocalDate(tripDayEntity.getProperty(TripDay.DATE))));
+
+    List<Day> days = new ArrayList<>();
+    for (Entity tripDayEntity : sortedTripDays) {
+      List<String> locations = TripDay.locationsFromEntity(tripDayEntity,
+        locationsByDay.getOrDefault(tripDayEntity.getKey(), Collections.emptyList()), places);
+
+      List<Event> events = new ArrayList<>();
+      for (Entity eventEntity :
+          eventsByDay.getOrDefault(tripDayEntity.getKey(), Collections.emptyList())) {
+        events.add(Event.eventFromEntity(eventEntity, places));
+      }
+
+      days.add(new Day(
+        PropertyCodec.toLocalDate(tripDayEntity.getProperty(TripDay.DATE)).toString(),
+        (String) tripDayEntity.getProperty(TripDay.ORIGIN),
+        (String) tripDayEntity.getProperty(TripDay.DESTINATION), locations, events));
+    }
+
+    return new TripView((String) tripEntity.getProperty(Trip.TRIP_NAME),
+      (String) tripEntity.getProperty(Trip.DESTINATION_NAME),
+      (String) tripEntity.getProperty(Trip.IMAGE_SRC),
+      PropertyCodec.toLocalDate(tripEntity.getProperty(Trip.START_DATE)).toString(),
+      PropertyCodec.toLocalDate(tripEntity.getProperty(Trip.END_DATE)).toString(), days);
+  }
+
+  /**
+   * Returns the key of the view of the trip.
+   */
+  public static Key getViewKey(Key tripKey) {
+    return KeyFactory.createKey(tripKey, TRIP_VIEW, VIEW_KEY_NAME);
+  }
+
+  /**
+   * Returns the view of the trip as an entity, or null if the view is too
+   * large to be stored.
+   */
+  public Entity toEntity(Key tripKey) {
+    String document = JsonSerializer.GSON.toJson(this);
+    if (document.getBytes(StandardCharsets.UTF_8).length > MAX_DOCUMENT_BYTES) {
+      logger.warning("The view of trip " + tripKey + " is too large to be stored.");
+      return null;
+    }
+
+    Entity viewEntity = new Entity(getViewKey(tripKey));
+    viewEntity.setUnindexedProperty(DOCUMENT, new Text(document));
+    return viewEntity;
+  }
+
+  /**
+   * Returns the view stored in the entity.
+   */
+  public static TripView fromEntity(Entity viewEntity) {
+    return JsonSerializer.GSON.fromJson(((Text) viewEntity.getProperty(DOCUMENT)).getValue(), TripView.class);
+  }
+
+  /**
+   * Returns the view of the trip, if the trip belongs to the user. Returns
+   * null if the trip does not exist or belongs to someone else. A missing
+   * view is rebuilt from the normalized entities and stored.
+   *
+   * @param datastore The datastore holding the trip.
+   * @param userKey The key of the current User Entity. Must be non-null.
+   * @param tripKey The key of the Trip Entity. Must be non-null.
+   */
+  public static TripView load(DatastoreService datastore, Key userKey, Key tripKey) {
+    if (!TripRepository.isTripOfUser(userKey, tripKey)) {
+      return null;
+    }
+
+    try {
+      return fromEntity(datastore.get(getViewKey(tripKey)));
+    } catch (EntityNotFoundException e) {
+      return rebuild(datastore, tripKey);
+    }
+  }
+
+  /**
+   * Rebuilds the view of the trip from its normalized entities and stores
+   * it. Writers that change the trip-day, location or event entities of a
+   * trip call this afterwards, and increment the trip's Trip.VERSION with
+   * VersionCounter so that ConditionalGet sends the new view.
+   * Returns null if the trip does not exist.
+   */
+  public static TripView rebuild(DatastoreService datastore, Key tripKey) {
+    TripRepository repository = new TripRepository(datastore);
+    Entity tripEntity = repository.getEntity(tripKey);
+    if (tripEntity == null) {
+      return null;
+    }
+
+    List<Entity> tripDayEntities = repository.getChildEntities(TripDay.QUERY_STRING, tripKey);
+    List<Entity> eventEntities = repository.getChildEntities(Event.QUERY_STRING, tripKey);
+    TripView view = build(tripEntity, tripDayEntities,
+      repository.getLegacyLocationEntities(tripKey, tripDayEntities), eventEntities,
+      repository.getPlaces(tripDayEntities, eventEntities));
+    Entity viewEntity = view.toEntity(tripKey);
+    if (viewEntity != null) {
+      datastore.put(viewEntity);
+    }
+    return view;
+  }
+
+  /**
+   * Returns the Trip header of the view.
+   */
+  public Trip toTrip(Key tripKey) {
+    return new Trip(this.tripName, this.destinationName, KeyFactory.keyToString(tripKey),
+      this.imageSrc, this.startDate, this.endDate);
+  }
+
+  public String getTripName() {
+    return this.tripName;
+  }
+
+  public String getDestinationName() {
+    return this.destinationName;
+  }
+
+  public String getImageSrc() {
+    return this.imageSrc;
+  }
+
+  public String getStartDate() {
+    return this.startDate;
+  }
+
+  public String getEndDate() {
+    return this.endDate;
+  }
+
+  /**
+   * Returns the days of the trip, in date order.
+   */
+  public List<Day> getDays() {
+    return Collections.unmodifiableList(this.days);
+  }
+
+  /**
+   * One day of the view: the origin and destination, the locations in
+   * route order, and the events.
+   */
+  public static final class Day {
+    private final String date;
+    private final String origin;
+    private final String destination;
+    private final List<String> locations;
+    private final List<Event> events;
+
+    private Day(String date, String origin, String destination, List<String> locations,
+        List<Event> events) {
+      this.date = date;
+      this.origin = origin;
+      this.destination = destination;
+      this.locations = locations;
+      this.events = events;
+    }
+
+    public String getDate() {
+      return this.date;
+    }
+
+    public String getOrigin() {
+      return this.origin;
+    }
+
+    public String getDestination() {
+      return this.destination;
+    }
+
+    /**
+     * Returns the locations of the day (without the origin), in route order.
+     */
+    public List<String> getLocations() {
+      return Collections.unmodifiableList(this.locations);
+    }
+
+    /**
+     * Returns the events of the day, in the order they were stored.
+     */
+    public List<Event> getEvents() {
+      return Collections.unmodifiableList(this.events);
+    }
+  }
+}
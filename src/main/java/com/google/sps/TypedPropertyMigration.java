@@ -0,0 +1,102 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.sps.data.Event;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * TypedPropertyMigration holds the transform of the Trip, TripDay and Event
+ * Entities from schema version 0, with string dates, times and travel times,
+ * to version 1, with the native properties written by PropertyCodec. It is
+ * registered for each of KINDS in SchemaVersion.newMigrationRunner.
+ *
+ * Until the migration is done, readers accept both forms; see
+ * SchemaVersion.isMigrated.
+ */
+public final class TypedPropertyMigration {
+
+  // Kinds are migrated in this order.
+  public static final List<String> KINDS =
+    Arrays.asList(Trip.TRIP, TripDay.QUERY_STRING, Event.QUERY_STRING);
+
+  private TypedPropertyMigration() {}
+
+  /**
+   * Returns true if any date, time or travel time of the entity is still in
+   * the string form.
+   */
+  public static boolean isLegacy(Entity entity) {
+    for (String property : getTypedProperties(entity.getKind())) {
+      Object value = entity.getProperty(property);
+      if (value != null && PropertyCodec.isLegacy(value)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Sets the date, time and travel time properties of the entity to their
+   * native values. Properties already native are left as they are.
+   */
+  public static void convert(Entity entity) {
+    switch (entity.getKind()) {
+      case Trip.TRIP:
+        convertDate(entity, Trip.START_DATE);
+        convertDate(entity, Trip.END_DATE);
+        break;
+      case TripDay.QUERY_STRING:
+        convertDate(entity, TripDay.DATE);
+        break;
+      case Event.QUERY_STRING:
+        Object startTime = entity.getProperty(Event.START_TIME);
+        if (startTime != null && PropertyCodec.isLegacy(startTime)) {
+          entity.setProperty(Event.START_TIME,
+            PropertyCodec.fromLocalDateTime(PropertyCodec.toLocalDateTime(startTime)));
+        }
+        Object travelTime = entity.getProperty(Event.TRAVEL_TIME);
+        if (travelTime != null && PropertyCodec.isLegacy(travelTime)) {
+          entity.setProperty(Event.TRAVEL_TIME, PropertyCodec.toLong(travelTime));
+        }
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown kind: " + entity.getKind());
+    }
+  }
+
+  private static void convertDate(Entity entity, String property) {
+    Object date = entity.getProperty(property);
+    if (date != null && PropertyCodec.isLegacy(date)) {
+      entity.setProperty(property,
+        PropertyCodec.fromLocalDate(PropertyCodec.toLocalDate(date)));
+    }
+  }
+
+  private static List<String> getTypedProperties(String kind) {
+    switch (kind) {
+      case Trip.TRIP:
+        return Arrays.asList(Trip.START_DATE, Trip.END_DATE);
+      case TripDay.QUERY_STRING:
+        return Arrays.asList(TripDay.DATE);
+      case Event.QUERY_STRING:
+        return Arrays.asList(Event.START_TIME, Event.TRAVEL_TIME);
+      default:
+        throw new IllegalArgumentException("Unknown kind: " + kind);
+    }
+  }
+}
@@ -0,0 +1,267 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.sps.data.User;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * UserRepository finds the User Entity of an email. User Entities are keyed
+ * by email, so a user is read with a get, and created in a transaction so
+ * that concurrent first requests cannot create duplicates. Found users are
+ * kept in a bounded in-memory cache shared by every request of the instance,
+ * so most requests do not touch datastore at all to find their user.
+ *
+ * Users created before email keys have datastore-allocated IDs, and their
+ * trips are stored under those keys. They keep their keys: an alias entity
+ * keyed by the email points to the legacy User Entity. The alias is written
+ * the first time the user is found by the email query, or by the migration
+ * of newLegacyUserMigrationRunner(), after which the user is found with gets.
+ */
+public class UserRepository {
+
+  // Kind and property of the alias entities of legacy users.
+  public static final String USER_ALIAS = "user-alias";
+  public static final String USER_KEY = "user-key";
+
+  // The most users kept in memory; each entry is a small entity.
+  public static final int MAX_CACHED_USERS = 10000;
+
+  // Name of the checkpoint of the migration that writes the aliases.
+  public static final String MIGRATION_NAME = "legacy-user-aliases";
+
+  private static final Cache<String, Entity> userCache =
+    CacheBuilder.newBuilder().maximumSize(MAX_CACHED_USERS).build();
+
+  private final DatastoreService datastore;
+
+  /**
+   * Creates a new UserRepository.
+   *
+   * @param datastore The datastore the users are stored in. Must be non-null.
+   */
+  public UserRepository(DatastoreService datastore) {
+    if (datastore == null) {
+      throw new IllegalArgumentException("datastore cannot be null");
+    }
+
+    this.datastore = datastore;
+  }
+
+  /**
+   * Returns the User Entity of the email, creating it if there is none.
+   *
+   * @param email The email of the user. Must be non-empty.
+   */
+  public Entity getOrCreateUser(String email) {
+    Entity userEntity = getUser(email);
+    if (userEntity != null) {
+      return userEntity;
+    }
+
+    userEntity = createUser(email);
+    userCache.put(email, userEntity);
+    return userEntity.clone();
+  }
+
+  /**
+   * Returns the User Entity of the email, or null if there is none.
+   *
+   * @param email The email of the user. Must be non-empty.
+   */
+  public Entity getUser(String email) {
+    if (email == null || email.isEmpty()) {
+      throw new IllegalArgumentException("email cannot be empty");
+    }
+
+    Entity userEntity = userCache.getIfPresent(email);
+    if (userEntity == null) {
+      userEntity = findUser(email);
+      if (userEntity == null) {
+        return null;
+      }
+      userCache.put(email, userEntity);
+    }
+    return userEntity.clone();
+  }
+
+  /**
+   * Returns a runner that writes an alias for every legacy User Entity that
+   * has none yet, so that those users are found with gets from then on. The
+   * users are paged through with the runner's checkpointed cursor (see
+   * MigrationServlet), and each one is stamped with version 1 once its alias
+   * is written.
+   */
+  public MigrationRunner newLegacyUserMigrationRunner() {
+    return new MigrationRunner(this.datastore, MIGRATION_NAME,
+      MigrationRunner.DEFAULT_WORKER_COUNT, MigrationRunner.DEFAULT_ENTITIES_PER_SECOND)
+      .register(User.USER, 0, this::writeAlias);
+  }
+
+  /**
+   * Returns the version of the user's list of trips. It is read from
+   * datastore, not from the cache, since other instances may have changed it.
+   */
+  public long getTripsVersion(Key userKey) {
+    try {
+      return VersionCounter.get(this.datastore.get(userKey), User.TRIPS_VERSION);
+    } catch (EntityNotFoundException e) {
+      return 0;
+    }
+  }
+
+  /**
+   * Increments the version of the user's list of trips; called after a trip
+   * of the user is added or removed.
+   */
+  public long markTripsChanged(Key userKey) {
+    return VersionCounter.increment(this.datastore, userKey, User.TRIPS_VERSION);
+  }
+
+  /**
+   * Stores the Trip Entity and increments the version of the user's list of
+   * trips in one transaction, so that a client never sees the new trip under
+   * the old version. Returns the new version.
+   *
+   * @param tripEntity The Trip Entity. Must have the User Entity as parent.
+   */
+  public long putTrip(Entity tripEntity) {
+    Key userKey = tripEntity.getParent();
+    if (userKey == null || !User.USER.equals(userKey.getKind())) {
+      throw new IllegalArgumentException("tripEntity must have a User Entity as parent");
+    }
+    return VersionCounter.increment(this.datastore, userKey, User.TRIPS_VERSION,
+      Arrays.asList(tripEntity));
+  }
+
+  /**
+   * Empties the in-memory cache, e.g. between tests that reset datastore.
+   */
+  public static void clearCache() {
+    userCache.invalidateAll();
+  }
+
+  /**
+   * Returns the key of the alias of the email.
+   */
+  public static Key createAliasKey(String email) {
+    return KeyFactory.createKey(USER_ALIAS, email);
+  }
+
+  /**
+   * Reads the User Entity of the email from datastore: the email-keyed
+   * entity and the alias are read with one batch get, and only users with
+   * neither are looked for with the legacy email query.
+   */
+  private Entity findUser(String email) {
+    Key userKey = User.createKey(email);
+    Key aliasKey = createAliasKey(email);
+    Map<Key, Entity> entities = this.datastore.get(Arrays.asList(userKey, aliasKey));
+    if (entities.containsKey(userKey)) {
+      return entities.get(userKey);
+    }
+
+    if (entities.containsKey(aliasKey)) {
+      try {
+        return this.datastore.get((Key) entities.get(aliasKey).getProperty(USER_KEY));
+      } catch (EntityNotFoundException e) {
+        // The legacy user is gone; fall through to the email query.
+      }
+    }
+
+    List<Entity> legacyUsers = this.datastore.prepare(new Query(User.USER)
+      .setFilter(new FilterPredicate(User.USER_EMAIL, FilterOperator.EQUAL, email)))
+      .asList(FetchOptions.Builder.withLimit(1));
+    if (legacyUsers.isEmpty()) {
+      return null;
+    }
+
+    Entity legacyUser = legacyUsers.get(0);
+    this.datastore.put(buildAlias(legacyUser));
+    return legacyUser;
+  }
+
+  /**
+   * Creates the email-keyed User Entity in a transaction. If a concurrent
+   * request created it first, that entity is returned instead.
+   */
+  private Entity createUser(String email) {
+    Entity userEntity = new User(email).buildEntity();
+    Transaction transaction = this.datastore.beginTransaction();
+    try {
+      try {
+        return this.datastore.get(transaction, userEntity.getKey());
+      } catch (EntityNotFoundException e) {
+        this.datastore.put(transaction, userEntity);
+        transaction.commit();
+        return userEntity;
+      }
+    } catch (ConcurrentModificationException e) {
+      try {
+        return this.datastore.get(userEntity.getKey());
+      } catch (EntityNotFoundException notFound) {
+        throw e;
+      }
+    } finally {
+      if (transaction.isActive()) {
+        transaction.rollback();
+      }
+    }
+  }
+
+  /**
+   * Writes the alias of the user if it is a legacy user without one. The
+   * alias is in its own entity group, so it is written outside the runner's
+   * transaction; a retry finds it and does not write it again.
+   */
+  private void writeAlias(Entity userEntity) {
+    if (userEntity.getKey().getName() != null
+        || userEntity.getProperty(User.USER_EMAIL) == null) {
+      return;
+    }
+
+    // Pass no transaction, since the runner's is the current one.
+    Entity alias = buildAlias(userEntity);
+    try {
+      this.datastore.get(null, alias.getKey());
+    } catch (EntityNotFoundException e) {
+      this.datastore.put(null, alias);
+    }
+  }
+
+  /**
+   * Builds the alias entity that points from the email to the legacy User Entity.
+   */
+  private static Entity buildAlias(Entity legacyUser) {
+    Entity alias = new Entity(createAliasKey((String) legacyUser.getProperty(User.USER_EMAIL)));
+    alias.setUnindexedProperty(USER_KEY, legacyUser.getKey());
+    return alias;
+  }
+}
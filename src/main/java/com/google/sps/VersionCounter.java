@@ -0,0 +1,135 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.Transaction;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * VersionCounter reads and increments the version property of an entity.
+ * Versions only grow: every write of what the entity stands for (a trip, or
+ * a user's list of trips) increments it, so a version seen by a client
+ * identifies the content it was sent. Entities written before versions
+ * existed are at version 0.
+ */
+public final class VersionCounter {
+
+  // Attempts at the increment transaction before giving up, and the wait
+  // before the first retry; the wait doubles after every attempt.
+  private static final int MAX_ATTEMPTS = 6;
+  private static final long FIRST_RETRY_DELAY_MILLIS = 20;
+
+  private VersionCounter() {}
+
+  /**
+   * Returns the version stored in the property of the entity, or 0 if none.
+   */
+  public static long get(Entity entity, String property) {
+    Object version = entity.getProperty(property);
+    return version == null ? 0 : ((Number) version).longValue();
+  }
+
+  /**
+   * Increments the version of the entity in a transaction, and returns the
+   * new version.
+   *
+   * @param datastore The datastore holding the entity. Must be non-null.
+   * @param key The key of the entity. Must be non-null.
+   * @param property The name of the version property.
+   * @throws IllegalArgumentException if there is no entity with the key.
+   */
+  public static long increment(DatastoreService datastore, Key key, String property) {
+    return increment(datastore, key, property, Collections.emptyList());
+  }
+
+  /**
+   * Increments the version of the entity and puts the other entities in the
+   * same transaction, so that the new version becomes visible together with
+   * the writes it stands for. Returns the new version.
+   *
+   * @param datastore The datastore holding the entity. Must be non-null.
+   * @param key The key of the entity. Must be non-null.
+   * @param property The name of the version property.
+   * @param entities The entities to put. Must be in the entity group of key.
+   * @throws IllegalArgumentException if there is no entity with the key, or
+   * an entity is in another entity group.
+   */
+  public static long increment(DatastoreService datastore, Key key, String property,
+    List<Entity> entities) {
+    Key rootKey = getRootKey(key);
+    for (Entity entity : entities) {
+      if (!rootKey.equals(getRootKey(entity.getKey()))) {
+        throw new IllegalArgumentException(
+          "Entity " + entity.getKey() + " is not in the entity group of " + key);
+      }
+    }
+
+    for (int attempt = 1; ; attempt++) {
+      Transaction transaction = datastore.beginTransaction();
+      try {
+        Entity entity = datastore.get(transaction, key);
+        long version = get(entity, property) + 1;
+        entity.setUnindexedProperty(property, version);
+        List<Entity> writes = new ArrayList<>(entities.size() + 1);
+        writes.add(entity);
+        writes.addAll(entities);
+        datastore.put(transaction, writes);
+        transaction.commit();
+        return version;
+      } catch (EntityNotFoundException e) {
+        throw new IllegalArgumentException("No entity with key " + key, e);
+      } catch (ConcurrentModificationException e) {
+        // Concurrent writes of the same user's trips contend on the counter.
+        if (attempt == MAX_ATTEMPTS) {
+          throw e;
+        }
+        waitBeforeRetry(attempt, e);
+      } finally {
+        if (transaction.isActive()) {
+          transaction.rollback();
+        }
+      }
+    }
+  }
+
+  private static Key getRootKey(Key key) {
+    while (key.getParent() != null) {
+      key = key.getParent();
+    }
+    return key;
+  }
+
+  /**
+   * Waits a random time that doubles with every attempt, so that contending
+   * writers spread out.
+   */
+  private static void waitBeforeRetry(int attempt, ConcurrentModificationException e) {
+    long maxDelayMillis = FIRST_RETRY_DELAY_MILLIS << attempt;
+    try {
+      Thread.sleep(ThreadLocalRandom.current().nextLong(maxDelayMillis / 2, maxDelayMillis));
+    } catch (InterruptedException interrupted) {
+      Thread.currentThread().interrupt();
+      throw e;
+    }
+  }
+}
@@ -0,0 +1,5 @@
+package com.google.sps.data;
+
+public class Config {
+  public static final String API_KEY = "test";
+}
@@ -14,84 +14,95 @@
  
 package com.google.sps.data;
 
+import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
 import com.google.appengine.api.datastore.Key;
-import com.google.maps.model.FindPlaceFromText;
-import com.google.maps.errors.ApiException;
-import com.google.maps.FindPlaceFromTextRequest;
-import com.google.maps.GeoApiContext;
-import com.google.maps.model.FindPlaceFromText;
-import com.google.maps.model.PlaceDetails;
-import com.google.maps.PlaceDetailsRequest;
-import com.google.maps.PlacesApi;
-import com.google.sps.servlets.TripServlet;
-import java.io.IOException;
-import java.time.LocalDate;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.CompositeFilterOperator;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.appengine.api.datastore.Query.SortDirection;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.sps.PropertyCodec;
+import com.google.sps.SchemaVersion;
+import com.google.sps.places.PlaceSummary;
 import java.time.LocalDateTime;
-import java.time.LocalTime;
+import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
-import javax.servlet.annotation.WebServlet;
-import javax.servlet.http.HttpServlet;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
 
 /**
- * Class that creates an event specific to a POI 
+ * Class that creates an event specific to a POI. Events are kept compact, as
+ * a month-long trip holds hundreds of them: times are whole minutes stored as
+ * ints, the place strings are interned, and the ISO-8601 strings the 
+ * frontend calendar needs are only formatted when serialized.
  */
 public class Event implements Comparable<Event> {
-  // inputs
-  private String name;
-  private String address;
-  private LocalDateTime startTime;
-  private LocalDateTime endTime;
-  private String placeId;
+  // Place strings repeat across the events of a trip and across trips.
+  private static final Interner<String> PLACE_STRINGS = Interners.newWeakInterner();
 
-  /**
-   * format (yyyy-MM-dd'T'HH:mm:ss)
-   * needed for loading events into frontend calendar
-   */
-  private String strStartTime;
-  private String strEndTime;
+  // inputs
+  private final String name;
+  private final String address;
+  private final String placeId;
 
-  // in mins
-  private long travelTime;
+  // start as minutes since 1970-01-01T00:00 (local time), and the time spent
+  // at the POI and traveling to the next one, in mins
+  private final int startMinute;
+  private final int duration;
+  private final int travelTime;
  
   // class constants
   private static final int HALFHOUR = 30;
   private static final int HOUR = 60;
   private static final int MINUTES_IN_A_DAY = 1440;
   private static final int MIN_POSSIBLE_TIME = 0;
+  private static final int SECONDS_IN_A_MINUTE = 60;
 
   // event fields for entity
   private static final String NAME = "name";
   private static final String ADDRESS = "address";
   private static final String DATE = "date";
-  private static final String START_TIME = "start-time";
-  private static final String TRAVEL_TIME = "travel-time";
+  public static final String START_TIME = "start-time";
+  public static final String TRAVEL_TIME = "travel-time";
   private static final String PLACE_ID = "placeId";
 
   // query string
   public static final String QUERY_STRING = "event";
 
+  // Events of a trip are fetched in batches of this size. A trip has at most
+  // 31 days of a handful of POIs each, so one batch holds almost every trip.
+  public static final int TRIP_EVENTS_CHUNK_SIZE = 256;
+
   /**
    * Constructor that takes in time spent at location
    * 
    * @param name name of the location (NOT address)
    * @param address exact address of the POI
-   * @param startTime start of activity
+   * @param startTime start of activity; events are kept to the minute, so
+   *        seconds, e.g. of older stored views, are dropped
    * @param travelTime time spent traveling to next location (minutes). 
    *        Null if last location of the day.
    * @param timeAtLocation time spent at POI (minutes)
    */
   public Event(String name, String address, String placeId, LocalDateTime startTime, 
               int travelTime, int timeAtLocation) {
-    this.name = name;
-    this.address = address;
-    this.placeId = placeId;
-    this.startTime = startTime;
-    this.endTime = startTime.plusMinutes(Long.valueOf(timeAtLocation));
-    this.travelTime = Long.valueOf(travelTime);
-    checkTravelTime(this.travelTime);
-    this.strStartTime = DateTimeFormatter.ISO_LOCAL_DATE_TIME.format(startTime);
-    this.strEndTime = DateTimeFormatter.ISO_LOCAL_DATE_TIME.format(endTime);
+    checkTravelTime(travelTime);
+
+    this.name = intern(name);
+    this.address = intern(address);
+    this.placeId = intern(placeId);
+    this.startMinute = Math.toIntExact(startTime.truncatedTo(ChronoUnit.MINUTES)
+      .toEpochSecond(ZoneOffset.UTC) / SECONDS_IN_A_MINUTE);
+    this.duration = timeAtLocation;
+    this.travelTime = travelTime;
   }
 
   /**
@@ -128,32 +139,67 @@ public class Event implements Comparable<Event> {
   /**
    * Build entity from event to be put in datastore off event attributes.
    * parentKeyID is from tripDay Entity
+   * Events of a resolved place store only its place ID; their name and 
+   * address are read from the place entity (see PlaceStore).
    */
   public Entity eventToEntity(Key parentKeyID) {
     Entity eventEntity = new Entity("event", parentKeyID);
-    eventEntity.setProperty(NAME, this.name);
-    eventEntity.setProperty(ADDRESS, this.address);
-    eventEntity.setProperty(START_TIME, 
-                  DateTimeFormatter.ISO_LOCAL_DATE_TIME.format(startTime));
-    eventEntity.setProperty(TRAVEL_TIME, Long.toString(this.travelTime));
+    if (this.placeId == null) {
+      eventEntity.setProperty(NAME, this.name);
+      eventEntity.setProperty(ADDRESS, this.address);
+    }
+    eventEntity.setProperty(START_TIME, PropertyCodec.fromLocalDateTime(getStartTime()));
+    eventEntity.setProperty(TRAVEL_TIME, (long) this.travelTime);
     eventEntity.setProperty(PLACE_ID, this.placeId);
+    SchemaVersion.stamp(eventEntity);
     return eventEntity;
   } 
 
   /**
-   * Build event from entity
+   * Build event from entity. Events that refer to a place have no name or
+   * address; see eventFromEntity(Entity, Map).
    */
   public static Event eventFromEntity(Entity eventEntity) {
+    return eventFromEntity(eventEntity, Collections.emptyMap());
+  }
+
+  /**
+   * Build event from entity, taking the name and address of an event that
+   * refers to a place from the place. Events written before places were 
+   * referenced keep the name and address stored on their entity.
+   *
+   * @param eventEntity The Event Entity. Must be non-null.
+   * @param places The places referred to by the events, by place ID; see 
+   * PlaceStore.getAll.
+   */
+  public static Event eventFromEntity(Entity eventEntity, Map<String, PlaceSummary> places) {
     String name = (String) eventEntity.getProperty(NAME);
     String address = (String) eventEntity.getProperty(ADDRESS);
     String placeId = (String) eventEntity.getProperty(PLACE_ID);
-    String startDateTimeStr = (String) eventEntity.getProperty(START_TIME);
-    String travelTime = (String) eventEntity.getProperty(TRAVEL_TIME);
-    Event event = new Event(name, address, placeId, LocalDateTime.parse(startDateTimeStr),
-                          Integer.parseInt(travelTime));
+    PlaceSummary place = places.get(getPlaceReference(eventEntity));
+    if (place != null) {
+      name = place.getName();
+      address = place.getAddress();
+    }
+    LocalDateTime startDateTime =
+      PropertyCodec.toLocalDateTime(eventEntity.getProperty(START_TIME));
+    long travelTime = PropertyCodec.toLong(eventEntity.getProperty(TRAVEL_TIME));
+    Event event = new Event(name, address, placeId, startDateTime,
+                          Math.toIntExact(travelTime));
     return event;
   }
 
+  /**
+   * Returns the place ID the Event Entity takes its name and address from,
+   * or null if the entity stores them itself.
+   */
+  public static String getPlaceReference(Entity eventEntity) {
+    if (eventEntity.hasProperty(NAME)) {
+      return null;
+    }
+    return (String) eventEntity.getProperty(PLACE_ID);
+  }
+
   // getter functions
   public String getName() {
     return this.name;
@@ -163,21 +209,105 @@ public class Event implements Comparable<Event> {
     return this.address;
   }
 
+  public String getPlaceId() {
+    return this.placeId;
+  }
+
   public LocalDateTime getStartTime() {
-    return this.startTime;
+    return toLocalDateTime(this.startMinute);
   } 
 
   public LocalDateTime getEndTime() {
-    return this.endTime;
+    return toLocalDateTime(this.startMinute + this.duration);
   }
 
   public long getTravelTime() {
     return this.travelTime;
   }
 
+  /**
+   * format (yyyy-MM-dd'T'HH:mm:ss)
+   * needed for loading events into frontend calendar
+   */
+  public String getStrStartTime() {
+    return DateTimeFormatter.ISO_LOCAL_DATE_TIME.format(getStartTime());
+  }
+
+  public String getStrEndTime() {
+    return DateTimeFormatter.ISO_LOCAL_DATE_TIME.format(getEndTime());
+  }
+
+  private static LocalDateTime toLocalDateTime(int epochMinute) {
+    return LocalDateTime.ofEpochSecond((long) epochMinute * SECONDS_IN_A_MINUTE, 0, 
+      ZoneOffset.UTC);
+  }
+
+  private static String intern(String placeString) {
+    return placeString == null ? null : PLACE_STRINGS.intern(placeString);
+  }
+
+  /**
+   * Returns the Event Entities of every TripDay of a trip, using a single
+   * ancestor query on the Trip Key instead of one query per TripDay. The 
+   * entities are in key order; each one's parent is its TripDay Key.
+   *
+   * @param datastore The datastore to query.
+   * @param tripKey The Key of the Trip Entity. Must be non-null.
+   */
+  public static List<Entity> getEventEntitiesOfTrip(DatastoreService datastore, Key tripKey) {
+    Query eventsQuery = new Query(QUERY_STRING, tripKey);
+    return datastore.prepare(eventsQuery).asList(FetchOptions.Builder
+      .withPrefetchSize(TRIP_EVENTS_CHUNK_SIZE).chunkSize(TRIP_EVENTS_CHUNK_SIZE));
+  }
+
+  /**
+   * Returns the Event Entities of a trip that start in [start, end), in 
+   * start time order, with a range query on the indexed start time inside 
+   * the Trip ancestor (see index.yaml). Until the schema migration is done
+   * (see SchemaVersion.isMigrated), events still holding ISO-8601 string
+   * start times are matched by a second range query on the strings, and
+   * merged in.
+   *
+   * @param datastore The datastore to query.
+   * @param tripKey The Key of the Trip Entity. Must be non-null.
+   * @param start The start of the range, inclusive.
+   * @param end The end of the range, exclusive.
+   */
+  public static List<Entity> getEventEntitiesOfTripInRange(DatastoreService datastore, 
+      Key tripKey, LocalDateTime start, LocalDateTime end) {
+    List<Entity> eventEntities = queryStartTimeRange(datastore, tripKey,
+      PropertyCodec.fromLocalDateTime(start), PropertyCodec.fromLocalDateTime(end));
+    if (SchemaVersion.isMigrated(datastore)) {
+      return eventEntities;
+    }
+
+    List<Entity> legacyEntities = queryStartTimeRange(datastore, tripKey,
+      DateTimeFormatter.ISO_LOCAL_DATE_TIME.format(start), 
+      DateTimeFormatter.ISO_LOCAL_DATE_TIME.format(end));
+    if (legacyEntities.isEmpty()) {
+      return eventEntities;
+    }
+    List<Entity> merged = new ArrayList<>(eventEntities);
+    merged.addAll(legacyEntities);
+    merged.sort(Comparator.comparing(
+      eventEntity -> PropertyCodec.toLocalDateTime(eventEntity.getProperty(START_TIME))));
+    return merged;
+  }
+
+  private static List<Entity> queryStartTimeRange(DatastoreService datastore, Key tripKey,
+      Object start, Object end) {
+    Query eventsQuery = new Query(QUERY_STRING, tripKey)
+      .setFilter(CompositeFilterOperator.and(
+        new FilterPredicate(START_TIME, FilterOperator.GREATER_THAN_OR_EQUAL, start),
+        new FilterPredicate(START_TIME, FilterOperator.LESS_THAN, end)))
+      .addSort(START_TIME, SortDirection.ASCENDING);
+    return datastore.prepare(eventsQuery).asList(FetchOptions.Builder
+      .withPrefetchSize(TRIP_EVENTS_CHUNK_SIZE).chunkSize(TRIP_EVENTS_CHUNK_SIZE));
+  }
+
   @Override
   public int compareTo(Event event) {
     // Events are sorted by start time.
-    return this.getStartTime().compareTo(event.getStartTime());
+    return Integer.compare(this.startMinute, event.startMinute);
   }
 }
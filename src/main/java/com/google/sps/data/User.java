@@ -15,6 +15,8 @@
 package com.google.sps.data;
 
 import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
 
 public class User {
 
@@ -25,8 +27,11 @@ public class User {
   public static final String USER = "user";
   public static final String USER_EMAIL = "email";
 
+  // Version of the user's list of trips, incremented whenever a trip is added.
+  public static final String TRIPS_VERSION = "trips-version";
+
   /**
-   * Constructor to create a User object; the userId is generated automatically,
+   * Constructor to create a User object; the User Entity is keyed by the email,
    * and the trip IDs are added to the User after constructing the object.
    *
    * @param email The email of the user.
@@ -36,12 +41,18 @@ public class User {
   }
 
   // Builds an Entity object for datastore based on current User attributes.
+  // The entity is keyed by the email, so it can be read back with a get.
   public Entity buildEntity() {
-    Entity userEntity = new Entity(USER);
+    Entity userEntity = new Entity(createKey(this.email));
     userEntity.setProperty(USER_EMAIL, this.email);
     return userEntity;
   }
 
+  // Returns the key of the User Entity of the given email.
+  public static Key createKey(String email) {
+    return KeyFactory.createKey(USER, email);
+  }
+
   // Get the private email field.
   public String getEmail() {
     return this.email;
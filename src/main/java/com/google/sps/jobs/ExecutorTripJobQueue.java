@@ -0,0 +1,92 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.jobs;
+
+import com.google.appengine.api.datastore.Key;
+import com.google.apphosting.api.ApiProxy;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ExecutorTripJobQueue runs trip jobs on a fixed-size thread pool with a
+ * bounded backlog. It stands in for the task queue when the app runs outside
+ * App Engine, e.g. in unit tests; on App Engine, request threads cannot
+ * outlive their request, so TaskQueueTripJobQueue is used instead.
+ */
+public class ExecutorTripJobQueue implements TripJobQueue {
+
+  // Like the task queue, a job whose attempt could not run it is retried,
+  // after a backoff that grows with each attempt.
+  private static final int MAX_RUN_ATTEMPTS = 5;
+  private static final long RETRY_BACKOFF_MILLIS = 100;
+
+  private final TripJobRunner runner;
+  private final ThreadPoolExecutor executor;
+
+  /**
+   * Creates a new ExecutorTripJobQueue.
+   *
+   * @param runner The runner that runs each job. Must be non-null.
+   * @param workerCount The number of jobs that may run at once. Must be positive.
+   * @param maxPendingJobs The number of jobs that may wait for a worker
+   * before submit fails. Must be positive.
+   */
+  public ExecutorTripJobQueue(TripJobRunner runner, int workerCount, int maxPendingJobs) {
+    if (runner == null) {
+      throw new IllegalArgumentException("runner cannot be null");
+    }
+
+    if (workerCount <= 0 || maxPendingJobs <= 0) {
+      throw new IllegalArgumentException("workerCount and maxPendingJobs must be positive");
+    }
+
+    this.runner = runner;
+    this.executor = new ThreadPoolExecutor(workerCount, workerCount, 0L, TimeUnit.MILLISECONDS,
+      new ArrayBlockingQueue<>(maxPendingJobs));
+  }
+
+  @Override
+  public void submit(Key jobKey) throws IOException {
+    // The datastore API needs the environment of the submitting request.
+    ApiProxy.Environment environment = ApiProxy.getCurrentEnvironment();
+    try {
+      this.executor.execute(() -> {
+        ApiProxy.setEnvironmentForCurrentThread(environment);
+        for (int attempt = 1; !this.runner.run(jobKey) && attempt < MAX_RUN_ATTEMPTS;
+            attempt++) {
+          try {
+            Thread.sleep(RETRY_BACKOFF_MILLIS * attempt);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      throw new IOException("Too many trips are being calculated. Try again later.", e);
+    }
+  }
+
+  /**
+   * Returns the executor running the jobs, so callers can shut it down.
+   */
+  public ExecutorService getExecutor() {
+    return this.executor;
+  }
+}
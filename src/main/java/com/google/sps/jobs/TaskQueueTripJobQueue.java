@@ -0,0 +1,44 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.jobs;
+
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.appengine.api.taskqueue.TransientFailureException;
+import java.io.IOException;
+
+/**
+ * TaskQueueTripJobQueue adds each trip job to the "trip-planning" push
+ * queue, which posts it to /trip-worker. The queue's max-concurrent-requests
+ * (see queue.xml) bounds how many jobs run at once.
+ */
+public class TaskQueueTripJobQueue implements TripJobQueue {
+
+  public static final String QUEUE_NAME = "trip-planning";
+  public static final String WORKER_URL = "/trip-worker";
+  public static final String JOB_KEY_PARAM = "jobKey";
+
+  @Override
+  public void submit(Key jobKey) throws IOException {
+    try {
+      QueueFactory.getQueue(QUEUE_NAME).add(TaskOptions.Builder.withUrl(WORKER_URL)
+        .param(JOB_KEY_PARAM, KeyFactory.keyToString(jobKey)));
+    } catch (TransientFailureException e) {
+      throw new IOException(e);
+    }
+  }
+}
@@ -0,0 +1,133 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.jobs;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TripJob describes the datastore entity of one asynchronous trip
+ * calculation. The job stores the user's form inputs, so that any worker can
+ * plan the trip, and records its progress and result. Jobs are children of
+ * the User Entity that requested them.
+ */
+public final class TripJob {
+
+  /**
+   * The lifecycle of a job: PENDING until a worker picks it up, RUNNING while
+   * it is planned, then DONE or FAILED (with an error). The trip key is set 
+   * when the job is first claimed; the trip is stored under it once DONE.
+   */
+  public enum Status { PENDING, RUNNING, DONE, FAILED }
+
+  // Entity kind and properties.
+  public static final String TRIP_JOB = "trip-job";
+  public static final String STATUS = "status";
+  public static final String STAGE = "stage";
+  public static final String TRIP_KEY = "trip-key";
+  public static final String ERROR = "error";
+  public static final String TRIP_NAME = "trip-name";
+  public static final String TRIP_DESTINATION = "trip-destination";
+  public static final String TRIP_DAY_OF_TRAVEL = "trip-day-of-travel";
+  public static final String TRIP_END_DATE = "trip-end-date";
+  public static final String POIS = "pois";
+  public static final String UPDATED_AT = "updated-at";
+  public static final String LEASE_ID = "lease-id";
+  public static final String LEASE_EXPIRES_AT = "lease-expires-at";
+
+  // How long the attempt that claimed a job may run it before a retry takes
+  // it over. No task request outlives the 10 minute task deadline.
+  public static final long LEASE_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+  // Progress stages shown to the user while the job is running.
+  public static final String STAGE_QUEUED = "Waiting to start";
+  public static final String STAGE_FINDING_PLACES = "Finding places";
+  public static final String STAGE_FETCHING_TRAVEL_TIMES = "Fetching travel times";
+  public static final String STAGE_OPTIMIZING_ROUTE = "Optimizing route";
+  public static final String STAGE_SAVING_TRIP = "Saving trip";
+  public static final String STAGE_FINISHED = "Finished";
+
+  private TripJob() {}
+
+  /**
+   * Builds a PENDING job entity (with an incomplete key) for the inputs.
+   *
+   * @param tripName The human-readable name for the trip.
+   * @param tripDestination The hotel / destination text. Must be non-null.
+   * @param tripDayOfTravel The date of the trip, in yyyy-MM-dd date format.
+   * @param tripEndDate The last day of the trip, or null for a one-day trip.
+   * @param pois The POI strings, or null if there are none.
+   * @param userKey The key of the User Entity that owns the job. Must be non-null.
+   */
+  public static Entity buildEntity(String tripName, String tripDestination,
+      String tripDayOfTravel, String tripEndDate, String[] pois, Key userKey) {
+    if (tripDestination == null) {
+      throw new IllegalArgumentException("tripDestination cannot be null");
+    }
+
+    if (userKey == null) {
+      throw new IllegalArgumentException("userKey cannot be null");
+    }
+
+    Entity jobEntity = new Entity(TRIP_JOB, userKey);
+    jobEntity.setUnindexedProperty(TRIP_NAME, tripName);
+    jobEntity.setUnindexedProperty(TRIP_DESTINATION, tripDestination);
+    jobEntity.setUnindexedProperty(TRIP_DAY_OF_TRAVEL, tripDayOfTravel);
+    jobEntity.setUnindexedProperty(TRIP_END_DATE, tripEndDate);
+    jobEntity.setUnindexedProperty(POIS,
+      pois == null ? new ArrayList<String>() : new ArrayList<>(Arrays.asList(pois)));
+    setProgress(jobEntity, Status.PENDING, STAGE_QUEUED);
+    return jobEntity;
+  }
+
+  /**
+   * Sets the status and stage of the job entity, and its update time.
+   */
+  public static void setProgress(Entity jobEntity, Status status, String stage) {
+    jobEntity.setUnindexedProperty(STATUS, status.name());
+    jobEntity.setUnindexedProperty(STAGE, stage);
+    jobEntity.setUnindexedProperty(UPDATED_AT, System.currentTimeMillis());
+  }
+
+  /**
+   * Returns the status of the job entity.
+   */
+  public static Status getStatus(Entity jobEntity) {
+    return Status.valueOf((String) jobEntity.getProperty(STATUS));
+  }
+
+  /**
+   * Returns true if an attempt other than the given one holds an unexpired
+   * lease on the job.
+   */
+  public static boolean isLeasedByOther(Entity jobEntity, String leaseId, long nowMillis) {
+    Long expiresAt = (Long) jobEntity.getProperty(LEASE_EXPIRES_AT);
+    return getStatus(jobEntity) == Status.RUNNING && expiresAt != null && expiresAt > nowMillis
+      && !leaseId.equals(jobEntity.getProperty(LEASE_ID));
+  }
+
+  /**
+   * Returns the POI strings of the job entity, as an array.
+   */
+  @SuppressWarnings("unchecked")
+  public static String[] getPois(Entity jobEntity) {
+    List<String> pois = (List<String>) jobEntity.getProperty(POIS);
+    return pois == null ? new String[0] : pois.toArray(new String[0]);
+  }
+}
@@ -0,0 +1,31 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.jobs;
+
+import com.google.appengine.api.datastore.Key;
+import java.io.IOException;
+
+/**
+ * TripJobQueue hands stored trip jobs to a bounded pool of workers.
+ */
+public interface TripJobQueue {
+
+  /**
+   * Schedules the stored job with the given key to be run by a worker.
+   * Throws an IOException if the job cannot be scheduled, e.g. because the
+   * queue is full.
+   */
+  void submit(Key jobKey) throws IOException;
+}
@@ -0,0 +1,301 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.jobs;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.sps.PlanningContext;
+import com.google.sps.Trip;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * TripJobRunner runs one trip job: it plans the trip described by the job
+ * entity and records the progress and result on the entity, where
+ * /trip-status reads them. Each attempt first claims the job with a lease,
+ * so queue retries are safe: a finished job, or one whose trip is already
+ * stored, is not planned again, and a job another attempt is running is
+ * left to it.
+ *
+ * The key of the job's trip is allocated when the job is first claimed and
+ * stored on the job, and the planner stores the Trip Entity under it last.
+ * A retry of an attempt that died after storing the trip finds the trip and
+ * marks the job DONE; one that died before replans under the same key, after
+ * deleting what the dead attempt left under it.
+ */
+public class TripJobRunner {
+
+  private static final Logger logger = Logger.getLogger(TripJobRunner.class.getName());
+
+  // Attempts at each job transaction before giving up on it.
+  private static final int MAX_TRANSACTION_ATTEMPTS = 5;
+
+  private final DatastoreService datastore;
+  private final TripPlanner planner;
+
+  /**
+   * Creates a new TripJobRunner.
+   *
+   * @param datastore The datastore holding the job entities. Must be non-null.
+   * @param planner The planner that plans and stores each trip. Must be non-null.
+   */
+  public TripJobRunner(DatastoreService datastore, TripPlanner planner) {
+    if (datastore == null) {
+      throw new IllegalArgumentException("datastore cannot be null");
+    }
+
+    if (planner == null) {
+      throw new IllegalArgumentException("planner cannot be null");
+    }
+
+    this.datastore = datastore;
+    this.planner = planner;
+  }
+
+  /**
+   * Runs the job with the given key, marking it DONE with the trip key, or
+   * FAILED with an error message. Returns false if another attempt holds the
+   * job's lease or claims it at the same time, so that the caller can retry
+   * later.
+   */
+  public boolean run(Key jobKey) {
+    String leaseId = UUID.randomUUID().toString();
+    Claim claim;
+    try {
+      claim = inTransaction(transaction -> tryClaim(transaction, jobKey, leaseId));
+    } catch (ConcurrentModificationException | JobLeasedException e) {
+      return false;
+    }
+    if (claim == null) {
+      return true;
+    }
+
+    Entity jobEntity = claim.jobEntity;
+    Key tripKey = KeyFactory.stringToKey((String) jobEntity.getProperty(TripJob.TRIP_KEY));
+    String error = null;
+    try {
+      if (claim.resumed) {
+        deletePartialTrip(tripKey);
+      }
+
+      PlanningContext planningContext = this.planner.createPlanningContext(
+        (String) jobEntity.getProperty(TripJob.TRIP_NAME),
+        (String) jobEntity.getProperty(TripJob.TRIP_DESTINATION),
+        (String) jobEntity.getProperty(TripJob.TRIP_DAY_OF_TRAVEL),
+        (String) jobEntity.getProperty(TripJob.TRIP_END_DATE),
+        TripJob.getPois(jobEntity));
+      this.planner.planTrip(planningContext, tripKey, stage -> {
+        if (!updateProgress(jobKey, leaseId, TripJob.Status.RUNNING, stage, null)) {
+          throw new LeaseLostException();
+        }
+      });
+    } catch (LeaseLostException e) {
+      logger.warning("Trip job " + jobKey + " was taken over by another attempt.");
+      return true;
+    } catch (IOException | RuntimeException e) {
+      logger.log(Level.WARNING, "Trip job " + jobKey + " failed.", e);
+      error = "The trip could not be calculated.";
+    }
+
+    // If the result cannot be recorded, a retry finds the stored trip, or
+    // plans it again.
+    try {
+      updateProgress(jobKey, leaseId,
+        error == null ? TripJob.Status.DONE : TripJob.Status.FAILED, TripJob.STAGE_FINISHED,
+        error);
+    } catch (ConcurrentModificationException e) {
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Claims the job for one attempt: a PENDING job, or a RUNNING one whose
+   * lease has expired, becomes RUNNING under the attempt's lease, with the
+   * key of its trip. Returns the claim, or null if there is nothing to run:
+   * the job is gone, finished, or its trip was stored by an attempt that died
+   * before marking it DONE.
+   *
+   * @throws JobLeasedException if another attempt holds the job's lease.
+   */
+  private Claim tryClaim(Transaction transaction, Key jobKey, String leaseId)
+      throws JobLeasedException {
+    Entity jobEntity;
+    try {
+      jobEntity = this.datastore.get(transaction, jobKey);
+    } catch (EntityNotFoundException e) {
+      logger.warning("Trip job " + jobKey + " no longer exists.");
+      return null;
+    }
+
+    TripJob.Status status = TripJob.getStatus(jobEntity);
+    if (status == TripJob.Status.DONE || status == TripJob.Status.FAILED) {
+      return null;
+    }
+
+    // The trip is in the job's entity group, so it is read in the claim.
+    String tripKeyString = (String) jobEntity.getProperty(TripJob.TRIP_KEY);
+    if (tripKeyString != null 
+        && isStored(transaction, KeyFactory.stringToKey(tripKeyString))) {
+      TripJob.setProgress(jobEntity, TripJob.Status.DONE, TripJob.STAGE_FINISHED);
+      this.datastore.put(transaction, jobEntity);
+      return null;
+    }
+
+    long now = System.currentTimeMillis();
+    if (TripJob.isLeasedByOther(jobEntity, leaseId, now)) {
+      throw new JobLeasedException();
+    }
+
+    if (tripKeyString == null) {
+      Key tripKey = Trip.allocateKey(this.datastore, jobKey.getParent());
+      jobEntity.setUnindexedProperty(TripJob.TRIP_KEY, KeyFactory.keyToString(tripKey));
+    }
+    jobEntity.setUnindexedProperty(TripJob.LEASE_ID, leaseId);
+    jobEntity.setUnindexedProperty(TripJob.LEASE_EXPIRES_AT, now + TripJob.LEASE_MILLIS);
+    TripJob.setProgress(jobEntity, TripJob.Status.RUNNING, TripJob.STAGE_FINDING_PLACES);
+    this.datastore.put(transaction, jobEntity);
+    return new Claim(jobEntity, tripKeyString != null);
+  }
+
+  /**
+   * Records the status and stage on the job, and the error if non-null, if
+   * the attempt still holds the job's lease; the lease is renewed. Returns
+   * false if another attempt has taken the job over, or the job is gone.
+   */
+  private boolean updateProgress(Key jobKey, String leaseId, TripJob.Status status,
+      String stage, String error) {
+    try {
+      return inTransaction(transaction -> {
+        Entity jobEntity;
+        try {
+          jobEntity = this.datastore.get(transaction, jobKey);
+        } catch (EntityNotFoundException e) {
+          return false;
+        }
+
+        if (!leaseId.equals(jobEntity.getProperty(TripJob.LEASE_ID))) {
+          return false;
+        }
+
+        if (error != null) {
+          jobEntity.setUnindexedProperty(TripJob.ERROR, error);
+        }
+        jobEntity.setUnindexedProperty(TripJob.LEASE_EXPIRES_AT,
+          System.currentTimeMillis() + TripJob.LEASE_MILLIS);
+        TripJob.setProgress(jobEntity, status, stage);
+        this.datastore.put(transaction, jobEntity);
+        return true;
+      });
+    } catch (JobLeasedException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  /**
+   * Returns true if the entity exists, reading it in the transaction.
+   */
+  private boolean isStored(Transaction transaction, Key key) {
+    try {
+      this.datastore.get(transaction, key);
+      return true;
+    } catch (EntityNotFoundException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Deletes the entities a dead attempt stored under the trip key before it
+   * could store the Trip Entity.
+   */
+  private void deletePartialTrip(Key tripKey) {
+    List<Key> partialKeys = new ArrayList<>();
+    for (Entity entity : this.datastore.prepare(new Query(tripKey).setKeysOnly())
+        .asIterable()) {
+      partialKeys.add(entity.getKey());
+    }
+    if (!partialKeys.isEmpty()) {
+      logger.info("Deleting " + partialKeys.size() + " entities of unfinished trip " + tripKey);
+      this.datastore.delete(partialKeys);
+    }
+  }
+
+  /**
+   * Runs the body in a transaction and commits it, retrying it when it
+   * conflicts: jobs of a user share an entity group, so updates of other
+   * jobs conflict too.
+   *
+   * @throws ConcurrentModificationException if the body keeps conflicting.
+   */
+  private <T> T inTransaction(JobTransaction<T> body) throws JobLeasedException {
+    for (int attempt = 1; ; attempt++) {
+      Transaction transaction = this.datastore.beginTransaction();
+      try {
+        T result = body.run(transaction);
+        transaction.commit();
+        return result;
+      } catch (ConcurrentModificationException e) {
+        if (attempt == MAX_TRANSACTION_ATTEMPTS) {
+          throw e;
+        }
+      } finally {
+        if (transaction.isActive()) {
+          transaction.rollback();
+        }
+      }
+    }
+  }
+
+  /**
+   * The work of one job transaction.
+   */
+  @FunctionalInterface
+  private interface JobTransaction<T> {
+    T run(Transaction transaction) throws JobLeasedException;
+  }
+
+  /**
+   * A claimed job, and whether an earlier attempt already had its trip key.
+   */
+  private static final class Claim {
+    private final Entity jobEntity;
+    private final boolean resumed;
+
+    private Claim(Entity jobEntity, boolean resumed) {
+      this.jobEntity = jobEntity;
+      this.resumed = resumed;
+    }
+  }
+
+  /**
+   * Thrown when another attempt is running the job.
+   */
+  private static final class JobLeasedException extends Exception {}
+
+  /**
+   * Thrown out of the planner when another attempt has taken the job over.
+   */
+  private static final class LeaseLostException extends RuntimeException {}
+}
@@ -0,0 +1,54 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.jobs;
+
+import com.google.appengine.api.datastore.Key;
+import com.google.sps.PlanningContext;
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * TripPlanner turns a user's trip inputs into a stored trip. It is the part
+ * of trip calculation that does not depend on the HTTP request, so it can
+ * run on a request thread or on a job worker.
+ */
+public interface TripPlanner {
+
+  /**
+   * Creates the planning context of the inputs, resolving the destination
+   * name and photo.
+   *
+   * @param tripName The human-readable name for the trip.
+   * @param tripDestination The hotel / destination text. Must be non-null.
+   * @param tripDayOfTravel The date of the trip, in yyyy-MM-dd date format.
+   * @param tripEndDate The last day of the trip, or null for a one-day trip.
+   * @param poiStrings String array of poi addresses, or null if there are none
+   */
+  PlanningContext createPlanningContext(String tripName, String tripDestination,
+      String tripDayOfTravel, String tripEndDate, String[] poiStrings) throws IOException;
+
+  /**
+   * Plans the trip and stores it, with all of its days, locations and events,
+   * under the given key. The Trip Entity is stored last, so that a trip whose
+   * Trip Entity exists is complete.
+   *
+   * @param planningContext The inputs of the trip. Must be non-null.
+   * @param tripKey The allocated key of the Trip Entity, under the User Entity
+   * that owns the trip; see Trip.allocateKey. Must be non-null.
+   * @param progress Receives each TripJob stage as planning reaches it. Must be non-null.
+   */
+  void planTrip(PlanningContext planningContext, Key tripKey, Consumer<String> progress)
+      throws IOException;
+}
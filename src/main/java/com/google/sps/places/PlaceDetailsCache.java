@@ -0,0 +1,102 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.places;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.sps.TieredCache;
+import java.time.Clock;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PlaceDetailsCache stores a PlaceSummary per place ID, so that the name,
+ * photo and location of a place are requested from Place Details at most
+ * once per TTL. The cache is thread-safe.
+ *
+ * Its rows are shared by every user and hold only what Place Details
+ * returned. Trips refer to places through PlaceStore, which reads this cache
+ * for places it has no entity for.
+ */
+public class PlaceDetailsCache extends TieredCache<String, PlaceSummary> {
+
+  // Datastore kind and properties of the cached places.
+  public static final String ENTITY_KIND = "place-details";
+  public static final String NAME = "name";
+  public static final String PHOTO_REFERENCE = "photo-reference";
+  public static final String ADDRESS = "address";
+  public static final String LATITUDE = "latitude";
+  public static final String LONGITUDE = "longitude";
+  public static final String OPENING_HOURS = "opening-hours";
+
+  // Google allows place data other than the place ID to be cached for 30 days.
+  public static final long DEFAULT_TTL_MILLIS = TimeUnit.DAYS.toMillis(30);
+
+  public static final int DEFAULT_MAX_MEMORY_ENTRIES = 10000;
+
+  /**
+   * Creates a cache with the default TTL and memory bound.
+   *
+   * @param datastore The datastore backing the cache. Must be non-null.
+   */
+  public PlaceDetailsCache(DatastoreService datastore) {
+    this(datastore, DEFAULT_TTL_MILLIS, DEFAULT_MAX_MEMORY_ENTRIES, Clock.systemUTC());
+  }
+
+  /**
+   * Creates a cache.
+   *
+   * @param datastore The datastore backing the cache. Must be non-null.
+   * @param ttlMillis How long a cached place stays valid. Must be positive.
+   * @param maxMemoryEntries The most places kept in memory. Must be positive.
+   * @param clock The clock used to timestamp and expire entries. Must be non-null.
+   */
+  public PlaceDetailsCache(DatastoreService datastore, long ttlMillis, int maxMemoryEntries,
+      Clock clock) {
+    super(datastore, ttlMillis, maxMemoryEntries, clock);
+  }
+
+  @Override
+  protected Key toDatastoreKey(String placeId) {
+    return KeyFactory.createKey(ENTITY_KIND, placeId);
+  }
+
+  @Override
+  protected void writeEntity(Entity entity, String placeId, PlaceSummary place) {
+    entity.setUnindexedProperty(NAME, place.getName());
+    entity.setUnindexedProperty(PHOTO_REFERENCE, place.getPhotoReference());
+    entity.setUnindexedProperty(ADDRESS, place.getAddress());
+    entity.setUnindexedProperty(LATITUDE, place.getLatitude());
+    entity.setUnindexedProperty(LONGITUDE, place.getLongitude());
+    entity.setUnindexedProperty(OPENING_HOURS, place.getOpeningHours());
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  protected PlaceSummary readEntity(Entity entity) {
+    if (!entity.hasProperty(NAME)) {
+      return null;
+    }
+    return new PlaceSummary(entity.getKey().getName(),
+      (String) entity.getProperty(NAME),
+      (String) entity.getProperty(PHOTO_REFERENCE),
+      (String) entity.getProperty(ADDRESS),
+      (Double) entity.getProperty(LATITUDE),
+      (Double) entity.getProperty(LONGITUDE),
+      (List<String>) entity.getProperty(OPENING_HOURS));
+  }
+}
@@ -0,0 +1,129 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.places;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Text;
+import com.google.common.hash.Hashing;
+import com.google.sps.TieredCache;
+import java.nio.charset.StandardCharsets;
+import java.text.Normalizer;
+import java.time.Clock;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PlaceIdCache stores the result of Find Place text searches, keyed by the
+ * normalized search text (see normalize(...)). A cached Optional.empty()
+ * means the search returned no candidates; these are kept for a shorter
+ * time, so that a place that is added to Google Maps is found soon after.
+ * The cache is thread-safe.
+ */
+public class PlaceIdCache extends TieredCache<String, Optional<String>> {
+
+  // Datastore kind and properties of the cached searches.
+  public static final String ENTITY_KIND = "place-search";
+  public static final String TEXT = "text";
+  public static final String PLACE_ID = "place-id";
+
+  // Place IDs are stable, but Google asks that they are refreshed now and then.
+  public static final long DEFAULT_TTL_MILLIS = TimeUnit.DAYS.toMillis(30);
+
+  // Searches without candidates are retried after a day.
+  public static final long DEFAULT_NO_MATCH_TTL_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+  public static final int DEFAULT_MAX_MEMORY_ENTRIES = 20000;
+
+  // Datastore key names are limited to 500 bytes; longer texts are hashed.
+  private static final int MAX_KEY_NAME_BYTES = 500;
+
+  private final long noMatchTtlMillis;
+
+  /**
+   * Creates a cache with the default TTLs and memory bound.
+   *
+   * @param datastore The datastore backing the cache. Must be non-null.
+   */
+  public PlaceIdCache(DatastoreService datastore) {
+    this(datastore, DEFAULT_TTL_MILLIS, DEFAULT_NO_MATCH_TTL_MILLIS, DEFAULT_MAX_MEMORY_ENTRIES,
+      Clock.systemUTC());
+  }
+
+  /**
+   * Creates a cache.
+   *
+   * @param datastore The datastore backing the cache. Must be non-null.
+   * @param ttlMillis How long a found place ID stays valid. Must be positive.
+   * @param noMatchTtlMillis How long a search without candidates stays
+   * valid. Must be positive, and at most ttlMillis.
+   * @param maxMemoryEntries The most searches kept in memory. Must be positive.
+   * @param clock The clock used to timestamp and expire entries. Must be non-null.
+   */
+  public PlaceIdCache(DatastoreService datastore, long ttlMillis, long noMatchTtlMillis,
+      int maxMemoryEntries, Clock clock) {
+    super(datastore, ttlMillis, maxMemoryEntries, clock);
+    if (noMatchTtlMillis <= 0 || noMatchTtlMillis > ttlMillis) {
+      throw new IllegalArgumentException("noMatchTtlMillis must be positive and at most ttlMillis");
+    }
+    this.noMatchTtlMillis = noMatchTtlMillis;
+  }
+
+  /**
+   * Returns the cache key of a text search: Unicode-normalized, lower case,
+   * with runs of whitespace collapsed and commas followed by one space, so
+   * that "Eiffel Tower,  Paris" and "eiffel tower, paris" share one entry.
+   *
+   * @param textSearch The text query of a Find Place request. Must be non-null.
+   */
+  public static String normalize(String textSearch) {
+    return Normalizer.normalize(textSearch, Normalizer.Form.NFKC)
+      .toLowerCase(Locale.ROOT)
+      .replaceAll("\\s*,\\s*", ", ")
+      .replaceAll("\\s+", " ")
+      .trim();
+  }
+
+  @Override
+  protected Key toDatastoreKey(String normalizedText) {
+    String keyName = normalizedText;
+    if (keyName.getBytes(StandardCharsets.UTF_8).length > MAX_KEY_NAME_BYTES) {
+      keyName = Hashing.sha256().hashString(normalizedText, StandardCharsets.UTF_8).toString();
+    }
+    return KeyFactory.createKey(ENTITY_KIND, keyName);
+  }
+
+  @Override
+  protected void writeEntity(Entity entity, String normalizedText, Optional<String> placeId) {
+    entity.setUnindexedProperty(TEXT, new Text(normalizedText));
+    entity.setUnindexedProperty(PLACE_ID, placeId.orElse(null));
+  }
+
+  @Override
+  protected Optional<String> readEntity(Entity entity) {
+    if (!entity.hasProperty(PLACE_ID)) {
+      return null;
+    }
+    return Optional.ofNullable((String) entity.getProperty(PLACE_ID));
+  }
+
+  @Override
+  protected long getTtlMillis(Optional<String> placeId) {
+    return placeId.isPresent() ? super.getTtlMillis(placeId) : this.noMatchTtlMillis;
+  }
+}
@@ -0,0 +1,169 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.places;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * PlaceStore holds one "place" entity per place ID with the name, address
+ * and location Place Details returned for it. Events and trip days of
+ * resolved POIs refer to these entities by place ID instead of copying the
+ * text into every row, and are resolved on read with one batch get.
+ *
+ * The entities are shared by every user, so they hold only Place Details
+ * fields and never what a user typed. They are written when a trip planning
+ * the place is saved, from the PlaceDetailsCache.
+ */
+public class PlaceStore {
+
+  // Datastore kind and properties of the places.
+  public static final String ENTITY_KIND = "place";
+  public static final String NAME = "name";
+  public static final String ADDRESS = "address";
+  public static final String LATITUDE = "latitude";
+  public static final String LONGITUDE = "longitude";
+
+  // Datastore accepts at most 1000 keys in a single get.
+  private static final int MAX_KEYS_PER_GET = 1000;
+
+  // Datastore accepts at most 500 entities in a single put.
+  private static final int MAX_ENTITIES_PER_PUT = 500;
+
+  private final DatastoreService datastore;
+  private final PlaceDetailsCache placeDetailsCache;
+
+  /**
+   * Creates a new PlaceStore.
+   *
+   * @param datastore The datastore holding the places. Must be non-null.
+   * @param placeDetailsCache The cache read for places that have no entity
+   * yet. Must be non-null.
+   */
+  public PlaceStore(DatastoreService datastore, PlaceDetailsCache placeDetailsCache) {
+    if (datastore == null) {
+      throw new IllegalArgumentException("datastore cannot be null");
+    }
+
+    if (placeDetailsCache == null) {
+      throw new IllegalArgumentException("placeDetailsCache cannot be null");
+    }
+
+    this.datastore = datastore;
+    this.placeDetailsCache = placeDetailsCache;
+  }
+
+  /**
+   * Returns the key of the place entity of the place ID.
+   */
+  public static Key toKey(String placeId) {
+    return KeyFactory.createKey(ENTITY_KIND, placeId);
+  }
+
+  /**
+   * Returns the place entity holding the Place Details fields of the place.
+   */
+  public static Entity toEntity(PlaceSummary place) {
+    Entity placeEntity = new Entity(toKey(place.getPlaceId()));
+    placeEntity.setUnindexedProperty(NAME, place.getName());
+    placeEntity.setUnindexedProperty(ADDRESS, place.getAddress());
+    placeEntity.setUnindexedProperty(LATITUDE, place.getLatitude());
+    placeEntity.setUnindexedProperty(LONGITUDE, place.getLongitude());
+    return placeEntity;
+  }
+
+  /**
+   * Returns the place stored in the place entity. The photo and opening hours
+   * are not stored, and are null.
+   */
+  public static PlaceSummary fromEntity(Entity placeEntity) {
+    return new PlaceSummary(placeEntity.getKey().getName(),
+      (String) placeEntity.getProperty(NAME), null,
+      (String) placeEntity.getProperty(ADDRESS),
+      (Double) placeEntity.getProperty(LATITUDE),
+      (Double) placeEntity.getProperty(LONGITUDE), null);
+  }
+
+  /**
+   * Returns the places of the given place IDs, by place ID. The place
+   * entities are read with one batch get; places without an entity are
+   * looked up in the PlaceDetailsCache. Place IDs found in neither are left
+   * out of the map.
+   *
+   * @param placeIds The place IDs to resolve; duplicates and nulls are ignored.
+   */
+  public Map<String, PlaceSummary> getAll(Collection<String> placeIds) {
+    List<Key> keys = new ArrayList<>();
+    for (String placeId : new LinkedHashSet<>(placeIds)) {
+      if (placeId != null) {
+        keys.add(toKey(placeId));
+      }
+    }
+
+    Map<String, PlaceSummary> places = new HashMap<>();
+    if (keys.isEmpty()) {
+      return places;
+    }
+
+    // Read outside any transaction of the caller: the places are root
+    // entities of their own groups.
+    for (int start = 0; start < keys.size(); start += MAX_KEYS_PER_GET) {
+      for (Entity placeEntity : this.datastore.get(null, 
+          keys.subList(start, Math.min(keys.size(), start + MAX_KEYS_PER_GET))).values()) {
+        PlaceSummary place = fromEntity(placeEntity);
+        places.put(place.getPlaceId(), place);
+      }
+    }
+
+    List<String> missingPlaceIds = new ArrayList<>();
+    for (Key key : keys) {
+      if (!places.containsKey(key.getName())) {
+        missingPlaceIds.add(key.getName());
+      }
+    }
+    if (!missingPlaceIds.isEmpty()) {
+      places.putAll(this.placeDetailsCache.getAll(missingPlaceIds));
+    }
+    return places;
+  }
+
+  /**
+   * Stores the places, replacing their previous entities, with as few puts
+   * as the datastore limits allow. The puts are made outside any transaction
+   * of the caller.
+   */
+  public void putAll(Collection<PlaceSummary> places) {
+    if (places.isEmpty()) {
+      return;
+    }
+
+    List<Entity> placeEntities = new ArrayList<>();
+    for (PlaceSummary place : places) {
+      placeEntities.add(toEntity(place));
+    }
+    for (int start = 0; start < placeEntities.size(); start += MAX_ENTITIES_PER_PUT) {
+      this.datastore.put(null, placeEntities.subList(start,
+        Math.min(placeEntities.size(), start + MAX_ENTITIES_PER_PUT)));
+    }
+  }
+}
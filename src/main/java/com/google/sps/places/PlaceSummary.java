@@ -0,0 +1,131 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.places;
+
+import com.google.maps.PlaceDetailsRequest;
+import com.google.maps.model.PlaceDetails;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * PlaceSummary is the compact, immutable subset of a PlaceDetails result that
+ * the app uses: the name, first photo reference, address, location and
+ * opening hours of a place. Any field except the place ID can be null.
+ */
+public final class PlaceSummary {
+
+  // The only fields requested from Place Details; everything else is billed
+  // but never read.
+  public static final PlaceDetailsRequest.FieldMask[] FIELDS = {
+    PlaceDetailsRequest.FieldMask.NAME,
+    PlaceDetailsRequest.FieldMask.PHOTOS,
+    PlaceDetailsRequest.FieldMask.FORMATTED_ADDRESS,
+    PlaceDetailsRequest.FieldMask.GEOMETRY_LOCATION,
+    PlaceDetailsRequest.FieldMask.OPENING_HOURS
+  };
+
+  private final String placeId;
+  private final String name;
+  private final String photoReference;
+  private final String address;
+  private final Double latitude;
+  private final Double longitude;
+  private final List<String> openingHours;
+
+  /**
+   * Creates a new PlaceSummary.
+   *
+   * @param placeId The Google Maps place ID. Must be non-null.
+   * @param name The human-readable name of the place.
+   * @param photoReference The reference of the first photo of the place.
+   * @param address The formatted address of the place.
+   * @param latitude The latitude of the place.
+   * @param longitude The longitude of the place.
+   * @param openingHours The opening hours, one line per weekday, or null.
+   */
+  public PlaceSummary(String placeId, String name, String photoReference, String address,
+      Double latitude, Double longitude, List<String> openingHours) {
+    if (placeId == null) {
+      throw new IllegalArgumentException("placeId cannot be null");
+    }
+
+    this.placeId = placeId;
+    this.name = name;
+    this.photoReference = photoReference;
+    this.address = address;
+    this.latitude = latitude;
+    this.longitude = longitude;
+    this.openingHours = openingHours == null ? null
+      : Collections.unmodifiableList(new ArrayList<>(openingHours));
+  }
+
+  /**
+   * Returns the summary of a Place Details result.
+   *
+   * @param placeId The place ID the details were requested for. Must be non-null.
+   * @param placeDetails The Place Details result. Must be non-null.
+   */
+  public static PlaceSummary fromPlaceDetails(String placeId, PlaceDetails placeDetails) {
+    String photoReference = null;
+    if (placeDetails.photos != null && placeDetails.photos.length > 0) {
+      photoReference = placeDetails.photos[0].photoReference;
+    }
+
+    Double latitude = null;
+    Double longitude = null;
+    if (placeDetails.geometry != null && placeDetails.geometry.location != null) {
+      latitude = placeDetails.geometry.location.lat;
+      longitude = placeDetails.geometry.location.lng;
+    }
+
+    List<String> openingHours = null;
+    if (placeDetails.openingHours != null && placeDetails.openingHours.weekdayText != null) {
+      openingHours = Arrays.asList(placeDetails.openingHours.weekdayText);
+    }
+
+    return new PlaceSummary(placeId, placeDetails.name, photoReference,
+      placeDetails.formattedAddress, latitude, longitude, openingHours);
+  }
+
+  public String getPlaceId() {
+    return this.placeId;
+  }
+
+  public String getName() {
+    return this.name;
+  }
+
+  public String getPhotoReference() {
+    return this.photoReference;
+  }
+
+  public String getAddress() {
+    return this.address;
+  }
+
+  public Double getLatitude() {
+    return this.latitude;
+  }
+
+  public Double getLongitude() {
+    return this.longitude;
+  }
+
+  public List<String> getOpeningHours() {
+    return this.openingHours;
+  }
+}
@@ -0,0 +1,239 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.route;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * DayPartitioner splits the waypoints of a multi-day trip into one group
+ * per day, so that each day visits places that are close to each other.
+ *
+ * Closeness is the round-trip travel duration between two waypoints, read
+ * from the same flat, row-major matrix that RouteOptimizer uses (location 0
+ * is the hotel, waypoint i is location i + 1). The groups are found with a
+ * capacitated k-medoids clustering: every day holds at most
+ * ceil(waypoints / days) waypoints, so the days stay balanced.
+ */
+public final class DayPartitioner {
+
+  // Safety cap on reassignment rounds; clustering usually settles in a few.
+  private static final int MAX_ROUNDS = 20;
+
+  private DayPartitioner() {}
+
+  /**
+   * Returns the waypoint indices of each day, in ascending order. There is
+   * one (possibly empty) array per day; days are only left empty when there
+   * are fewer waypoints than days.
+   *
+   * @param durations Flat size x size matrix of travel durations. Must be non-null.
+   * @param size The number of locations, including the hotel at index 0.
+   * @param numDays The number of days of the trip. Must be positive.
+   */
+  public static int[][] partition(int[] durations, int size, int numDays) {
+    if (durations == null || size < 1 || durations.length != size * size) {
+      throw new IllegalArgumentException("durations must be a size x size matrix");
+    }
+
+    if (numDays <= 0) {
+      throw new IllegalArgumentException("numDays must be positive");
+    }
+
+    int numWaypoints = size - 1;
+    int numClusters = Math.min(numDays, numWaypoints);
+    int[] dayOfWaypoint = new int[numWaypoints];
+    if (numClusters > 1) {
+      int capacity = (numWaypoints + numClusters - 1) / numClusters;
+      int[] medoids = chooseSeeds(durations, size, numClusters);
+      for (int round = 0; round < MAX_ROUNDS; round++) {
+        assignToMedoids(durations, size, medoids, capacity, dayOfWaypoint);
+        int[] nextMedoids = findMedoids(durations, size, numClusters, dayOfWaypoint);
+        if (Arrays.equals(medoids, nextMedoids)) {
+          break;
+        }
+        medoids = nextMedoids;
+      }
+    }
+
+    List<List<Integer>> days = new ArrayList<>();
+    for (int day = 0; day < numDays; day++) {
+      days.add(new ArrayList<>());
+    }
+    for (int waypoint = 0; waypoint < numWaypoints; waypoint++) {
+      days.get(dayOfWaypoint[waypoint]).add(waypoint);
+    }
+
+    int[][] waypointsByDay = new int[numDays][];
+    for (int day = 0; day < numDays; day++) {
+      waypointsByDay[day] = days.get(day).stream().mapToInt(Integer::intValue).toArray();
+    }
+    return waypointsByDay;
+  }
+
+  /**
+   * Returns the travel-duration matrix of one day: the hotel at index 0,
+   * followed by the day's waypoints in the given order.
+   *
+   * @param durations Flat size x size matrix of the whole trip. Must be non-null.
+   * @param size The number of locations of the whole trip, including the hotel.
+   * @param waypoints The waypoint indices of the day. Must be non-null.
+   */
+  public static int[] dayMatrix(int[] durations, int size, int[] waypoints) {
+    int daySize = waypoints.length + 1;
+    int[] locations = new int[daySize];
+    for (int i = 0; i < waypoints.length; i++) {
+      locations[i + 1] = waypoints[i] + 1;
+    }
+
+    int[] dayDurations = new int[daySize * daySize];
+    for (int from = 0; from < daySize; from++) {
+      for (int to = 0; to < daySize; to++) {
+        dayDurations[from * daySize + to] = durations[locations[from] * size + locations[to]];
+      }
+    }
+    return dayDurations;
+  }
+
+  /**
+   * Returns the round-trip travel duration between two waypoints.
+   */
+  private static long distance(int[] durations, int size, int a, int b) {
+    return (long) durations[(a + 1) * size + (b + 1)] + durations[(b + 1) * size + (a + 1)];
+  }
+
+  /**
+   * Chooses spread-out seed medoids: the waypoint farthest from the hotel,
+   * then repeatedly the waypoint farthest from every seed chosen so far.
+   */
+  private static int[] chooseSeeds(int[] durations, int size, int numClusters) {
+    int numWaypoints = size - 1;
+    long[] nearestSeedDistance = new long[numWaypoints];
+    int firstSeed = 0;
+    for (int waypoint = 0; waypoint < numWaypoints; waypoint++) {
+      nearestSeedDistance[waypoint] =
+        (long) durations[waypoint + 1] + durations[(waypoint + 1) * size];
+      if (nearestSeedDistance[waypoint] > nearestSeedDistance[firstSeed]) {
+        firstSeed = waypoint;
+      }
+    }
+
+    int[] seeds = new int[numClusters];
+    seeds[0] = firstSeed;
+    Arrays.fill(nearestSeedDistance, Long.MAX_VALUE);
+    nearestSeedDistance[firstSeed] = -1;
+    for (int k = 1; k < numClusters; k++) {
+      int nextSeed = -1;
+      for (int waypoint = 0; waypoint < numWaypoints; waypoint++) {
+        nearestSeedDistance[waypoint] = Math.min(nearestSeedDistance[waypoint],
+          distance(durations, size, waypoint, seeds[k - 1]));
+        if (nextSeed == -1 || nearestSeedDistance[waypoint] > nearestSeedDistance[nextSeed]) {
+          nextSeed = waypoint;
+        }
+      }
+      seeds[k] = nextSeed;
+      nearestSeedDistance[nextSeed] = -1;
+    }
+    return seeds;
+  }
+
+  /**
+   * Assigns each waypoint to its nearest medoid that still has room. The
+   * waypoints that lose the most by not getting their nearest medoid (the
+   * largest gap to their second choice) are placed first.
+   */
+  private static void assignToMedoids(int[] durations, int size, int[] medoids, int capacity,
+      int[] dayOfWaypoint) {
+    int numWaypoints = size - 1;
+    int numClusters = medoids.length;
+    long[][] medoidDistances = new long[numWaypoints][numClusters];
+    long[] regret = new long[numWaypoints];
+    for (int waypoint = 0; waypoint < numWaypoints; waypoint++) {
+      long best = Long.MAX_VALUE;
+      long secondBest = Long.MAX_VALUE;
+      for (int k = 0; k < numClusters; k++) {
+        long distance = distance(durations, size, waypoint, medoids[k]);
+        medoidDistances[waypoint][k] = distance;
+        if (distance < best) {
+          secondBest = best;
+          best = distance;
+        } else if (distance < secondBest) {
+          secondBest = distance;
+        }
+      }
+      regret[waypoint] = secondBest - best;
+    }
+
+    // Every medoid stays in its own cluster, so that no cluster is empty.
+    boolean[] isMedoid = new boolean[numWaypoints];
+    int[] clusterSizes = new int[numClusters];
+    for (int k = 0; k < numClusters; k++) {
+      isMedoid[medoids[k]] = true;
+      dayOfWaypoint[medoids[k]] = k;
+      clusterSizes[k] = 1;
+    }
+
+    Integer[] order = new Integer[numWaypoints];
+    for (int waypoint = 0; waypoint < numWaypoints; waypoint++) {
+      order[waypoint] = waypoint;
+    }
+    Arrays.sort(order, Comparator.comparing(waypoint -> regret[waypoint], 
+      Comparator.reverseOrder()));
+
+    for (int waypoint : order) {
+      if (isMedoid[waypoint]) {
+        continue;
+      }
+
+      int bestCluster = -1;
+      for (int k = 0; k < numClusters; k++) {
+        if (clusterSizes[k] < capacity && (bestCluster == -1
+            || medoidDistances[waypoint][k] < medoidDistances[waypoint][bestCluster])) {
+          bestCluster = k;
+        }
+      }
+      dayOfWaypoint[waypoint] = bestCluster;
+      clusterSizes[bestCluster]++;
+    }
+  }
+
+  /**
+   * Returns the medoid of each cluster: the member with the smallest total
+   * distance to the other members.
+   */
+  private static int[] findMedoids(int[] durations, int size, int numClusters,
+      int[] dayOfWaypoint) {
+    int numWaypoints = size - 1;
+    int[] medoids = new int[numClusters];
+    long[] medoidCosts = new long[numClusters];
+    Arrays.fill(medoidCosts, Long.MAX_VALUE);
+    for (int candidate = 0; candidate < numWaypoints; candidate++) {
+      int cluster = dayOfWaypoint[candidate];
+      long cost = 0;
+      for (int waypoint = 0; waypoint < numWaypoints; waypoint++) {
+        if (dayOfWaypoint[waypoint] == cluster) {
+          cost += distance(durations, size, candidate, waypoint);
+        }
+      }
+      if (cost < medoidCosts[cluster]) {
+        medoidCosts[cluster] = cost;
+        medoids[cluster] = candidate;
+      }
+    }
+    return medoids;
+  }
+}
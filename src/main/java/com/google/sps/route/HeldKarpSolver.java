@@ -0,0 +1,163 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.route;
+
+/**
+ * HeldKarpSolver finds the exact shortest round trip from the hotel through
+ * a small number of waypoints, using bitmask dynamic programming.
+ *
+ * The durations use the same flat, row-major layout as RouteOptimizer, with
+ * the hotel at index 0. All tables are allocated in the constructor, so a
+ * solver can be reused for many trips of up to maxWaypoints stops without
+ * allocating. A solver is not thread-safe.
+ */
+public final class HeldKarpSolver {
+
+  // Largest supported number of waypoints; the tables grow as 2^n * n.
+  public static final int MAX_WAYPOINTS = 20;
+
+  private final int maxWaypoints;
+
+  // bestDuration[subset * maxWaypoints + last] is the shortest duration of a
+  // path from the hotel through every waypoint in subset, ending at last.
+  private final int[] bestDuration;
+
+  // previousStop[...] is the waypoint visited before last on that path.
+  private final byte[] previousStop;
+
+  // arrivalDurations[to * maxWaypoints + from] is the duration between two
+  // waypoints, transposed so that the inner loop reads it sequentially.
+  private final int[] arrivalDurations;
+
+  /**
+   * Creates a solver for trips of up to maxWaypoints waypoints.
+   *
+   * @param maxWaypoints The largest number of waypoints (POIs, not counting
+   * the hotel) that solve(...) will be called with. Must be between 0 and
+   * MAX_WAYPOINTS, inclusive.
+   */
+  public HeldKarpSolver(int maxWaypoints) {
+    if (maxWaypoints < 0 || maxWaypoints > MAX_WAYPOINTS) {
+      throw new IllegalArgumentException("maxWaypoints must be an integer between 0 and "
+        + MAX_WAYPOINTS + ", inclusive.");
+    }
+
+    this.maxWaypoints = maxWaypoints;
+    int numStates = (1 << maxWaypoints) * Math.max(1, maxWaypoints);
+    this.bestDuration = new int[numStates];
+    this.previousStop = new byte[numStates];
+    this.arrivalDurations = new int[maxWaypoints * maxWaypoints];
+  }
+
+  /**
+   * Writes the optimal visiting order of the waypoints into waypointOrder, as
+   * waypoint indices (location - 1), and returns the duration of the round
+   * trip. Durations must be non-negative, and small enough that a full round
+   * trip fits in an int.
+   *
+   * @param durations Flat size x size matrix of travel durations. Must be non-null.
+   * @param size The number of locations, including the hotel at index 0.
+   * @param waypointOrder Output array of length at least size - 1.
+   */
+  public int solve(int[] durations, int size, int[] waypointOrder) {
+    RouteOptimizer.checkMatrix(durations, size);
+    int numWaypoints = size - 1;
+    if (numWaypoints > this.maxWaypoints) {
+      throw new IllegalArgumentException("solver supports at most " + this.maxWaypoints
+        + " waypoints");
+    }
+
+    if (waypointOrder.length < numWaypoints) {
+      throw new IllegalArgumentException("waypointOrder must hold every waypoint");
+    }
+
+    if (numWaypoints == 0) {
+      return durations[0];
+    }
+
+    int stride = this.maxWaypoints;
+    int[] best = this.bestDuration;
+    byte[] previous = this.previousStop;
+    int[] arrival = this.arrivalDurations;
+    int fullSubset = (1 << numWaypoints) - 1;
+
+    for (int to = 0; to < numWaypoints; to++) {
+      for (int from = 0; from < numWaypoints; from++) {
+        arrival[to * stride + from] = durations[(from + 1) * size + to + 1];
+      }
+    }
+
+    // Paths that go straight from the hotel to a single waypoint.
+    for (int last = 0; last < numWaypoints; last++) {
+      best[(1 << last) * stride + last] = durations[last + 1];
+      previous[(1 << last) * stride + last] = -1;
+    }
+
+    // The best path through subset ending at last extends the best path
+    // through the rest of subset. Subsets are visited in increasing order, so
+    // every smaller subset is already final.
+    for (int subset = 3; subset <= fullSubset; subset++) {
+      if ((subset & (subset - 1)) == 0) {
+        continue;
+      }
+      int subsetRow = subset * stride;
+      int lastBits = subset;
+      while (lastBits != 0) {
+        int last = Integer.numberOfTrailingZeros(lastBits);
+        lastBits &= lastBits - 1;
+
+        int restRow = (subset & ~(1 << last)) * stride;
+        int arrivalRow = last * stride;
+        int bestPath = Integer.MAX_VALUE;
+        int bestPrevious = 0;
+        int fromBits = subset & ~(1 << last);
+        while (fromBits != 0) {
+          int from = Integer.numberOfTrailingZeros(fromBits);
+          fromBits &= fromBits - 1;
+          int pathDuration = best[restRow + from] + arrival[arrivalRow + from];
+          if (pathDuration < bestPath) {
+            bestPath = pathDuration;
+            bestPrevious = from;
+          }
+        }
+        best[subsetRow + last] = bestPath;
+        previous[subsetRow + last] = (byte) bestPrevious;
+      }
+    }
+
+    // Close the loop back to the hotel.
+    int fullRow = fullSubset * stride;
+    int bestLast = 0;
+    int bestTotal = Integer.MAX_VALUE;
+    for (int last = 0; last < numWaypoints; last++) {
+      int total = best[fullRow + last] + durations[(last + 1) * size];
+      if (total < bestTotal) {
+        bestTotal = total;
+        bestLast = last;
+      }
+    }
+
+    // Walk the previous stops back from the last waypoint.
+    int subset = fullSubset;
+    int last = bestLast;
+    for (int position = numWaypoints - 1; position >= 0; position--) {
+      waypointOrder[position] = last;
+      int before = previous[subset * stride + last];
+      subset &= ~(1 << last);
+      last = before;
+    }
+    return bestTotal;
+  }
+}
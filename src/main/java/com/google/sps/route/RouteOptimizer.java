@@ -0,0 +1,312 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.route;
+
+/**
+ * RouteOptimizer finds a near-optimal round trip through a set of locations,
+ * starting and ending at location 0 (the hotel).
+ *
+ * The travel durations are given as a flat, row-major int[] matrix where
+ * durations[from * size + to] is the time to travel from one location to
+ * another. The matrix does not need to be symmetric. A route is built with
+ * nearest-neighbor and cheapest-insertion construction, and the shorter one
+ * is improved with 2-opt and Or-opt moves until no move helps.
+ */
+public final class RouteOptimizer {
+
+  // Longest segment that Or-opt tries to move to another position.
+  private static final int MAX_OR_OPT_SEGMENT = 3;
+
+  // Safety cap on improvement rounds; each round strictly shortens the tour.
+  private static final int MAX_IMPROVEMENT_ROUNDS = 1000;
+
+  private RouteOptimizer() {}
+
+  /**
+   * Returns the visiting order of the waypoints (locations 1 to size - 1) as
+   * waypoint indices, i.e. entry k is the index (location - 1) of the k-th
+   * stop after the hotel. This matches the Directions API waypointOrder.
+   *
+   * @param durations Flat size x size matrix of travel durations. Must be non-null.
+   * @param size The number of locations, including the hotel at index 0.
+   */
+  public static int[] optimizeWaypointOrder(int[] durations, int size) {
+    int[] tour = optimizeTour(durations, size);
+    int[] waypointOrder = new int[size - 1];
+    for (int i = 1; i < size; i++) {
+      waypointOrder[i - 1] = tour[i] - 1;
+    }
+    return waypointOrder;
+  }
+
+  /**
+   * Returns a near-optimal tour as an array of locations, where tour[0] is
+   * always 0 (the hotel) and the route returns to the hotel after the last
+   * entry.
+   *
+   * @param durations Flat size x size matrix of travel durations. Must be non-null.
+   * @param size The number of locations, including the hotel at index 0.
+   */
+  public static int[] optimizeTour(int[] durations, int size) {
+    checkMatrix(durations, size);
+
+    int[] nearestNeighborTour = buildNearestNeighborTour(durations, size);
+    int[] cheapestInsertionTour = buildCheapestInsertionTour(durations, size);
+    int[] tour = tourDuration(durations, size, nearestNeighborTour)
+      <= tourDuration(durations, size, cheapestInsertionTour)
+      ? nearestNeighborTour : cheapestInsertionTour;
+
+    // Alternate between the two neighborhoods until neither improves the tour.
+    long[] forwardPrefix = new long[size + 1];
+    long[] backwardPrefix = new long[size + 1];
+    for (int round = 0; round < MAX_IMPROVEMENT_ROUNDS; round++) {
+      boolean improved = improveTwoOpt(durations, size, tour, forwardPrefix, backwardPrefix);
+      improved |= improveOrOpt(durations, size, tour);
+      if (!improved) {
+        break;
+      }
+    }
+    return tour;
+  }
+
+  /**
+   * Returns the total duration of a round trip that visits the locations in
+   * tour order and returns to tour[0].
+   */
+  public static long tourDuration(int[] durations, int size, int[] tour) {
+    long total = 0;
+    for (int i = 0; i < tour.length; i++) {
+      int from = tour[i];
+      int to = tour[(i + 1) % tour.length];
+      total += durations[from * size + to];
+    }
+    return total;
+  }
+
+  /**
+   * Builds a tour by always travelling to the closest unvisited location.
+   */
+  private static int[] buildNearestNeighborTour(int[] durations, int size) {
+    int[] tour = new int[size];
+    boolean[] visited = new boolean[size];
+    visited[0] = true;
+
+    for (int i = 1; i < size; i++) {
+      int current = tour[i - 1];
+      int next = -1;
+      for (int candidate = 1; candidate < size; candidate++) {
+        if (!visited[candidate] && (next == -1
+            || durations[current * size + candidate] < durations[current * size + next])) {
+          next = candidate;
+        }
+      }
+      tour[i] = next;
+      visited[next] = true;
+    }
+    return tour;
+  }
+
+  /**
+   * Builds a tour by repeatedly inserting the location that adds the least
+   * duration, at the position where it adds the least duration.
+   */
+  private static int[] buildCheapestInsertionTour(int[] durations, int size) {
+    int[] tour = new int[size];
+    boolean[] inserted = new boolean[size];
+    int tourLength = 1;
+    inserted[0] = true;
+
+    while (tourLength < size) {
+      int bestLocation = -1;
+      int bestPosition = -1;
+      long bestCost = Long.MAX_VALUE;
+
+      for (int candidate = 1; candidate < size; candidate++) {
+        if (inserted[candidate]) {
+          continue;
+        }
+        // Try inserting between tour[i] and tour[i + 1] (wrapping to the hotel).
+        for (int i = 0; i < tourLength; i++) {
+          int from = tour[i];
+          int to = tour[(i + 1) % tourLength];
+          long cost = (long) durations[from * size + candidate]
+            + durations[candidate * size + to] - durations[from * size + to];
+          if (cost < bestCost) {
+            bestCost = cost;
+            bestLocation = candidate;
+            bestPosition = i + 1;
+          }
+        }
+      }
+
+      System.arraycopy(tour, bestPosition, tour, bestPosition + 1, tourLength - bestPosition);
+      tour[bestPosition] = bestLocation;
+      inserted[bestLocation] = true;
+      tourLength++;
+    }
+    return tour;
+  }
+
+  /**
+   * Applies improving 2-opt moves (reversing tour[i..j]) until none is left.
+   * Since the matrix may be asymmetric, the change in duration of the reversed
+   * segment is computed from prefix sums of the forward and backward legs.
+   * Returns whether the tour was changed.
+   */
+  private static boolean improveTwoOpt(int[] durations, int size, int[] tour,
+      long[] forwardPrefix, long[] backwardPrefix) {
+    boolean improvedAny = false;
+    boolean improved = true;
+
+    while (improved) {
+      improved = false;
+      computePrefixSums(durations, size, tour, forwardPrefix, backwardPrefix);
+
+      search:
+      for (int i = 1; i < size - 1; i++) {
+        int before = tour[i - 1];
+        int first = tour[i];
+        for (int j = i + 1; j < size; j++) {
+          int last = tour[j];
+          int after = tour[(j + 1) % size];
+          long delta = (long) durations[before * size + last]
+            + durations[first * size + after]
+            - durations[before * size + first]
+            - durations[last * size + after]
+            + (backwardPrefix[j] - backwardPrefix[i])
+            - (forwardPrefix[j] - forwardPrefix[i]);
+          if (delta < 0) {
+            reverse(tour, i, j);
+            improved = true;
+            improvedAny = true;
+            break search;
+          }
+        }
+      }
+    }
+    return improvedAny;
+  }
+
+  /**
+   * Applies improving Or-opt moves (moving a segment of up to
+   * MAX_OR_OPT_SEGMENT consecutive stops to another position) until none is
+   * left. Returns whether the tour was changed.
+   */
+  private static boolean improveOrOpt(int[] durations, int size, int[] tour) {
+    boolean improvedAny = false;
+    boolean improved = true;
+    int[] buffer = new int[size];
+
+    while (improved) {
+      improved = false;
+
+      search:
+      for (int segmentLength = 1; segmentLength <= MAX_OR_OPT_SEGMENT; segmentLength++) {
+        for (int start = 1; start + segmentLength <= size; start++) {
+          int end = start + segmentLength - 1;
+          int before = tour[start - 1];
+          int after = tour[(end + 1) % size];
+          int first = tour[start];
+          int last = tour[end];
+          long removalGain = (long) durations[before * size + first]
+            + durations[last * size + after] - durations[before * size + after];
+
+          // Try every edge (tour[k], tour[k + 1]) that does not touch the segment.
+          for (int k = 0; k < size; k++) {
+            if (k >= start - 1 && k <= end) {
+              continue;
+            }
+            int from = tour[k];
+            int to = tour[(k + 1) % size];
+            long insertionCost = (long) durations[from * size + first]
+              + durations[last * size + to] - durations[from * size + to];
+            if (insertionCost < removalGain) {
+              moveSegment(tour, buffer, start, end, k);
+              improved = true;
+              improvedAny = true;
+              break search;
+            }
+          }
+        }
+      }
+    }
+    return improvedAny;
+  }
+
+  /**
+   * Fills forwardPrefix[k] with the duration of tour[0] -> ... -> tour[k], and
+   * backwardPrefix[k] with the duration of travelling the same legs backwards.
+   */
+  private static void computePrefixSums(int[] durations, int size, int[] tour,
+      long[] forwardPrefix, long[] backwardPrefix) {
+    forwardPrefix[0] = 0;
+    backwardPrefix[0] = 0;
+    for (int k = 0; k + 1 < size; k++) {
+      forwardPrefix[k + 1] = forwardPrefix[k] + durations[tour[k] * size + tour[k + 1]];
+      backwardPrefix[k + 1] = backwardPrefix[k] + durations[tour[k + 1] * size + tour[k]];
+    }
+  }
+
+  /**
+   * Reverses tour[i..j] in place.
+   */
+  private static void reverse(int[] tour, int i, int j) {
+    while (i < j) {
+      int temp = tour[i];
+      tour[i] = tour[j];
+      tour[j] = temp;
+      i++;
+      j--;
+    }
+  }
+
+  /**
+   * Moves tour[start..end] so that it follows the location currently at
+   * tour[k]. The hotel stays at tour[0].
+   */
+  private static void moveSegment(int[] tour, int[] buffer, int start, int end, int k) {
+    int size = tour.length;
+    int length = 0;
+    for (int i = 0; i < size; i++) {
+      if (i >= start && i <= end) {
+        continue;
+      }
+      buffer[length++] = tour[i];
+      if (i == k) {
+        for (int s = start; s <= end; s++) {
+          buffer[length++] = tour[s];
+        }
+      }
+    }
+    System.arraycopy(buffer, 0, tour, 0, size);
+  }
+
+  /**
+   * Throws an IllegalArgumentException if the matrix does not match the size.
+   */
+  static void checkMatrix(int[] durations, int size) {
+    if (durations == null) {
+      throw new IllegalArgumentException("durations cannot be null");
+    }
+
+    if (size < 1) {
+      throw new IllegalArgumentException("size must include at least the hotel");
+    }
+
+    if (durations.length != size * size) {
+      throw new IllegalArgumentException("durations must be a size x size matrix");
+    }
+  }
+}
@@ -0,0 +1,161 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.route;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.maps.model.TravelMode;
+import com.google.sps.TieredCache;
+import java.time.Clock;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TravelDurationCache stores the travel duration (in seconds) of single legs
+ * between two places, keyed by (originPlaceId, destinationPlaceId, TravelMode).
+ *
+ * Lookups go to a bounded in-memory LRU first, then to datastore, so that the
+ * legs between popular attractions are only requested from Google once per
+ * TTL, across all instances. The cache is thread-safe.
+ */
+public class TravelDurationCache extends TieredCache<TravelDurationCache.Leg, Integer> {
+
+  // Datastore kind and properties of the cached legs.
+  public static final String ENTITY_KIND = "travel-duration";
+  public static final String ORIGIN_PLACE_ID = "origin-place-id";
+  public static final String DESTINATION_PLACE_ID = "destination-place-id";
+  public static final String TRAVEL_MODE = "travel-mode";
+  public static final String DURATION_SECONDS = "duration-seconds";
+
+  // Travel times change with roads and schedules, so refresh them weekly.
+  public static final long DEFAULT_TTL_MILLIS = TimeUnit.DAYS.toMillis(7);
+
+  // A few hundred attractions per destination give tens of thousands of legs.
+  public static final int DEFAULT_MAX_MEMORY_ENTRIES = 50000;
+
+  /**
+   * Creates a cache with the default TTL and memory bound.
+   *
+   * @param datastore The datastore backing the cache. Must be non-null.
+   */
+  public TravelDurationCache(DatastoreService datastore) {
+    this(datastore, DEFAULT_TTL_MILLIS, DEFAULT_MAX_MEMORY_ENTRIES, Clock.systemUTC());
+  }
+
+  /**
+   * Creates a cache.
+   *
+   * @param datastore The datastore backing the cache. Must be non-null.
+   * @param ttlMillis How long a cached duration stays valid. Must be positive.
+   * @param maxMemoryEntries The most legs kept in memory. Must be positive.
+   * @param clock The clock used to timestamp and expire entries. Must be non-null.
+   */
+  public TravelDurationCache(DatastoreService datastore, long ttlMillis, int maxMemoryEntries,
+      Clock clock) {
+    super(datastore, ttlMillis, maxMemoryEntries, clock);
+  }
+
+  /**
+   * Returns the datastore key of the cached leg. Place IDs never contain
+   * spaces, so the key name is unambiguous.
+   */
+  @Override
+  protected Key toDatastoreKey(Leg leg) {
+    return KeyFactory.createKey(ENTITY_KIND,
+      leg.travelMode.name() + " " + leg.originPlaceId + " " + leg.destinationPlaceId);
+  }
+
+  @Override
+  protected void writeEntity(Entity entity, Leg leg, Integer seconds) {
+    entity.setUnindexedProperty(ORIGIN_PLACE_ID, leg.originPlaceId);
+    entity.setUnindexedProperty(DESTINATION_PLACE_ID, leg.destinationPlaceId);
+    entity.setUnindexedProperty(TRAVEL_MODE, leg.travelMode.name());
+    entity.setUnindexedProperty(DURATION_SECONDS, seconds.longValue());
+  }
+
+  @Override
+  protected Integer readEntity(Entity entity) {
+    Object seconds = entity.getProperty(DURATION_SECONDS);
+    return seconds instanceof Long ? ((Long) seconds).intValue() : null;
+  }
+
+  /**
+   * Leg identifies a single directed trip between two places with one mode
+   * of travel. Legs are immutable and can be used as map keys.
+   */
+  public static final class Leg {
+    private final String originPlaceId;
+    private final String destinationPlaceId;
+    private final TravelMode travelMode;
+
+    /**
+     * Creates a new Leg.
+     *
+     * @param originPlaceId The Google Maps place ID of the start. Must be non-null.
+     * @param destinationPlaceId The Google Maps place ID of the end. Must be non-null.
+     * @param travelMode The mode of travel. Must be non-null.
+     */
+    public Leg(String originPlaceId, String destinationPlaceId, TravelMode travelMode) {
+      if (originPlaceId == null) {
+        throw new IllegalArgumentException("originPlaceId cannot be null");
+      }
+
+      if (destinationPlaceId == null) {
+        throw new IllegalArgumentException("destinationPlaceId cannot be null");
+      }
+
+      if (travelMode == null) {
+        throw new IllegalArgumentException("travelMode cannot be null");
+      }
+
+      this.originPlaceId = originPlaceId;
+      this.destinationPlaceId = destinationPlaceId;
+      this.travelMode = travelMode;
+    }
+
+    public String getOriginPlaceId() {
+      return this.originPlaceId;
+    }
+
+    public String getDestinationPlaceId() {
+      return this.destinationPlaceId;
+    }
+
+    public TravelMode getTravelMode() {
+      return this.travelMode;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (this == other) {
+        return true;
+      }
+      if (!(other instanceof Leg)) {
+        return false;
+      }
+      Leg leg = (Leg) other;
+      return this.originPlaceId.equals(leg.originPlaceId)
+        && this.destinationPlaceId.equals(leg.destinationPlaceId)
+        && this.travelMode == leg.travelMode;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(this.originPlaceId, this.destinationPlaceId, this.travelMode);
+    }
+  }
+}
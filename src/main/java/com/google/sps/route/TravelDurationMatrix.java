@@ -0,0 +1,296 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.route;
+
+import com.google.maps.DistanceMatrixApi;
+import com.google.maps.GeoApiContext;
+import com.google.maps.PendingResult;
+import com.google.maps.model.DistanceMatrix;
+import com.google.maps.model.DistanceMatrixElement;
+import com.google.maps.model.DistanceMatrixElementStatus;
+import com.google.maps.model.TravelMode;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Builds the flat travel-duration matrix (in seconds) used by RouteOptimizer,
+ * using the Distance Matrix API and, optionally, a TravelDurationCache.
+ */
+public final class TravelDurationMatrix {
+
+  // The Distance Matrix API allows at most 100 elements per request, so the
+  // matrix is requested in blocks of 10 origins by 10 destinations.
+  private static final int BLOCK_SIZE = 10;
+
+  // Largest number of block requests in flight at once.
+  private static final int MAX_CONCURRENT_BLOCK_REQUESTS = 8;
+
+  // Mode of travel of every requested and cached leg.
+  static final TravelMode TRAVEL_MODE = TravelMode.DRIVING;
+
+  // Duration used for pairs with no route, so the optimizer avoids them. A
+  // route that still has such a leg cannot be planned (see isUnreachable).
+  public static final int UNREACHABLE_SECONDS = 24 * 60 * 60;
+
+  private TravelDurationMatrix() {}
+
+  /**
+   * Returns the flat, row-major matrix of driving durations in seconds, where
+   * entry [from * n + to] is the duration between locations[from] and
+   * locations[to]. Durations from a location to itself are 0.
+   *
+   * @param context The entry point for making requests against the Google Geo APIs.
+   * @param locations The locations (addresses, or "place_id:" strings), with
+   * the hotel first. Must be non-null.
+   */
+  public static int[] fetch(GeoApiContext context, String[] locations) throws IOException {
+    int size = locations.length;
+    int[] durations = new int[size * size];
+    int[] allIndices = new int[size];
+    for (int i = 0; i < size; i++) {
+      allIndices[i] = i;
+    }
+
+    fetchBlocks(context, locations, allIndices, allIndices, durations, null);
+    clearDiagonal(durations, size);
+    return durations;
+  }
+
+  /**
+   * Returns the same matrix as fetch(context, locations), but reads the legs
+   * between known place IDs from the cache, and only requests the rows and
+   * columns that still have missing legs. Legs fetched from Google are added
+   * to the cache.
+   *
+   * @param context The entry point for making requests against the Google Geo APIs.
+   * @param locations The locations (addresses), with the hotel first. Must be non-null.
+   * @param placeIds The place ID of each location, or null entries for
+   * locations without one. Must be non-null and as long as locations.
+   * @param cache The travel-duration cache to read and fill. Must be non-null.
+   */
+  public static int[] fetch(GeoApiContext context, String[] locations, String[] placeIds,
+      TravelDurationCache cache) throws IOException {
+    if (placeIds.length != locations.length) {
+      throw new IllegalArgumentException("placeIds must match locations");
+    }
+
+    int size = locations.length;
+    int[] durations = new int[size * size];
+
+    // Read every leg between two known places in one cache lookup.
+    List<TravelDurationCache.Leg> legs = new ArrayList<>();
+    for (int from = 0; from < size; from++) {
+      for (int to = 0; to < size; to++) {
+        if (from != to && placeIds[from] != null && placeIds[to] != null) {
+          legs.add(new TravelDurationCache.Leg(placeIds[from], placeIds[to], TRAVEL_MODE));
+        }
+      }
+    }
+    Map<TravelDurationCache.Leg, Integer> cachedDurations = cache.getAll(legs);
+
+    boolean[] missingOrigins = new boolean[size];
+    boolean[] missingDestinations = new boolean[size];
+    for (int from = 0; from < size; from++) {
+      for (int to = 0; to < size; to++) {
+        if (from == to) {
+          continue;
+        }
+        Integer seconds = null;
+        if (placeIds[from] != null && placeIds[to] != null) {
+          seconds = cachedDurations.get(
+            new TravelDurationCache.Leg(placeIds[from], placeIds[to], TRAVEL_MODE));
+        }
+        if (seconds != null) {
+          durations[from * size + to] = seconds;
+        } else {
+          missingOrigins[from] = true;
+          missingDestinations[to] = true;
+        }
+      }
+    }
+
+    int[] origins = indicesOf(missingOrigins);
+    int[] destinations = indicesOf(missingDestinations);
+    if (origins.length > 0) {
+      // Prefer the place IDs, so Google routes between exactly the cached places.
+      String[] requestLocations = new String[size];
+      for (int i = 0; i < size; i++) {
+        requestLocations[i] = placeIds[i] == null ? locations[i] : "place_id:" + placeIds[i];
+      }
+
+      Map<TravelDurationCache.Leg, Integer> fetchedDurations = new HashMap<>();
+      fetchBlocks(context, requestLocations, origins, destinations, durations,
+        (from, to, seconds) -> {
+          if (placeIds[from] != null && placeIds[to] != null) {
+            fetchedDurations.put(
+              new TravelDurationCache.Leg(placeIds[from], placeIds[to], TRAVEL_MODE), seconds);
+          }
+        });
+      cache.putAll(fetchedDurations);
+    }
+
+    clearDiagonal(durations, size);
+    return durations;
+  }
+
+  /**
+   * Requests the durations from every origin to every destination, in blocks
+   * of at most BLOCK_SIZE x BLOCK_SIZE sent concurrently, and copies them into
+   * the matrix. Routable legs are also passed to the listener, if it is
+   * non-null.
+   */
+  private static void fetchBlocks(GeoApiContext context, String[] locations, int[] origins,
+      int[] destinations, int[] durations, LegListener listener) throws IOException {
+    List<int[]> blockOrigins = new ArrayList<>();
+    List<int[]> blockDestinations = new ArrayList<>();
+    for (int originStart = 0; originStart < origins.length; originStart += BLOCK_SIZE) {
+      for (int destinationStart = 0; destinationStart < destinations.length; 
+          destinationStart += BLOCK_SIZE) {
+        blockOrigins.add(Arrays.copyOfRange(origins, originStart,
+          Math.min(origins.length, originStart + BLOCK_SIZE)));
+        blockDestinations.add(Arrays.copyOfRange(destinations, destinationStart,
+          Math.min(destinations.length, destinationStart + BLOCK_SIZE)));
+      }
+    }
+
+    int numBlocks = blockOrigins.size();
+    DistanceMatrix[] blocks = new DistanceMatrix[numBlocks];
+    Semaphore requestPermits = new Semaphore(MAX_CONCURRENT_BLOCK_REQUESTS);
+    CountDownLatch pendingRequests = new CountDownLatch(numBlocks);
+    AtomicReference<Throwable> requestFailure = new AtomicReference<>();
+
+    try {
+      for (int i = 0; i < numBlocks; i++) {
+        // Block until one of the in-flight requests has finished.
+        requestPermits.acquire();
+
+        final int index = i;
+        DistanceMatrixApi.newRequest(context)
+          .origins(select(locations, blockOrigins.get(i)))
+          .destinations(select(locations, blockDestinations.get(i)))
+          .mode(TRAVEL_MODE)
+          .setCallback(new PendingResult.Callback<DistanceMatrix>() {
+            @Override
+            public void onResult(DistanceMatrix block) {
+              blocks[index] = block;
+              requestPermits.release();
+              pendingRequests.countDown();
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+              requestFailure.compareAndSet(null, e);
+              requestPermits.release();
+              pendingRequests.countDown();
+            }
+          });
+      }
+
+      // Wait for every callback before reading the blocks.
+      pendingRequests.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    }
+
+    if (requestFailure.get() != null) {
+      throw new IOException(requestFailure.get());
+    }
+
+    // Copy on this thread, so that the listener needs no locking.
+    for (int i = 0; i < numBlocks; i++) {
+      copyBlock(blocks[i], durations, locations.length, blockOrigins.get(i),
+        blockDestinations.get(i), listener);
+    }
+  }
+
+  /**
+   * Copies the durations of one Distance Matrix response into the flat matrix.
+   * Row r of the block is location origins[r], and column c is location
+   * destinations[c]. Routable legs are also passed to the listener, if it is
+   * non-null.
+   */
+  static void copyBlock(DistanceMatrix block, int[] durations, int size,
+      int[] origins, int[] destinations, LegListener listener) {
+    for (int row = 0; row < block.rows.length; row++) {
+      DistanceMatrixElement[] elements = block.rows[row].elements;
+      for (int column = 0; column < elements.length; column++) {
+        DistanceMatrixElement element = elements[column];
+        int from = origins[row];
+        int to = destinations[column];
+        int seconds = UNREACHABLE_SECONDS;
+        if (element.status == DistanceMatrixElementStatus.OK && element.duration != null) {
+          seconds = (int) element.duration.inSeconds;
+          if (listener != null) {
+            listener.onLeg(from, to, seconds);
+          }
+        }
+        durations[from * size + to] = seconds;
+      }
+    }
+  }
+
+  /**
+   * Receives the routable legs of a Distance Matrix response.
+   */
+  interface LegListener {
+    void onLeg(int from, int to, int seconds);
+  }
+
+  /**
+   * Returns true if there is no route for the leg with the given duration.
+   */
+  public static boolean isUnreachable(int seconds) {
+    return seconds >= UNREACHABLE_SECONDS;
+  }
+
+  private static void clearDiagonal(int[] durations, int size) {
+    for (int i = 0; i < size; i++) {
+      durations[i * size + i] = 0;
+    }
+  }
+
+  private static int[] indicesOf(boolean[] flags) {
+    int count = 0;
+    for (boolean flag : flags) {
+      if (flag) {
+        count++;
+      }
+    }
+    int[] indices = new int[count];
+    int next = 0;
+    for (int i = 0; i < flags.length; i++) {
+      if (flags[i]) {
+        indices[next++] = i;
+      }
+    }
+    return indices;
+  }
+
+  private static String[] select(String[] locations, int[] indices) {
+    String[] selected = new String[indices.length];
+    for (int i = 0; i < indices.length; i++) {
+      selected[i] = locations[indices[i]];
+    }
+    return selected;
+  }
+}
@@ -17,19 +17,11 @@ package com.google.sps.servlets;
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
-import com.google.appengine.api.datastore.FetchOptions;
-import com.google.appengine.api.datastore.PreparedQuery;
-import com.google.appengine.api.datastore.Query;
-import com.google.appengine.api.datastore.Query.Filter;
-import com.google.appengine.api.datastore.Query.FilterOperator;
-import com.google.appengine.api.datastore.Query.FilterPredicate;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
-import com.google.gson.Gson;
-import com.google.sps.data.User;
+import com.google.sps.JsonSerializer;
+import com.google.sps.UserRepository;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -78,17 +70,7 @@ public class AuthServlet extends HttpServlet {
     }
 
     // Create and send the JSON.
-    String json = convertToJson(userAuth);
-    response.getWriter().println(json);
-  }
-
-  /**
-   * Converts a UserAuth object into a JSON string using the Gson library.
-   */
-  private static String convertToJson(UserAuth userAuth) {
-    Gson gson = new Gson();
-    String json = gson.toJson(userAuth);
-    return json;
+    JsonSerializer.write(response, userAuth);
   }
   
   /**
@@ -100,21 +82,7 @@ public class AuthServlet extends HttpServlet {
    */
   public static Entity getOrCreateUserInDatabase(String email) {
     DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-
-    // Only add User to database if they are not already present there.
-    Entity userEntity = getUserEntityFromEmail(email);
-    if (userEntity == null) {
-      // User is not in database, create and add user object.
-      User newUser = new User(email);
-      Entity newUserEntity = newUser.buildEntity();
-      datastore.put(newUserEntity);
-
-      // Return the new user object.
-      return newUserEntity;
-    }
-
-    // Return the user already in the database.
-    return userEntity;
+    return new UserRepository(datastore).getOrCreateUser(email);
   }
 
   /**
@@ -145,21 +113,9 @@ public class AuthServlet extends HttpServlet {
    * @param email The email of the user potentially in the database.
    */
   public static Entity getUserEntityFromEmail(String email) {
-    // Query database to see if User has already been added.
+    // Users are keyed by email, so this is a (usually cached) lookup.
     DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-    Filter emailFilter =
-      new FilterPredicate(User.USER_EMAIL, FilterOperator.EQUAL, email);
-    Query query = new Query(User.USER).setFilter(emailFilter);
-    PreparedQuery results = datastore.prepare(query);
-
-    // Get the list of results.
-    List<Entity> listResults = results.asList(FetchOptions.Builder.withDefaults());
-    if (listResults.isEmpty()) {
-      return null;
-    }
-
-    // Return the Entity object of the User.
-    return listResults.get(0);
+    return new UserRepository(datastore).getUser(email);
   }
 
   /**
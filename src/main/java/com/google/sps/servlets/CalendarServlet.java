@@ -19,16 +19,15 @@ import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyFactory;
 import com.google.appengine.api.datastore.Entity;
-import com.google.appengine.api.datastore.PreparedQuery;
-import com.google.appengine.api.datastore.Query;
-import com.google.appengine.api.datastore.Query.Filter;
-import com.google.appengine.api.datastore.Query.FilterOperator;
-import com.google.appengine.api.datastore.Query.FilterPredicate;
-import com.google.gson.Gson;
 import com.google.sps.data.Event;
-import com.google.sps.Trip;
-import com.google.sps.TripDay;
+import com.google.sps.JsonSerializer;
+import com.google.sps.TripRepository;
+import com.google.sps.TripView;
 import java.io.IOException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.List;
 import javax.servlet.annotation.WebServlet;
@@ -47,6 +46,11 @@ public class CalendarServlet extends HttpServlet {
    * Adam TODO: put functionality into a Utility class!
    */
 
+  // The window shown by the calendar, as sent by FullCalendar's event source;
+  // without them every event of the trip is returned.
+  public static final String START_PARAM = "start";
+  public static final String END_PARAM = "end";
+
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) 
       throws IOException {
@@ -67,8 +71,34 @@ public class CalendarServlet extends HttpServlet {
       String stringTripKey = request.getParameter("tripKey");
       Key tripKey = KeyFactory.stringToKey(stringTripKey);
 
+      LocalDateTime start;
+      LocalDateTime end;
+      String startString = request.getParameter(START_PARAM);
+      String endString = request.getParameter(END_PARAM);
+      try {
+        start = startString == null ? null : parseDateTime(startString);
+        end = endString == null ? null : parseDateTime(endString);
+      } catch (DateTimeParseException e) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+        return;
+      }
+      if ((start == null) != (end == null)) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+        return;
+      }
+
+      // Repeat views of an unchanged trip get a 304, without loading the events.
+      if (ConditionalGet.isTripNotModified(request, response, datastore, 
+          userEntity.getKey(), tripKey)) {
+        return;
+      }
+
       // gets the events from datastore and writes them to .../get-calendar
-      doGetEvents(response, datastore, userEntity, tripKey);
+      if (start == null) {
+        doGetEvents(response, datastore, userEntity, tripKey);
+      } else {
+        doGetEvents(response, datastore, userEntity, tripKey, start, end);
+      }
     }
   }
 
@@ -78,38 +108,64 @@ public class CalendarServlet extends HttpServlet {
   public void doGetEvents(HttpServletResponse response, 
       DatastoreService datastore, Entity userEntity, Key tripEntityKey) throws IOException {
   
-    Filter tripKeyFilter =
-      new FilterPredicate("__key__", FilterOperator.EQUAL, tripEntityKey);
-    Query tripQuery = new Query(Trip.TRIP, userEntity.getKey());
-    tripQuery.setFilter(tripKeyFilter);
+    // The view is only loaded if tripKey corresponds to a Trip under the user.
+    TripView tripView = 
+      new TripRepository(datastore).getTripView(userEntity.getKey(), tripEntityKey);
 
-    PreparedQuery tripResults = datastore.prepare(tripQuery);
-    Entity tripEntity = tripResults.asSingleEntity();
+    // If no trip is found under the user then redirect home
+    if (tripView == null) {
+      response.sendRedirect("/");
+      return;
+    }
 
-    Query tripDayQuery = new Query(TripDay.QUERY_STRING, tripEntity.getKey());
-    PreparedQuery tripDayResults = datastore.prepare(tripDayQuery);
+    JsonSerializer.write(response, buildCalendarEvents(tripView));
+  }
 
-    List<Event> events = new ArrayList<>();
+  /**
+   * Gets the events of the trip that start in [start, end) and prints them 
+   * to writer, in start time order. Only the events in the range are read.
+   */
+  public void doGetEvents(HttpServletResponse response, DatastoreService datastore, 
+      Entity userEntity, Key tripEntityKey, LocalDateTime start, LocalDateTime end) 
+      throws IOException {
 
-    // iterate through all the TripDays and get events for each one
-    for (Entity tripDayEntity : tripDayResults.asIterable()) {
-      Query eventsQuery = new Query(Event.QUERY_STRING, tripDayEntity.getKey());
-      PreparedQuery eventResults = datastore.prepare(eventsQuery);
+    // The events are only read if tripKey is the key of a Trip under the user.
+    if (!TripRepository.isTripOfUser(userEntity.getKey(), tripEntityKey)) {
+      response.sendRedirect("/");
+      return;
+    }
 
-      for (Entity eventEntity : eventResults.asIterable()) {
-        events.add(Event.eventFromEntity(eventEntity));
-      }
+    JsonSerializer.write(response, 
+      new TripRepository(datastore).getEventsInRange(tripEntityKey, start, end));
+  }
+
+  /**
+   * Parses a date-time of the calendar window. FullCalendar sends ISO-8601
+   * dates, or date-times with or without an offset; event times are local
+   * to the trip, so an offset is dropped.
+   */
+  public static LocalDateTime parseDateTime(String dateTime) {
+    try {
+      return LocalDateTime.parse(dateTime);
+    } catch (DateTimeParseException e) {
+      // Not a local date-time; try the other forms.
+    }
+    try {
+      return OffsetDateTime.parse(dateTime).toLocalDateTime();
+    } catch (DateTimeParseException e) {
+      return LocalDate.parse(dateTime).atStartOfDay();
     }
-    response.getWriter().println(convertToJson(events));
   }
 
   /**
-   * Converts list of Event objects into a JSON string using the Gson library.
+   * Returns the events of every TripDay of the trip view, in date order.
    */
-  private String convertToJson(List<Event> events) {
-    Gson gson = new Gson();
-    String json = gson.toJson(events);
-    return json;
+  static List<Event> buildCalendarEvents(TripView tripView) {
+    List<Event> events = new ArrayList<>();
+    for (TripView.Day tripDay : tripView.getDays()) {
+      events.addAll(tripDay.getEvents());
+    }
+    return events;
   }
 }
 
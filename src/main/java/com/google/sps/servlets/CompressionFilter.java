@@ -0,0 +1,315 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.WriteListener;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * CompressionFilter compresses the JSON responses with gzip or deflate, as
+ * negotiated from the request's Accept-Encoding. The body is compressed as
+ * it is written: the first MIN_COMPRESSED_BYTES are held back, and bodies
+ * that stay below them are sent as they are, since compressing them costs
+ * more than the bytes it saves.
+ *
+ * A compressed body gets its own ETag, with the content coding added (see
+ * ConditionalGet.withContentCoding), since it is not byte for byte the same
+ * as the uncompressed one.
+ */
+@WebFilter(urlPatterns = {"/get-calendar", "/get-edit-content", "/get-map", "/trip-bundle",
+  "/user-trips", "/auth"})
+public class CompressionFilter implements Filter {
+
+  public static final String ACCEPT_ENCODING = "Accept-Encoding";
+  public static final String CONTENT_ENCODING = "Content-Encoding";
+  public static final String VARY = "Vary";
+  public static final String GZIP = "gzip";
+  public static final String DEFLATE = "deflate";
+
+  // Bodies smaller than this are not compressed.
+  public static final int MIN_COMPRESSED_BYTES = 1024;
+
+  @Override
+  public void init(FilterConfig filterConfig) {}
+
+  @Override
+  public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+      throws IOException, ServletException {
+    HttpServletRequest httpRequest = (HttpServletRequest) request;
+    HttpServletResponse httpResponse = (HttpServletResponse) response;
+
+    // The body depends on Accept-Encoding, whether or not this one is compressed.
+    httpResponse.addHeader(VARY, ACCEPT_ENCODING);
+
+    String encoding = selectEncoding(httpRequest.getHeader(ACCEPT_ENCODING));
+    if (encoding == null) {
+      chain.doFilter(request, response);
+      return;
+    }
+
+    CompressingResponse compressingResponse = new CompressingResponse(httpResponse, encoding);
+    chain.doFilter(request, compressingResponse);
+    compressingResponse.finish();
+  }
+
+  @Override
+  public void destroy() {}
+
+  /**
+   * Returns the encoding to compress with, gzip if both are accepted, or null
+   * if the Accept-Encoding header value accepts neither.
+   */
+  public static String selectEncoding(String acceptEncoding) {
+    if (acceptEncoding == null) {
+      return null;
+    }
+
+    boolean acceptsGzip = false;
+    boolean acceptsDeflate = false;
+    boolean acceptsAny = false;
+    boolean refusesGzip = false;
+    boolean refusesDeflate = false;
+    for (String coding : acceptEncoding.split(",")) {
+      String[] parts = coding.trim().split(";");
+      String name = parts[0].trim().toLowerCase();
+      boolean accepted = getQuality(parts) > 0;
+      if (name.equals(GZIP) || name.equals("x-gzip")) {
+        acceptsGzip = accepted;
+        refusesGzip = !accepted;
+      } else if (name.equals(DEFLATE)) {
+        acceptsDeflate = accepted;
+        refusesDeflate = !accepted;
+      } else if (name.equals("*")) {
+        acceptsAny = accepted;
+      }
+    }
+
+    if (acceptsGzip || (acceptsAny && !refusesGzip)) {
+      return GZIP;
+    }
+    if (acceptsDeflate || (acceptsAny && !refusesDeflate)) {
+      return DEFLATE;
+    }
+    return null;
+  }
+
+  /**
+   * Returns the "q" parameter of a content coding, or 1 if there is none.
+   */
+  private static double getQuality(String[] parts) {
+    for (int i = 1; i < parts.length; i++) {
+      String parameter = parts[i].trim();
+      if (parameter.startsWith("q=")) {
+        try {
+          return Double.parseDouble(parameter.substring(2));
+        } catch (NumberFormatException e) {
+          return 0;
+        }
+      }
+    }
+    return 1;
+  }
+
+  /**
+   * CompressingResponse hands the servlet a writer and stream that compress
+   * into the wrapped response once the body reaches MIN_COMPRESSED_BYTES.
+   * The ETag is held back until the encoding is decided.
+   */
+  private static final class CompressingResponse extends HttpServletResponseWrapper {
+
+    private final String encoding;
+    private ThresholdOutputStream outputStream;
+    private PrintWriter writer;
+    private String eTag;
+
+    CompressingResponse(HttpServletResponse response, String encoding) {
+      super(response);
+      this.encoding = encoding;
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+      if (this.writer != null) {
+        throw new IllegalStateException("getWriter() has already been called");
+      }
+      if (this.outputStream == null) {
+        this.outputStream = new ThresholdOutputStream();
+      }
+      return this.outputStream;
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+      if (this.writer == null) {
+        if (this.outputStream != null) {
+          throw new IllegalStateException("getOutputStream() has already been called");
+        }
+        this.outputStream = new ThresholdOutputStream();
+        this.writer = new PrintWriter(
+          new OutputStreamWriter(this.outputStream, getCharacterEncoding()));
+      }
+      return this.writer;
+    }
+
+    @Override
+    public void setHeader(String name, String value) {
+      if (name.equalsIgnoreCase(ConditionalGet.ETAG)) {
+        setETag(value);
+      } else {
+        super.setHeader(name, value);
+      }
+    }
+
+    @Override
+    public void addHeader(String name, String value) {
+      if (name.equalsIgnoreCase(ConditionalGet.ETAG)) {
+        setETag(value);
+      } else {
+        super.addHeader(name, value);
+      }
+    }
+
+    private void setETag(String value) {
+      this.eTag = value;
+      if (isCompressing()) {
+        super.setHeader(ConditionalGet.ETAG, ConditionalGet.withContentCoding(value, encoding));
+      }
+    }
+
+    private boolean isCompressing() {
+      return this.outputStream != null && this.outputStream.compressor != null;
+    }
+
+    // The length of the compressed body is not known up front.
+    @Override
+    public void setContentLength(int length) {}
+
+    @Override
+    public void setContentLengthLong(long length) {}
+
+    @Override
+    public void flushBuffer() throws IOException {
+      if (this.writer != null) {
+        this.writer.flush();
+      } else if (this.outputStream != null) {
+        this.outputStream.flush();
+      }
+    }
+
+    /**
+     * Writes out what is left of the body, ending the compressed stream.
+     */
+    void finish() throws IOException {
+      if (this.writer != null) {
+        this.writer.flush();
+      }
+      if (this.eTag != null && !isCompressing()) {
+        super.setHeader(ConditionalGet.ETAG, this.eTag);
+      }
+      if (this.outputStream != null) {
+        this.outputStream.finish();
+      }
+    }
+
+    /**
+     * ThresholdOutputStream buffers the body until it reaches the threshold,
+     * then starts the compressor on the wrapped response's stream.
+     */
+    private final class ThresholdOutputStream extends ServletOutputStream {
+
+      private ByteArrayOutputStream buffer = new ByteArrayOutputStream(MIN_COMPRESSED_BYTES);
+      private DeflaterOutputStream compressor;
+
+      @Override
+      public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+      }
+
+      @Override
+      public void write(byte[] bytes, int offset, int length) throws IOException {
+        if (this.compressor != null) {
+          this.compressor.write(bytes, offset, length);
+          return;
+        }
+
+        this.buffer.write(bytes, offset, length);
+        if (this.buffer.size() >= MIN_COMPRESSED_BYTES) {
+          startCompressing();
+        }
+      }
+
+      /**
+       * Buffered bytes are held until the threshold decides the encoding.
+       */
+      @Override
+      public void flush() throws IOException {
+        if (this.compressor != null) {
+          this.compressor.flush();
+        }
+      }
+
+      @Override
+      public boolean isReady() {
+        return true;
+      }
+
+      @Override
+      public void setWriteListener(WriteListener writeListener) {
+        throw new UnsupportedOperationException();
+      }
+
+      private void startCompressing() throws IOException {
+        HttpServletResponse response = (HttpServletResponse) getResponse();
+        response.setHeader(CONTENT_ENCODING, encoding);
+        if (eTag != null) {
+          response.setHeader(ConditionalGet.ETAG,
+            ConditionalGet.withContentCoding(eTag, encoding));
+        }
+        OutputStream out = response.getOutputStream();
+        this.compressor = encoding.equals(GZIP)
+          ? new GZIPOutputStream(out, MIN_COMPRESSED_BYTES)
+          : new DeflaterOutputStream(out);
+        this.buffer.writeTo(this.compressor);
+        this.buffer = null;
+      }
+
+      void finish() throws IOException {
+        if (this.compressor != null) {
+          this.compressor.finish();
+        } else if (this.buffer.size() > 0) {
+          // Too small to be worth compressing.
+          this.buffer.writeTo(getResponse().getOutputStream());
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,152 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.sps.Trip;
+import com.google.sps.TripRepository;
+import com.google.sps.VersionCounter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * ConditionalGet lets the read servlets answer repeat page views with
+ * "304 Not Modified". The ETag of a response is the key and version of the
+ * entity it was built from, so it can be checked with one small lookup,
+ * before any of the content is loaded. It also carries FORMAT_VERSION, and
+ * optionally a variant of the response (e.g. the order of a paged list),
+ * since the same entity version can then be sent differently.
+ *
+ * When CompressionFilter compresses a response, it adds the content coding
+ * to its ETag (see withContentCoding), so that the gzip, deflate and
+ * uncompressed bodies each have their own strong validator.
+ */
+public final class ConditionalGet {
+
+  public static final String ETAG = "ETag";
+  public static final String IF_NONE_MATCH = "If-None-Match";
+  public static final String CACHE_CONTROL = "Cache-Control";
+
+  // Version of the bodies the read servlets send; bump it whenever a servlet
+  // changes what it sends for an unchanged entity, so that clients do not
+  // keep bodies of the old format.
+  public static final int FORMAT_VERSION = 1;
+
+  // Responses are per user, and must be revalidated on every view.
+  private static final String PRIVATE_NO_CACHE = "private, no-cache";
+
+  private ConditionalGet() {}
+
+  /**
+   * Returns the strong ETag of a response built from the given version of
+   * the entity.
+   */
+  public static String buildETag(Key key, long version) {
+    return buildETag(key, version, null);
+  }
+
+  /**
+   * Returns the strong ETag of a response built from the given version of
+   * the entity, in the given variant, e.g. "f1-key-version-variant".
+   *
+   * @param variant The variant of the response, or null if it has only one.
+   * Must not contain quotes.
+   */
+  public static String buildETag(Key key, long version, String variant) {
+    String eTag = "f" + FORMAT_VERSION + "-" + KeyFactory.keyToString(key) + "-" + version;
+    if (variant != null) {
+      eTag += "-" + variant;
+    }
+    return "\"" + eTag + "\"";
+  }
+
+  /**
+   * Returns the ETag of the body compressed with the content coding, e.g.
+   * "key-version-gzip" for "key-version".
+   */
+  public static String withContentCoding(String eTag, String coding) {
+    return eTag.substring(0, eTag.length() - 1) + "-" + coding + "\"";
+  }
+
+  /**
+   * Sets the ETag of the response. If the request's If-None-Match matches
+   * it, or the ETag of one of its compressed bodies, also sets the status to
+   * 304 and returns true: the caller must then not write a body. The 304
+   * then carries the ETag the client matched.
+   *
+   * @param request The request, possibly with an If-None-Match header.
+   * @param response The response to set the headers of.
+   * @param eTag The current ETag of the requested content. Must be non-null.
+   */
+  public static boolean isNotModified(HttpServletRequest request, HttpServletResponse response,
+      String eTag) {
+    response.setHeader(ETAG, eTag);
+    response.setHeader(CACHE_CONTROL, PRIVATE_NO_CACHE);
+
+    String ifNoneMatch = request.getHeader(IF_NONE_MATCH);
+    String matchedETag = ifNoneMatch == null ? null : match(ifNoneMatch, eTag);
+    if (matchedETag == null) {
+      return false;
+    }
+
+    response.setHeader(ETAG, matchedETag);
+    response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    return true;
+  }
+
+  /**
+   * Checks the request against the current version of the trip, read with
+   * one get of the Trip Entity. Returns false, without setting any header,
+   * if the trip does not exist or is not under the user; the caller handles
+   * that case as before. See isNotModified(...).
+   */
+  public static boolean isTripNotModified(HttpServletRequest request,
+      HttpServletResponse response, DatastoreService datastore, Key userKey, Key tripKey) {
+    Entity tripEntity = new TripRepository(datastore).getTripEntity(userKey, tripKey);
+    if (tripEntity == null) {
+      return false;
+    }
+    return isNotModified(request, response,
+      buildETag(tripKey, VersionCounter.get(tripEntity, Trip.VERSION)));
+  }
+
+  /**
+   * Returns the ETag, or that of one of its compressed bodies, that the
+   * If-None-Match header value lists, the ETag if it is "*", or null if it
+   * matches none. If-None-Match uses the weak comparison, so a W/ prefix is
+   * ignored.
+   */
+  private static String match(String ifNoneMatch, String eTag) {
+    String gzipETag = withContentCoding(eTag, CompressionFilter.GZIP);
+    String deflateETag = withContentCoding(eTag, CompressionFilter.DEFLATE);
+    for (String candidate : ifNoneMatch.split(",")) {
+      candidate = candidate.trim();
+      if (candidate.startsWith("W/")) {
+        candidate = candidate.substring(2);
+      }
+      if (candidate.equals("*")) {
+        return eTag;
+      }
+      if (candidate.equals(eTag) || candidate.equals(gzipETag)
+          || candidate.equals(deflateETag)) {
+        return candidate;
+      }
+    }
+    return null;
+  }
+}
@@ -20,23 +20,20 @@ import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyFactory;
 import com.google.appengine.api.datastore.Entity;
-import com.google.appengine.api.datastore.FetchOptions;
-import com.google.appengine.api.datastore.PreparedQuery;
-import com.google.appengine.api.datastore.Query;
-import com.google.appengine.api.datastore.Query.Filter;
-import com.google.appengine.api.datastore.Query.FilterOperator;
-import com.google.appengine.api.datastore.Query.FilterPredicate;
 import com.google.common.base.CaseFormat;
-import com.google.gson.Gson;
 import com.google.sps.data.Event;
+import com.google.sps.JsonSerializer;
 import com.google.sps.Trip;
 import com.google.sps.TripDay;
+import com.google.sps.TripRepository;
+import com.google.sps.TripView;
 import java.io.IOException;
 import java.lang.IllegalArgumentException;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -49,7 +46,6 @@ import javax.servlet.http.HttpServletResponse;
 public class EditServlet extends HttpServlet {
 
   private final String TRIP_KEY_PARAM = "tripKey";
-  private final String KEY_FILTER_NAME = "__key__";
 
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) 
@@ -77,6 +73,12 @@ public class EditServlet extends HttpServlet {
     // Write the edit trip content to the file.
     try {
       Key tripKey = KeyFactory.stringToKey(stringTripKey);
+
+      // Repeat views of an unchanged trip get a 304, without loading the events.
+      if (ConditionalGet.isTripNotModified(request, response, datastore, 
+          userEntity.getKey(), tripKey)) {
+        return;
+      }
       writeEditTripContentToFile(response, userEntity, tripKey, datastore);
     } catch (IllegalArgumentException e) {
       // If String cannot be converted to Key, redirect to Trips page.
@@ -97,33 +99,44 @@ public class EditServlet extends HttpServlet {
   public void writeEditTripContentToFile(HttpServletResponse response, 
     Entity userEntity, Key tripKey, DatastoreService datastore) throws IOException {
 
-    // If no trip is returned, redirect to trips page.
-    Entity tripEntity = getTripFromTripKey(userEntity, tripKey, datastore);
-    if (tripEntity == null) {
+    // If no trip is returned, redirect to trips page. The view is only 
+    // loaded if the Trip is under the User.
+    TripView tripView = 
+      new TripRepository(datastore).getTripView(userEntity.getKey(), tripKey);
+    if (tripView == null) {
       response.sendRedirect("/trips/");
       return;
     }
 
-    // Get the Trip Day list; if an empty list is returned, redirect to trips page.
-    List<Entity> tripDayList = getTripDaysFromTrip(tripEntity.getKey(), datastore);
-    if (tripDayList.isEmpty()) {
+    // If there are no TripDays under the Trip, redirect to trips page.
+    if (tripView.getDays().isEmpty()) {
       response.sendRedirect("/trips/");
       return;
     }
 
+    JsonSerializer.write(response, buildEditTrip(tripView, tripKey));
+  }
+
+  /**
+   * Create a custom object to hold the Trip, TripDay, and Event information
+   * of the trip view, used to create the JSON response.
+   */
+  static EditTrip buildEditTrip(TripView tripView, Key tripKey) {
     /**
-     * Get the events, and put them in a map relating the date to the Event list.
+     * Put the events of every TripDay in a map relating the date to the 
+     * Event list, ordered by time.
      * The LinkedHashMap is used to maintain the ordering of the TripDays.
      */
     Map<String, List<Event>> dateEventMap = new LinkedHashMap<>();
-    for (Entity tripDay : tripDayList) {
-      List<Event> eventList = getEventsFromTripDay(tripDay.getKey(), datastore);
+    for (TripView.Day tripDay : tripView.getDays()) {
+      List<Event> eventList = new ArrayList<>(tripDay.getEvents());
+      Collections.sort(eventList);
 
       /**
        * Create the dateString and add the event list. The dateString is 
        * formatted as "DAY_OF_WEEK, MONTH/DAY/YEAR".
        */
-      LocalDate localDate = LocalDate.parse((String) tripDay.getProperty(TripDay.DATE));
+      LocalDate localDate = LocalDate.parse(tripDay.getDate());
       String dateString = 
         CaseFormat.UPPER_UNDERSCORE.to(CaseFormat.UPPER_CAMEL, localDate.getDayOfWeek().toString())
         + ", " + localDate.getMonthValue() + "/" + localDate.getDayOfMonth() + "/" 
@@ -131,14 +144,7 @@ public class EditServlet extends HttpServlet {
       dateEventMap.put(dateString, eventList);
     }
 
-    /**
-    * Create a custom object to hold the Trip, TripDay, and Event information.
-    * Use this object to create a JSON response which is returned.
-    */
-    EditTrip editTripObject = 
-      new EditTrip(Trip.buildTripFromEntity(tripEntity), dateEventMap);
-    String json = convertToJson(editTripObject);
-    response.getWriter().println(json);
+    return new EditTrip(tripView.toTrip(tripKey), dateEventMap);
   }
 
   /**
@@ -154,18 +160,8 @@ public class EditServlet extends HttpServlet {
   public Entity getTripFromTripKey(Entity userEntity, Key tripKey, 
     DatastoreService datastore) {
 
-    // Construct Filter and Query to get all trips with the current user ancestor.
-    Filter tripKeyFilter =
-      new FilterPredicate(KEY_FILTER_NAME, FilterOperator.EQUAL, tripKey);
-    Query tripQuery = new Query(Trip.TRIP, userEntity.getKey());
-    tripQuery.setFilter(tripKeyFilter);
-    PreparedQuery tripResults = datastore.prepare(tripQuery);
-
-    // Only one Trip Entity can match the provided key.
-    Entity tripEntity = tripResults.asSingleEntity();
-    
-    // If no Trip Entity is present, this will return null.
-    return tripEntity;
+    // The trip key carries its ancestor, so this is a lookup, not a query.
+    return new TripRepository(datastore).getTripEntity(userEntity.getKey(), tripKey);
   }
 
   /**
@@ -178,25 +174,7 @@ public class EditServlet extends HttpServlet {
    * @return The List of TripDay Entity objects under the passed-in Trip Key.
    */
   public List<Entity> getTripDaysFromTrip(Key tripKey, DatastoreService datastore) {
-    // Construct Query to get all TripDays with the Trip ancestor.
-    Query tripDayQuery = new Query(TripDay.QUERY_STRING, tripKey);
-    PreparedQuery tripDayResults = datastore.prepare(tripDayQuery);
-    
-
-    // Return the list of TripDay Entity objects under the provided Trip.
-    List<Entity> tripDayList = 
-      tripDayResults.asList(FetchOptions.Builder.withDefaults());
-    Collections.sort(tripDayList, new Comparator<Entity>() {
-      // Create custom compare function that sorts by date.
-      public int compare(Entity tripDayEntity1, Entity tripDayEntity2) {
-        LocalDate localDate1 = LocalDate.parse((String) 
-          tripDayEntity1.getProperty(TripDay.DATE));
-        LocalDate localDate2 = LocalDate.parse((String) 
-          tripDayEntity2.getProperty(TripDay.DATE));
-        return localDate1.compareTo(localDate2);
-      }
-    });
-    return tripDayList;
+    return new TripRepository(datastore).getTripDayEntities(tripKey);
   }
 
   /**
@@ -208,29 +186,23 @@ public class EditServlet extends HttpServlet {
    * @return The List of ordered Event objects under the passed-in TripDay Key.
    */
   public List<Event> getEventsFromTripDay(Key tripDayKey, DatastoreService datastore) {
-    // Construct Query to get all Events with the TripDay ancestor.
-    Query eventQuery = new Query(Event.QUERY_STRING, tripDayKey);
-    PreparedQuery eventResults = datastore.prepare(eventQuery);
-
-    // Return the list of Event Entity objects under the provided TripDay.
-    List<Entity> eventEntityList = eventResults.asList(FetchOptions.Builder.withDefaults());
-
-    // Convert Event Entity list to an Event List.
-    List<Event> eventList = new ArrayList<>();
-    for (Entity eventEntity : eventEntityList) {
-      eventList.add(Event.eventFromEntity(eventEntity));
-    }
-    Collections.sort(eventList);
-    return eventList;
+    // The ancestor query works on any ancestor, so reuse the whole-trip lookup.
+    return getEventsFromTrip(tripDayKey, datastore)
+      .getOrDefault(tripDayKey, new ArrayList<>());
   }
 
   /**
-   * Converts an object to String JSON form.
+   * Get the Event objects from datastore that are under the passed-in Trip 
+   * Entity Key, with a single ancestor query for the whole trip. The events
+   * are grouped by the Key of their TripDay, and each list is ordered by time.
+   * TripDays without events have no entry.
+   * 
+   * @param tripKey The Key of the Trip used as an ancestor of the Event objects.
+   * @param datastore The datastore object to use when searching for the Event objects.
+   * @return The map from TripDay Key to the ordered Event objects of that day.
    */
-  private String convertToJson(Object object) {
-    Gson gson = new Gson();
-    String json = gson.toJson(object);
-    return json;
+  public Map<Key, List<Event>> getEventsFromTrip(Key tripKey, DatastoreService datastore) {
+    return new TripRepository(datastore).getEventsByTripDay(tripKey);
   }
 
   /**
@@ -238,7 +210,7 @@ public class EditServlet extends HttpServlet {
    * This class is used to create the custom JSON object to write through the
    * response object.
    */
-  private class EditTrip {
+  static class EditTrip {
     private Trip trip;
     private Map<String, List<Event>> dateEventMap;
 
@@ -20,15 +20,9 @@ import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyFactory;
 import com.google.appengine.api.datastore.Entity;
-import com.google.appengine.api.datastore.FetchOptions;
-import com.google.appengine.api.datastore.PreparedQuery;
-import com.google.appengine.api.datastore.Query;
-import com.google.appengine.api.datastore.Query.Filter;
-import com.google.appengine.api.datastore.Query.FilterOperator;
-import com.google.appengine.api.datastore.Query.FilterPredicate;
-import com.google.gson.Gson;
-import com.google.sps.Trip;
-import com.google.sps.TripDay;
+import com.google.sps.JsonSerializer;
+import com.google.sps.TripRepository;
+import com.google.sps.TripView;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
@@ -42,6 +36,9 @@ public class MapServlet extends HttpServlet {
 
   private final String TRIP_KEY_PARAM = "tripKey";
 
+  // Optional 1-based day of the trip to show; defaults to the first day.
+  private final String DAY_PARAM = "day";
+
   /**
    * Checks for invalid cases (no user or tripKey).
    * Gets the locations from datastore and prints them to writer.
@@ -73,61 +70,70 @@ public class MapServlet extends HttpServlet {
     } else { 
       Key tripKey = KeyFactory.stringToKey(stringTripKey);
 
+      int day;
+      try {
+        String dayString = request.getParameter(DAY_PARAM);
+        day = dayString == null ? 1 : Integer.parseInt(dayString);
+      } catch (NumberFormatException e) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+        return;
+      }
+
+      // Repeat views of an unchanged trip get a 304, without loading the trip days.
+      if (ConditionalGet.isTripNotModified(request, response, datastore, 
+          userEntity.getKey(), tripKey)) {
+        return;
+      }
+
       // Gets the locations from datastore and writes them to .../get-map
-      String result = doGetMap(response, datastore, userEntity, tripKey);
+      String result = doGetMap(response, datastore, userEntity, tripKey, day);
       response.getWriter().println(result);
     }
   }
 
   /**
-   * Gets the locations and returns them as a JSON string.
+   * Gets the locations of the first day and returns them as a JSON string.
    */
   public String doGetMap(HttpServletResponse response, 
       DatastoreService datastore, Entity userEntity, Key tripEntityKey) throws IOException {
+    return doGetMap(response, datastore, userEntity, tripEntityKey, 1);
+  }
+
+  /**
+   * Gets the locations of the given (1-based) day of the trip and returns 
+   * them as a JSON string.
+   */
+  public String doGetMap(HttpServletResponse response, DatastoreService datastore, 
+      Entity userEntity, Key tripEntityKey, int day) throws IOException {
   
-    // Get trip Entity based on trip key.
-    // Trip entity is needed to ensure that tripKey corresponds to a Trip under the current user.
-    Filter tripKeyFilter =
-      new FilterPredicate("__key__", FilterOperator.EQUAL, tripEntityKey);
-    Query tripQuery = new Query(Trip.TRIP, userEntity.getKey());
-    tripQuery.setFilter(tripKeyFilter);
-    PreparedQuery tripResults = datastore.prepare(tripQuery);
-    Entity tripEntity = tripResults.asSingleEntity();
+    // The view is only loaded if tripKey corresponds to a Trip under the current user.
+    TripView tripView = 
+      new TripRepository(datastore).getTripView(userEntity.getKey(), tripEntityKey);
 
     // If no trip is found then redirect home
-    if (tripEntity == null) {
+    if (tripView == null) {
       response.sendRedirect("/");
       return "No trip found";
     } 
 
-    // Get TripDay associated with the Trip.
-    // TODO(eshika): change to select the desired tripDay for multiday trips.
-    Query tripDayQuery = new Query(TripDay.QUERY_STRING, tripEntity.getKey());
-    PreparedQuery tripDayResults = datastore.prepare(tripDayQuery);
-    Entity tripDayEntity = tripDayResults.asSingleEntity();
-
-    // Add origin as the first location.
-    List<String> locations = new ArrayList<>();
-    locations.add((String) tripDayEntity.getProperty(TripDay.ORIGIN));
-
-    // Add rest of POIs to locations list and write to writer.
-    Query locationsQuery = new Query(TripDay.LOCATION_ENTITY_TYPE, tripDayEntity.getKey());
-    locationsQuery.addSort(TripDay.ORDER);
-    PreparedQuery locationResults = datastore.prepare(locationsQuery);
-    for (Entity locationEntity : locationResults.asIterable()) {
-      // Gets location names as Strings (these names include the full address needed for routing)
-      locations.add((String) locationEntity.getProperty(TripDay.NAME));
+    // Select the requested day; the view holds the days in date order.
+    List<TripView.Day> days = tripView.getDays();
+    if (day < 1 || day > days.size()) {
+      response.sendError(HttpServletResponse.SC_NOT_FOUND);
+      return "No trip day found";
     }
-
-    return convertToJson(locations);
+    return JsonSerializer.GSON.toJson(buildMapLocations(days.get(day - 1)));
   }
 
   /**
-   * Converts list of location strings into a JSON string using the Gson library.
+   * Returns the locations to route through on the day: the origin first, 
+   * followed by the rest of the POIs (these names include the full address
+   * needed for routing).
    */
-  private String convertToJson(List<String> locations) {
-    Gson gson = new Gson();
-    String json = gson.toJson(locations);
-    return json;
+  static List<String> buildMapLocations(TripView.Day tripDay) {
+    List<String> locations = new ArrayList<>();
+    locations.add(tripDay.getOrigin());
+    locations.addAll(tripDay.getLocations());
+    return locations;
   }
 }
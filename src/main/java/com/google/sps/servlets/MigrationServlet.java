@@ -0,0 +1,112 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+import com.google.sps.MigrationRunner;
+import com.google.sps.SchemaVersion;
+import com.google.sps.UserRepository;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet that runs the data migrations on the "migration" queue: the
+ * upgrade of the stored entities to their current schema versions (see
+ * SchemaVersion), then the aliases of legacy users (see UserRepository). A
+ * GET from an admin or from cron starts it; each task then runs a few
+ * batches and adds the next task, until every migration is done. The queue
+ * runs one task at a time (see queue.xml), so batches never overlap, and
+ * the runner limits the write rate within a task.
+ */
+@WebServlet(MigrationServlet.URL)
+public class MigrationServlet extends HttpServlet {
+
+  public static final String URL = "/migrate-schema";
+  public static final String QUEUE_NAME = "migration";
+
+  // Batches run by one task; at the runner's write rate they finish well
+  // inside the 10 minute task deadline.
+  public static final int BATCHES_PER_TASK = 10;
+
+  // App Engine sets these headers on task queue and cron requests, and strips
+  // them from external requests.
+  private static final String QUEUE_NAME_HEADER = "X-AppEngine-QueueName";
+  private static final String CRON_HEADER = "X-AppEngine-Cron";
+
+  /**
+   * Starts the migration, unless it is done.
+   */
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
+    UserService userService = UserServiceFactory.getUserService();
+    boolean isAdmin = userService.isUserLoggedIn() && userService.isUserAdmin();
+    if (request.getHeader(CRON_HEADER) == null && !isAdmin) {
+      response.sendError(HttpServletResponse.SC_FORBIDDEN);
+      return;
+    }
+
+    for (MigrationRunner runner : newMigrationRunners()) {
+      if (!runner.isDone()) {
+        addTask();
+        return;
+      }
+    }
+  }
+
+  /**
+   * Runs the next batches of the first migration that is not done, and adds
+   * the next task if it is still not done. A failed task is retried by the
+   * queue from the last checkpoint.
+   */
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
+    if (request.getHeader(QUEUE_NAME_HEADER) == null) {
+      response.sendError(HttpServletResponse.SC_FORBIDDEN);
+      return;
+    }
+
+    for (MigrationRunner runner : newMigrationRunners()) {
+      if (!runner.run(BATCHES_PER_TASK, MigrationRunner.DEFAULT_BATCH_SIZE)) {
+        addTask();
+        return;
+      }
+    }
+  }
+
+  /**
+   * Returns the runners of the migrations, in the order they run.
+   */
+  private static List<MigrationRunner> newMigrationRunners() {
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    return Arrays.asList(SchemaVersion.newMigrationRunner(datastore),
+      new UserRepository(datastore).newLegacyUserMigrationRunner());
+  }
+
+  private static void addTask() {
+    QueueFactory.getQueue(QUEUE_NAME).add(TaskOptions.Builder.withUrl(URL));
+  }
+}
@@ -0,0 +1,178 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.gson.stream.JsonWriter;
+import com.google.sps.JsonSerializer;
+import com.google.sps.TripRepository;
+import com.google.sps.TripView;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet that returns the map, calendar and edit content of a trip in one
+ * response, built from one load of the trip view. Each section is the same
+ * JSON as the response of its own servlet, except that "map" holds the
+ * locations of every day instead of one.
+ */
+@WebServlet("/trip-bundle")
+public class TripBundleServlet extends HttpServlet {
+
+  public static final String TRIP_KEY_PARAM = "tripKey";
+
+  // Comma-separated sections to include; all of them if absent.
+  public static final String VIEWS_PARAM = "views";
+
+  public static final String MAP = "map";
+  public static final String CALENDAR = "calendar";
+  public static final String EDIT = "edit";
+  public static final List<String> ALL_VIEWS = Arrays.asList(MAP, CALENDAR, EDIT);
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
+    response.setContentType("application/json;");
+
+    // Get current user, redirect to homepage if no user exists.
+    Entity userEntity = AuthServlet.getCurrentUserEntity();
+    if (userEntity == null) {
+      response.sendRedirect("/");
+      return;
+    }
+
+    // Get tripKey, redirect to trips page if there is none.
+    String stringTripKey = request.getParameter(TRIP_KEY_PARAM);
+    if (stringTripKey == null) {
+      response.sendRedirect("/trips/");
+      return;
+    }
+
+    Set<String> views;
+    Key tripKey;
+    try {
+      views = parseViews(request.getParameter(VIEWS_PARAM));
+    } catch (IllegalArgumentException e) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+      return;
+    }
+    try {
+      tripKey = KeyFactory.stringToKey(stringTripKey);
+    } catch (IllegalArgumentException e) {
+      // If String cannot be converted to Key, redirect to Trips page.
+      response.sendRedirect("/trips/");
+      return;
+    }
+
+    // Repeat prefetches of an unchanged trip get a 304, without loading the view.
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    if (ConditionalGet.isTripNotModified(request, response, datastore,
+        userEntity.getKey(), tripKey)) {
+      return;
+    }
+
+    // The view is only loaded if the Trip is under the User.
+    TripView tripView = new TripRepository(datastore).getTripView(userEntity.getKey(), tripKey);
+    if (tripView == null) {
+      response.sendRedirect("/trips/");
+      return;
+    }
+
+    writeBundle(response, tripView, tripKey, views);
+  }
+
+  /**
+   * Returns the sections named in the views parameter, in the order of
+   * ALL_VIEWS; all of them if the parameter is absent.
+   *
+   * @throws IllegalArgumentException if a name is not one of ALL_VIEWS.
+   */
+  public static Set<String> parseViews(String viewsParam) {
+    if (viewsParam == null) {
+      return new LinkedHashSet<>(ALL_VIEWS);
+    }
+
+    Set<String> requested = new LinkedHashSet<>();
+    for (String view : viewsParam.split(",")) {
+      if (!ALL_VIEWS.contains(view.trim())) {
+        throw new IllegalArgumentException("Unknown view: " + view);
+      }
+      requested.add(view.trim());
+    }
+
+    Set<String> views = new LinkedHashSet<>();
+    for (String view : ALL_VIEWS) {
+      if (requested.contains(view)) {
+        views.add(view);
+      }
+    }
+    return views;
+  }
+
+  /**
+   * Streams the requested sections of the trip view to the response, one
+   * after the other.
+   *
+   * @param response The response to write to.
+   * @param tripView The view of the trip, already checked to be the user's.
+   * @param tripKey The Key of the trip.
+   * @param views The sections to write; see parseViews.
+   */
+  public void writeBundle(HttpServletResponse response, TripView tripView, Key tripKey,
+      Set<String> views) throws IOException {
+    PrintWriter writer = response.getWriter();
+    JsonWriter jsonWriter = JsonSerializer.GSON.newJsonWriter(writer);
+    jsonWriter.beginObject();
+
+    if (views.contains(MAP)) {
+      List<List<String>> dayLocations = new ArrayList<>();
+      for (TripView.Day tripDay : tripView.getDays()) {
+        dayLocations.add(MapServlet.buildMapLocations(tripDay));
+      }
+      writeSection(jsonWriter, MAP, dayLocations);
+    }
+    if (views.contains(CALENDAR)) {
+      writeSection(jsonWriter, CALENDAR, CalendarServlet.buildCalendarEvents(tripView));
+    }
+    if (views.contains(EDIT)) {
+      writeSection(jsonWriter, EDIT, EditServlet.buildEditTrip(tripView, tripKey));
+    }
+
+    jsonWriter.endObject();
+    jsonWriter.flush();
+    writer.println();
+  }
+
+  private static void writeSection(JsonWriter jsonWriter, String name, Object value)
+      throws IOException {
+    jsonWriter.name(name);
+    JsonSerializer.GSON.toJson(value, value.getClass(), jsonWriter);
+    // Hand each section to the response as soon as it is written.
+    jsonWriter.flush();
+  }
+}
@@ -22,43 +22,69 @@ import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyFactory;
 import com.google.appengine.api.datastore.PreparedQuery;
 import com.google.appengine.api.datastore.Query;
-import com.google.maps.DirectionsApi;
-import com.google.maps.DirectionsApiRequest;
-import com.google.maps.DirectionsApi.RouteRestriction;
+import com.google.appengine.api.utils.SystemProperty;
 import com.google.maps.FindPlaceFromTextRequest;
 import com.google.maps.GeoApiContext;
+import com.google.maps.PendingResult;
 import com.google.maps.PlaceDetailsRequest;
 import com.google.maps.PlacesApi;
 import com.google.maps.errors.ApiException;
 import com.google.maps.errors.NotFoundException;
 import com.google.maps.model.AddressType;
-import com.google.maps.model.DirectionsLeg;
-import com.google.maps.model.DirectionsResult;
 import com.google.maps.model.FindPlaceFromText;
 import com.google.maps.model.GeocodedWaypointStatus;
 import com.google.maps.model.LatLng;
-import com.google.maps.model.Photo;
 import com.google.maps.model.PlaceDetails;
 import com.google.maps.model.PlaceType;
 import com.google.maps.model.TrafficModel;
 import com.google.maps.model.TransitMode;
 import com.google.maps.model.TransitRoutingPreference;
-import com.google.maps.model.TravelMode;
 import com.google.maps.model.Unit;
-import com.google.gson.Gson;
+import com.google.sps.EntityWriteBatch;
+import com.google.sps.JsonSerializer;
+import com.google.sps.PlanningContext;
 import com.google.sps.Trip;
 import com.google.sps.TripDay;
+import com.google.sps.TripView;
+import com.google.sps.UserRepository;
 import com.google.sps.data.Config;
 import com.google.sps.data.Event;
-import com.google.sps.TripDay;
+import com.google.sps.jobs.ExecutorTripJobQueue;
+import com.google.sps.jobs.TaskQueueTripJobQueue;
+import com.google.sps.jobs.TripJob;
+import com.google.sps.jobs.TripJobQueue;
+import com.google.sps.jobs.TripJobRunner;
+import com.google.sps.jobs.TripPlanner;
+import com.google.sps.places.PlaceDetailsCache;
+import com.google.sps.places.PlaceStore;
+import com.google.sps.places.PlaceIdCache;
+import com.google.sps.places.PlaceSummary;
+import com.google.sps.route.DayPartitioner;
+import com.google.sps.route.HeldKarpSolver;
+import com.google.sps.route.RouteOptimizer;
+import com.google.sps.route.TravelDurationCache;
+import com.google.sps.route.TravelDurationMatrix;
 import java.io.IOException;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -70,19 +96,29 @@ import javax.servlet.http.HttpServletResponse;
  * and puts info into datastore to be pulled by maps and calendar
  */
 @WebServlet("/calculate-trip")
-public class TripServlet extends HttpServlet {
-
-  // Constant for picking route
-  private static final int ROUTE_INDEX = 0;
+public class TripServlet extends HttpServlet implements TripPlanner {
 
   private static final int PHOTO_SRC_SIZE = 400;
+  private static final String PLACEHOLDER_PHOTO_SRC = "../images/placeholder_image.png";
+
+  // Trips with at most this many POIs are routed exactly with HeldKarpSolver;
+  // larger trips use the RouteOptimizer heuristics. The solver's tables grow
+  // as 2^n * n, about 2.5MB at this cutoff, so they are allocated once per
+  // thread (see EXACT_ROUTE_SOLVERS) and a solve then allocates nothing.
+  private static final int MAX_POIS_FOR_EXACT_ROUTE = 15;
+
+  // One solver, sized for MAX_POIS_FOR_EXACT_ROUTE, per request or
+  // DAY_ROUTE_POOL thread; a solver is not thread-safe.
+  private static final ThreadLocal<HeldKarpSolver> EXACT_ROUTE_SOLVERS =
+    ThreadLocal.withInitial(() -> new HeldKarpSolver(MAX_POIS_FOR_EXACT_ROUTE));
+
+  // The routes of the days of a multi-day trip are optimized in parallel on
+  // this pool, shared by every trip calculation.
+  private static final ForkJoinPool DAY_ROUTE_POOL = 
+    new ForkJoinPool(Runtime.getRuntime().availableProcessors());
 
-  // Trip attributes needed to store the Trip Entity in datastore.
-  private String tripName;
-  private String tripDestination;
-  private String tripDayOfTravel;
-  private String destinationName;
-  private String photoSrc;
+  // Maximum number of Places requests that are in flight at the same time.
+  private static final int MAX_CONCURRENT_PLACES_REQUESTS = 8;
 
   // time class constants
   private static final int HALF_HOUR = 30;
@@ -90,22 +126,33 @@ public class TripServlet extends HttpServlet {
   private static final int NINETY_MINS = 90;
   private static final int SECONDS_IN_MIN = 60;
 
-  // event fields for entity
-  private static final String NAME = "name";
-  private static final String ADDRESS = "end-time";
-  private static final String DATE = "date";
-  private static final String START_TIME = "start-time";
-  private static final String TRAVEL_TIME = "travel-time";
 
   // Constants to get form inputs.
   private static final String INPUT_TRIP_NAME = "inputTripName";
   private static final String INPUT_DESTINATION = "inputDestination";
   private static final String INPUT_DAY_OF_TRAVEL = "inputDayOfTravel";
+  private static final String INPUT_END_DATE = "inputEndDate";
   private static final String INPUT_POI_LIST = "poiList";
+  private static final String INPUT_ASYNC = "async";
+
+  // Outside App Engine, trip jobs run on an in-process pool of this many
+  // workers, with at most MAX_PENDING_TRIP_JOBS waiting.
+  private static final int TRIP_JOB_WORKERS = 4;
+  private static final int MAX_PENDING_TRIP_JOBS = 50;
 
   // Datastore and API context
   private DatastoreService datastore;
   private GeoApiContext context;
+  private TripJobQueue tripJobQueue;
+
+  // Place IDs of text searches, place summaries, and travel durations between
+  // places, shared by every trip calculation.
+  private final PlaceIdCache placeIdCache = 
+    new PlaceIdCache(DatastoreServiceFactory.getDatastoreService());
+  private final PlaceDetailsCache placeDetailsCache = 
+    new PlaceDetailsCache(DatastoreServiceFactory.getDatastoreService());
+  private final TravelDurationCache travelDurationCache = 
+    new TravelDurationCache(DatastoreServiceFactory.getDatastoreService());
 
   /**
    * Initializes datastore and API.
@@ -116,54 +163,229 @@ public class TripServlet extends HttpServlet {
     this.context = new GeoApiContext.Builder()
       .apiKey(Config.API_KEY)
       .build();
+
+    // On App Engine, jobs go to the trip-planning push queue, which calls
+    // TripWorkerServlet; elsewhere they run on a local bounded pool.
+    if (SystemProperty.environment.value() == null) {
+      this.tripJobQueue = new ExecutorTripJobQueue(new TripJobRunner(this.datastore, this),
+        TRIP_JOB_WORKERS, MAX_PENDING_TRIP_JOBS);
+    } else {
+      this.tripJobQueue = new TaskQueueTripJobQueue();
+    }
   }
 
   /**
    * Get user input.
-   * Generate directionsRequest from user input and parse optimized route.
+   * Fetch travel durations between all locations (through the travel-duration
+   * cache) and optimize the route locally.
    * Create and store events in Datastore.
+   * If the async parameter is "true", store a pending trip job instead, and
+   * respond with its ID right away; /trip-status reports its progress.
    */
   @Override
   public void doPost(HttpServletRequest request, HttpServletResponse response) 
       throws IOException {
     response.setContentType("application/json;");
 
-    // Retrieve form inputs to define the Trip object.
-    this.tripName = request.getParameter(INPUT_TRIP_NAME);
-    this.tripDestination = request.getParameter(INPUT_DESTINATION);
-    this.tripDayOfTravel = request.getParameter(INPUT_DAY_OF_TRAVEL);
-    String[] poiStrings = request.getParameterValues(INPUT_POI_LIST);
-
-    // Populate the destinationName and photoSrc fields using Google Maps API.
-    populateDestinationAndPhoto(this.context, this.tripDestination);
+    // Get User Entity. If user not logged in, redirect to homepage. The user
+    // is resolved here because UserService only works on request threads.
+    Entity userEntity = AuthServlet.getCurrentUserEntity();
+    if (userEntity == null) {
+      response.sendRedirect("/");
+      return;
+    }
 
-    // Store the Trip Entity in datastore with the User Entity as an ancestor.
-    Entity tripEntity = storeTripEntity(response, this.tripName, this.destinationName, 
-      this.tripDayOfTravel, this.photoSrc, datastore);
+    String tripName = request.getParameter(INPUT_TRIP_NAME);
+    String tripDestination = request.getParameter(INPUT_DESTINATION);
+    String tripDayOfTravel = request.getParameter(INPUT_DAY_OF_TRAVEL);
+    String tripEndDate = request.getParameter(INPUT_END_DATE);
+    if (tripEndDate != null && tripEndDate.isEmpty()) {
+      tripEndDate = null;
+    }
+    String[] poiStrings = request.getParameterValues(INPUT_POI_LIST);
 
-    //do post for maps
-    DirectionsApiRequest dirRequest = generateDirectionsRequest(this.tripDestination, this.tripDestination, poiStrings, this.context);
-    DirectionsResult dirResult = getDirectionsResult(dirRequest);
-    List<Integer> travelTimes = getTravelTimes(dirResult);
-    List<String> orderedLocationStrings = getOrderedWaypoints(dirResult, poiStrings);
+    // Reject bad input before any Maps API call is made, or job is stored.
+    try {
+      PlanningContext.validateInputs(tripName, tripDestination, tripDayOfTravel, tripEndDate,
+        poiStrings);
+    } catch (IllegalArgumentException e) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+      return;
+    }
 
-    // put TripDay entity into datastore
-    Entity tripDayEntity = putTripDayInDatastore(this.tripDestination, datastore, LocalDate.parse(tripDayOfTravel), tripEntity.getKey());
+    if (Boolean.parseBoolean(request.getParameter(INPUT_ASYNC))) {
+      submitTripJob(response, tripName, tripDestination, tripDayOfTravel, tripEndDate,
+        poiStrings, userEntity.getKey());
+      return;
+    }
 
-    List<Entity> locationEntities = TripDay.locationsToEntities(orderedLocationStrings, tripDayEntity.getKey());
-    TripDay.storeLocationsInDatastore(locationEntities, this.datastore);
-    
-    // put Event entities in datastore
-    putEventsInDatastore(tripDayEntity, LocalDate.parse(tripDayOfTravel), datastore, orderedLocationStrings, travelTimes);
+    // Retrieve form inputs, and populate the destinationName and photoSrc 
+    // fields using Google Maps API. All per-request state lives in the 
+    // immutable planning context, so concurrent requests never share it.
+    PlanningContext planningContext = createPlanningContext(tripName, tripDestination, 
+      tripDayOfTravel, tripEndDate, poiStrings);
+    Key tripKey = Trip.allocateKey(this.datastore, userEntity.getKey());
+    planTrip(planningContext, tripKey, stage -> {});
 
     // Redirect to the Maps page of this trip to show the trip that was added.
-    String tripKeyString = KeyFactory.keyToString(tripEntity.getKey());
+    String tripKeyString = KeyFactory.keyToString(tripKey);
     response.sendRedirect("/maps.html?tripKey=" + tripKeyString);
   }
 
+  /**
+   * Store a pending trip job for the inputs, hand it to the job queue, and
+   * respond with the job ID as JSON. Responds with 503 if the queue is full.
+   */
+  private void submitTripJob(HttpServletResponse response, String tripName, 
+      String tripDestination, String tripDayOfTravel, String tripEndDate, String[] poiStrings,
+      Key userKey) throws IOException {
+    Entity jobEntity = TripJob.buildEntity(tripName, tripDestination, tripDayOfTravel,
+      tripEndDate, poiStrings, userKey);
+    Key jobKey = this.datastore.put(jobEntity);
+    try {
+      this.tripJobQueue.submit(jobKey);
+    } catch (IOException e) {
+      this.datastore.delete(jobKey);
+      response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+      return;
+    }
+
+    Map<String, String> jobResponse = new HashMap<>();
+    jobResponse.put("jobId", KeyFactory.keyToString(jobKey));
+    response.setStatus(HttpServletResponse.SC_ACCEPTED);
+    JsonSerializer.write(response, jobResponse);
+  }
+
+  /**
+   * Plan the trip of the planning context and store it under the user: fetch
+   * the travel durations between all locations (through the travel-duration
+   * cache), split the POIs into one group of nearby places per day, optimize
+   * the route of every day in parallel, store the places of the POIs, and 
+   * write the days, locations and events of the trip in one batch under the
+   * given key. The Trip Entity is written last, so a job retry that finds it
+   * knows the trip is complete.
+   */
+  @Override
+  public void planTrip(PlanningContext planningContext, Key tripKey, Consumer<String> progress) 
+      throws IOException {
+    String tripDestination = planningContext.getTripDestination();
+    LocalDate tripDate = LocalDate.parse(planningContext.getTripDayOfTravel());
+    String[] poiStrings = planningContext.getPois().toArray(new String[0]);
+
+    // Collect every entity of the trip, and commit them together at the end.
+    EntityWriteBatch writeBatch = new EntityWriteBatch(this.datastore);
+
+    // Build the Trip Entity under its allocated key, with the User Entity as
+    // an ancestor.
+    Key userKey = tripKey.getParent();
+    Entity tripEntity = new Entity(tripKey);
+    tripEntity.setPropertiesFrom(Trip.buildEntity(
+      planningContext.getTripName(), planningContext.getDestinationName(), 
+      planningContext.getPhotoSrc(), planningContext.getTripDayOfTravel(), 
+      planningContext.getTripEndDate(), userKey));
+
+    // Order the POIs locally from the travel-duration matrix, with the hotel
+    // at index 0 of the matrix.
+    // The legs between resolved place IDs are read from the travel-duration 
+    // cache, so only new legs are requested from Google.
+    String[] routeLocations = getRouteLocations(tripDestination, poiStrings);
+    String[] routePlaceIds = getPlaceIdsFromTextSearches(this.context, 
+      Arrays.asList(routeLocations)).toArray(new String[0]);
+    String[] poiPlaceIds = Arrays.copyOfRange(routePlaceIds, 1, routePlaceIds.length);
+    progress.accept(TripJob.STAGE_FETCHING_TRAVEL_TIMES);
+    int[] durations = TravelDurationMatrix.fetch(this.context, routeLocations, routePlaceIds,
+      this.travelDurationCache);
+    progress.accept(TripJob.STAGE_OPTIMIZING_ROUTE);
+    int[][] dayWaypointOrders = optimizeDayWaypointOrders(durations, routeLocations.length,
+      planningContext.getNumDays());
+
+    // Store the places of the resolved POIs, which the days and events refer
+    // to by place ID. They are root entities shared by every user, so they
+    // are written before the trip rather than in its batch.
+    Map<String, PlaceSummary> places = getPlaceSummaries(this.context, 
+      Arrays.asList(poiPlaceIds));
+    new PlaceStore(this.datastore, this.placeDetailsCache).putAll(places.values());
+
+    // Allocate the keys of every day with one RPC, before the days are built.
+    List<Key> tripDayKeys = writeBatch.allocateKeys(TripDay.QUERY_STRING, tripEntity.getKey(),
+      dayWaypointOrders.length);
+
+    // Keep the day entities for the trip's read view.
+    List<Entity> tripDayEntities = new ArrayList<>();
+    List<Entity> tripEventEntities = new ArrayList<>();
+    for (int day = 0; day < dayWaypointOrders.length; day++) {
+      int[] waypointOrder = dayWaypointOrders[day];
+      LocalDate date = tripDate.plusDays(day);
+      checkRoutable(durations, routeLocations, waypointOrder);
+      List<Integer> travelTimes = 
+        getTravelTimes(durations, routeLocations.length, waypointOrder);
+      List<String> orderedLocationStrings = getOrderedWaypoints(waypointOrder, poiStrings);
+      List<String> orderedPlaceIds = getOrderedWaypoints(waypointOrder, poiPlaceIds);
+
+      // add TripDay entity, holding its locations in route order, to the batch
+      Entity tripDayEntity = addTripDayToBatch(tripDestination, orderedLocationStrings,
+        orderedPlaceIds, writeBatch, date, tripDayKeys.get(day));
+
+      // add Event entities to the batch
+      List<Entity> eventEntities = addEventsToBatch(tripDayEntity, date, writeBatch, 
+        orderedLocationStrings, orderedPlaceIds, travelTimes);
+
+      tripDayEntities.add(tripDayEntity);
+      tripEventEntities.addAll(eventEntities);
+    }
+
+    // Add the read view of the trip, so the trip pages can load it with one get.
+    Entity tripViewEntity = TripView.build(tripEntity, tripDayEntities, 
+      Collections.emptyList(), tripEventEntities, places).toEntity(tripEntity.getKey());
+    if (tripViewEntity != null) {
+      writeBatch.add(tripViewEntity);
+    }
+
+    // Write the whole trip to datastore, the Trip Entity last, together with
+    // the new version of the user's list of trips.
+    progress.accept(TripJob.STAGE_SAVING_TRIP);
+    writeBatch.commit();
+    new UserRepository(this.datastore).putTrip(tripEntity);
+  }
+
+  /**
+   * Returns the visiting order of the POIs of each day, for a travel-duration
+   * matrix with the hotel at index 0. The POIs are split into days of nearby
+   * places with DayPartitioner, and the routes of the days are optimized in
+   * parallel on DAY_ROUTE_POOL. Entries are POI indices of the whole trip.
+   * @param durations Flat size x size matrix of travel durations
+   * @param size Number of locations in the matrix, including the hotel
+   * @param numDays Number of days of the trip
+   */
+  public static int[][] optimizeDayWaypointOrders(int[] durations, int size, int numDays) {
+    if (numDays == 1) {
+      return new int[][] {optimizeWaypointOrder(durations, size)};
+    }
+
+    int[][] dayWaypoints = DayPartitioner.partition(durations, size, numDays);
+
+    return DAY_ROUTE_POOL.submit(() -> Arrays.stream(dayWaypoints).parallel()
+      .map(waypoints -> optimizeDayWaypointOrder(durations, size, waypoints))
+      .toArray(int[][]::new)).join();
+  }
+
+  /**
+   * Returns the visiting order of the given POIs, as POI indices of the 
+   * whole trip.
+   */
+  private static int[] optimizeDayWaypointOrder(int[] durations, int size, int[] waypoints) {
+    int[] dayDurations = DayPartitioner.dayMatrix(durations, size, waypoints);
+    int[] dayOrder = optimizeWaypointOrder(dayDurations, waypoints.length + 1);
+    int[] waypointOrder = new int[dayOrder.length];
+    for (int i = 0; i < dayOrder.length; i++) {
+      waypointOrder[i] = waypoints[dayOrder[i]];
+    }
+    return waypointOrder;
+  }
+
   /**
    * Get the place ID of the text search. Return null if no place ID matches
-   * the search.
+   * the search. Searches are answered from the place ID cache when possible.
    * 
    * @param context The entry point for making requests against the Google Geo 
    * APIs (googlemaps.github.io/google-maps-services-java/v0.1.2/javadoc/com/google/maps/GeoApiContext.html).
@@ -172,46 +394,167 @@ public class TripServlet extends HttpServlet {
    */ 
   public String getPlaceIdFromTextSearch(GeoApiContext context, String textSearch) 
     throws IOException {
+
+    String normalizedText = PlaceIdCache.normalize(textSearch);
+    Optional<String> cachedPlaceId = this.placeIdCache.get(normalizedText);
+    if (cachedPlaceId != null) {
+      return cachedPlaceId.orElse(null);
+    }
     
     FindPlaceFromTextRequest findPlaceRequest = PlacesApi.findPlaceFromText(context, 
       textSearch, FindPlaceFromTextRequest.InputType.TEXT_QUERY);
 
     try {
       FindPlaceFromText findPlaceResult = findPlaceRequest.await();
+      String placeId = getFirstCandidatePlaceId(findPlaceResult);
+      this.placeIdCache.put(normalizedText, Optional.ofNullable(placeId));
+      return placeId;
+    } catch(ApiException | InterruptedException e) {
+      throw new IOException(e);
+    }
+  }
+
+  /**
+   * Get the place IDs of several text searches at once. Searches are first
+   * looked up in the place ID cache; each remaining distinct search gets one
+   * Find Place request. The requests are sent concurrently using their async
+   * callbacks, with at most MAX_CONCURRENT_PLACES_REQUESTS in flight, so the
+   * total wait is roughly that of the slowest request rather than the sum of
+   * all of them.
+   * The returned list is in the same order as textSearches; an entry is null
+   * if no place ID matches that search.
+   *
+   * @param context The entry point for making requests against the Google Geo 
+   * APIs.
+   * @param textSearches The text queries to resolve, in route order. Must be 
+   * non-null.
+   */
+  public List<String> getPlaceIdsFromTextSearches(GeoApiContext context, 
+    List<String> textSearches) throws IOException {
+
+    List<String> normalizedTexts = new ArrayList<>();
+    for (String textSearch : textSearches) {
+      normalizedTexts.add(PlaceIdCache.normalize(textSearch));
+    }
+    Map<String, Optional<String>> placeIds = this.placeIdCache.getAll(normalizedTexts);
 
-      // Return place ID of the first candidate result.
-      if (findPlaceResult.candidates != null) {
-        return findPlaceResult.candidates[0].placeId;
+    // Search once for each distinct text that is not cached.
+    Map<String, String> uncachedSearches = new LinkedHashMap<>();
+    for (int i = 0; i < textSearches.size(); i++) {
+      if (!placeIds.containsKey(normalizedTexts.get(i))) {
+        uncachedSearches.putIfAbsent(normalizedTexts.get(i), textSearches.get(i));
       }
-      
-      // No candidate is given, so return null.
-      return null;
-    } catch(ApiException | InterruptedException e) {
+    }
+
+    if (!uncachedSearches.isEmpty()) {
+      List<String> foundPlaceIds = findPlaceIds(context, 
+        new ArrayList<>(uncachedSearches.values()));
+      Map<String, Optional<String>> newPlaceIds = new HashMap<>();
+      int index = 0;
+      for (String normalizedText : uncachedSearches.keySet()) {
+        newPlaceIds.put(normalizedText, Optional.ofNullable(foundPlaceIds.get(index++)));
+      }
+      this.placeIdCache.putAll(newPlaceIds);
+      placeIds.putAll(newPlaceIds);
+    }
+
+    List<String> orderedPlaceIds = new ArrayList<>();
+    for (String normalizedText : normalizedTexts) {
+      orderedPlaceIds.add(placeIds.get(normalizedText).orElse(null));
+    }
+    return orderedPlaceIds;
+  }
+
+  /**
+   * Send one Find Place request per text search, concurrently, and return 
+   * the place IDs in the same order (null where nothing matches).
+   */
+  private List<String> findPlaceIds(GeoApiContext context, List<String> textSearches) 
+    throws IOException {
+
+    int numSearches = textSearches.size();
+    String[] placeIds = new String[numSearches];
+    Semaphore requestPermits = new Semaphore(MAX_CONCURRENT_PLACES_REQUESTS);
+    CountDownLatch pendingRequests = new CountDownLatch(numSearches);
+    AtomicReference<Throwable> requestFailure = new AtomicReference<>();
+
+    try {
+      for (int i = 0; i < numSearches; i++) {
+        // Block until one of the in-flight requests has finished.
+        requestPermits.acquire();
+
+        final int index = i;
+        FindPlaceFromTextRequest findPlaceRequest = PlacesApi.findPlaceFromText(
+          context, textSearches.get(i), FindPlaceFromTextRequest.InputType.TEXT_QUERY);
+        findPlaceRequest.setCallback(new PendingResult.Callback<FindPlaceFromText>() {
+          @Override
+          public void onResult(FindPlaceFromText findPlaceResult) {
+            placeIds[index] = getFirstCandidatePlaceId(findPlaceResult);
+            requestPermits.release();
+            pendingRequests.countDown();
+          }
+
+          @Override
+          public void onFailure(Throwable e) {
+            requestFailure.compareAndSet(null, e);
+            requestPermits.release();
+            pendingRequests.countDown();
+          }
+        });
+      }
+
+      // Wait for every callback before reading the results.
+      pendingRequests.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
       throw new IOException(e);
     }
+
+    if (requestFailure.get() != null) {
+      throw new IOException(requestFailure.get());
+    }
+    return Arrays.asList(placeIds);
   }
 
   /**
-   * put TripDay into Datastore
+   * Return the place ID of the first candidate in a Find Place result, or
+   * null if no candidate is given.
+   */
+  private static String getFirstCandidatePlaceId(FindPlaceFromText findPlaceResult) {
+    if (findPlaceResult.candidates == null || findPlaceResult.candidates.length == 0) {
+      return null;
+    }
+    return findPlaceResult.candidates[0].placeId;
+  }
+
+  /**
+   * Add TripDay, with its locations in route order, to the write batch with
+   * the given allocated key, so that its events can be added to the same
+   * batch. The keys of all the days of a trip are allocated together with
+   * EntityWriteBatch.allocateKeys.
    * assumes that origin and destination are same 
+   * @param placeIds Place ID of each location in route order, or null 
+   * entries; null if none are known
    * @return tripDay entity, needed for event creation
    */
-  public Entity putTripDayInDatastore(String origin, DatastoreService datastore, LocalDate date, Key tripEntityKey) 
-      throws IOException {
-    TripDay tripDay = new TripDay(origin, origin, new ArrayList<>(), date);
-    Entity tripDayEntity = tripDay.buildEntity(tripEntityKey);
-    datastore.put(tripDayEntity);
-    return tripDayEntity;  
+  public Entity addTripDayToBatch(String origin, List<String> locations, 
+      List<String> placeIds, EntityWriteBatch writeBatch, LocalDate date, Key tripDayKey) {
+    TripDay tripDay = new TripDay(origin, origin, locations, date);
+    tripDay.setPlaceIds(placeIds);
+    Entity tripDayEntity = new Entity(tripDayKey);
+    tripDayEntity.setPropertiesFrom(tripDay.buildEntity(tripDayKey.getParent()));
+    writeBatch.add(tripDayEntity);
+    return tripDayEntity;
   }
 
   /**
-   * Make the servlet cleaner.
-   * Searches through the parameters and creates the events and puts them into
-   * datastore with associated tripDayEntity as a parent
+   * Creates the events for the POIs, whose place IDs are already known, and 
+   * adds them to the write batch with associated tripDayEntity as a parent
+   * @param placeIds Place ID of each POI in route order, or null entries
    */
-  public List<Entity> putEventsInDatastore(Entity tripDayEntity, LocalDate date, DatastoreService datastore,
-      List<String> pois, List<Integer> travelTimes)
-      throws IOException { 
+  public List<Entity> addEventsToBatch(Entity tripDayEntity, LocalDate date, 
+      EntityWriteBatch writeBatch, List<String> pois, List<String> placeIds, 
+      List<Integer> travelTimes) { 
 
     // entities to return, needed for testing
     List<Entity> eventEntities = new ArrayList<>();    
@@ -225,16 +568,17 @@ public class TripServlet extends HttpServlet {
     // so add travelTimeIndex at index 1 (time from POI 1 to POI 2) to get start time for POI 2.
     int travelTimeIndex = 1;
     // for each poi create the necessary fields
-    for (String address : pois) {
+    for (int i = 0; i < pois.size(); i++) {
       // create event entity
+      String address = pois.get(i);
       String name = address.split(",")[0];
-      String placeId = getPlaceIdFromTextSearch(this.context, address);
+      String placeId = placeIds.get(i);
       Event event = new Event(name, address, placeId, startDateTime, travelTimes.get(travelTimeIndex));
       Entity eventEntity = event.eventToEntity(tripDayEntity.getKey());
       eventEntities.add(eventEntity);
 
-      // put entity in datastore
-      datastore.put(eventEntity);
+      // add entity to the batch
+      writeBatch.add(eventEntity);
 
       // sets start time for next event one hour and travel time after start of prev
       startDateTime = startDateTime.plusMinutes(Long.valueOf(ONE_HOUR + travelTimes.get(travelTimeIndex)));
@@ -244,76 +588,151 @@ public class TripServlet extends HttpServlet {
   }
 
   /**
-   * Get the PlaceDetails object from the place ID.
+   * Get the summary (name, photo, address, location and opening hours) of a 
+   * place. Places are answered from the place details cache when possible;
+   * otherwise only the summary fields are requested from Place Details.
    */
-  private PlaceDetails getPlaceDetailsFromPlaceId(GeoApiContext context, String placeId)
+  public PlaceSummary getPlaceSummary(GeoApiContext context, String placeId)
     throws IOException {
 
+    PlaceSummary cachedPlace = this.placeDetailsCache.get(placeId);
+    if (cachedPlace != null) {
+      return cachedPlace;
+    }
+
     PlaceDetailsRequest placeDetailsRequest = PlacesApi.placeDetails(context, 
-      placeId);
+      placeId).fields(PlaceSummary.FIELDS);
     try {
-      return placeDetailsRequest.await();
+      PlaceSummary place = PlaceSummary.fromPlaceDetails(placeId, placeDetailsRequest.await());
+      this.placeDetailsCache.put(placeId, place);
+      return place;
     } catch(ApiException | InterruptedException e) {
       throw new IOException(e);
     }
   }
 
   /**
-   * Populate the destinationName and photoSrc fields using the Google Maps API.
+   * Get the summaries of several places at once, by place ID. Places are 
+   * first looked up in the place details cache; each remaining place gets
+   * one Place Details request for the summary fields. As in findPlaceIds, 
+   * the requests are sent concurrently with at most 
+   * MAX_CONCURRENT_PLACES_REQUESTS in flight.
+   *
+   * @param context The entry point for making requests against the Google Geo 
+   * APIs.
+   * @param placeIds The place IDs; duplicates and nulls are ignored.
    */
-  private void populateDestinationAndPhoto(GeoApiContext context, String tripDestination)
-    throws IOException {
+  public Map<String, PlaceSummary> getPlaceSummaries(GeoApiContext context, 
+    List<String> placeIds) throws IOException {
 
-    // Get place ID from search of trip destination. Get photo and destination 
-    // if not null; otherwise, use a placeholder photo and destination.
-    String destinationPlaceId = getPlaceIdFromTextSearch(context, this.tripDestination);
-    if (destinationPlaceId == null) {
-      this.destinationName = tripDestination;
-      this.photoSrc = "../images/placeholder_image.png";
-    } else {
-      PlaceDetails placeDetailsResult = getPlaceDetailsFromPlaceId(context, destinationPlaceId);
+    Set<String> distinctPlaceIds = new LinkedHashSet<>(placeIds);
+    distinctPlaceIds.remove(null);
+    Map<String, PlaceSummary> places = this.placeDetailsCache.getAll(distinctPlaceIds);
+
+    List<String> uncachedPlaceIds = new ArrayList<>();
+    for (String placeId : distinctPlaceIds) {
+      if (!places.containsKey(placeId)) {
+        uncachedPlaceIds.add(placeId);
+      }
+    }
+    if (uncachedPlaceIds.isEmpty()) {
+      return places;
+    }
 
-      // Get the name of the location from the place details result.
-      this.destinationName = placeDetailsResult.name;
+    Map<String, PlaceSummary> newPlaces = new ConcurrentHashMap<>();
+    Semaphore requestPermits = new Semaphore(MAX_CONCURRENT_PLACES_REQUESTS);
+    CountDownLatch pendingRequests = new CountDownLatch(uncachedPlaceIds.size());
+    AtomicReference<Throwable> requestFailure = new AtomicReference<>();
 
-      // Get a photo of the location from the place details result.
-      if (placeDetailsResult.photos == null) {
-        this.photoSrc = "../images/placeholder_image.png";
-      } else {
-        Photo photoObject = placeDetailsResult.photos[0];
-        this.photoSrc = getUrlFromPhotoReference(PHOTO_SRC_SIZE, photoObject.photoReference);
+    try {
+      for (String placeId : uncachedPlaceIds) {
+        // Block until one of the in-flight requests has finished.
+        requestPermits.acquire();
+
+        PlaceDetailsRequest placeDetailsRequest = PlacesApi.placeDetails(context, 
+          placeId).fields(PlaceSummary.FIELDS);
+        placeDetailsRequest.setCallback(new PendingResult.Callback<PlaceDetails>() {
+          @Override
+          public void onResult(PlaceDetails placeDetails) {
+            newPlaces.put(placeId, PlaceSummary.fromPlaceDetails(placeId, placeDetails));
+            requestPermits.release();
+            pendingRequests.countDown();
+          }
+
+          @Override
+          public void onFailure(Throwable e) {
+            requestFailure.compareAndSet(null, e);
+            requestPermits.release();
+            pendingRequests.countDown();
+          }
+        });
       }
+
+      // Wait for every callback before reading the results.
+      pendingRequests.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    }
+
+    if (requestFailure.get() != null) {
+      throw new IOException(requestFailure.get());
     }
+    this.placeDetailsCache.putAll(newPlaces);
+    places.putAll(newPlaces);
+    return places;
   }
 
   /**
-   * Store the Trip Entity in datastore with the User Entity as an ancestor.
-   * Return the Trip Entity object.
-   * 
-   * @param response The HttpServletResponse used to redirect to homepage if
-   * no user is logged in. 
-   * @param tripName The human-readable name for the trip. Must be non-null.
-   * @param destinationName The name of the destination the user is heading to.
-   * This destination should be verified by the Google Maps API.
-   * @param tripDayOfTravel The date of the trip. Must be in yyyy-MM-dd date format.
-   * @param photoSrc The image source / URL to represent the trip. This is 
-   * typically retrieved using the Places API to get a photo from the destination
-   * name, but can also be the placeholder image source if no photo exists.
+   * Create the planning context of a trip request with the servlet's API
+   * context. See createPlanningContext(GeoApiContext, ...).
    */
-  public Entity storeTripEntity(HttpServletResponse response, String tripName, 
-    String destinationName, String tripDayOfTravel, String photoSrc, DatastoreService datastore) throws IOException {
-    // Get User Entity. If user not logged in, redirect to homepage.
-    Entity userEntity = AuthServlet.getCurrentUserEntity();
-    if (userEntity == null) {
-      response.sendRedirect("/");
-      return null;
+  @Override
+  public PlanningContext createPlanningContext(String tripName, String tripDestination,
+      String tripDayOfTravel, String tripEndDate, String[] poiStrings) throws IOException {
+    return createPlanningContext(this.context, tripName, tripDestination, tripDayOfTravel,
+      tripEndDate, poiStrings);
+  }
+
+  /**
+   * Create the planning context of a trip request, populating the 
+   * destinationName and photoSrc fields using the Google Maps API.
+   *
+   * @param tripName The human-readable name for the trip.
+   * @param tripDestination The hotel / destination text. Must be non-null.
+   * @param tripDayOfTravel The date of the trip, in yyyy-MM-dd date format.
+   * @param tripEndDate The last day of the trip, or null for a one-day trip.
+   * @param poiStrings String array of poi addresses, or null if there are none
+   * @throws IllegalArgumentException if an input is invalid, before any
+   * Maps API call. See PlanningContext.validateInputs.
+   */
+  public PlanningContext createPlanningContext(GeoApiContext context, String tripName,
+    String tripDestination, String tripDayOfTravel, String tripEndDate, String[] poiStrings)
+    throws IOException {
+    PlanningContext.validateInputs(tripName, tripDestination, tripDayOfTravel, tripEndDate,
+      poiStrings);
+
+    List<String> pois = poiStrings == null ? new ArrayList<>() : Arrays.asList(poiStrings);
+
+    // Get place ID from search of trip destination. Get photo and destination 
+    // if not null; otherwise, use a placeholder photo and destination.
+    String destinationPlaceId = getPlaceIdFromTextSearch(context, tripDestination);
+    if (destinationPlaceId == null) {
+      return new PlanningContext(tripName, tripDestination, tripDayOfTravel, tripEndDate,
+        pois, tripDestination, PLACEHOLDER_PHOTO_SRC);
+    }
+
+    PlaceSummary destination = getPlaceSummary(context, destinationPlaceId);
+
+    // Get a photo of the location from the place summary.
+    String photoSrc = PLACEHOLDER_PHOTO_SRC;
+    if (destination.getPhotoReference() != null) {
+      photoSrc = getUrlFromPhotoReference(PHOTO_SRC_SIZE, destination.getPhotoReference());
     }
 
-    // Put Trip Entity into datastore.
-    Entity tripEntity = Trip.buildEntity(tripName, destinationName, photoSrc,
-      tripDayOfTravel, tripDayOfTravel, userEntity.getKey());
-    datastore.put(tripEntity);
-    return tripEntity;
+    // Get the name of the location from the place summary.
+    return new PlanningContext(tripName, tripDestination, tripDayOfTravel, tripEndDate,
+      pois, destination.getName(), photoSrc);
   }
 
   /**
@@ -332,67 +751,90 @@ public class TripServlet extends HttpServlet {
   }
 
   /**
-   * Generate directionsResult from directionsRequest.
-   * @param directionsRequest DirectionsApiRequest object generated from user input
+   * Returns the visiting order of the POIs for a travel-duration matrix with
+   * the hotel at index 0. Small trips are solved exactly; larger trips use
+   * the RouteOptimizer heuristics.
+   * @param durations Flat size x size matrix of travel durations
+   * @param size Number of locations in the matrix, including the hotel
    */
-  public static DirectionsResult getDirectionsResult(DirectionsApiRequest directionsRequest) 
-      throws IOException {
-    // Calculate route and save travelTimes and waypointOrder to two ArrayLists.
-    try {
-      DirectionsResult dirResult = directionsRequest.await();
-      return dirResult;
-    } catch (ApiException | InterruptedException e) {
-      // If no directions are found or API throws an error.
-      throw new IOException(e);
-    } 
+  public static int[] optimizeWaypointOrder(int[] durations, int size) {
+    int numPois = size - 1;
+    if (numPois <= MAX_POIS_FOR_EXACT_ROUTE) {
+      int[] waypointOrder = new int[numPois];
+      EXACT_ROUTE_SOLVERS.get().solve(durations, size, waypointOrder);
+      return waypointOrder;
+    }
+    return RouteOptimizer.optimizeWaypointOrder(durations, size);
   }
 
   /**
-   * Generates directionsRequest from user input.
-   * @param origin route starting point
-   * @param destination route ending point
-   * @param poiStrings String array of poi stops along the route. 
-                       Pois are stored as String addresses, not place IDs.
-   * @param context API context
+   * Throws an IOException naming the first leg of the round trip
+   * hotel -> POIs in waypointOrder -> hotel that has no route, so that the
+   * plan fails instead of showing a day-long travel time.
+   * @param durations Flat matrix of travel durations in seconds, with the
+   *                  hotel at index 0 and POI i at index i + 1
+   * @param locations The locations of the matrix, in the same order
+   * @param waypointOrder Indices of the POIs, in the order they are visited
    */
-  public static DirectionsApiRequest generateDirectionsRequest(String origin, String destination, 
-      String[] poiStrings, GeoApiContext context) {
-
-    // Generate directions request
-    DirectionsApiRequest directionsRequest = DirectionsApi.newRequest(context)
-        .origin(origin)
-        .destination(destination)
-        .waypoints(poiStrings)
-        .optimizeWaypoints(true)
-        .mode(TravelMode.DRIVING);
-
-    return directionsRequest;
+  public static void checkRoutable(int[] durations, String[] locations, int[] waypointOrder)
+      throws IOException {
+    int size = locations.length;
+    int from = 0;
+    for (int i = 0; i <= waypointOrder.length; i++) {
+      int to = i < waypointOrder.length ? waypointOrder[i] + 1 : 0;
+      if (TravelDurationMatrix.isUnreachable(durations[from * size + to])) {
+        throw new IOException("No route between " + locations[from] + " and " 
+          + locations[to]);
+      }
+      from = to;
+    }
   }
 
   /**
-   * Gets list of travel times for each route leg from a DirectionsResult object.
-   * @param dirResult DirectionsResult object containing optimal route
+   * Gets list of travel times (minutes) for each leg of the round trip 
+   * hotel -> POIs in waypointOrder -> hotel, from a travel-duration matrix.
+   * @param durations Flat size x size matrix of travel durations in seconds,
+   *                  with the hotel at index 0 and POI i at index i + 1
+   * @param size Number of locations in the matrix, including the hotel
+   * @param waypointOrder Indices of the POIs, in the order they are visited
    */
-  public static List<Integer> getTravelTimes(DirectionsResult dirResult) {
+  public static List<Integer> getTravelTimes(int[] durations, int size, int[] waypointOrder) {
     List<Integer> travelTimes = new ArrayList<>();
-    // Take the first route, usually the optimal.
-    for (DirectionsLeg leg : dirResult.routes[ROUTE_INDEX].legs) {
-      int travelTime = (int) leg.duration.inSeconds / SECONDS_IN_MIN;
-      travelTimes.add(travelTime);
+    int from = 0;
+    for (int waypoint : waypointOrder) {
+      int to = waypoint + 1;
+      travelTimes.add(durations[from * size + to] / SECONDS_IN_MIN);
+      from = to;
     }
 
+    // Last leg returns to the hotel.
+    travelTimes.add(durations[from * size] / SECONDS_IN_MIN);
     return travelTimes;
   }
 
   /**
-   * Gets list of poi addresses in optimized route order from a DirectionsResult object.
-   * @param dirResult DirectionsResult object containing optimal route
-   * @param pois String array of poi names (in any order)
+   * Returns the locations of the route for the travel-duration matrix: the 
+   * hotel first, followed by the POIs in the order they were entered.
+   * @param hotel The hotel (start and end point) of the route
+   * @param poiStrings String array of poi addresses, or null if there are none
    */
-  public static List<String> getOrderedWaypoints(DirectionsResult dirResult, String[] pois) {
-    // Take the first route, usually the optimal.
-    int[] waypointOrder = dirResult.routes[ROUTE_INDEX].waypointOrder;
+  public static String[] getRouteLocations(String hotel, String[] poiStrings) {
+    int numPois = poiStrings == null ? 0 : poiStrings.length;
+    String[] routeLocations = new String[numPois + 1];
+    routeLocations[0] = hotel;
+    for (int i = 0; i < numPois; i++) {
+      routeLocations[i + 1] = poiStrings[i];
+    }
+    return routeLocations;
+  }
 
+  /**
+   * Gets list of poi addresses in optimized route order from a waypoint order,
+   * as returned by RouteOptimizer.
+   * @param waypointOrder Indices into pois, in the order they are visited
+   * @param pois String array of poi names (in any order)
+   */
+  public static List<String> getOrderedWaypoints(int[] waypointOrder, String[] pois) {
     // Generate an ordered list of location Strings from waypointOrder.
     List<String> orderedLocationStrings = new ArrayList<>();
     for (int i = 0; i < waypointOrder.length; i++) {
@@ -401,14 +843,4 @@ public class TripServlet extends HttpServlet {
 
     return orderedLocationStrings;
   }
-
-  /**
-   * Converts list of Event objects into a JSON string using the Gson library.
-   * @param events List of event objects
-   */
-  private String convertToJson(List<Event> events) {
-    Gson gson = new Gson();
-    String json = gson.toJson(events);
-    return json;
-  }
 }
@@ -0,0 +1,135 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.sps.JsonSerializer;
+import com.google.sps.jobs.TripJob;
+import java.io.IOException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet that reports the progress of an asynchronous trip calculation,
+ * and the key of the trip once it is done.
+ */
+@WebServlet("/trip-status")
+public class TripStatusServlet extends HttpServlet {
+
+  private static final String JOB_ID_PARAM = "jobId";
+
+  /**
+   * Writes the status of the job in the jobId parameter as JSON. Responds
+   * with 404 if the job does not exist or belongs to another user.
+   */
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) 
+      throws IOException {
+    response.setContentType("application/json;");
+
+    // Get current user. If user not logged in, redirect to homepage.
+    Entity userEntity = AuthServlet.getCurrentUserEntity();
+    if (userEntity == null) {
+      response.sendRedirect("/");
+      return;
+    }
+
+    String jobId = request.getParameter(JOB_ID_PARAM);
+    if (jobId == null) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+      return;
+    }
+
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    JobStatus jobStatus = getJobStatus(datastore, userEntity.getKey(), jobId);
+    if (jobStatus == null) {
+      response.sendError(HttpServletResponse.SC_NOT_FOUND);
+      return;
+    }
+
+    JsonSerializer.write(response, jobStatus);
+  }
+
+  /**
+   * Returns the status of the job with the given ID, or null if the ID is
+   * invalid or the job does not belong to the user.
+   */
+  public JobStatus getJobStatus(DatastoreService datastore, Key userKey, String jobId) {
+    Key jobKey;
+    try {
+      jobKey = KeyFactory.stringToKey(jobId);
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+
+    if (!TripJob.TRIP_JOB.equals(jobKey.getKind()) || !userKey.equals(jobKey.getParent())) {
+      return null;
+    }
+
+    try {
+      // The trip key is stored on the job from its first attempt, but only
+      // refers to a stored trip once the job is DONE.
+      Entity jobEntity = datastore.get(jobKey);
+      TripJob.Status status = TripJob.getStatus(jobEntity);
+      return new JobStatus(status.name(),
+        (String) jobEntity.getProperty(TripJob.STAGE),
+        status == TripJob.Status.DONE ? (String) jobEntity.getProperty(TripJob.TRIP_KEY) : null,
+        (String) jobEntity.getProperty(TripJob.ERROR));
+    } catch (EntityNotFoundException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Inner class that holds the status of a trip job. The trip key and error
+   * are null until the job is DONE or FAILED respectively.
+   */
+  public static class JobStatus {
+    private final String status;
+    private final String stage;
+    private final String tripKey;
+    private final String error;
+
+    private JobStatus(String status, String stage, String tripKey, String error) {
+      this.status = status;
+      this.stage = stage;
+      this.tripKey = tripKey;
+      this.error = error;
+    }
+
+    public String getStatus() {
+      return this.status;
+    }
+
+    public String getStage() {
+      return this.stage;
+    }
+
+    public String getTripKey() {
+      return this.tripKey;
+    }
+
+    public String getError() {
+      return this.error;
+    }
+  }
+}
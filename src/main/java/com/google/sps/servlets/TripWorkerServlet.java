@@ -0,0 +1,74 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.sps.jobs.TaskQueueTripJobQueue;
+import com.google.sps.jobs.TripJobRunner;
+import java.io.IOException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet that runs trip jobs posted by the trip-planning push queue.
+ * Requests that do not come from the task queue are rejected.
+ */
+@WebServlet(TaskQueueTripJobQueue.WORKER_URL)
+public class TripWorkerServlet extends HttpServlet {
+
+  // App Engine sets this header on task queue requests, and strips it from
+  // external requests.
+  private static final String QUEUE_NAME_HEADER = "X-AppEngine-QueueName";
+
+  private TripJobRunner jobRunner;
+
+  /**
+   * Initializes the job runner, planning trips with a TripServlet.
+   */
+  @Override
+  public void init() {
+    TripServlet planner = new TripServlet();
+    planner.init();
+    this.jobRunner = new TripJobRunner(DatastoreServiceFactory.getDatastoreService(), planner);
+  }
+
+  /**
+   * Runs the job whose key is in the jobKey parameter. The job records its
+   * own failures, so the task succeeds unless another attempt holds the
+   * job's lease; the queue then retries it after a backoff, and the retry
+   * takes the job over if that attempt died.
+   */
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) 
+      throws IOException {
+    if (request.getHeader(QUEUE_NAME_HEADER) == null) {
+      response.sendError(HttpServletResponse.SC_FORBIDDEN);
+      return;
+    }
+
+    String jobKeyString = request.getParameter(TaskQueueTripJobQueue.JOB_KEY_PARAM);
+    if (jobKeyString == null) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+      return;
+    }
+
+    if (!this.jobRunner.run(KeyFactory.stringToKey(jobKeyString))) {
+      response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+    }
+  }
+}
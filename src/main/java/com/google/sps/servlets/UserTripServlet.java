@@ -26,9 +26,11 @@ import com.google.appengine.api.datastore.Query.FilterOperator;
 import com.google.appengine.api.datastore.Query.FilterPredicate;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
-import com.google.gson.Gson;
 import com.google.sps.data.User;
-import com.google.sps.Trip;
+import com.google.sps.JsonSerializer;
+import com.google.sps.TripPage;
+import com.google.sps.TripRepository;
+import com.google.sps.UserRepository;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
@@ -43,6 +45,11 @@ public class UserTripServlet extends HttpServlet {
   // This allows the doGet method to return null.
   private static final String nullReturn = null;
 
+  // Request parameters for the number of trips in a page, and the page to 
+  // continue from.
+  public static final String PAGE_SIZE_PARAM = "pageSize";
+  public static final String CURSOR_PARAM = "cursor";
+
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
     response.setContentType("application/json;");
@@ -54,43 +61,67 @@ public class UserTripServlet extends HttpServlet {
       return;
     }
 
-    // Write the list of Trips to file through the HttpServletResponse object.
-    writeTripsToFile(response, userEntity.getKey());
+    // Repeat views of an unchanged trip list get a 304, without querying the
+    // trips. The list is in another order, with other cursors, once the schema
+    // migration is done, so the order is part of the ETag.
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    long tripsVersion = new UserRepository(datastore).getTripsVersion(userEntity.getKey());
+    String pageOrder = new TripRepository(datastore).getTripPageOrder();
+    if (ConditionalGet.isNotModified(request, response, 
+        ConditionalGet.buildETag(userEntity.getKey(), tripsVersion, pageOrder))) {
+      return;
+    }
+
+    int pageSize;
+    try {
+      String pageSizeString = request.getParameter(PAGE_SIZE_PARAM);
+      pageSize = pageSizeString == null 
+        ? TripRepository.DEFAULT_PAGE_SIZE : Integer.parseInt(pageSizeString);
+    } catch (NumberFormatException e) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+      return;
+    }
+
+    // Write the page of Trips to file through the HttpServletResponse object.
+    try {
+      writeTripsToFile(response, userEntity.getKey(), pageSize, 
+        request.getParameter(CURSOR_PARAM));
+    } catch (IllegalArgumentException e) {
+      // The page size is out of range, or the cursor is not one we returned.
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+    }
+  }
+
+  /**
+   * Writes the first page of Trips, of the default size. See 
+   * writeTripsToFile(response, userEntityKey, pageSize, cursor).
+   */
+  public void writeTripsToFile(HttpServletResponse response, Key userEntityKey) throws IOException {
+    writeTripsToFile(response, userEntityKey, TripRepository.DEFAULT_PAGE_SIZE, null);
   }
 
   /**
-   * Retrieve the list of Trips from datastore using the User Entity Key, and 
-   * write the Trips to file using the HttpServletResponse object.
+   * Retrieve a page of Trips from datastore using the User Entity Key, in 
+   * start date order, and write the Trips and the cursor to the next page to
+   * file using the HttpServletResponse object.
    *
    * @param response The HttpServletResponse object which is used to write the
    * Trips to the file. Must be non-null.
    * @param userEntityKey The Key of the User Entity which is currently signed 
    * in; this User Entity should be the ancestor / parent of the Trip Entity
    * objects. Must be non-null.
+   * @param pageSize The maximum number of Trips to write.
+   * @param cursor The cursor returned with the previous page, or null for the
+   * first page.
+   * @throws IllegalArgumentException if the page size or cursor is invalid.
    */
-  public void writeTripsToFile(HttpServletResponse response, Key userEntityKey) throws IOException {
-    // Get the list of Trip Entity objects through a Query.
+  public void writeTripsToFile(HttpServletResponse response, Key userEntityKey, int pageSize,
+      String cursor) throws IOException {
+    // Get the page of Trips under the User Entity.
     DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-    Query query = new Query(Trip.TRIP, userEntityKey);
-    PreparedQuery results = datastore.prepare(query);
+    TripPage tripPage = new TripRepository(datastore).getTripPage(userEntityKey, pageSize, cursor);
 
-    // Iterate over the trip Entity objects, and convert them to Trip objects.
-    List<Trip> tripList = new ArrayList<>();
-    for (Entity entity : results.asIterable()) {
-      tripList.add(Trip.buildTripFromEntity(entity));
-    }
-
-    // Convert the trip list to JSON, and return JSON. Empty list signals no trips.
-    String json = convertTripListToJson(tripList);
-    response.getWriter().println(json);
-  }
-
-  /**
-  * Converts a List of Trips into a JSON string using the Gson library.
-  */
-  private String convertTripListToJson(List<Trip> tripList) {
-    Gson gson = new Gson();
-    String json = gson.toJson(tripList);
-    return json;
+    // Stream the page as JSON. An empty trip list signals no trips.
+    JsonSerializer.write(response, tripPage);
   }
 }
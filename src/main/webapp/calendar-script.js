@@ -24,6 +24,10 @@ const zoomThirteen = 13;
 // Triggered upon DOM load.
 window.initMod = function() {
   const calendarEl = document.getElementById('calendar');
+
+  // The first day of the trip, if the link to this page has it.
+  const tripStartDate = new URLSearchParams(window.location.search).get('date');
+
   const calendar = new FullCalendar.Calendar(calendarEl, {
     headerToolbar: {
       start: 'prev,next today',
@@ -53,7 +57,15 @@ window.initMod = function() {
       $('#exampleModal').modal('show');
     }
   });
-  getEvents(calendar);
+
+  if (tripStartDate) {
+    // Only the events of the shown window are fetched, as it changes.
+    calendar.gotoDate(tripStartDate);
+    createInitialEvent(calendar, tripStartDate);
+    calendar.addEventSource(getEventsInRange);
+  } else {
+    getEvents(calendar);
+  }
   calendar.render();
 }
 
@@ -72,23 +84,41 @@ function getEvents(calendar) {
         first = false;
         createInitialEvent(calendar, initialDate);
       }
-      calendar.addEvent({     
-        title: event.name,
-        start: event.strStartTime,
-        end: event.strEndTime,
-        allDay: false,
-        extendedProps: {
-          stringDate: event.strStartTime,
-          address: event.address,
-          placeId: event.placeId, 
-          openTime: '9AM',
-          closeTime: '5PM',
-        }
-      });
+      calendar.addEvent(buildCalendarEvent(event));
     });
   });
 }
 
+/**
+ * Event source that retrieves the events in the window FullCalendar shows.
+ */
+function getEventsInRange(info, successCallback, failureCallback) {
+  const rangeQuery = getTripKeyQuery() + '&start=' + encodeURIComponent(info.startStr) + 
+    '&end=' + encodeURIComponent(info.endStr);
+  fetch('/get-calendar' + rangeQuery).then(response => response.json()).then((events) => {
+    successCallback(events.map(buildCalendarEvent));
+  }).catch(failureCallback);
+}
+
+/**
+ * Builds the FullCalendar event of an event from /get-calendar.
+ */
+function buildCalendarEvent(event) {
+  return {
+    title: event.name,
+    start: event.strStartTime,
+    end: event.strEndTime,
+    allDay: false,
+    extendedProps: {
+      stringDate: event.strStartTime,
+      address: event.address,
+      placeId: event.placeId, 
+      openTime: '9AM',
+      closeTime: '5PM',
+    }
+  };
+}
+
 /**
  * Create the initial event of leaving the hotel
  */
@@ -23,6 +23,13 @@ var map;
 var directionsService;
 var directionsRenderer;
 
+// Markers of the day shown, removed when another day is selected.
+var markers = [];
+
+// Incremented for every day shown, so that place searches of a previous
+// day do not add markers to the new one.
+var routeGeneration = 0;
+
 // Map marker label constant
 var labels = 'ABCDEFGHIJKLMNOPQRSTUVWXYZ';
 
@@ -52,13 +59,36 @@ window.initMap = function() {
 }
 
 /*
- * Gets locations from MapServlet with the tripKey parameter.
- * Calls showDirections to show the directions with those locations.
+ * Gets the locations of every day of the trip in one request to the trip
+ * bundle, fills the day selector, and shows the route of the selected day.
+ * The day in the URL (1-based) is selected first; the first by default.
  */
 function displayRouteOnMap() {
-  fetch('/get-map' + getTripKeyQuery()).then(response => response.json()).then((locations) => {
-    showDirections(locations);
-  });
+  fetch('/trip-bundle' + getTripKeyQuery() + '&views=map').then(response => response.json())
+    .then((bundle) => {
+      const dayLocations = bundle.map;
+      const daySelect = document.getElementById('map-day-select');
+      for (let i = 0; i < dayLocations.length; i++) {
+        const option = document.createElement('option');
+        option.value = i + 1;
+        option.innerText = 'Day ' + (i + 1);
+        daySelect.appendChild(option);
+      }
+
+      const urlDay = parseInt(new URLSearchParams(window.location.search).get('day'));
+      const day = (urlDay >= 1 && urlDay <= dayLocations.length) ? urlDay : 1;
+      daySelect.value = day;
+      document.getElementById('map-day-selector').hidden = dayLocations.length < 2;
+
+      daySelect.addEventListener('change', () => {
+        const selectedDay = parseInt(daySelect.value);
+        const url = new URL(window.location.href);
+        url.searchParams.set('day', selectedDay);
+        window.history.replaceState(null, '', url);
+        showDirections(dayLocations[selectedDay - 1]);
+      });
+      showDirections(dayLocations[day - 1]);
+    });
 }
 
 /* 
@@ -67,6 +97,13 @@ function displayRouteOnMap() {
  * locations is a list of String addresses where the first element is the origin/destination
  */
 function showDirections(locations) {
+  // Clear the markers of the day shown before.
+  routeGeneration++;
+  for (const marker of markers) {
+    marker.setMap(null);
+  }
+  markers = [];
+
   let origin = locations[0];
   let waypts = [];
 
@@ -107,6 +144,7 @@ function showDirections(locations) {
  * index: index of waypoint. Used to determine marker label.
  */
 function addPoiMarker(location, isOrigin, index) {
+  const generation = routeGeneration;
   // Query the location String to get Place details.
   var service = new google.maps.places.PlacesService(map);
   service.textSearch({
@@ -114,6 +152,10 @@ function addPoiMarker(location, isOrigin, index) {
     radius: '50000',
     query: location
     }, function(results, status) {
+      // Another day has been selected since the search was sent.
+      if (generation != routeGeneration) {
+        return;
+      }
       if (status == google.maps.places.PlacesServiceStatus.OK) {
         // Add marker to map.
         let marker = new google.maps.Marker({
@@ -123,6 +165,7 @@ function addPoiMarker(location, isOrigin, index) {
             location: results[0].geometry.location
           },
         });
+        markers.push(marker);
         // Change icon to green if the location is the origin.
         if (isOrigin) {
           marker.setIcon("http://maps.google.com/mapfiles/ms/icons/green-dot.png");
@@ -183,10 +183,72 @@ function addHiddenPoiFormTrigger() {
         .attr('value', poiInput.innerText)
         .appendTo('#startTripForm');
     });
-    return true;
+
+    // Calculate the trip as a background job, and go to its map when done.
+    submitTripJob();
+    return false;
   });
 }
 
+// Interval between trip status polls, and the most polls before giving up
+// on the trip job (five minutes).
+const TRIP_STATUS_POLL_INTERVAL_MS = 1000;
+const MAX_TRIP_STATUS_POLLS = 300;
+
+// Submit the "start trip" form as an asynchronous trip job, then poll its
+// status until the trip is ready.
+function submitTripJob() {
+  const submitButton = document.getElementById('submit-calculate-trip');
+  submitButton.disabled = true;
+
+  const formData = new URLSearchParams(new FormData(document.getElementById('startTripForm')));
+  formData.append('async', 'true');
+  fetch('/calculate-trip', {method: 'POST', body: formData})
+    .then(response => {
+      if (!response.ok) {
+        throw new Error('Trip job not created: ' + response.status);
+      }
+      return response.json();
+    })
+    .then(job => pollTripStatus(job.jobId, submitButton, 1))
+    .catch(() => showTripJobError(submitButton, 'Could not calculate trip'));
+}
+
+// Show the progress of the trip job on the submit button every second, and
+// redirect to the Maps page of the trip once the job is done. Stops, and
+// lets the user submit again, if the status cannot be read or the job is
+// still running after MAX_TRIP_STATUS_POLLS polls.
+function pollTripStatus(jobId, submitButton, poll) {
+  fetch('/trip-status?jobId=' + encodeURIComponent(jobId))
+    .then(response => {
+      if (!response.ok) {
+        throw new Error('Trip status not read: ' + response.status);
+      }
+      return response.json();
+    })
+    .then((jobStatus) => {
+      if (jobStatus.status === 'DONE') {
+        window.location.href = '/maps.html?tripKey=' + jobStatus.tripKey;
+      } else if (jobStatus.status === 'FAILED') {
+        showTripJobError(submitButton, jobStatus.error);
+      } else if (poll >= MAX_TRIP_STATUS_POLLS) {
+        showTripJobError(submitButton, 'The trip is taking too long, please try again');
+      } else {
+        submitButton.innerText = jobStatus.stage + '...';
+        setTimeout(() => pollTripStatus(jobId, submitButton, poll + 1), 
+          TRIP_STATUS_POLL_INTERVAL_MS);
+      }
+    })
+    .catch(() => showTripJobError(submitButton, 'Could not calculate trip'));
+}
+
+// Show the error of the trip job on the submit button, and enable it again
+// so the user can resubmit the trip.
+function showTripJobError(submitButton, message) {
+  submitButton.innerText = message;
+  submitButton.disabled = false;
+}
+
 // Checks whether the input is valid (non-empty), and adds the 'is-valid'
 // Bootstrap class; otherwise, removes the 'is-valid' class if it exists.
 function checkValidInput(elementId) {
@@ -279,6 +341,7 @@ function toggleStartTripInputStage() {
     document.getElementById('inputTripName').readOnly = true;
     document.getElementById('inputDestination').readOnly = true;
     document.getElementById('inputDayOfTravel').readOnly = true;
+    document.getElementById('inputEndDate').readOnly = true;
 
     // Change the text of the toggle button to 'Back'.
     toggleStartTripStageButton.value = 'Back';
@@ -294,6 +357,7 @@ function toggleStartTripInputStage() {
     document.getElementById('inputTripName').readOnly = false;
     document.getElementById('inputDestination').readOnly = false;
     document.getElementById('inputDayOfTravel').readOnly = false;
+    document.getElementById('inputEndDate').readOnly = false;
 
     // Change the text of the toggle button to 'Next'.
     toggleStartTripStageButton.value = 'Next';
@@ -22,7 +22,13 @@ $(document).ready(() => {
   // Set the content width of the site.
   setContentWidth('1100px');
 
-  // Add the trip cards to the site.
+  // Add the first page of trip cards to the site; later pages are loaded
+  // from the "Load more trips" button.
+  const loadMoreButton = document.getElementById('load-more-trips');
+  loadMoreButton.addEventListener('click', () => {
+    loadMoreButton.disabled = true;
+    getAndAddTripCards(loadMoreButton.dataset.cursor);
+  });
   getAndAddTripCards();
 });
 
@@ -31,24 +37,32 @@ function setContentWidth(width) {
   document.getElementById('content').style.width = width;
 }
 
-// Fetch the trip details for the user from the database, add trip cards.
-function getAndAddTripCards() {
-  fetch('/user-trips').then(response => response.json()).then((trips) => {
+// Fetch one page of the user's trips from the database, add trip cards.
+// Each page links to the next through its cursor, which the "Load more
+// trips" button keeps until the user asks for the next page.
+function getAndAddTripCards(cursor) {
+  const url = cursor ? '/user-trips?cursor=' + encodeURIComponent(cursor) : '/user-trips';
+  const loadMoreButton = document.getElementById('load-more-trips');
+  fetch(url).then(response => response.json()).then((tripPage) => {
     // If trips are present, add them to the page.
-    if (trips !== null) {
-      addTripCards(trips);
+    if (tripPage !== null) {
+      addTripCards(tripPage.trips, cursor === undefined);
+      loadMoreButton.dataset.cursor = tripPage.nextCursor || '';
+      loadMoreButton.hidden = !tripPage.nextCursor;
     }
   }).catch((error) => {
     console.error(error);
+  }).finally(() => {
+    loadMoreButton.disabled = false;
   });
 }
 
 // Add the trip cards to the site.
-function addTripCards(trips) {
+function addTripCards(trips, isFirstPage) {
   const tripCardContainer = document.getElementById('trips-cards-container');
 
   // If no trips are present, then add a "Create a New Trip" button card.
-  if (trips.length === 0) {
+  if (isFirstPage && trips.length === 0) {
     tripCardContainer.appendChild(buildCreateNewTripCard());
   }
 
@@ -120,7 +134,8 @@ function buildTripCard(tripTitle, destinationName, imageSrc, startDate, endDate,
 
   const calendarButton = document.createElement('a');
   calendarButton.className = 'btn btn-primary trip-button';
-  calendarButton.href = '../calendar.html?tripKey=' + tripKey;
+  calendarButton.href = '../calendar.html?tripKey=' + tripKey + '&date=' + 
+    formatDate(startDate);
   calendarButton.innerText = 'Calendar';
 
   const mapsButton = document.createElement('a');
@@ -147,3 +162,9 @@ function buildTripCard(tripTitle, destinationName, imageSrc, startDate, endDate,
 
   return cardContainer;
 }
+
+// Format a {year, month, day} date as yyyy-MM-dd.
+function formatDate(date) {
+  return date.year + '-' + String(date.month).padStart(2, '0') + '-' + 
+    String(date.day).padStart(2, '0');
+}
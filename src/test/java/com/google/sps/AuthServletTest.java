@@ -75,6 +75,7 @@ public final class AuthServletTest {
   @Before
   public void setUp() {
     helper.setUp();
+    UserRepository.clearCache();
   }
 
   @After
@@ -190,14 +191,15 @@ public final class AuthServletTest {
     PreparedQuery results = datastore.prepare(query);
     List<Entity> listResults = results.asList(FetchOptions.Builder.withDefaults());
 
-    // Check whether the proper Entity and count were returned.
+    // Check whether the proper Entity and count were returned. Users are
+    // keyed by email, so they are listed in email order.
     Assert.assertEquals(2, listResults.size());
-    Assert.assertEquals(EMAIL, listResults.get(0).getProperty(User.USER_EMAIL));
-    Assert.assertEquals(SECOND_EMAIL, listResults.get(1).getProperty(User.USER_EMAIL));
+    Assert.assertEquals(SECOND_EMAIL, listResults.get(0).getProperty(User.USER_EMAIL));
+    Assert.assertEquals(EMAIL, listResults.get(1).getProperty(User.USER_EMAIL));
 
     // Confirm that the Entity in the database matches the method return.
-    Assert.assertEquals(listResults.get(0), userEntityReturn);
-    Assert.assertEquals(listResults.get(1), userEntitySecondReturn);
+    Assert.assertEquals(listResults.get(1), userEntityReturn);
+    Assert.assertEquals(listResults.get(0), userEntitySecondReturn);
   }
 
   @Test
@@ -29,6 +29,8 @@ import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestC
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
 import com.google.sps.data.Event;
 import com.google.sps.data.User;
+import com.google.sps.places.PlaceStore;
+import com.google.sps.places.PlaceSummary;
 import com.google.sps.Trip;
 import com.google.sps.servlets.CalendarServlet;
 import java.io.PrintWriter;
@@ -49,6 +51,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
+import org.mockito.AdditionalAnswers;
 
 @RunWith(JUnit4.class)
 public final class CalendarServletTest {
@@ -85,6 +88,7 @@ public final class CalendarServletTest {
       LocalDateTime.of(LocalDate.parse("2020-07-22"), LocalTime.of(10, 00));
 
   private static final String DEF_PLACE_ID = "1234";
+  private static final String YOSEMITE_PLACE_ID = "5678";
 
   private final LocalServiceTestHelper helper =
       new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
@@ -145,13 +149,19 @@ public final class CalendarServletTest {
     tripDayEntity2.setProperty("date", INPUT_DATE);
     datastore.put(tripDayEntity2);
 
-    // create event entities and put it into datastore
+    // create the places and event entities referring to them, and put them
+    // into datastore
+    datastore.put(PlaceStore.toEntity(
+      new PlaceSummary(DEF_PLACE_ID, DOME, null, DOME_ADDRESS, null, null, null)));
+    datastore.put(PlaceStore.toEntity(
+      new PlaceSummary(YOSEMITE_PLACE_ID, YOSEMITE, null, YOSEMITE_ADDRESS, null, null, null)));
+
     Event e1 = new Event(DOME, DOME_ADDRESS, DEF_PLACE_ID, DOME_START_TIME, 
                         HALF_HOUR);
     Entity event1 = e1.eventToEntity(tripDayEntity1.getKey());
     datastore.put(event1);
 
-    Event e2 = new Event(YOSEMITE, YOSEMITE_ADDRESS, DEF_PLACE_ID, YOS_START_TIME, 
+    Event e2 = new Event(YOSEMITE, YOSEMITE_ADDRESS, YOSEMITE_PLACE_ID, YOS_START_TIME, 
                         HALF_HOUR);
     Entity event2 = e2.eventToEntity(tripDayEntity2.getKey());
     datastore.put(event2);
@@ -160,19 +170,11 @@ public final class CalendarServletTest {
     calendarServlet.doGetEvents(response, datastore, userEntity, tripEntity.getKey());
 
     String expectedJson = "[{\"name\":\"Half Dome Visor\",\"address\":\"Half Dome Visor\"," + 
-            "\"startTime\":{\"date\":{\"year\":2020,\"month\":7,\"day\":22}," + 
-            "\"time\":{\"hour\":11,\"minute\":30,\"second\":0,\"nano\":0}}," + 
-            "\"endTime\":{\"date\":{\"year\":2020,\"month\":7,\"day\":22}," +
-            "\"time\":{\"hour\":12,\"minute\":30,\"second\":0,\"nano\":0}}," +
             "\"placeId\":\"1234\"," +
             "\"strStartTime\":\"2020-07-22T11:30:00\",\"strEndTime\":\"2020-07-22T12:30:00\"," +
             "\"travelTime\":30}," +
             "{\"name\":\"Upper Yosemite Fall\",\"address\":\"Upper Yosemite Fall\"," +
-            "\"startTime\":{\"date\":{\"year\":2020,\"month\":7,\"day\":22}," + 
-            "\"time\":{\"hour\":10,\"minute\":0,\"second\":0,\"nano\":0}}," + 
-            "\"endTime\":{\"date\":{\"year\":2020,\"month\":7,\"day\":22}," +
-            "\"time\":{\"hour\":11,\"minute\":0,\"second\":0,\"nano\":0}}," +
-            "\"placeId\":\"1234\"," +
+            "\"placeId\":\"5678\"," +
             "\"strStartTime\":\"2020-07-22T10:00:00\",\"strEndTime\":\"2020-07-22T11:00:00\"," +
             "\"travelTime\":30}]";
     
@@ -180,6 +182,118 @@ public final class CalendarServletTest {
     Assert.assertTrue(stringWriter.toString().contains(expectedJson));
   }
 
+  // Test that the view of a 31-day trip without one is rebuilt with one query
+  // for the days and one for the events, instead of one event query per day,
+  // since the locations are stored in the days, and that later reads
+  // are served from the stored view without any query.
+  @Test
+  public void testEventsOfLongTripUseOneQuery() throws Exception {
+    HttpServletResponse response = mock(HttpServletResponse.class);    
+    StringWriter stringWriter = new StringWriter();
+    when(response.getWriter()).thenReturn(new PrintWriter(stringWriter, true));
+
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    Entity userEntity = new Entity(User.USER);
+    userEntity.setProperty(User.USER_EMAIL, EMAIL);
+    datastore.put(userEntity);
+    Entity tripEntity = Trip.buildEntity(TRIP_NAME, DESTINATION_NAME, IMAGE_SRC, 
+        "2020-07-01", "2020-07-31", userEntity.getKey());
+    datastore.put(tripEntity);
+
+    for (int day = 0; day < 31; day++) {
+      LocalDate date = LocalDate.parse("2020-07-01").plusDays(day);
+      Entity tripDayEntity = new TripDay(INPUT_DESTINATION, INPUT_DESTINATION, 
+          new ArrayList<>(), date).buildEntity(tripEntity.getKey());
+      datastore.put(tripDayEntity);
+      datastore.put(new Event(DOME, DOME_ADDRESS, DEF_PLACE_ID, 
+          LocalDateTime.of(date, LocalTime.of(10, 0)), HALF_HOUR)
+          .eventToEntity(tripDayEntity.getKey()));
+    }
+
+    DatastoreService countingDatastore = 
+        mock(DatastoreService.class, AdditionalAnswers.delegatesTo(datastore));
+    calendarServlet.doGetEvents(response, countingDatastore, userEntity, tripEntity.getKey());
+
+    verify(countingDatastore, times(2)).prepare(any(Query.class));
+    Assert.assertTrue(stringWriter.toString().contains("2020-07-01T10:00:00"));
+    Assert.assertTrue(stringWriter.toString().contains("2020-07-31T10:00:00"));
+
+    StringWriter secondStringWriter = new StringWriter();
+    when(response.getWriter()).thenReturn(new PrintWriter(secondStringWriter, true));
+    DatastoreService secondCountingDatastore = 
+        mock(DatastoreService.class, AdditionalAnswers.delegatesTo(datastore));
+    calendarServlet.doGetEvents(response, secondCountingDatastore, userEntity, 
+        tripEntity.getKey());
+
+    verify(secondCountingDatastore, never()).prepare(any(Query.class));
+    Assert.assertEquals(stringWriter.toString(), secondStringWriter.toString());
+  }
+
+  // Test that a calendar window is answered with one range query, returning
+  // only the events that start inside it, in time order.
+  @Test
+  public void testEventsInRangeUseOneRangeQuery() throws Exception {
+    HttpServletResponse response = mock(HttpServletResponse.class);
+    StringWriter stringWriter = new StringWriter();
+    PrintWriter writer = new PrintWriter(stringWriter);
+    when(response.getWriter()).thenReturn(writer);
+
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    Entity userEntity = new Entity(User.USER);
+    userEntity.setProperty(User.USER_EMAIL, EMAIL);
+    datastore.put(userEntity);
+    Entity tripEntity = Trip.buildEntity(TRIP_NAME, DESTINATION_NAME, IMAGE_SRC, 
+        "2020-07-01", "2020-07-31", userEntity.getKey());
+    datastore.put(tripEntity);
+
+    // Store the days in reverse, so that key order is not time order.
+    for (int day = 30; day >= 0; day--) {
+      LocalDate date = LocalDate.parse("2020-07-01").plusDays(day);
+      Entity tripDayEntity = new TripDay(INPUT_DESTINATION, INPUT_DESTINATION, 
+          new ArrayList<>(), date).buildEntity(tripEntity.getKey());
+      datastore.put(tripDayEntity);
+      datastore.put(new Event(DOME, DOME_ADDRESS, DEF_PLACE_ID, 
+          LocalDateTime.of(date, LocalTime.of(10, 0)), HALF_HOUR)
+          .eventToEntity(tripDayEntity.getKey()));
+    }
+
+    // Once every event is migrated, the string form is no longer queried.
+    SchemaVersion.newMigrationRunner(datastore).run(10, MigrationRunner.DEFAULT_BATCH_SIZE);
+
+    DatastoreService countingDatastore = 
+        mock(DatastoreService.class, AdditionalAnswers.delegatesTo(datastore));
+    calendarServlet.doGetEvents(response, countingDatastore, userEntity, tripEntity.getKey(),
+        CalendarServlet.parseDateTime("2020-07-05T00:00:00-07:00"),
+        CalendarServlet.parseDateTime("2020-07-12"));
+    writer.flush();
+
+    verify(countingDatastore, times(1)).prepare(any(Query.class));
+    String json = stringWriter.toString();
+    Assert.assertFalse(json.contains("2020-07-04T10:00:00"));
+    Assert.assertFalse(json.contains("2020-07-12T10:00:00"));
+    int previous = -1;
+    for (int day = 5; day < 12; day++) {
+      int index = json.indexOf("\"2020-07-" + String.format("%02d", day) + "T10:00:00\"");
+      Assert.assertTrue(index > previous);
+      previous = index;
+    }
+  }
+
+  // Test that a window of another user's trip is not read.
+  @Test
+  public void testEventsInRangeOfOtherUsersTrip() throws Exception {
+    HttpServletResponse response = mock(HttpServletResponse.class);
+    DatastoreService datastore = mock(DatastoreService.class);
+    Entity userEntity = new Entity(User.USER, 1);
+    Key otherTripKey = new Entity(Trip.TRIP, new Entity(User.USER, 2).getKey()).getKey();
+
+    calendarServlet.doGetEvents(response, datastore, userEntity, otherTripKey,
+        LocalDateTime.of(2020, 7, 1, 0, 0), LocalDateTime.of(2020, 7, 8, 0, 0));
+
+    verify(response).sendRedirect("/");
+    verifyZeroInteractions(datastore);
+  }
+
   @Test
   public void testNoCurrentUser() throws Exception {
     HttpServletRequest request = mock(HttpServletRequest.class);       
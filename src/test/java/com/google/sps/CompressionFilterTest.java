@@ -0,0 +1,171 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import static org.mockito.Mockito.*;
+
+import com.google.common.io.ByteStreams;
+import com.google.sps.servlets.CompressionFilter;
+import com.google.sps.servlets.ConditionalGet;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class CompressionFilterTest {
+
+  private HttpServletRequest request;
+  private HttpServletResponse response;
+  private ByteArrayOutputStream body;
+
+  @Before
+  public void setUp() throws Exception {
+    request = mock(HttpServletRequest.class);
+    response = mock(HttpServletResponse.class);
+    body = new ByteArrayOutputStream();
+    when(response.getCharacterEncoding()).thenReturn("UTF-8");
+    when(response.getOutputStream()).thenReturn(new ServletOutputStream() {
+      @Override
+      public void write(int b) {
+        body.write(b);
+      }
+
+      @Override
+      public boolean isReady() {
+        return true;
+      }
+
+      @Override
+      public void setWriteListener(WriteListener writeListener) {}
+    });
+  }
+
+  @Test
+  public void testSelectEncoding() {
+    Assert.assertEquals(CompressionFilter.GZIP,
+      CompressionFilter.selectEncoding("gzip, deflate, br"));
+    Assert.assertEquals(CompressionFilter.DEFLATE,
+      CompressionFilter.selectEncoding("gzip;q=0, deflate"));
+    Assert.assertEquals(CompressionFilter.GZIP, CompressionFilter.selectEncoding("*"));
+    Assert.assertNull(CompressionFilter.selectEncoding("identity"));
+    Assert.assertNull(CompressionFilter.selectEncoding(null));
+  }
+
+  // Test that a large body is gzipped, and decompresses to what was written.
+  @Test
+  public void testLargeBodyIsGzipped() throws Exception {
+    String json = buildJson(CompressionFilter.MIN_COMPRESSED_BYTES * 4);
+    when(request.getHeader(CompressionFilter.ACCEPT_ENCODING)).thenReturn("gzip, deflate");
+
+    runFilter(json);
+
+    verify(response).setHeader(CompressionFilter.CONTENT_ENCODING, CompressionFilter.GZIP);
+    Assert.assertTrue(body.size() < json.length() / 4);
+    Assert.assertEquals(json,
+      decompress(new GZIPInputStream(new ByteArrayInputStream(body.toByteArray()))));
+  }
+
+  @Test
+  public void testLargeBodyIsDeflated() throws Exception {
+    String json = buildJson(CompressionFilter.MIN_COMPRESSED_BYTES * 4);
+    when(request.getHeader(CompressionFilter.ACCEPT_ENCODING)).thenReturn("deflate");
+
+    runFilter(json);
+
+    verify(response).setHeader(CompressionFilter.CONTENT_ENCODING, CompressionFilter.DEFLATE);
+    Assert.assertEquals(json,
+      decompress(new InflaterInputStream(new ByteArrayInputStream(body.toByteArray()))));
+  }
+
+  // Test that a body below the threshold, or to a client that does not
+  // accept compression, is sent as it is.
+  @Test
+  public void testSmallOrUnacceptedBodyIsNotCompressed() throws Exception {
+    String smallJson = buildJson(CompressionFilter.MIN_COMPRESSED_BYTES / 2);
+    when(request.getHeader(CompressionFilter.ACCEPT_ENCODING)).thenReturn("gzip");
+    runFilter(smallJson);
+    Assert.assertEquals(smallJson, body.toString("UTF-8"));
+
+    body.reset();
+    String largeJson = buildJson(CompressionFilter.MIN_COMPRESSED_BYTES * 4);
+    when(request.getHeader(CompressionFilter.ACCEPT_ENCODING)).thenReturn(null);
+    when(response.getWriter()).thenReturn(new PrintWriter(
+      new OutputStreamWriter(body, StandardCharsets.UTF_8), true));
+    runFilter(largeJson);
+    Assert.assertEquals(largeJson, body.toString("UTF-8"));
+
+    verify(response, never()).setHeader(eq(CompressionFilter.CONTENT_ENCODING), anyString());
+  }
+
+  // Test that a compressed body gets the ETag with its content coding, and
+  // that an uncompressed one keeps the ETag as it is.
+  @Test
+  public void testETagNamesContentCoding() throws Exception {
+    String eTag = "\"key-1\"";
+    when(request.getHeader(CompressionFilter.ACCEPT_ENCODING)).thenReturn("gzip");
+    runFilter(eTag, buildJson(CompressionFilter.MIN_COMPRESSED_BYTES * 4));
+    verify(response).setHeader(ConditionalGet.ETAG, "\"key-1-gzip\"");
+    verify(response, never()).setHeader(ConditionalGet.ETAG, eTag);
+
+    setUp();
+    when(request.getHeader(CompressionFilter.ACCEPT_ENCODING)).thenReturn("deflate");
+    runFilter(eTag, buildJson(CompressionFilter.MIN_COMPRESSED_BYTES / 2));
+    verify(response).setHeader(ConditionalGet.ETAG, eTag);
+    verify(response, never()).setHeader(ConditionalGet.ETAG, "\"key-1-deflate\"");
+  }
+
+  private void runFilter(String json) throws Exception {
+    runFilter(null, json);
+  }
+
+  private void runFilter(String eTag, String json) throws Exception {
+    FilterChain chain = (filteredRequest, filteredResponse) -> {
+      if (eTag != null) {
+        ((HttpServletResponse) filteredResponse).setHeader(ConditionalGet.ETAG, eTag);
+      }
+      filteredResponse.getWriter().print(json);
+      filteredResponse.getWriter().flush();
+    };
+    new CompressionFilter().doFilter(request, response, chain);
+  }
+
+  private static String buildJson(int length) {
+    StringBuilder json = new StringBuilder("[");
+    for (int i = 0; json.length() < length; i++) {
+      json.append("{\"name\":\"Place ").append(i)
+        .append("\",\"strStartTime\":\"2020-07-22T11:30:00\"},");
+    }
+    return json.append("{}]").toString();
+  }
+
+  private static String decompress(InputStream in) throws Exception {
+    return new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8);
+  }
+}
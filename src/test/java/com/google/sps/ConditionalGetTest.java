@@ -0,0 +1,186 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import static org.mockito.Mockito.*;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.sps.data.User;
+import com.google.sps.servlets.CompressionFilter;
+import com.google.sps.servlets.ConditionalGet;
+import java.util.Arrays;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.AdditionalAnswers;
+
+@RunWith(JUnit4.class)
+public final class ConditionalGetTest {
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+  private DatastoreService datastore;
+  private Key userKey;
+  private Key tripKey;
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    datastore = DatastoreServiceFactory.getDatastoreService();
+    userKey = datastore.put(new User("test@example.com").buildEntity());
+    tripKey = datastore.put(Trip.buildEntity("Trip", "California", "photo", 
+        "2020-07-15", "2020-07-15", userKey));
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  // Test that a request without If-None-Match gets the ETag and a full
+  // response, and that repeating it with the ETag gets a 304.
+  @Test
+  public void testMatchingETagIsNotModified() {
+    String eTag = ConditionalGet.buildETag(tripKey, 1);
+    HttpServletResponse response = mock(HttpServletResponse.class);
+
+    Assert.assertFalse(ConditionalGet.isNotModified(mock(HttpServletRequest.class), 
+        response, eTag));
+    verify(response).setHeader(ConditionalGet.ETAG, eTag);
+    verify(response, never()).setStatus(anyInt());
+
+    HttpServletRequest request = mock(HttpServletRequest.class);
+    when(request.getHeader(ConditionalGet.IF_NONE_MATCH))
+        .thenReturn("\"other\", W/" + eTag);
+    HttpServletResponse secondResponse = mock(HttpServletResponse.class);
+    Assert.assertTrue(ConditionalGet.isNotModified(request, secondResponse, eTag));
+    verify(secondResponse).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+  }
+
+  // Test that the ETag of a compressed body matches too, and that the 304
+  // carries it back.
+  @Test
+  public void testCompressedETagIsNotModified() {
+    String eTag = ConditionalGet.buildETag(tripKey, 1);
+    String gzipETag = ConditionalGet.withContentCoding(eTag, CompressionFilter.GZIP);
+    Assert.assertTrue(gzipETag.endsWith("-1-gzip\""));
+
+    HttpServletRequest request = mock(HttpServletRequest.class);
+    when(request.getHeader(ConditionalGet.IF_NONE_MATCH)).thenReturn(gzipETag);
+    HttpServletResponse response = mock(HttpServletResponse.class);
+    Assert.assertTrue(ConditionalGet.isNotModified(request, response, eTag));
+    verify(response).setHeader(ConditionalGet.ETAG, gzipETag);
+
+    when(request.getHeader(ConditionalGet.IF_NONE_MATCH)).thenReturn(
+        ConditionalGet.withContentCoding(ConditionalGet.buildETag(tripKey, 2),
+        CompressionFilter.GZIP));
+    Assert.assertFalse(ConditionalGet.isNotModified(request,
+        mock(HttpServletResponse.class), eTag));
+  }
+
+  // Test that a trip's ETag is checked with one get and no query, and that
+  // it changes when the trip's version is incremented.
+  @Test
+  public void testTripETagChangesWithVersion() {
+    HttpServletRequest request = mock(HttpServletRequest.class);
+    when(request.getHeader(ConditionalGet.IF_NONE_MATCH))
+        .thenReturn(ConditionalGet.buildETag(tripKey, 1));
+    DatastoreService countingDatastore =
+        mock(DatastoreService.class, AdditionalAnswers.delegatesTo(datastore));
+
+    Assert.assertTrue(ConditionalGet.isTripNotModified(request, 
+        mock(HttpServletResponse.class), countingDatastore, userKey, tripKey));
+    verify(countingDatastore, never()).prepare(any(Query.class));
+
+    Assert.assertEquals(2, VersionCounter.increment(datastore, tripKey, Trip.VERSION));
+    Assert.assertFalse(ConditionalGet.isTripNotModified(request, 
+        mock(HttpServletResponse.class), datastore, userKey, tripKey));
+  }
+
+  // Test that other users' trips are not checked, so the caller can reject them.
+  @Test
+  public void testOtherUserTripIsNotChecked() {
+    Key otherUserKey = datastore.put(new User("other@example.com").buildEntity());
+    HttpServletResponse response = mock(HttpServletResponse.class);
+
+    Assert.assertFalse(ConditionalGet.isTripNotModified(mock(HttpServletRequest.class), 
+        response, datastore, otherUserKey, tripKey));
+    verifyZeroInteractions(response);
+  }
+
+  // Test that the version of a user's trip list only grows.
+  @Test
+  public void testTripsVersionIncrements() {
+    UserRepository repository = new UserRepository(datastore);
+    Assert.assertEquals(0, repository.getTripsVersion(userKey));
+    Assert.assertEquals(1, repository.markTripsChanged(userKey));
+    Assert.assertEquals(2, repository.markTripsChanged(userKey));
+    Assert.assertEquals(2, repository.getTripsVersion(userKey));
+  }
+
+  // Test that a stored trip and the new version of the trip list are
+  // written in one transaction.
+  @Test
+  public void testPutTripIncrementsTripsVersion() throws Exception {
+    Entity tripEntity = Trip.buildEntity("Second trip", "Oregon", "photo", 
+        "2020-08-01", "2020-08-01", userKey);
+    DatastoreService countingDatastore =
+        mock(DatastoreService.class, AdditionalAnswers.delegatesTo(datastore));
+
+    Assert.assertEquals(1, new UserRepository(countingDatastore).putTrip(tripEntity));
+
+    verify(countingDatastore, times(1)).beginTransaction();
+    verify(countingDatastore, never()).put(any(Entity.class));
+    Assert.assertEquals(1, new UserRepository(datastore).getTripsVersion(userKey));
+    Assert.assertEquals("Second trip", 
+        datastore.get(tripEntity.getKey()).getProperty(Trip.TRIP_NAME));
+  }
+
+  // Test that entities outside the counter's entity group are rejected.
+  @Test(expected = IllegalArgumentException.class)
+  public void testIncrementRejectsOtherEntityGroup() {
+    Key otherUserKey = datastore.put(new User("other@example.com").buildEntity());
+    VersionCounter.increment(datastore, userKey, User.TRIPS_VERSION, 
+        Arrays.asList(new Entity(Trip.TRIP, otherUserKey)));
+  }
+
+  // Test that the ETag carries the format version, and that the trip list's
+  // ETag changes when the schema migration changes the order of its pages.
+  @Test
+  public void testETagCarriesFormatAndPageOrder() {
+    Assert.assertTrue(ConditionalGet.buildETag(tripKey, 1)
+        .startsWith("\"f" + ConditionalGet.FORMAT_VERSION + "-"));
+
+    TripRepository repository = new TripRepository(datastore);
+    Assert.assertEquals(TripRepository.PAGE_ORDER_KEY, repository.getTripPageOrder());
+    String keyOrderETag = ConditionalGet.buildETag(userKey, 1, repository.getTripPageOrder());
+
+    SchemaVersion.newMigrationRunner(datastore).run(10, MigrationRunner.DEFAULT_BATCH_SIZE);
+    Assert.assertEquals(TripRepository.PAGE_ORDER_START_DATE, repository.getTripPageOrder());
+    Assert.assertNotEquals(keyOrderETag, 
+        ConditionalGet.buildETag(userKey, 1, repository.getTripPageOrder()));
+  }
+}
@@ -0,0 +1,143 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.sps.route.DayPartitioner;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class DayPartitionerTest {
+
+  // Seed for the random test instances, so that failures are reproducible.
+  private static final long SEED = 135;
+
+  // Test that three far-apart neighborhoods become three days, even when
+  // their POIs are entered interleaved.
+  @Test
+  public void testNeighborhoodsBecomeDays() {
+    double[][] centers = {{-5000, 0}, {5000, 0}, {0, 8000}};
+    double[][] points = new double[13][];
+    points[0] = new double[] {0, 0};
+    for (int i = 0; i < 12; i++) {
+      double[] center = centers[i % 3];
+      points[i + 1] = new double[] {center[0] + 100 * (i / 3), center[1] - 50 * (i / 3)};
+    }
+
+    int[][] days = DayPartitioner.partition(euclideanMatrix(points), points.length, 3);
+
+    Assert.assertEquals(3, days.length);
+    for (int[] day : days) {
+      Assert.assertEquals(4, day.length);
+      for (int waypoint : day) {
+        Assert.assertEquals(day[0] % 3, waypoint % 3);
+      }
+    }
+  }
+
+  // Test that every POI is planned exactly once, and that no day holds more
+  // than its share of the POIs.
+  @Test
+  public void testBalancedPermutation() {
+    int size = 51;
+    int numDays = 7;
+    Random random = new Random(SEED);
+    double[][] points = new double[size][2];
+    for (int i = 0; i < size; i++) {
+      points[i][0] = random.nextInt(20000);
+      points[i][1] = random.nextInt(20000);
+    }
+
+    int[][] days = DayPartitioner.partition(euclideanMatrix(points), size, numDays);
+
+    int[] allWaypoints = Arrays.stream(days).flatMapToInt(Arrays::stream).sorted().toArray();
+    Assert.assertEquals(size - 1, allWaypoints.length);
+    for (int i = 0; i < allWaypoints.length; i++) {
+      Assert.assertEquals(i, allWaypoints[i]);
+    }
+    for (int[] day : days) {
+      Assert.assertTrue(day.length > 0 && day.length <= 8);
+    }
+  }
+
+  // Test that extra days are left empty when there are fewer POIs than days.
+  @Test
+  public void testFewerPoisThanDays() {
+    double[][] points = {{0, 0}, {1000, 0}, {0, 1000}};
+
+    int[][] days = DayPartitioner.partition(euclideanMatrix(points), points.length, 4);
+
+    Assert.assertEquals(4, days.length);
+    Assert.assertEquals(1, days[0].length);
+    Assert.assertEquals(1, days[1].length);
+    Assert.assertEquals(0, days[2].length);
+    Assert.assertEquals(0, days[3].length);
+  }
+
+  // Test that POIs with identical durations still fill every day.
+  @Test
+  public void testIdenticalPois() {
+    int size = 7;
+
+    int[][] days = DayPartitioner.partition(new int[size * size], size, 3);
+
+    for (int[] day : days) {
+      Assert.assertEquals(2, day.length);
+    }
+  }
+
+  // Test that the day matrix keeps the hotel first and the given POI order.
+  @Test
+  public void testDayMatrix() {
+    int[] durations = {
+      0, 1, 2, 3,
+      4, 0, 5, 6,
+      7, 8, 0, 9,
+      10, 11, 12, 0};
+
+    int[] dayDurations = DayPartitioner.dayMatrix(durations, 4, new int[] {2, 0});
+
+    Assert.assertArrayEquals(new int[] {
+      0, 3, 1,
+      10, 0, 11,
+      4, 6, 0}, dayDurations);
+  }
+
+  // Test that the number of days must be positive.
+  @Test(expected = IllegalArgumentException.class)
+  public void testNoDays() {
+    DayPartitioner.partition(new int[4], 2, 0);
+  }
+
+  /**
+   * Helper method to build a rounded Euclidean duration matrix.
+   */
+  private static int[] euclideanMatrix(double[][] points) {
+    int size = points.length;
+    int[] durations = new int[size * size];
+    for (int i = 0; i < size; i++) {
+      for (int j = 0; j < size; j++) {
+        double dx = points[i][0] - points[j][0];
+        double dy = points[i][1] - points[j][1];
+        durations[i * size + j] = (int) Math.round(Math.sqrt(dx * dx + dy * dy));
+      }
+    }
+    return durations;
+  }
+}
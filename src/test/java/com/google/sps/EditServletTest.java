@@ -25,6 +25,8 @@ import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
 import com.google.sps.Trip;
 import com.google.sps.data.Event;
 import com.google.sps.data.User;
+import com.google.sps.places.PlaceStore;
+import com.google.sps.places.PlaceSummary;
 import com.google.sps.servlets.AuthServlet;
 import com.google.sps.servlets.EditServlet;
 import java.io.PrintWriter;
@@ -37,6 +39,7 @@ import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -90,6 +93,13 @@ public final class EditServletTest {
   public void setUp() {
     helper.setUp();
     editServlet = new EditServlet();
+
+    // The events refer to these places for their name and address.
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    datastore.put(PlaceStore.toEntity(new PlaceSummary(SPACE_NEEDLE_PLACE_ID, SPACE_NEEDLE,
+      null, SPACE_NEEDLE_ADDRESS, null, null, null)));
+    datastore.put(PlaceStore.toEntity(new PlaceSummary(WOODLAND_PLACE_ID, WOODLAND,
+      null, WOODLAND_ADDRESS, null, null, null)));
   }
 
   @After
@@ -509,4 +519,39 @@ public final class EditServletTest {
     List<Event> eventEntityList = new ArrayList<>();
     Assert.assertEquals(0, eventEntityReturn.size());
   }
+
+  @Test
+  public void testGetEventsFromTripGroupedByTripDay() throws Exception {
+    // Add a Trip with two TripDays to Datastore, and one Event on the first.
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    Entity tripEntity = new Entity(Trip.TRIP);
+    datastore.put(tripEntity);
+    Entity tripDayEntity1 = new Entity(TripDay.QUERY_STRING, tripEntity.getKey());
+    tripDayEntity1.setProperty(TripDay.DATE, INPUT_DATE_2);
+    datastore.put(tripDayEntity1);
+    Entity tripDayEntity2 = new Entity(TripDay.QUERY_STRING, tripEntity.getKey());
+    tripDayEntity2.setProperty(TripDay.DATE, INPUT_DATE_2);
+    datastore.put(tripDayEntity2);
+
+    Event e1 = new Event(SPACE_NEEDLE, SPACE_NEEDLE_ADDRESS, SPACE_NEEDLE_PLACE_ID,
+      SPACE_NEEDLE_START_TIME, HALF_HOUR);
+    datastore.put(e1.eventToEntity(tripDayEntity1.getKey()));
+    Event e2 = new Event(WOODLAND, WOODLAND_ADDRESS, WOODLAND_PLACE_ID, 
+      WOODLAND_START_TIME, HALF_HOUR);
+    datastore.put(e2.eventToEntity(tripDayEntity1.getKey()));
+
+    /**
+     * Run getEventsFromTrip(...). Test that the Events are grouped under 
+     * their TripDay, in order, and that a TripDay without Events is absent.
+     */
+    Map<Key, List<Event>> eventMapReturn = 
+      editServlet.getEventsFromTrip(tripEntity.getKey(), datastore);
+
+    Assert.assertEquals(1, eventMapReturn.size());
+    List<Event> eventList = eventMapReturn.get(tripDayEntity1.getKey());
+    Assert.assertEquals(2, eventList.size());
+    Assert.assertEquals(WOODLAND, eventList.get(0).getName());
+    Assert.assertEquals(SPACE_NEEDLE, eventList.get(1).getName());
+    Assert.assertNull(eventMapReturn.get(tripDayEntity2.getKey()));
+  }
 }
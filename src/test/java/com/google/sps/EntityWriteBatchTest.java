@@ -0,0 +1,148 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.PreparedQuery;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.sps.EntityWriteBatch;
+import com.google.sps.Trip;
+import com.google.sps.TripDay;
+import java.util.List;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class EntityWriteBatchTest {
+
+  // Constants for the entities added to the batch.
+  private static final String INPUT_DESTINATION =
+      "4265 24th Street San Francisco, CA, 94114";
+  private static final String INPUT_DATE = "2020-07-15";
+  private static final String LOCATION_NAME = "Sutro Tower";
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+  private DatastoreService datastore;
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    datastore = DatastoreServiceFactory.getDatastoreService();
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  // Test that nothing is written until commit() is called.
+  @Test
+  public void testNothingWrittenBeforeCommit() {
+    EntityWriteBatch writeBatch = new EntityWriteBatch(datastore);
+    writeBatch.add(new Entity(Trip.TRIP));
+
+    Assert.assertEquals(1, writeBatch.size());
+    Assert.assertEquals(0, countEntities(Trip.TRIP));
+  }
+
+  // Test that a parent and its children are committed with a single put.
+  @Test
+  public void testCommitParentAndChildrenSinglePut() {
+    EntityWriteBatch writeBatch = new EntityWriteBatch(datastore);
+
+    // The allocated key is complete, so children can be built right away.
+    Entity tripDayEntity = new Entity(TripDay.QUERY_STRING);
+    tripDayEntity.setProperty(TripDay.ORIGIN, INPUT_DESTINATION);
+    tripDayEntity.setProperty(TripDay.DATE, INPUT_DATE);
+    Entity keyedTripDayEntity = writeBatch.addWithAllocatedKey(tripDayEntity);
+    Assert.assertTrue(keyedTripDayEntity.getKey().isComplete());
+    Assert.assertEquals(INPUT_DESTINATION, keyedTripDayEntity.getProperty(TripDay.ORIGIN));
+
+    for (int i = 0; i < 3; i++) {
+      Entity locationEntity =
+        new Entity(TripDay.LOCATION_ENTITY_TYPE, keyedTripDayEntity.getKey());
+      locationEntity.setProperty(TripDay.NAME, LOCATION_NAME);
+      locationEntity.setProperty(TripDay.ORDER, i);
+      writeBatch.add(locationEntity);
+    }
+
+    List<Key> committedKeys = writeBatch.commit();
+
+    // Check that all entities were written with one put, and the batch is empty.
+    Assert.assertEquals(4, committedKeys.size());
+    Assert.assertEquals(keyedTripDayEntity.getKey(), committedKeys.get(0));
+    Assert.assertEquals(1, writeBatch.getNumPutCalls());
+    Assert.assertEquals(0, writeBatch.size());
+    Assert.assertEquals(1, countEntities(TripDay.QUERY_STRING));
+
+    Query locationQuery =
+      new Query(TripDay.LOCATION_ENTITY_TYPE, keyedTripDayEntity.getKey());
+    Assert.assertEquals(3, datastore.prepare(locationQuery)
+      .countEntities(FetchOptions.Builder.withDefaults()));
+  }
+
+  // Test that large batches are split to stay under the per-put entity limit.
+  @Test
+  public void testCommitSplitsByEntityCount() {
+    EntityWriteBatch writeBatch = new EntityWriteBatch(datastore);
+    int numEntities = 2 * EntityWriteBatch.MAX_ENTITIES_PER_PUT + 1;
+    for (int i = 0; i < numEntities; i++) {
+      Entity locationEntity = new Entity(TripDay.LOCATION_ENTITY_TYPE);
+      locationEntity.setProperty(TripDay.ORDER, i);
+      writeBatch.add(locationEntity);
+    }
+
+    List<Key> committedKeys = writeBatch.commit();
+
+    Assert.assertEquals(numEntities, committedKeys.size());
+    Assert.assertEquals(3, writeBatch.getNumPutCalls());
+    Assert.assertEquals(numEntities, countEntities(TripDay.LOCATION_ENTITY_TYPE));
+  }
+
+  // Test that committing an empty batch makes no put calls.
+  @Test
+  public void testCommitEmptyBatch() {
+    EntityWriteBatch writeBatch = new EntityWriteBatch(datastore);
+
+    Assert.assertTrue(writeBatch.commit().isEmpty());
+    Assert.assertEquals(0, writeBatch.getNumPutCalls());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testAddNullEntity() {
+    EntityWriteBatch writeBatch = new EntityWriteBatch(datastore);
+    writeBatch.add(null);
+  }
+
+  /**
+   * Helper method to count the entities of a kind in datastore.
+   */
+  private int countEntities(String kind) {
+    PreparedQuery results = datastore.prepare(new Query(kind));
+    return results.countEntities(FetchOptions.Builder.withDefaults());
+  }
+}
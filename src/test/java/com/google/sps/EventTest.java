@@ -18,15 +18,18 @@ import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.KeyFactory;
 import com.google.appengine.api.datastore.PreparedQuery;
 import com.google.appengine.api.datastore.Query;
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
 import com.google.sps.data.Event;
+import com.google.sps.places.PlaceSummary;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
+import java.util.Collections;
 import java.util.List;
 import org.junit.After;
 import org.junit.Assert;
@@ -169,4 +172,55 @@ public final class EventTest {
     Assert.assertEquals(expected.getEndTime(), actual.getEndTime());
     Assert.assertEquals(expected.getTravelTime(), actual.getTravelTime());
   }
+
+  // Test that an event of a resolved place stores only the place ID, and
+  // takes its name and address from the place when read.
+  @Test
+  public void testEventEntityRefersToPlace() {
+    Event event = new Event(GOLDEN_GATE_PARK, ADDRESS, PLACE_ID, DEF_LDT, HALF_HOUR);
+    Entity eventEntity = event.eventToEntity(KeyFactory.createKey("trip-day", 1));
+
+    Assert.assertFalse(eventEntity.hasProperty("name"));
+    Assert.assertFalse(eventEntity.hasProperty("address"));
+    Assert.assertEquals(PLACE_ID, Event.getPlaceReference(eventEntity));
+
+    PlaceSummary place = 
+        new PlaceSummary(PLACE_ID, "Golden Gate Park", null, "San Francisco", null, null, null);
+    Event actual = Event.eventFromEntity(eventEntity, 
+        Collections.singletonMap(PLACE_ID, place));
+    Assert.assertEquals("Golden Gate Park", actual.getName());
+    Assert.assertEquals("San Francisco", actual.getAddress());
+    Assert.assertEquals(PLACE_ID, actual.getPlaceId());
+    Assert.assertEquals(DEF_LDT, actual.getStartTime());
+  }
+
+  @Test
+  public void testStrTimesFormattedFromCompactTimes() {
+    Event e = new Event(GOLDEN_GATE_PARK, ADDRESS, PLACE_ID, DEF_LDT, HALF_HOUR, NINETY_MIN);
+
+    Assert.assertEquals("2020-06-25T10:00:00", e.getStrStartTime());
+    Assert.assertEquals("2020-06-25T11:30:00", e.getStrEndTime());
+    Assert.assertTrue(e.compareTo(new Event(GOLDEN_GATE_PARK, ADDRESS, PLACE_ID, 
+        DEF_LDT.plusMinutes(1), HALF_HOUR)) < 0);
+  }
+
+  @Test
+  public void testPlaceStringsAreShared() {
+    Event first = new Event(new String(GOLDEN_GATE_PARK), new String(ADDRESS), 
+        new String(PLACE_ID), DEF_LDT, HALF_HOUR);
+    Event second = new Event(new String(GOLDEN_GATE_PARK), new String(ADDRESS), 
+        new String(PLACE_ID), DEF_LDT.plusHours(2), HALF_HOUR);
+
+    Assert.assertSame(first.getName(), second.getName());
+    Assert.assertSame(first.getAddress(), second.getAddress());
+    Assert.assertSame(first.getPlaceId(), second.getPlaceId());
+  }
+
+  // Test that a start time with seconds is kept to the minute.
+  @Test
+  public void testStartTimeTruncatedToMinute() {
+    Event event = new Event(GOLDEN_GATE_PARK, ADDRESS, PLACE_ID, 
+        DEF_LDT.plusSeconds(30), HALF_HOUR);
+    Assert.assertEquals(DEF_LDT, event.getStartTime());
+  }
 }
@@ -0,0 +1,137 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.sps.route.HeldKarpSolver;
+import com.google.sps.route.RouteOptimizer;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class HeldKarpSolverTest {
+
+  // Seed for the random test instances, so that failures are reproducible.
+  private static final long SEED = 2020;
+
+  // Test that the solver matches a brute-force search, reusing one solver
+  // for trips of different sizes.
+  @Test
+  public void testMatchesBruteForce() {
+    Random random = new Random(SEED);
+    HeldKarpSolver solver = new HeldKarpSolver(7);
+    for (int instance = 0; instance < 30; instance++) {
+      int size = 2 + random.nextInt(7);
+      int[] durations = randomAsymmetricMatrix(size, random);
+      int[] waypointOrder = new int[size - 1];
+
+      int duration = solver.solve(durations, size, waypointOrder);
+
+      Assert.assertEquals(bruteForceOptimum(durations, size), duration);
+      Assert.assertEquals(duration, RouteOptimizer.tourDuration(durations, size,
+        toTour(waypointOrder)));
+    }
+  }
+
+  // Test a known instance where the greedy nearest stop is a trap.
+  @Test
+  public void testKnownInstance() {
+    // Hotel 0 and waypoints at 1, 2, 3. Going 0 -> 1 first is cheapest, but
+    // the optimal round trip is 0 -> 2 -> 1 -> 3 -> 0.
+    int[] durations = new int[]{  0,  1,  2, 10,
+                                 50,  0,  1,  1,
+                                 50,  1,  0, 50,
+                                  1, 50, 50,  0 };
+    int[] waypointOrder = new int[3];
+
+    int duration = new HeldKarpSolver(3).solve(durations, 4, waypointOrder);
+
+    Assert.assertEquals(5, duration);
+    Assert.assertArrayEquals(new int[]{ 1, 0, 2 }, waypointOrder);
+  }
+
+  // Test a trip with only the hotel.
+  @Test
+  public void testHotelOnly() {
+    int duration = new HeldKarpSolver(0).solve(new int[]{ 0 }, 1, new int[0]);
+    Assert.assertEquals(0, duration);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testTooManyWaypoints() {
+    new HeldKarpSolver(2).solve(new int[16], 4, new int[3]);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMaxWaypointsTooLarge() {
+    new HeldKarpSolver(HeldKarpSolver.MAX_WAYPOINTS + 1);
+  }
+
+  /**
+   * Helper method to convert a waypoint order into a tour starting at the hotel.
+   */
+  private static int[] toTour(int[] waypointOrder) {
+    int[] tour = new int[waypointOrder.length + 1];
+    for (int i = 0; i < waypointOrder.length; i++) {
+      tour[i + 1] = waypointOrder[i] + 1;
+    }
+    return tour;
+  }
+
+  /**
+   * Helper method to build a random asymmetric duration matrix.
+   */
+  private static int[] randomAsymmetricMatrix(int size, Random random) {
+    int[] durations = new int[size * size];
+    for (int i = 0; i < size; i++) {
+      for (int j = 0; j < size; j++) {
+        durations[i * size + j] = i == j ? 0 : 60 + random.nextInt(3600);
+      }
+    }
+    return durations;
+  }
+
+  /**
+   * Helper method to find the optimal round-trip duration by trying every order.
+   */
+  private static long bruteForceOptimum(int[] durations, int size) {
+    int[] tour = new int[size];
+    for (int i = 0; i < size; i++) {
+      tour[i] = i;
+    }
+    return bruteForce(durations, size, tour, 1);
+  }
+
+  private static long bruteForce(int[] durations, int size, int[] tour, int position) {
+    if (position == size) {
+      return RouteOptimizer.tourDuration(durations, size, tour);
+    }
+    long best = Long.MAX_VALUE;
+    for (int i = position; i < size; i++) {
+      swap(tour, position, i);
+      best = Math.min(best, bruteForce(durations, size, tour, position + 1));
+      swap(tour, position, i);
+    }
+    return best;
+  }
+
+  private static void swap(int[] tour, int i, int j) {
+    int temp = tour[i];
+    tour[i] = tour[j];
+    tour[j] = temp;
+  }
+}
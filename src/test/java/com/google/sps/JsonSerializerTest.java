@@ -0,0 +1,125 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.gson.Gson;
+import com.google.sps.data.Event;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class JsonSerializerTest {
+
+  private static final String TRIP_KEY = "agR0ZXN0cgoLEgR0cmlwGAEM";
+  private static final LocalDateTime START_TIME = LocalDateTime.of(2020, 7, 22, 11, 30);
+
+  // Test that Trips are written exactly as Gson's reflective output, which
+  // the trips page reads, and streamed to the response with a line break.
+  @Test
+  public void testWriteTripMatchesReflectiveOutput() throws Exception {
+    Trip trip = new Trip("Trip to California", "California", TRIP_KEY,
+      "https://example.com/photo.jpg", "2020-07-15", "2020-07-17");
+    List<Trip> trips = Arrays.asList(trip);
+
+    HttpServletResponse response = mock(HttpServletResponse.class);
+    StringWriter stringWriter = new StringWriter();
+    PrintWriter writer = new PrintWriter(stringWriter);
+    when(response.getWriter()).thenReturn(writer);
+
+    JsonSerializer.write(response, trips);
+    writer.flush();
+
+    Assert.assertEquals(new Gson().toJson(trips) + System.lineSeparator(),
+      stringWriter.toString());
+  }
+
+  // Test that TripDays are written exactly as Gson's reflective output, and
+  // read back.
+  @Test
+  public void testTripDayRoundTrip() {
+    TripDay tripDay = new TripDay("Hotel", "Hotel", Arrays.asList("Dome", "Fall"),
+      LocalDate.of(2020, 7, 15));
+
+    String json = JsonSerializer.GSON.toJson(tripDay);
+    TripDay readTripDay = JsonSerializer.GSON.fromJson(json, TripDay.class);
+
+    Assert.assertEquals(new Gson().toJson(tripDay), json);
+    Assert.assertEquals(tripDay.getLocations(), readTripDay.getLocations());
+    Assert.assertEquals(tripDay.getDate(), readTripDay.getDate());
+  }
+
+  // Test that Events are written without the nested time trees, and read back.
+  @Test
+  public void testEventRoundTrip() {
+    Event event = new Event("Half Dome", "Half Dome, CA", "1234", START_TIME, 30, 90);
+
+    String json = JsonSerializer.GSON.toJson(event);
+    Event readEvent = JsonSerializer.GSON.fromJson(json, Event.class);
+
+    Assert.assertEquals("{\"name\":\"Half Dome\",\"address\":\"Half Dome, CA\","
+      + "\"placeId\":\"1234\",\"strStartTime\":\"2020-07-22T11:30:00\","
+      + "\"strEndTime\":\"2020-07-22T13:00:00\",\"travelTime\":30}", json);
+    Assert.assertEquals(event.getName(), readEvent.getName());
+    Assert.assertEquals(event.getPlaceId(), readEvent.getPlaceId());
+    Assert.assertEquals(event.getStartTime(), readEvent.getStartTime());
+    Assert.assertEquals(event.getEndTime(), readEvent.getEndTime());
+    Assert.assertEquals(event.getTravelTime(), readEvent.getTravelTime());
+  }
+
+  // Test that Events written by Gson's reflective output, as in trip views
+  // stored before the adapters, are still read.
+  @Test
+  public void testReadReflectiveEvent() {
+    String reflectiveJson = "{\"name\":\"Half Dome\",\"address\":\"Half Dome, CA\","
+      + "\"startTime\":{\"date\":{\"year\":2020,\"month\":7,\"day\":22},"
+      + "\"time\":{\"hour\":11,\"minute\":30,\"second\":0,\"nano\":0}},"
+      + "\"endTime\":{\"date\":{\"year\":2020,\"month\":7,\"day\":22},"
+      + "\"time\":{\"hour\":13,\"minute\":0,\"second\":0,\"nano\":0}},"
+      + "\"placeId\":\"1234\",\"strStartTime\":\"2020-07-22T11:30:00\","
+      + "\"strEndTime\":\"2020-07-22T13:00:00\",\"travelTime\":30}";
+
+    Event readEvent = JsonSerializer.GSON.fromJson(reflectiveJson, Event.class);
+
+    Assert.assertEquals(START_TIME, readEvent.getStartTime());
+    Assert.assertEquals(START_TIME.plusMinutes(90), readEvent.getEndTime());
+    Assert.assertEquals("Half Dome, CA", readEvent.getAddress());
+  }
+
+  // Test that older stored views with seconds in their times are still read,
+  // kept to the minute.
+  @Test
+  public void testReadEventWithSeconds() {
+    String json = "{\"name\":\"Half Dome\",\"address\":\"Half Dome, CA\","
+      + "\"placeId\":\"1234\",\"strStartTime\":\"2020-07-22T11:30:45\","
+      + "\"strEndTime\":\"2020-07-22T13:00:45\",\"travelTime\":30}";
+
+    Event readEvent = JsonSerializer.GSON.fromJson(json, Event.class);
+
+    Assert.assertEquals(START_TIME, readEvent.getStartTime());
+    Assert.assertEquals(START_TIME.plusMinutes(90), readEvent.getEndTime());
+  }
+}
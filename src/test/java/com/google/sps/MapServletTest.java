@@ -32,6 +32,7 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import org.junit.After;
 import org.junit.Assert;
@@ -305,4 +306,39 @@ public final class MapServletTest {
     String expectedJson = "No trip found";
     Assert.assertTrue(stringWriter.toString().contains(expectedJson));
   }
+
+  /* 
+   * Tests that doGetMap returns the locations of the requested day of a
+   * multi-day trip, with days ordered by date.
+   */
+  @Test
+  public void testDoGetMapSecondDay() throws Exception {
+    HttpServletResponse response = mock(HttpServletResponse.class);    
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+
+    Entity userEntity = new Entity(User.USER);
+    userEntity.setProperty(User.USER_EMAIL, EMAIL);
+    datastore.put(userEntity);
+
+    Entity tripEntity = Trip.buildEntity(TRIP_NAME, INPUT_DESTINATION, IMAGE_SRC, 
+        "2020-02-28", TRIP_DAY_OF_TRAVEL, userEntity.getKey());
+    datastore.put(tripEntity);
+
+    // Store the second day first, so that the datastore order is not the date order.
+    String[] dates = {TRIP_DAY_OF_TRAVEL, "2020-02-28"};
+    String[] pois = {DOME_ADDRESS, YOSEMITE_ADDRESS};
+    for (int i = 0; i < dates.length; i++) {
+      Entity tripDayEntity = new TripDay(INPUT_DESTINATION, INPUT_DESTINATION, 
+          Arrays.asList(pois[i]), java.time.LocalDate.parse(dates[i]))
+          .buildEntity(tripEntity.getKey());
+      datastore.put(tripDayEntity);
+    }
+
+    String result = mapServlet.doGetMap(response, datastore, userEntity, tripEntity.getKey(), 2);
+
+    Assert.assertEquals("[\"" + INPUT_DESTINATION + "\",\"" + DOME_ADDRESS + "\"]", result);
+    Assert.assertEquals("No trip day found", 
+        mapServlet.doGetMap(response, datastore, userEntity, tripEntity.getKey(), 3));
+    verify(response).sendError(HttpServletResponse.SC_NOT_FOUND);
+  }
 }
@@ -0,0 +1,220 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import static org.mockito.Mockito.*;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.AdditionalAnswers;
+
+@RunWith(JUnit4.class)
+public final class MigrationRunnerTest {
+
+  private static final String KIND = "note";
+  private static final String PARENT_KIND = "notebook";
+  private static final String TEXT = "text";
+  private static final String NAME = "test-migration";
+
+  // Fast enough not to slow the tests down.
+  private static final double ENTITIES_PER_SECOND = 1000;
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+  private DatastoreService datastore;
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    datastore = DatastoreServiceFactory.getDatastoreService();
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  // Test that each entity gets the transforms from its own version on, in
+  // order, and that entities at the target version are left as they are.
+  @Test
+  public void testAppliesTransformsFromEachVersion() throws Exception {
+    Key oldKey = putNote(null, "", 0);
+    Key newerKey = putNote(null, "a", 1);
+    Key currentKey = putNote(null, "ab", 2);
+    MigrationRunner runner = newRunner(1)
+      .register(KIND, 0, entity -> append(entity, "a"))
+      .register(KIND, 1, entity -> append(entity, "b"));
+
+    Assert.assertTrue(runner.run(10, MigrationRunner.DEFAULT_BATCH_SIZE));
+
+    for (Key key : new Key[] {oldKey, newerKey, currentKey}) {
+      Entity entity = datastore.get(key);
+      Assert.assertEquals("ab", entity.getProperty(TEXT));
+      Assert.assertEquals(2, SchemaVersion.of(entity));
+    }
+  }
+
+  // Test that a new runner, e.g. on another instance, resumes from the
+  // checkpoint and transforms each entity once.
+  @Test
+  public void testResumesFromCheckpoint() {
+    for (int i = 0; i < 5; i++) {
+      putNote(null, "", 0);
+    }
+    AtomicInteger transformCount = new AtomicInteger();
+
+    Assert.assertFalse(newRunner(1)
+      .register(KIND, 0, entity -> transformCount.incrementAndGet())
+      .runBatch(2));
+    Assert.assertEquals(2, transformCount.get());
+
+    Assert.assertTrue(newRunner(1)
+      .register(KIND, 0, entity -> transformCount.incrementAndGet())
+      .run(10, 2));
+    Assert.assertEquals(5, transformCount.get());
+  }
+
+  // Test that a failed batch is not checkpointed, so that its entities are
+  // upgraded when it runs again.
+  @Test
+  public void testFailedBatchRunsAgain() throws Exception {
+    Key key = putNote(null, "", 0);
+    MigrationRunner failingRunner = newRunner(1).register(KIND, 0, entity -> {
+      throw new IllegalStateException("transform failed");
+    });
+    try {
+      failingRunner.runBatch(MigrationRunner.DEFAULT_BATCH_SIZE);
+      Assert.fail("The batch should fail");
+    } catch (IllegalStateException e) {
+      // Expected.
+    }
+    Assert.assertFalse(failingRunner.isDone());
+
+    Assert.assertTrue(newRunner(1)
+      .register(KIND, 0, entity -> append(entity, "a"))
+      .run(10, MigrationRunner.DEFAULT_BATCH_SIZE));
+    Assert.assertEquals("a", datastore.get(key).getProperty(TEXT));
+  }
+
+  // Test that entity groups are upgraded by parallel workers, each group
+  // with one batched put.
+  @Test
+  public void testWritesEntityGroupsInParallel() {
+    for (int i = 0; i < 2; i++) {
+      Key parentKey = KeyFactory.createKey(PARENT_KIND, i + 1);
+      putNote(parentKey, "", 0);
+      putNote(parentKey, "", 0);
+    }
+    DatastoreService countingDatastore =
+        mock(DatastoreService.class, AdditionalAnswers.delegatesTo(datastore));
+    // Each group's transaction waits until the other group's has started.
+    CountDownLatch bothGroupsStarted = new CountDownLatch(2);
+    List<Boolean> waits = new ArrayList<>();
+    MigrationRunner runner = new MigrationRunner(countingDatastore, NAME, 2,
+      ENTITIES_PER_SECOND).register(KIND, 0, entity -> {
+        bothGroupsStarted.countDown();
+        try {
+          boolean started = bothGroupsStarted.await(5, TimeUnit.SECONDS);
+          synchronized (waits) {
+            waits.add(started);
+          }
+        } catch (InterruptedException e) {
+          throw new IllegalStateException(e);
+        }
+      });
+
+    Assert.assertTrue(runner.run(10, MigrationRunner.DEFAULT_BATCH_SIZE));
+
+    Assert.assertFalse(waits.contains(false));
+    verify(countingDatastore, times(2)).put(any(Transaction.class), anyIterable());
+  }
+
+  // Test that a runner with a newer transform starts over, even after the
+  // migration to the older versions is done.
+  @Test
+  public void testNewTargetVersionRestartsMigration() throws Exception {
+    Key key = putNote(null, "", 0);
+    Assert.assertTrue(newRunner(1)
+      .register(KIND, 0, entity -> append(entity, "a"))
+      .run(10, MigrationRunner.DEFAULT_BATCH_SIZE));
+
+    MigrationRunner runner = newRunner(1)
+      .register(KIND, 0, entity -> append(entity, "a"))
+      .register(KIND, 1, entity -> append(entity, "b"));
+    Assert.assertFalse(runner.isDone());
+    Assert.assertTrue(runner.run(10, MigrationRunner.DEFAULT_BATCH_SIZE));
+    Assert.assertEquals("ab", datastore.get(key).getProperty(TEXT));
+  }
+
+  // Test that writes are spread out to the configured rate.
+  @Test
+  public void testLimitsWriteRate() {
+    for (int i = 0; i < 3; i++) {
+      putNote(KeyFactory.createKey(PARENT_KIND, i + 1), "", 0);
+    }
+    MigrationRunner runner = new MigrationRunner(datastore, NAME, 1, 10)
+      .register(KIND, 0, entity -> append(entity, "a"));
+
+    long start = System.nanoTime();
+    runner.run(10, MigrationRunner.DEFAULT_BATCH_SIZE);
+
+    // The first write goes at once; the two others wait 100ms each.
+    Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(180));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testTransformsRegisteredOutOfOrder() {
+    newRunner(1).register(KIND, 1, entity -> {});
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testBatchSizeTooLarge() {
+    newRunner(1).runBatch(EntityWriteBatch.MAX_ENTITIES_PER_PUT + 1);
+  }
+
+  private MigrationRunner newRunner(int workerCount) {
+    return new MigrationRunner(datastore, NAME, workerCount, ENTITIES_PER_SECOND);
+  }
+
+  private Key putNote(Key parentKey, String text, long version) {
+    Entity entity = parentKey == null ? new Entity(KIND) : new Entity(KIND, parentKey);
+    entity.setProperty(TEXT, text);
+    if (version > 0) {
+      SchemaVersion.set(entity, version);
+    }
+    return datastore.put(entity);
+  }
+
+  private static void append(Entity entity, String text) {
+    entity.setProperty(TEXT, entity.getProperty(TEXT) + text);
+  }
+}
@@ -0,0 +1,131 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.maps.model.Geometry;
+import com.google.maps.model.LatLng;
+import com.google.maps.model.OpeningHours;
+import com.google.maps.model.Photo;
+import com.google.maps.model.PlaceDetails;
+import com.google.sps.places.PlaceDetailsCache;
+import com.google.sps.places.PlaceSummary;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class PlaceDetailsCacheTest {
+
+  private static final String PLACE_ID = "ChIJLU7jZClu5kcR4PcOOO6p3I0";
+  private static final long TTL_MILLIS = TimeUnit.DAYS.toMillis(30);
+  private static final Instant NOW = Instant.parse("2020-07-15T10:00:00Z");
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+  private DatastoreService datastore;
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    datastore = DatastoreServiceFactory.getDatastoreService();
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  // Test that only the used fields of a Place Details result are kept.
+  @Test
+  public void testFromPlaceDetails() {
+    PlaceSummary place = PlaceSummary.fromPlaceDetails(PLACE_ID, buildPlaceDetails());
+
+    Assert.assertEquals(PLACE_ID, place.getPlaceId());
+    Assert.assertEquals("Eiffel Tower", place.getName());
+    Assert.assertEquals("first-photo", place.getPhotoReference());
+    Assert.assertEquals("Champ de Mars, 5 Avenue Anatole France, 75007 Paris, France",
+        place.getAddress());
+    Assert.assertEquals(48.8584, place.getLatitude(), 0);
+    Assert.assertEquals(2.2945, place.getLongitude(), 0);
+    Assert.assertEquals(Arrays.asList("Monday: 9:30 AM – 11:45 PM"), place.getOpeningHours());
+  }
+
+  // Test that a place without photos, location or hours can be summarized.
+  @Test
+  public void testFromPlaceDetailsMissingFields() {
+    PlaceDetails placeDetails = new PlaceDetails();
+    placeDetails.name = "Eiffel Tower";
+
+    PlaceSummary place = PlaceSummary.fromPlaceDetails(PLACE_ID, placeDetails);
+
+    Assert.assertNull(place.getPhotoReference());
+    Assert.assertNull(place.getLatitude());
+    Assert.assertNull(place.getOpeningHours());
+  }
+
+  // Test that a cached place is read back from datastore by another instance,
+  // and expires after the TTL.
+  @Test
+  public void testDatastoreRoundTripAndExpiry() {
+    newCache(NOW).put(PLACE_ID, PlaceSummary.fromPlaceDetails(PLACE_ID, buildPlaceDetails()));
+
+    PlaceSummary place = newCache(NOW.plusMillis(TTL_MILLIS - 1)).get(PLACE_ID);
+
+    Assert.assertEquals("Eiffel Tower", place.getName());
+    Assert.assertEquals("first-photo", place.getPhotoReference());
+    Assert.assertEquals(2.2945, place.getLongitude(), 0);
+    Assert.assertEquals(Arrays.asList("Monday: 9:30 AM – 11:45 PM"), place.getOpeningHours());
+    Assert.assertNull(newCache(NOW.plusMillis(TTL_MILLIS)).get(PLACE_ID));
+  }
+
+  /**
+   * Helper method to create a cache on the test datastore at a fixed time.
+   */
+  private PlaceDetailsCache newCache(Instant now) {
+    return new PlaceDetailsCache(datastore, TTL_MILLIS, 100, Clock.fixed(now, ZoneOffset.UTC));
+  }
+
+  /**
+   * Helper method to build a Place Details result with every used field.
+   */
+  private static PlaceDetails buildPlaceDetails() {
+    PlaceDetails placeDetails = new PlaceDetails();
+    placeDetails.name = "Eiffel Tower";
+    placeDetails.formattedAddress = "Champ de Mars, 5 Avenue Anatole France, 75007 Paris, France";
+    placeDetails.photos = new Photo[2];
+    placeDetails.photos[0] = new Photo();
+    placeDetails.photos[0].photoReference = "first-photo";
+    placeDetails.photos[1] = new Photo();
+    placeDetails.photos[1].photoReference = "second-photo";
+    placeDetails.geometry = new Geometry();
+    placeDetails.geometry.location = new LatLng(48.8584, 2.2945);
+    placeDetails.openingHours = new OpeningHours();
+    placeDetails.openingHours.weekdayText = new String[] {"Monday: 9:30 AM – 11:45 PM"};
+    return placeDetails;
+  }
+}
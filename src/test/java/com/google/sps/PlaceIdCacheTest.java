@@ -0,0 +1,127 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.sps.places.PlaceIdCache;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class PlaceIdCacheTest {
+
+  private static final String TEXT_SEARCH = "Eiffel Tower, Paris, France";
+  private static final String PLACE_ID = "ChIJLU7jZClu5kcR4PcOOO6p3I0";
+
+  private static final long TTL_MILLIS = TimeUnit.DAYS.toMillis(30);
+  private static final long NO_MATCH_TTL_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+  private static final Instant NOW = Instant.parse("2020-07-15T10:00:00Z");
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+  private DatastoreService datastore;
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    datastore = DatastoreServiceFactory.getDatastoreService();
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  // Test that spelling variants of a search share one cache key.
+  @Test
+  public void testNormalize() {
+    String expected = "eiffel tower, paris, france";
+
+    Assert.assertEquals(expected, PlaceIdCache.normalize(TEXT_SEARCH));
+    Assert.assertEquals(expected, PlaceIdCache.normalize("  EIFFEL  Tower ,Paris,\tFrance "));
+  }
+
+  // Test that found place IDs and searches without candidates are both
+  // persisted, with their own TTLs.
+  @Test
+  public void testNoMatchExpiresSooner() {
+    String noMatchText = PlaceIdCache.normalize("Nowhere in particular");
+    String text = PlaceIdCache.normalize(TEXT_SEARCH);
+    PlaceIdCache cache = newCache(Clock.fixed(NOW, ZoneOffset.UTC));
+    cache.put(text, Optional.of(PLACE_ID));
+    cache.put(noMatchText, Optional.empty());
+
+    // A new cache a little over a day later, reading from datastore.
+    Instant later = NOW.plusMillis(NO_MATCH_TTL_MILLIS + 1);
+    PlaceIdCache laterCache = newCache(Clock.fixed(later, ZoneOffset.UTC));
+
+    Assert.assertEquals(Optional.of(PLACE_ID), laterCache.get(text));
+    Assert.assertNull(laterCache.get(noMatchText));
+    Assert.assertEquals(1, laterCache.getDatastoreHitCount());
+    Assert.assertEquals(1, laterCache.getMissCount());
+  }
+
+  // Test that a search cached as having no candidates is a hit until it expires.
+  @Test
+  public void testNoMatchIsCached() {
+    String noMatchText = PlaceIdCache.normalize("Nowhere in particular");
+    PlaceIdCache cache = newCache(Clock.fixed(NOW, ZoneOffset.UTC));
+    cache.put(noMatchText, Optional.empty());
+
+    Assert.assertEquals(Optional.empty(), cache.get(noMatchText));
+    Assert.assertEquals(Optional.empty(),
+        newCache(Clock.fixed(NOW, ZoneOffset.UTC)).get(noMatchText));
+  }
+
+  // Test that searches longer than a datastore key name can still be cached.
+  @Test
+  public void testLongTextSearch() {
+    StringBuilder longText = new StringBuilder();
+    for (int i = 0; i < 100; i++) {
+      longText.append("very long street name ");
+    }
+    String text = PlaceIdCache.normalize(longText.toString());
+    newCache(Clock.fixed(NOW, ZoneOffset.UTC)).put(text, Optional.of(PLACE_ID));
+
+    Assert.assertEquals(Optional.of(PLACE_ID),
+        newCache(Clock.fixed(NOW, ZoneOffset.UTC)).get(text));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNoMatchTtlLongerThanTtl() {
+    new PlaceIdCache(datastore, NO_MATCH_TTL_MILLIS, TTL_MILLIS, 10, Clock.systemUTC());
+  }
+
+  /**
+   * Helper method to create a cache on the test datastore.
+   */
+  private PlaceIdCache newCache(Clock clock) {
+    return new PlaceIdCache(datastore, TTL_MILLIS, NO_MATCH_TTL_MILLIS, 100, clock);
+  }
+}
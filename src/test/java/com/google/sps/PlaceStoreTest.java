@@ -0,0 +1,111 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import static org.mockito.Mockito.*;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.sps.places.PlaceDetailsCache;
+import com.google.sps.places.PlaceStore;
+import com.google.sps.places.PlaceSummary;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.AdditionalAnswers;
+
+@RunWith(JUnit4.class)
+public final class PlaceStoreTest {
+
+  private static final String TOWER_ID = "ChIJLU7jZClu5kcR4PcOOO6p3I0";
+  private static final String LOUVRE_ID = "ChIJD3uTd9hx5kcR1IQvGfr8dbk";
+  private static final String ORSAY_ID = "ChIJG5Qsxtdv5kcR2AZjv6A1Nm4";
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+  private DatastoreService datastore;
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    datastore = DatastoreServiceFactory.getDatastoreService();
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  // Test that a place entity holds only the Place Details fields trips use.
+  @Test
+  public void testEntityRoundTrip() {
+    PlaceSummary tower = new PlaceSummary(TOWER_ID, "Eiffel Tower", "photo",
+        "Champ de Mars, 75007 Paris, France", 48.8584, 2.2945, Arrays.asList("Monday: open"));
+
+    Entity towerEntity = PlaceStore.toEntity(tower);
+    PlaceSummary place = PlaceStore.fromEntity(towerEntity);
+
+    Assert.assertEquals(PlaceStore.toKey(TOWER_ID), towerEntity.getKey());
+    Assert.assertEquals(4, towerEntity.getProperties().size());
+    Assert.assertEquals("Eiffel Tower", place.getName());
+    Assert.assertEquals("Champ de Mars, 75007 Paris, France", place.getAddress());
+    Assert.assertEquals(2.2945, place.getLongitude(), 0);
+    Assert.assertNull(place.getPhotoReference());
+  }
+
+  // Test that places are read with one batch get, that places without an
+  // entity are taken from the place details cache, and that unknown places
+  // are left out.
+  @Test
+  public void testGetAllReadsPlacesInOneGet() {
+    PlaceDetailsCache placeDetailsCache = new PlaceDetailsCache(datastore);
+    new PlaceStore(datastore, placeDetailsCache).putAll(Arrays.asList(
+        new PlaceSummary(TOWER_ID, "Eiffel Tower", null, "Paris", null, null, null),
+        new PlaceSummary(LOUVRE_ID, "Louvre", null, "Paris", null, null, null)));
+    placeDetailsCache.put(ORSAY_ID,
+        new PlaceSummary(ORSAY_ID, "Orsay Museum", null, "Paris", null, null, null));
+
+    DatastoreService countingDatastore =
+        mock(DatastoreService.class, AdditionalAnswers.delegatesTo(datastore));
+    Map<String, PlaceSummary> places = new PlaceStore(countingDatastore, placeDetailsCache)
+        .getAll(Arrays.asList(TOWER_ID, LOUVRE_ID, TOWER_ID, ORSAY_ID, "unknown", null));
+
+    Assert.assertEquals(3, places.size());
+    Assert.assertEquals("Eiffel Tower", places.get(TOWER_ID).getName());
+    Assert.assertEquals("Louvre", places.get(LOUVRE_ID).getName());
+    Assert.assertEquals("Orsay Museum", places.get(ORSAY_ID).getName());
+    verify(countingDatastore, times(1)).get(isNull(), anyIterable());
+  }
+
+  // Test that resolving no places reads nothing.
+  @Test
+  public void testGetAllEmpty() {
+    DatastoreService countingDatastore =
+        mock(DatastoreService.class, AdditionalAnswers.delegatesTo(datastore));
+
+    Assert.assertTrue(new PlaceStore(countingDatastore, new PlaceDetailsCache(datastore))
+        .getAll(Collections.emptyList()).isEmpty());
+    verifyZeroInteractions(countingDatastore);
+  }
+}
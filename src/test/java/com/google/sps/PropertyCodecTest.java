@@ -0,0 +1,67 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Date;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class PropertyCodecTest {
+
+  private static final LocalDate DATE = LocalDate.of(2020, 7, 15);
+  private static final LocalDateTime DATE_TIME = LocalDateTime.of(2020, 7, 15, 11, 30);
+
+  // Test that native values are read back as the local date and time they
+  // were written from.
+  @Test
+  public void testNativeRoundTrip() {
+    Date date = PropertyCodec.fromLocalDate(DATE);
+    Date dateTime = PropertyCodec.fromLocalDateTime(DATE_TIME);
+
+    Assert.assertEquals(DATE, PropertyCodec.toLocalDate(date));
+    Assert.assertEquals(DATE_TIME, PropertyCodec.toLocalDateTime(dateTime));
+    Assert.assertEquals(date, PropertyCodec.fromDateString("2020-07-15"));
+    Assert.assertEquals(30, PropertyCodec.toLong(30L));
+    Assert.assertFalse(PropertyCodec.isLegacy(date));
+  }
+
+  // Test that the string values written before native properties are read.
+  @Test
+  public void testReadLegacyStrings() {
+    Assert.assertEquals(DATE, PropertyCodec.toLocalDate("2020-07-15"));
+    Assert.assertEquals(DATE_TIME, PropertyCodec.toLocalDateTime("2020-07-15T11:30:00"));
+    Assert.assertEquals(30, PropertyCodec.toLong("30"));
+    Assert.assertTrue(PropertyCodec.isLegacy("2020-07-15"));
+  }
+
+  // Test that native dates keep the order of the dates they stand for.
+  @Test
+  public void testNativeDatesSortInTimeOrder() {
+    Assert.assertTrue(PropertyCodec.fromLocalDateTime(DATE_TIME)
+      .before(PropertyCodec.fromLocalDateTime(DATE_TIME.plusMinutes(1))));
+    Assert.assertTrue(PropertyCodec.fromLocalDate(DATE)
+      .before(PropertyCodec.fromLocalDate(DATE.plusDays(1))));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidDateString() {
+    PropertyCodec.fromDateString("07/15/2020");
+  }
+}
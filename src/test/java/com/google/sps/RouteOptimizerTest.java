@@ -0,0 +1,186 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.sps.route.RouteOptimizer;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class RouteOptimizerTest {
+
+  // Seed for the random test instances, so that failures are reproducible.
+  private static final long SEED = 135;
+
+  // Test that locations on a circle are visited in circle order.
+  @Test
+  public void testCircleVisitedInOrder() {
+    int size = 12;
+    double[][] points = new double[size][2];
+    for (int i = 0; i < size; i++) {
+      double angle = 2 * Math.PI * i / size;
+      points[i][0] = 1000 * Math.cos(angle);
+      points[i][1] = 1000 * Math.sin(angle);
+    }
+
+    // Shuffle the POIs so that the input order is not already optimal.
+    int[] shuffle = {0, 7, 2, 10, 4, 1, 9, 3, 11, 6, 8, 5};
+    double[][] shuffledPoints = new double[size][];
+    for (int i = 0; i < size; i++) {
+      shuffledPoints[i] = points[shuffle[i]];
+    }
+
+    int[] tour = RouteOptimizer.optimizeTour(euclideanMatrix(shuffledPoints), size);
+
+    // Map the tour back to circle positions; it must go around in one direction.
+    int step = (shuffle[tour[1]] - shuffle[tour[0]] + size) % size;
+    Assert.assertTrue(step == 1 || step == size - 1);
+    for (int i = 0; i < size; i++) {
+      int from = shuffle[tour[i]];
+      int to = shuffle[tour[(i + 1) % size]];
+      Assert.assertEquals(step, (to - from + size) % size);
+    }
+  }
+
+  // Test that the route starts at the hotel and visits every POI once.
+  @Test
+  public void testWaypointOrderIsPermutation() {
+    int size = 40;
+    int[] durations = randomAsymmetricMatrix(size, new Random(SEED));
+
+    int[] waypointOrder = RouteOptimizer.optimizeWaypointOrder(durations, size);
+
+    int[] sortedOrder = waypointOrder.clone();
+    Arrays.sort(sortedOrder);
+    Assert.assertEquals(size - 1, sortedOrder.length);
+    for (int i = 0; i < sortedOrder.length; i++) {
+      Assert.assertEquals(i, sortedOrder[i]);
+    }
+  }
+
+  // Test that small random instances are solved close to the optimum.
+  @Test
+  public void testSmallInstancesNearOptimal() {
+    Random random = new Random(SEED);
+    for (int instance = 0; instance < 20; instance++) {
+      int size = 7;
+      int[] durations = randomAsymmetricMatrix(size, random);
+
+      int[] tour = RouteOptimizer.optimizeTour(durations, size);
+      long duration = RouteOptimizer.tourDuration(durations, size, tour);
+      long optimalDuration = bruteForceOptimum(durations, size);
+
+      Assert.assertTrue(duration <= optimalDuration * 11 / 10);
+    }
+  }
+
+  // Test that a large trip is still optimized quickly.
+  @Test
+  public void testLargeInstanceRunsQuickly() {
+    int size = 121;
+    Random random = new Random(SEED);
+    double[][] points = new double[size][2];
+    for (int i = 0; i < size; i++) {
+      points[i][0] = random.nextInt(20000);
+      points[i][1] = random.nextInt(20000);
+    }
+    int[] durations = euclideanMatrix(points);
+
+    long startNanos = System.nanoTime();
+    int[] tour = RouteOptimizer.optimizeTour(durations, size);
+    long elapsedMillis = (System.nanoTime() - startNanos) / 1000000;
+
+    Assert.assertEquals(0, tour[0]);
+    Assert.assertTrue("took " + elapsedMillis + "ms", elapsedMillis < 2000);
+  }
+
+  // Test a trip with only the hotel.
+  @Test
+  public void testHotelOnly() {
+    int[] waypointOrder = RouteOptimizer.optimizeWaypointOrder(new int[] {0}, 1);
+    Assert.assertEquals(0, waypointOrder.length);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMatrixSizeMismatch() {
+    RouteOptimizer.optimizeTour(new int[4], 3);
+  }
+
+  /**
+   * Helper method to build a rounded Euclidean duration matrix.
+   */
+  private static int[] euclideanMatrix(double[][] points) {
+    int size = points.length;
+    int[] durations = new int[size * size];
+    for (int i = 0; i < size; i++) {
+      for (int j = 0; j < size; j++) {
+        double dx = points[i][0] - points[j][0];
+        double dy = points[i][1] - points[j][1];
+        durations[i * size + j] = (int) Math.round(Math.sqrt(dx * dx + dy * dy));
+      }
+    }
+    return durations;
+  }
+
+  /**
+   * Helper method to build a random asymmetric duration matrix, where each
+   * direction of a pair differs by up to 20%.
+   */
+  private static int[] randomAsymmetricMatrix(int size, Random random) {
+    int[] durations = new int[size * size];
+    for (int i = 0; i < size; i++) {
+      for (int j = i + 1; j < size; j++) {
+        int base = 60 + random.nextInt(3600);
+        durations[i * size + j] = base;
+        durations[j * size + i] = base + random.nextInt(base / 5 + 1);
+      }
+    }
+    return durations;
+  }
+
+  /**
+   * Helper method to find the optimal round-trip duration by trying every order.
+   */
+  private static long bruteForceOptimum(int[] durations, int size) {
+    int[] tour = new int[size];
+    for (int i = 0; i < size; i++) {
+      tour[i] = i;
+    }
+    return bruteForce(durations, size, tour, 1);
+  }
+
+  private static long bruteForce(int[] durations, int size, int[] tour, int position) {
+    if (position == size) {
+      return RouteOptimizer.tourDuration(durations, size, tour);
+    }
+    long best = Long.MAX_VALUE;
+    for (int i = position; i < size; i++) {
+      swap(tour, position, i);
+      best = Math.min(best, bruteForce(durations, size, tour, position + 1));
+      swap(tour, position, i);
+    }
+    return best;
+  }
+
+  private static void swap(int[] tour, int i, int j) {
+    int temp = tour[i];
+    tour[i] = tour[j];
+    tour[j] = temp;
+  }
+}
@@ -0,0 +1,213 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.maps.model.TravelMode;
+import com.google.sps.route.TravelDurationCache;
+import com.google.sps.route.TravelDurationMatrix;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class TravelDurationCacheTest {
+
+  // Place IDs of the cached legs.
+  private static final String HOTEL_PLACE_ID = "ChIJ0dH4iU2AhYARfTwWVDWhrDo";
+  private static final String TOWER_PLACE_ID = "ChIJY9ONNgh-j4ARfTyHsxVHxF4";
+  private static final String BRIDGE_PLACE_ID = "ChIJw____96GhYARCVVwg5cT7c0";
+
+  private static final long TTL_MILLIS = TimeUnit.HOURS.toMillis(1);
+  private static final int MAX_MEMORY_ENTRIES = 100;
+
+  private static final TravelDurationCache.Leg HOTEL_TO_TOWER =
+      new TravelDurationCache.Leg(HOTEL_PLACE_ID, TOWER_PLACE_ID, TravelMode.DRIVING);
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+  private DatastoreService datastore;
+  private MutableClock clock;
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    datastore = DatastoreServiceFactory.getDatastoreService();
+    clock = new MutableClock();
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  // Test that a cached leg is read back from memory.
+  @Test
+  public void testMemoryHit() {
+    TravelDurationCache cache = newCache(MAX_MEMORY_ENTRIES);
+    cache.put(HOTEL_TO_TOWER, 600);
+
+    Assert.assertEquals(Integer.valueOf(600), cache.get(HOTEL_TO_TOWER));
+    Assert.assertEquals(1, cache.getMemoryHitCount());
+    Assert.assertEquals(0, cache.getDatastoreHitCount());
+    Assert.assertEquals(0, cache.getMissCount());
+  }
+
+  // Test that a new cache (e.g. on another instance) reads the leg from datastore.
+  @Test
+  public void testDatastoreHit() {
+    newCache(MAX_MEMORY_ENTRIES).put(HOTEL_TO_TOWER, 600);
+
+    TravelDurationCache cache = newCache(MAX_MEMORY_ENTRIES);
+    Assert.assertEquals(Integer.valueOf(600), cache.get(HOTEL_TO_TOWER));
+    Assert.assertEquals(Integer.valueOf(600), cache.get(HOTEL_TO_TOWER));
+
+    Assert.assertEquals(1, cache.getDatastoreHitCount());
+    Assert.assertEquals(1, cache.getMemoryHitCount());
+    Assert.assertEquals(1, datastore.prepare(new Query(TravelDurationCache.ENTITY_KIND))
+        .countEntities(FetchOptions.Builder.withDefaults()));
+  }
+
+  // Test that legs evicted from memory are still found in datastore.
+  @Test
+  public void testEvictedLegReadFromDatastore() {
+    TravelDurationCache cache = newCache(1);
+    TravelDurationCache.Leg towerToBridge =
+        new TravelDurationCache.Leg(TOWER_PLACE_ID, BRIDGE_PLACE_ID, TravelMode.DRIVING);
+    cache.put(HOTEL_TO_TOWER, 600);
+    cache.put(towerToBridge, 900);
+
+    Map<TravelDurationCache.Leg, Integer> durations =
+        cache.getAll(Arrays.asList(HOTEL_TO_TOWER, towerToBridge));
+
+    Assert.assertEquals(Integer.valueOf(600), durations.get(HOTEL_TO_TOWER));
+    Assert.assertEquals(Integer.valueOf(900), durations.get(towerToBridge));
+    Assert.assertEquals(1, cache.getMemoryHitCount());
+    Assert.assertEquals(1, cache.getDatastoreHitCount());
+  }
+
+  // Test that legs older than the TTL are misses in both tiers.
+  @Test
+  public void testExpiredLegIsMiss() {
+    TravelDurationCache cache = newCache(MAX_MEMORY_ENTRIES);
+    cache.put(HOTEL_TO_TOWER, 600);
+
+    clock.advanceMillis(TTL_MILLIS);
+
+    Assert.assertNull(cache.get(HOTEL_TO_TOWER));
+    Assert.assertNull(newCache(MAX_MEMORY_ENTRIES).get(HOTEL_TO_TOWER));
+    Assert.assertEquals(1, cache.getMissCount());
+  }
+
+  // Test that the direction and travel mode are part of the key.
+  @Test
+  public void testDirectionAndModeAreDistinct() {
+    TravelDurationCache cache = newCache(MAX_MEMORY_ENTRIES);
+    cache.put(HOTEL_TO_TOWER, 600);
+
+    Assert.assertNull(cache.get(
+        new TravelDurationCache.Leg(TOWER_PLACE_ID, HOTEL_PLACE_ID, TravelMode.DRIVING)));
+    Assert.assertNull(cache.get(
+        new TravelDurationCache.Leg(HOTEL_PLACE_ID, TOWER_PLACE_ID, TravelMode.WALKING)));
+    Assert.assertEquals(2, cache.getMissCount());
+  }
+
+  // Test that a fully cached matrix is built without any Distance Matrix request.
+  @Test
+  public void testFullyCachedMatrixSkipsRequests() throws Exception {
+    String[] placeIds = new String[] {HOTEL_PLACE_ID, TOWER_PLACE_ID, BRIDGE_PLACE_ID};
+    String[] locations = new String[] {"Hotel", "Sutro Tower", "Golden Gate Bridge"};
+    TravelDurationCache cache = newCache(MAX_MEMORY_ENTRIES);
+    Map<TravelDurationCache.Leg, Integer> legs = new HashMap<>();
+    for (int from = 0; from < placeIds.length; from++) {
+      for (int to = 0; to < placeIds.length; to++) {
+        if (from != to) {
+          legs.put(new TravelDurationCache.Leg(placeIds[from], placeIds[to], TravelMode.DRIVING),
+              100 * from + to);
+        }
+      }
+    }
+    cache.putAll(legs);
+
+    // A null context would fail on any request.
+    int[] durations = TravelDurationMatrix.fetch(null, locations, placeIds, cache);
+
+    int[] expected = new int[] {  0,   1,   2,
+                                100,   0, 102,
+                                200, 201,   0};
+    Assert.assertArrayEquals(expected, durations);
+    Assert.assertEquals(6, cache.getMemoryHitCount());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNullPlaceId() {
+    new TravelDurationCache.Leg(null, TOWER_PLACE_ID, TravelMode.DRIVING);
+  }
+
+  /**
+   * Helper method to create a cache on the test datastore and clock.
+   */
+  private TravelDurationCache newCache(int maxMemoryEntries) {
+    return new TravelDurationCache(datastore, TTL_MILLIS, maxMemoryEntries, clock);
+  }
+
+  /**
+   * Clock that only moves when the test advances it.
+   */
+  private static final class MutableClock extends Clock {
+    private long millis = Instant.parse("2020-07-15T10:00:00Z").toEpochMilli();
+
+    void advanceMillis(long delta) {
+      millis += delta;
+    }
+
+    @Override
+    public long millis() {
+      return millis;
+    }
+
+    @Override
+    public Instant instant() {
+      return Instant.ofEpochMilli(millis);
+    }
+
+    @Override
+    public ZoneId getZone() {
+      return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+      return this;
+    }
+  }
+}
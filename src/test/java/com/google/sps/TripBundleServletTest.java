@@ -0,0 +1,157 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import static org.mockito.Mockito.*;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.sps.data.Event;
+import com.google.sps.data.User;
+import com.google.sps.servlets.CalendarServlet;
+import com.google.sps.servlets.EditServlet;
+import com.google.sps.servlets.MapServlet;
+import com.google.sps.servlets.TripBundleServlet;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class TripBundleServletTest {
+
+  private static final String HOTEL = "4265 24th Street San Francisco, CA, 94114";
+  private static final String FIRST_DAY = "2020-07-15";
+  private static final String SECOND_DAY = "2020-07-16";
+  private static final String DOME = "Half Dome, CA";
+  private static final String YOSEMITE = "Upper Yosemite Fall, CA";
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+  private DatastoreService datastore;
+  private Entity userEntity;
+  private Key tripKey;
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    datastore = DatastoreServiceFactory.getDatastoreService();
+    userEntity = new User("test@example.com").buildEntity();
+    datastore.put(userEntity);
+    tripKey = putTrip();
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  // Test that each section of the bundle is what its own servlet returns.
+  @Test
+  public void testBundleMatchesSeparateResponses() throws Exception {
+    TripView tripView = TripView.load(datastore, userEntity.getKey(), tripKey);
+    JsonObject bundle = parse(writeBundle(tripView, TripBundleServlet.parseViews(null)));
+
+    StringWriter calendar = new StringWriter();
+    new CalendarServlet().doGetEvents(mockResponse(calendar), datastore, userEntity, tripKey);
+    StringWriter edit = new StringWriter();
+    new EditServlet().writeEditTripContentToFile(mockResponse(edit), userEntity, tripKey,
+        datastore);
+
+    Assert.assertEquals(new JsonParser().parse(calendar.toString()), bundle.get("calendar"));
+    Assert.assertEquals(new JsonParser().parse(edit.toString()), bundle.get("edit"));
+    MapServlet mapServlet = new MapServlet();
+    for (int day = 1; day <= 2; day++) {
+      Assert.assertEquals(new JsonParser().parse(mapServlet.doGetMap(
+          mock(HttpServletResponse.class), datastore, userEntity, tripKey, day)),
+          bundle.getAsJsonArray("map").get(day - 1));
+    }
+  }
+
+  // Test that only the requested sections are written.
+  @Test
+  public void testViewsParamSelectsSections() throws Exception {
+    TripView tripView = TripView.load(datastore, userEntity.getKey(), tripKey);
+    JsonObject bundle =
+        parse(writeBundle(tripView, TripBundleServlet.parseViews("edit, map")));
+
+    Assert.assertTrue(bundle.has("map"));
+    Assert.assertTrue(bundle.has("edit"));
+    Assert.assertFalse(bundle.has("calendar"));
+    Assert.assertEquals(3, bundle.getAsJsonArray("map").get(0).getAsJsonArray().size());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownView() {
+    TripBundleServlet.parseViews("map,photos");
+  }
+
+  private String writeBundle(TripView tripView, Set<String> views) throws Exception {
+    StringWriter stringWriter = new StringWriter();
+    new TripBundleServlet().writeBundle(mockResponse(stringWriter), tripView, tripKey, views);
+    return stringWriter.toString();
+  }
+
+  private static HttpServletResponse mockResponse(StringWriter stringWriter) throws Exception {
+    HttpServletResponse response = mock(HttpServletResponse.class);
+    when(response.getWriter()).thenReturn(new PrintWriter(stringWriter, true));
+    return response;
+  }
+
+  private static JsonObject parse(String json) {
+    return new JsonParser().parse(json).getAsJsonObject();
+  }
+
+  /**
+   * Puts a two-day trip and returns the key of the Trip Entity. The first
+   * day has two locations and two events.
+   */
+  private Key putTrip() {
+    Key tripKey = datastore.put(Trip.buildEntity("Trip to California", "California",
+        "https://example.com/photo.jpg", FIRST_DAY, SECOND_DAY, userEntity.getKey()));
+
+    Key firstDayKey = datastore.put(new TripDay(HOTEL, HOTEL, Arrays.asList(YOSEMITE, DOME),
+        LocalDate.parse(FIRST_DAY)).buildEntity(tripKey));
+    datastore.put(new TripDay(HOTEL, HOTEL, new ArrayList<>(), LocalDate.parse(SECOND_DAY))
+        .buildEntity(tripKey));
+
+    datastore.put(new Event("Upper Yosemite Fall", YOSEMITE, "1234",
+        LocalDateTime.of(LocalDate.parse(FIRST_DAY), LocalTime.of(9, 0)), 30)
+        .eventToEntity(firstDayKey));
+    datastore.put(new Event("Half Dome", DOME, "5678",
+        LocalDateTime.of(LocalDate.parse(FIRST_DAY), LocalTime.of(11, 0)), 30)
+        .eventToEntity(firstDayKey));
+    return tripKey;
+  }
+}
@@ -20,7 +20,6 @@ import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.FetchOptions;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyFactory;
-import com.google.appengine.api.datastore.PreparedQuery;
 import com.google.appengine.api.datastore.Query;
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
@@ -33,6 +32,7 @@ import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 
@@ -130,76 +130,63 @@ public final class TripDayTest {
     Assert.assertEquals(tripDayOriginal.getDate(), tripDayAfterMethods.getDate());
   }
 
-  // Test the locationsToEntities function
+  // Test that the locations are stored in route order as an unindexed list
+  // on the TripDay Entity, and survive a round trip through datastore.
   @Test
-  public void testLocationsToEntities() {
+  public void testBuildEntityStoresLocations() throws Exception {
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
     locations = new ArrayList<>();
     locations.add(TIMES_SQUARE_ID);
     locations.add(CENTRAL_PARK_ID);
 
-    // build tripDay Entity (parent)
-    Entity tripDayEntity = new Entity("trip-day");
-    tripDayEntity.setProperty("origin", HOTEL_ID);
-    tripDayEntity.setProperty("destination", HOTEL_ID);
-    tripDayEntity.setProperty("date", INPUT_DATE);
-    Key testKey = tripDayEntity.getKey();
-
-    List<Entity> actualEntities = TripDay.locationsToEntities(locations, testKey);
+    Entity tripDayEntity = new TripDay(HOTEL_ID, HOTEL_ID, locations, DATE)
+      .buildEntity(KeyFactory.createKey(Trip.TRIP, 1));
+    Key tripDayKey = datastore.put(tripDayEntity);
 
-    // build manual list of expected entities based on hard coded locations list
-    List<Entity> expectedEntities = new ArrayList<>();
-    Entity TimesSquareEntity = new Entity(TripDay.LOCATION_ENTITY_TYPE, testKey);
-    TimesSquareEntity.setProperty(TripDay.NAME, TIMES_SQUARE_ID);
-    TimesSquareEntity.setProperty(TripDay.ORDER, 0);
-    expectedEntities.add(TimesSquareEntity);
-    Entity CentralParkEntity = new Entity(TripDay.LOCATION_ENTITY_TYPE, testKey);
-    CentralParkEntity.setProperty(TripDay.NAME, CENTRAL_PARK_ID);
-    CentralParkEntity.setProperty(TripDay.ORDER, 1);
-    expectedEntities.add(CentralParkEntity);
-
-    // Check that the entities are generated in the correct order with the correct properties
-    Assert.assertEquals(expectedEntities.size(), actualEntities.size());
-    Assert.assertEquals(expectedEntities.get(0).getProperty(TripDay.NAME), actualEntities.get(0).getProperty(TripDay.NAME));
-    Assert.assertEquals(expectedEntities.get(0).getProperty(TripDay.ORDER), actualEntities.get(0).getProperty(TripDay.ORDER));
-    Assert.assertEquals(expectedEntities.get(1).getProperty(TripDay.NAME), actualEntities.get(1).getProperty(TripDay.NAME));
-    Assert.assertEquals(expectedEntities.get(1).getProperty(TripDay.ORDER), actualEntities.get(1).getProperty(TripDay.ORDER));
+    Assert.assertTrue(tripDayEntity.isUnindexedProperty(TripDay.LOCATIONS));
+    Assert.assertEquals(locations,
+      TripDay.tripDayFromEntity(datastore.get(tripDayKey)).getLocations());
+    Assert.assertEquals(0, datastore.prepare(new Query(TripDay.LOCATION_ENTITY_TYPE))
+      .countEntities(FetchOptions.Builder.withDefaults()));
   }
 
-  // Test the storing of location entities in datastore.
+  // Test that a TripDay without locations reads back an empty list, though
+  // datastore stores the empty list as null.
   @Test
-  public void testStoreLocationsInDatastore() {
+  public void testBuildEntityWithoutLocations() throws Exception {
     DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    Key tripDayKey = datastore.put(
+      new TripDay(HOTEL_ID, HOTEL_ID, new ArrayList<>(), DATE).buildEntity());
 
-    // build tripDay Entity (parent)
+    Assert.assertEquals(new ArrayList<>(),
+      TripDay.locationsFromEntity(datastore.get(tripDayKey)));
+  }
+
+  // Test that the locations of a TripDay Entity written before the locations
+  // property are read from its Location Entities, in route order.
+  @Test
+  public void testLocationsFromLegacyEntities() {
+    // build tripDay Entity (parent) without the locations property
     Entity tripDayEntity = new Entity("trip-day");
     tripDayEntity.setProperty("origin", HOTEL_ID);
     tripDayEntity.setProperty("destination", HOTEL_ID);
     tripDayEntity.setProperty("date", INPUT_DATE);
-
-    // put parent entity in datastore and get key
-    datastore.put(tripDayEntity);
     Key testKey = tripDayEntity.getKey();
 
-    // build list of location entities
-    List<Entity> expectedEntities = new ArrayList<>();
-    Entity TimesSquareEntity = new Entity(TripDay.LOCATION_ENTITY_TYPE, testKey);
-    TimesSquareEntity.setProperty(TripDay.NAME, TIMES_SQUARE_ID);
-    TimesSquareEntity.setProperty(TripDay.ORDER, 0);
-    expectedEntities.add(TimesSquareEntity);
+    // build the location entities out of route order
+    List<Entity> locationEntities = new ArrayList<>();
     Entity CentralParkEntity = new Entity(TripDay.LOCATION_ENTITY_TYPE, testKey);
     CentralParkEntity.setProperty(TripDay.NAME, CENTRAL_PARK_ID);
     CentralParkEntity.setProperty(TripDay.ORDER, 1);
-    expectedEntities.add(CentralParkEntity);
-
-    TripDay.storeLocationsInDatastore(expectedEntities, datastore);
-
-    // query datastore to ensure that correct entities were stored
-    Query query = new Query(TripDay.LOCATION_ENTITY_TYPE, testKey);
-    PreparedQuery results = datastore.prepare(query);
-    List<Entity> actualEntities = results.asList(FetchOptions.Builder.withDefaults());
+    locationEntities.add(CentralParkEntity);
+    Entity TimesSquareEntity = new Entity(TripDay.LOCATION_ENTITY_TYPE, testKey);
+    TimesSquareEntity.setProperty(TripDay.NAME, TIMES_SQUARE_ID);
+    TimesSquareEntity.setProperty(TripDay.ORDER, 0);
+    locationEntities.add(TimesSquareEntity);
 
-    Assert.assertEquals(expectedEntities.size(), actualEntities.size());
-    Assert.assertEquals(expectedEntities.get(0), actualEntities.get(0));
-    Assert.assertEquals(expectedEntities.get(1), actualEntities.get(1));
+    Assert.assertNull(TripDay.locationsFromEntity(tripDayEntity));
+    Assert.assertEquals(Arrays.asList(TIMES_SQUARE_ID, CENTRAL_PARK_ID),
+      TripDay.locationsFromEntity(tripDayEntity, locationEntities));
+    Assert.assertTrue(TripDay.tripDayFromEntity(tripDayEntity).getLocations().isEmpty());
   }
 }
@@ -0,0 +1,294 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.sps.data.User;
+import com.google.sps.jobs.ExecutorTripJobQueue;
+import com.google.sps.jobs.TripJob;
+import com.google.sps.jobs.TripJobRunner;
+import com.google.sps.jobs.TripPlanner;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class TripJobRunnerTest {
+
+  private static final String TRIP_NAME = "Trip to Paris";
+  private static final String TRIP_DESTINATION = "Eiffel Tower";
+  private static final String TRIP_DAY_OF_TRAVEL = "2020-07-15";
+  private static final String[] POIS = {"Louvre Museum", "Notre-Dame"};
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+  private DatastoreService datastore;
+  private Key userKey;
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    datastore = DatastoreServiceFactory.getDatastoreService();
+    userKey = datastore.put(new User("test@example.com").buildEntity());
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  // Test that a job plans its stored inputs under its user, stores each
+  // stage as it is reported, and records the trip key once done.
+  @Test
+  public void testRunJobDone() throws Exception {
+    FakePlanner planner = new FakePlanner(false);
+    Key jobKey = datastore.put(buildJob());
+    planner.observedJobKey = jobKey;
+
+    new TripJobRunner(datastore, planner).run(jobKey);
+
+    Entity jobEntity = datastore.get(jobKey);
+    Assert.assertEquals(TripJob.Status.DONE, TripJob.getStatus(jobEntity));
+    Assert.assertEquals(KeyFactory.keyToString(planner.tripKey),
+        jobEntity.getProperty(TripJob.TRIP_KEY));
+    Assert.assertEquals(userKey, planner.tripKey.getParent());
+    Assert.assertEquals(Arrays.asList(POIS), planner.planningContext.getPois());
+    Assert.assertEquals(Arrays.asList(TripJob.STAGE_FETCHING_TRAVEL_TIMES,
+        TripJob.STAGE_SAVING_TRIP), planner.storedStages);
+  }
+
+  // Test that a failing planner marks the job FAILED, and that running a
+  // finished job again does nothing.
+  @Test
+  public void testRunJobFailedOnlyOnce() throws Exception {
+    FakePlanner planner = new FakePlanner(true);
+    Key jobKey = datastore.put(buildJob());
+    TripJobRunner runner = new TripJobRunner(datastore, planner);
+
+    runner.run(jobKey);
+    runner.run(jobKey);
+
+    Entity jobEntity = datastore.get(jobKey);
+    Assert.assertEquals(TripJob.Status.FAILED, TripJob.getStatus(jobEntity));
+    Assert.assertNotNull(jobEntity.getProperty(TripJob.ERROR));
+    Assert.assertEquals(0, datastore.prepare(new Query(Trip.TRIP, userKey))
+        .countEntities(FetchOptions.Builder.withDefaults()));
+    Assert.assertEquals(1, planner.planCount);
+  }
+
+  // Test that a retry of an attempt that died before storing the trip plans
+  // it again under the trip key stored on the job, without what the dead
+  // attempt left under that key.
+  @Test
+  public void testRetryBeforeTripStoredReplansUnderSameKey() throws Exception {
+    FakePlanner planner = new FakePlanner(false);
+    Entity jobEntity = buildJob();
+    TripJob.setProgress(jobEntity, TripJob.Status.RUNNING, TripJob.STAGE_SAVING_TRIP);
+    jobEntity.setUnindexedProperty(TripJob.LEASE_ID, "dead-attempt");
+    jobEntity.setUnindexedProperty(TripJob.LEASE_EXPIRES_AT, System.currentTimeMillis() - 1);
+    Key tripKey = Trip.allocateKey(datastore, userKey);
+    jobEntity.setUnindexedProperty(TripJob.TRIP_KEY, KeyFactory.keyToString(tripKey));
+    Key jobKey = datastore.put(jobEntity);
+    datastore.put(new Entity(TripDay.QUERY_STRING, tripKey));
+
+    Assert.assertTrue(new TripJobRunner(datastore, planner).run(jobKey));
+
+    Assert.assertEquals(tripKey, planner.tripKey);
+    Assert.assertEquals(TripJob.Status.DONE, TripJob.getStatus(datastore.get(jobKey)));
+    Assert.assertEquals(0, datastore.prepare(new Query(TripDay.QUERY_STRING, tripKey))
+        .countEntities(FetchOptions.Builder.withDefaults()));
+  }
+
+  // Test that an attempt whose lease was taken over stops planning, and
+  // leaves the job to the attempt that holds it.
+  @Test
+  public void testLostLeaseStopsPlanning() throws Exception {
+    Key jobKey = datastore.put(buildJob());
+    FakePlanner planner = new FakePlanner(false) {
+      @Override
+      public void planTrip(PlanningContext planningContext, Key tripKey, 
+          Consumer<String> progress) throws IOException {
+        try {
+          Entity jobEntity = datastore.get(jobKey);
+          jobEntity.setUnindexedProperty(TripJob.LEASE_ID, "other-attempt");
+          datastore.put(jobEntity);
+        } catch (EntityNotFoundException e) {
+          throw new AssertionError(e);
+        }
+        super.planTrip(planningContext, tripKey, progress);
+      }
+    };
+
+    Assert.assertTrue(new TripJobRunner(datastore, planner).run(jobKey));
+
+    Entity jobEntity = datastore.get(jobKey);
+    Assert.assertEquals(TripJob.Status.RUNNING, TripJob.getStatus(jobEntity));
+    Assert.assertEquals(TripJob.STAGE_FINDING_PLACES, jobEntity.getProperty(TripJob.STAGE));
+    Assert.assertNull(planner.tripKey);
+  }
+
+  // Test that a retry of an attempt that stored the trip but died before
+  // marking the job DONE finishes the job without planning a second trip.
+  @Test
+  public void testRetryAfterTripStoredDoesNotPlanAgain() throws Exception {
+    FakePlanner planner = new FakePlanner(false);
+    Entity jobEntity = buildJob();
+    TripJob.setProgress(jobEntity, TripJob.Status.RUNNING, TripJob.STAGE_SAVING_TRIP);
+    Key tripKey = datastore.put(new Entity(Trip.TRIP, userKey));
+    jobEntity.setUnindexedProperty(TripJob.TRIP_KEY, KeyFactory.keyToString(tripKey));
+    Key jobKey = datastore.put(jobEntity);
+
+    Assert.assertTrue(new TripJobRunner(datastore, planner).run(jobKey));
+
+    Assert.assertEquals(TripJob.Status.DONE, TripJob.getStatus(datastore.get(jobKey)));
+    Assert.assertEquals(0, planner.planCount);
+  }
+
+  // Test that a job leased by a running attempt is left to it, and that a
+  // retry takes over a job whose lease has expired.
+  @Test
+  public void testRetryRespectsLease() throws Exception {
+    FakePlanner planner = new FakePlanner(false);
+    Entity jobEntity = buildJob();
+    TripJob.setProgress(jobEntity, TripJob.Status.RUNNING, TripJob.STAGE_FINDING_PLACES);
+    jobEntity.setUnindexedProperty(TripJob.LEASE_ID, "other-attempt");
+    jobEntity.setUnindexedProperty(TripJob.LEASE_EXPIRES_AT,
+      System.currentTimeMillis() + TripJob.LEASE_MILLIS);
+    Key jobKey = datastore.put(jobEntity);
+    TripJobRunner runner = new TripJobRunner(datastore, planner);
+
+    Assert.assertFalse(runner.run(jobKey));
+    Assert.assertEquals(0, planner.planCount);
+
+    jobEntity.setUnindexedProperty(TripJob.LEASE_EXPIRES_AT, System.currentTimeMillis() - 1);
+    datastore.put(jobEntity);
+    Assert.assertTrue(runner.run(jobKey));
+    Assert.assertEquals(1, planner.planCount);
+    Assert.assertEquals(TripJob.Status.DONE, TripJob.getStatus(datastore.get(jobKey)));
+  }
+
+  // Test that the local queue runs submitted jobs on its worker threads.
+  @Test
+  public void testExecutorQueueRunsJobs() throws Exception {
+    CountDownLatch plannedTrips = new CountDownLatch(3);
+    FakePlanner planner = new FakePlanner(false) {
+      @Override
+      public void planTrip(PlanningContext planningContext, Key tripKey, 
+          Consumer<String> progress) throws IOException {
+        super.planTrip(planningContext, tripKey, progress);
+        plannedTrips.countDown();
+      }
+    };
+    ExecutorTripJobQueue queue = 
+        new ExecutorTripJobQueue(new TripJobRunner(datastore, planner), 2, 10);
+
+    List<Key> jobKeys = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      jobKeys.add(datastore.put(buildJob()));
+      queue.submit(jobKeys.get(i));
+    }
+    queue.getExecutor().shutdown();
+    Assert.assertTrue(queue.getExecutor().awaitTermination(10, TimeUnit.SECONDS));
+
+    Assert.assertEquals(0, plannedTrips.getCount());
+    for (Key jobKey : jobKeys) {
+      Assert.assertEquals(TripJob.Status.DONE, TripJob.getStatus(datastore.get(jobKey)));
+    }
+  }
+
+  /**
+   * Helper method to build a pending job for the test user.
+   */
+  private Entity buildJob() {
+    return TripJob.buildEntity(TRIP_NAME, TRIP_DESTINATION, TRIP_DAY_OF_TRAVEL, null, POIS,
+        userKey);
+  }
+
+  /**
+   * Planner that stores an empty Trip Entity under the given key, or fails
+   * if asked to.
+   */
+  private class FakePlanner implements TripPlanner {
+    private final boolean fail;
+    private volatile PlanningContext planningContext;
+    private volatile Key tripKey;
+    private Key observedJobKey;
+    private final List<String> storedStages = new ArrayList<>();
+    private int planCount = 0;
+
+    private FakePlanner(boolean fail) {
+      this.fail = fail;
+    }
+
+    @Override
+    public PlanningContext createPlanningContext(String tripName, String tripDestination,
+        String tripDayOfTravel, String tripEndDate, String[] poiStrings) {
+      return new PlanningContext(tripName, tripDestination, tripDayOfTravel, tripEndDate,
+          Arrays.asList(poiStrings), tripDestination, null);
+    }
+
+    @Override
+    public void planTrip(PlanningContext planningContext, Key tripKey, 
+        Consumer<String> progress) throws IOException {
+      this.planCount++;
+      if (this.fail) {
+        throw new IOException("Directions request failed");
+      }
+
+      reportStage(progress, TripJob.STAGE_FETCHING_TRAVEL_TIMES);
+      reportStage(progress, TripJob.STAGE_SAVING_TRIP);
+      this.planningContext = planningContext;
+      this.tripKey = datastore.put(new Entity(tripKey));
+    }
+
+    /**
+     * Reports the stage, then records the stage stored on the observed job.
+     */
+    private void reportStage(Consumer<String> progress, String stage) {
+      progress.accept(stage);
+      if (this.observedJobKey == null) {
+        return;
+      }
+
+      try {
+        Entity jobEntity = datastore.get(this.observedJobKey);
+        Assert.assertEquals(TripJob.Status.RUNNING, TripJob.getStatus(jobEntity));
+        this.storedStages.add((String) jobEntity.getProperty(TripJob.STAGE));
+      } catch (EntityNotFoundException e) {
+        throw new AssertionError(e);
+      }
+    }
+  }
+}
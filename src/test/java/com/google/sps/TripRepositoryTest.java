@@ -0,0 +1,169 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import static org.mockito.Mockito.*;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.sps.data.Event;
+import com.google.sps.data.User;
+import com.google.sps.places.PlaceStore;
+import com.google.sps.places.PlaceSummary;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.AdditionalAnswers;
+
+@RunWith(JUnit4.class)
+public final class TripRepositoryTest {
+
+  private static final String TRIP_NAME = "Trip to California";
+  private static final String DESTINATION_NAME = "California";
+  private static final String IMAGE_SRC = "https://example.com/photo.jpg";
+  private static final String HOTEL = "4265 24th Street San Francisco, CA, 94114";
+  private static final String FIRST_DAY = "2020-07-15";
+  private static final String SECOND_DAY = "2020-07-16";
+  private static final String DOME = "Half Dome, CA";
+  private static final String YOSEMITE = "Upper Yosemite Fall, CA";
+  private static final String PLACE_ID = "1234";
+  private static final String YOSEMITE_PLACE_ID = "5678";
+  private static final int HALF_HOUR = 30;
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+  private DatastoreService datastore;
+  private Key userKey;
+  private Key otherUserKey;
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    datastore = DatastoreServiceFactory.getDatastoreService();
+    userKey = datastore.put(new User("test@example.com").buildEntity());
+    otherUserKey = datastore.put(new User("other@example.com").buildEntity());
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  // Test that a trip is loaded with a get, without any query, and only for
+  // the user it belongs to.
+  @Test
+  public void testGetTripChecksOwnerWithoutQuery() {
+    Key tripKey = putTrip(userKey, FIRST_DAY);
+    DatastoreService countingDatastore =
+        mock(DatastoreService.class, AdditionalAnswers.delegatesTo(datastore));
+    TripRepository repository = new TripRepository(countingDatastore);
+
+    Assert.assertEquals(TRIP_NAME, repository.getTrip(userKey, tripKey).getTripName());
+    Assert.assertNull(repository.getTrip(otherUserKey, tripKey));
+    Assert.assertNull(repository.getTripEntity(userKey, userKey));
+
+    datastore.delete(tripKey);
+    Assert.assertNull(repository.getTrip(userKey, tripKey));
+    verify(countingDatastore, never()).prepare(any(Query.class));
+  }
+
+  // Test that several trips are read with one batch get, in the order of the
+  // keys, skipping trips of other users and missing trips.
+  @Test
+  public void testGetTripsBatchGet() {
+    Key secondTripKey = putTrip(userKey, SECOND_DAY);
+    Key firstTripKey = putTrip(userKey, FIRST_DAY);
+    Key otherTripKey = putTrip(otherUserKey, FIRST_DAY);
+    Key deletedTripKey = putTrip(userKey, FIRST_DAY);
+    datastore.delete(deletedTripKey);
+    DatastoreService countingDatastore =
+        mock(DatastoreService.class, AdditionalAnswers.delegatesTo(datastore));
+
+    List<Trip> trips = new TripRepository(countingDatastore).getTrips(userKey,
+        Arrays.asList(secondTripKey, otherTripKey, deletedTripKey, firstTripKey));
+
+    Assert.assertEquals(2, trips.size());
+    Assert.assertEquals(LocalDate.parse(SECOND_DAY), trips.get(0).getStartDate());
+    Assert.assertEquals(LocalDate.parse(FIRST_DAY), trips.get(1).getStartDate());
+    verify(countingDatastore, times(1)).get(anyIterable());
+  }
+
+  // Test that the TripDays of a trip are returned in date order, with their
+  // locations in route order, and that events are grouped by TripDay. The
+  // places the days and events refer to are read with one batch get.
+  @Test
+  public void testGetTripDaysAndEvents() {
+    Key tripKey = putTrip(userKey, FIRST_DAY);
+    datastore.put(PlaceStore.toEntity(
+        new PlaceSummary(PLACE_ID, "Half Dome", null, DOME, null, null, null)));
+    datastore.put(PlaceStore.toEntity(new PlaceSummary(YOSEMITE_PLACE_ID, 
+        "Upper Yosemite Fall", null, YOSEMITE, null, null, null)));
+    Key secondDayKey = datastore.put(new TripDay(HOTEL, HOTEL, new ArrayList<>(),
+        LocalDate.parse(SECOND_DAY)).buildEntity(tripKey));
+    TripDay firstDay = new TripDay(HOTEL, HOTEL, Arrays.asList(YOSEMITE, DOME),
+        LocalDate.parse(FIRST_DAY));
+    firstDay.setPlaceIds(Arrays.asList(YOSEMITE_PLACE_ID, PLACE_ID));
+    Key firstDayKey = datastore.put(firstDay.buildEntity(tripKey));
+    datastore.put(new Event("Half Dome", DOME, PLACE_ID,
+        LocalDateTime.of(LocalDate.parse(FIRST_DAY), LocalTime.of(12, 0)), HALF_HOUR)
+        .eventToEntity(firstDayKey));
+    datastore.put(new Event("Upper Yosemite Fall", YOSEMITE, YOSEMITE_PLACE_ID,
+        LocalDateTime.of(LocalDate.parse(FIRST_DAY), LocalTime.of(10, 0)), HALF_HOUR)
+        .eventToEntity(firstDayKey));
+
+    DatastoreService countingDatastore =
+        mock(DatastoreService.class, AdditionalAnswers.delegatesTo(datastore));
+    TripRepository repository = new TripRepository(countingDatastore);
+    List<TripDay> tripDays = repository.getTripDays(tripKey);
+    Assert.assertEquals(2, tripDays.size());
+    Assert.assertEquals(LocalDate.parse(FIRST_DAY), tripDays.get(0).getDate());
+    Assert.assertEquals(Arrays.asList(YOSEMITE, DOME), tripDays.get(0).getLocations());
+    Assert.assertTrue(tripDays.get(1).getLocations().isEmpty());
+    // The locations are read with the days, without a query of their own,
+    // and their places with one batch get.
+    verify(countingDatastore, times(1)).prepare(any(Query.class));
+    verify(countingDatastore, times(1)).get(isNull(), anyIterable());
+
+    Map<Key, List<Event>> eventsByTripDay = repository.getEventsByTripDay(tripKey);
+    Assert.assertFalse(eventsByTripDay.containsKey(secondDayKey));
+    Assert.assertEquals(YOSEMITE, eventsByTripDay.get(firstDayKey).get(0).getAddress());
+    Assert.assertEquals(DOME, eventsByTripDay.get(firstDayKey).get(1).getAddress());
+    Assert.assertEquals("Half Dome", eventsByTripDay.get(firstDayKey).get(1).getName());
+  }
+
+  /**
+   * Puts a Trip Entity starting on the given date under the user, and
+   * returns its key.
+   */
+  private Key putTrip(Key ownerKey, String startDate) {
+    return datastore.put(Trip.buildEntity(TRIP_NAME, DESTINATION_NAME, IMAGE_SRC,
+        startDate, startDate, ownerKey));
+  }
+}
@@ -28,32 +28,48 @@ import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
-import com.google.maps.DirectionsApi;
-import com.google.maps.DirectionsApiRequest;
+import com.google.apphosting.api.ApiProxy;
+import com.google.maps.DistanceMatrixApi;
+import com.google.maps.DistanceMatrixApiRequest;
 import com.google.maps.FindPlaceFromTextRequest;
 import com.google.maps.GeoApiContext;
+import com.google.maps.PendingResult;
 import com.google.maps.PlaceDetailsRequest;
 import com.google.maps.PlacesApi;
-import com.google.maps.model.DirectionsResult;
-import com.google.maps.model.DirectionsRoute;
-import com.google.maps.model.DirectionsLeg;
+import com.google.maps.model.DistanceMatrix;
+import com.google.maps.model.DistanceMatrixElement;
+import com.google.maps.model.DistanceMatrixElementStatus;
+import com.google.maps.model.DistanceMatrixRow;
 import com.google.maps.model.Duration;
 import com.google.maps.model.FindPlaceFromText;
+import com.google.maps.model.Geometry;
+import com.google.maps.model.LatLng;
+import com.google.maps.model.Photo;
 import com.google.maps.model.PlaceDetails;
 import com.google.maps.model.PlacesSearchResult;
-import com.google.maps.model.TravelMode;
 import com.google.sps.Trip;
 import com.google.sps.data.Event;
 import com.google.sps.data.User;
+import com.google.sps.jobs.TripJob;
+import com.google.sps.places.PlaceStore;
+import com.google.sps.places.PlaceSummary;
+import com.google.sps.route.TravelDurationMatrix;
 import com.google.sps.servlets.AuthServlet;
 import com.google.sps.servlets.TripServlet;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.Enumeration;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -63,16 +79,20 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
 import org.mockito.ArgumentMatchers;
 import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 import static org.mockito.Mockito.*;
 
 
 @RunWith(PowerMockRunner.class)
-@PrepareForTest({DirectionsApi.class, DirectionsApiRequest.class,
-                 PlacesApi.class,FindPlaceFromTextRequest.class,UserServiceFactory.class})
+@PowerMockIgnore({"javax.net.ssl.*", "javax.security.*"})
+@PrepareForTest({PlacesApi.class,FindPlaceFromTextRequest.class,UserServiceFactory.class,
+                 PlaceDetailsRequest.class, DistanceMatrixApi.class, 
+                 DistanceMatrixApiRequest.class})
 public final class TripServletTest {
 
   // class constants
@@ -116,6 +136,7 @@ public final class TripServletTest {
   @Before
   public void setUp() {
     helper.setUp();
+    UserRepository.clearCache();
   }
 
   @After
@@ -123,104 +144,74 @@ public final class TripServletTest {
     helper.tearDown();
   }
 
-  // Test directionsRequest generation with mocks.
+  // Test waypoint order parsing from a RouteOptimizer waypoint order.
   @Test
-  public void generateDirectionsRequestTest() {
-    PowerMockito.mockStatic(DirectionsApi.class);
-    DirectionsApiRequest mockRequest = mock(DirectionsApiRequest.class);
-    when(DirectionsApi.newRequest(any())).thenReturn(mockRequest);
-    when(mockRequest.origin(anyString())).thenReturn(mockRequest);
-    when(mockRequest.destination(anyString())).thenReturn(mockRequest);
-    when(mockRequest.waypoints(ArgumentMatchers.<String>any())).thenReturn(mockRequest);
-    when(mockRequest.optimizeWaypoints(anyBoolean())).thenReturn(mockRequest);
-    when(mockRequest.mode(any())).thenReturn(mockRequest);
-
-    GeoApiContext mockGeoApiContext = mock(GeoApiContext.class);
-
-    String[] waypoints = new String[]{ "MoPOP, 5th Avenue North, Seattle, WA, USA",
-                                    "Space Needle, Broad Street, Seattle, WA, USA",
-                                    "Alki Beach, Seattle, WA, USA"};
-    
-    String origin = "The Westin Bellevue, Bellevue Way Northeast, Bellevue, WA, USA";
-
-    DirectionsApiRequest request = TripServlet.generateDirectionsRequest(origin, origin, waypoints, mockGeoApiContext);
-
-    // Verify that proper methods and parameters are called to generate directionsRequest.
-    verify(mockRequest).origin(origin);
-    verify(mockRequest).destination(origin);
-    verify(mockRequest).waypoints(waypoints);
-    verify(mockRequest).optimizeWaypoints(true);
-    verify(mockRequest).mode(TravelMode.DRIVING);
-  }
-
-  // Test waypoint order parsing from a DirectionsResult object.
-  @Test
-  public void getOrderedWaypointsTest() {
-    // Manually create directions result object.
-    DirectionsResult dirResult = new DirectionsResult();
-    dirResult.routes = new DirectionsRoute[1];
-    dirResult.routes[0] = new DirectionsRoute();
-    dirResult.routes[0].waypointOrder = new int[]{ 1, 2, 0 };
-    
-    // Manually create user input.
+  public void getOrderedWaypointsFromWaypointOrderTest() {
     String[] pois = new String[]{"Alki Beach, Seattle, WA, USA",
                                   "MoPOP, 5th Avenue North, Seattle, WA, USA",
                                   "Space Needle, Broad Street, Seattle, WA, USA"};
 
-    List<String> orderedWaypoints = TripServlet.getOrderedWaypoints(dirResult, pois);
+    List<String> orderedWaypoints = 
+      TripServlet.getOrderedWaypoints(new int[]{ 2, 0, 1 }, pois);
 
     List<String> expectedWaypointOrder = new ArrayList<>();
-    expectedWaypointOrder.add("MoPOP, 5th Avenue North, Seattle, WA, USA");
     expectedWaypointOrder.add("Space Needle, Broad Street, Seattle, WA, USA");
     expectedWaypointOrder.add("Alki Beach, Seattle, WA, USA");
+    expectedWaypointOrder.add("MoPOP, 5th Avenue North, Seattle, WA, USA");
 
-    Assert.assertEquals(orderedWaypoints, expectedWaypointOrder);
+    Assert.assertEquals(expectedWaypointOrder, orderedWaypoints);
   }
 
-  // Test travel time parsing from a DirectionsResult object.
+  // Test travel time parsing from a duration matrix and waypoint order.
   @Test
-  public void getTravelTimesTest() {
-    // Manually create directions result object
-    DirectionsResult dirResult = new DirectionsResult();
-    dirResult.routes = new DirectionsRoute[1];
-    dirResult.routes[0] = new DirectionsRoute();
-    dirResult.routes[0].legs = new DirectionsLeg[4];
-    for (int i = 0; i < dirResult.routes[0].legs.length; i++) {
-      dirResult.routes[0].legs[i] = new DirectionsLeg();
-      dirResult.routes[0].legs[i].duration = new Duration();
-    }
-    dirResult.routes[0].legs[0].duration.inSeconds = 1080;
-    dirResult.routes[0].legs[1].duration.inSeconds = 60;
-    dirResult.routes[0].legs[2].duration.inSeconds = 1500;
-    dirResult.routes[0].legs[3].duration.inSeconds = 2100;
-    
-    List<Integer> actualTravelTimes  = TripServlet.getTravelTimes(dirResult);
+  public void getTravelTimesFromMatrixTest() {
+    // Hotel at index 0 and POIs 0 and 1 at matrix indices 1 and 2 (seconds).
+    int[] durations = new int[]{    0, 1080, 1500,
+                                 1140,    0,   60,
+                                 2100,  120,    0 };
+
+    // Visit POI 1 first, then POI 0.
+    List<Integer> actualTravelTimes = 
+      TripServlet.getTravelTimes(durations, 3, new int[]{ 1, 0 });
 
     List<Integer> expectedTravelTimes = new ArrayList<>();
-    expectedTravelTimes.add(18);
-    expectedTravelTimes.add(1);
     expectedTravelTimes.add(25);
-    expectedTravelTimes.add(35);
+    expectedTravelTimes.add(2);
+    expectedTravelTimes.add(19);
 
-    Assert.assertEquals(actualTravelTimes, expectedTravelTimes);
+    Assert.assertEquals(expectedTravelTimes, actualTravelTimes);
   }
 
-  // Test getting DirectionsResult object from DirectionsRequest
+  // Test that a route with a leg Google has no route for fails, instead of
+  // showing a day-long travel time.
   @Test
-  public void getDirectionsResultTest() throws Exception {
-    DirectionsApiRequest mockRequest = PowerMockito.mock(DirectionsApiRequest.class);
-
-    // Construct directionsResult object
-    DirectionsResult expectedResult = new DirectionsResult();
-    expectedResult.routes = new DirectionsRoute[1];
-    expectedResult.routes[0] = new DirectionsRoute();
-    expectedResult.routes[0].waypointOrder = new int[]{ 1, 2, 0 };
+  public void checkRoutableTest() throws Exception {
+    String[] locations = {"Hotel", "Museum", "Island"};
+    int[] durations = new int[]{    0, 1080, 1500,
+                                 1140,    0, TravelDurationMatrix.UNREACHABLE_SECONDS,
+                                 2100,  120,    0 };
+
+    // Island -> Museum has a route, but Museum -> Island does not.
+    TripServlet.checkRoutable(durations, locations, new int[]{ 1, 0 });
+    try {
+      TripServlet.checkRoutable(durations, locations, new int[]{ 0, 1 });
+      Assert.fail("The route should not be routable");
+    } catch (IOException e) {
+      Assert.assertEquals("No route between Museum and Island", e.getMessage());
+    }
+  }
 
-    PowerMockito.when(mockRequest.await()).thenReturn(expectedResult);
+  // Test that the hotel is the first route location.
+  @Test
+  public void getRouteLocationsTest() {
+    String[] pois = new String[]{ POI_ONE, POI_TWO };
 
-    DirectionsResult actualResult = TripServlet.getDirectionsResult(mockRequest);
+    String[] routeLocations = TripServlet.getRouteLocations(INPUT_DESTINATION, pois);
 
-    Assert.assertEquals(expectedResult.routes[0].waypointOrder, actualResult.routes[0].waypointOrder);
+    Assert.assertArrayEquals(new String[]{ INPUT_DESTINATION, POI_ONE, POI_TWO }, 
+      routeLocations);
+    Assert.assertArrayEquals(new String[]{ INPUT_DESTINATION }, 
+      TripServlet.getRouteLocations(INPUT_DESTINATION, null));
   }
 
   @Test
@@ -228,13 +219,398 @@ public final class TripServletTest {
     //TODO (eshika): add an integration test 
   }
 
+  // Test that requests with missing or invalid inputs get a 400, before any
+  // Maps API call is made or any trip job is stored.
+  @Test
+  public void testDoPostRejectsBadInput() throws Exception {
+    UserService userServiceMock = mock(UserService.class);
+    when(userServiceMock.isUserLoggedIn()).thenReturn(true);
+    when(userServiceMock.getCurrentUser()).thenReturn(
+        new com.google.appengine.api.users.User(EMAIL, AUTH_DOMAIN));
+    PowerMockito.mockStatic(UserServiceFactory.class);
+    when(UserServiceFactory.getUserService()).thenReturn(userServiceMock);
+    PowerMockito.mockStatic(PlacesApi.class);
+    tripServlet.init();
+
+    String[][] badInputs = {
+      {"Trip", "Hotel", null, null, "false"},
+      {"Trip", "Hotel", "July 15", null, "false"},
+      {"Trip", "Hotel", "2020-07-15", "2020-07-14", "false"},
+      {"Trip", null, "2020-07-15", null, "true"},
+      {"", "Hotel", "2020-07-15", null, "true"},
+      {"Trip", "Hotel", null, null, "true"}
+    };
+    for (String[] inputs : badInputs) {
+      HttpServletRequest tripRequest = mock(HttpServletRequest.class);
+      when(tripRequest.getParameter("inputTripName")).thenReturn(inputs[0]);
+      when(tripRequest.getParameter("inputDestination")).thenReturn(inputs[1]);
+      when(tripRequest.getParameter("inputDayOfTravel")).thenReturn(inputs[2]);
+      when(tripRequest.getParameter("inputEndDate")).thenReturn(inputs[3]);
+      when(tripRequest.getParameter("async")).thenReturn(inputs[4]);
+      when(tripRequest.getParameterValues("poiList")).thenReturn(new String[] {POI_ONE});
+      HttpServletResponse tripResponse = mock(HttpServletResponse.class);
+
+      tripServlet.doPost(tripRequest, tripResponse);
+
+      verify(tripResponse).sendError(HttpServletResponse.SC_BAD_REQUEST);
+    }
+
+    PowerMockito.verifyStatic(PlacesApi.class, never());
+    PlacesApi.findPlaceFromText(any(), anyString(), any());
+    Assert.assertEquals(0, datastore.prepare(new Query(TripJob.TRIP_JOB))
+      .countEntities(FetchOptions.Builder.withDefaults()));
+    Assert.assertEquals(0, datastore.prepare(new Query(Trip.TRIP))
+      .countEntities(FetchOptions.Builder.withDefaults()));
+  }
+
+  // Test that simultaneous /calculate-trip requests on one servlet instance
+  // each store exactly their own trip, destination and POIs.
+  @Test
+  public void testConcurrentDoPostKeepsRequestsSeparate() throws Exception {
+    final int numRequests = 8;
+    final int numPois = 2;
+
+    // Log in one user, and create their User Entity up front.
+    UserService userServiceMock = mock(UserService.class);
+    when(userServiceMock.isUserLoggedIn()).thenReturn(true);
+    when(userServiceMock.getCurrentUser()).thenReturn(
+        new com.google.appengine.api.users.User(EMAIL, AUTH_DOMAIN));
+    PowerMockito.mockStatic(UserServiceFactory.class);
+    when(UserServiceFactory.getUserService()).thenReturn(userServiceMock);
+    AuthServlet.getCurrentUserEntity();
+
+    // Every request has its own hotel and POIs, each with its own place ID.
+    PowerMockito.mockStatic(PlacesApi.class);
+    for (int i = 0; i < numRequests; i++) {
+      FindPlaceFromTextRequest hotelRequest = 
+        PowerMockito.mock(FindPlaceFromTextRequest.class);
+      PowerMockito.when(hotelRequest.await()).thenReturn(buildFindPlaceResult("hotel-" + i));
+      mockFindPlaceCallback(hotelRequest, buildFindPlaceResult("hotel-" + i));
+      when(PlacesApi.findPlaceFromText(any(), eq("Hotel " + i), any()))
+        .thenReturn(hotelRequest);
+
+      mockPlaceDetails("hotel-" + i, "Destination " + i, null);
+
+      for (int j = 0; j < numPois; j++) {
+        FindPlaceFromTextRequest poiRequest = 
+          PowerMockito.mock(FindPlaceFromTextRequest.class);
+        mockFindPlaceCallback(poiRequest, buildFindPlaceResult("poi-" + i + "-" + j));
+        when(PlacesApi.findPlaceFromText(any(), eq(poiName(i, j) + ", City " + i), any()))
+          .thenReturn(poiRequest);
+        mockPlaceDetails("poi-" + i + "-" + j, poiName(i, j), "City " + i);
+      }
+    }
+
+    // Every trip has the same 3 x 3 duration matrix.
+    DistanceMatrixApiRequest matrixRequest = PowerMockito.mock(DistanceMatrixApiRequest.class);
+    when(matrixRequest.origins(ArgumentMatchers.<String>any())).thenReturn(matrixRequest);
+    when(matrixRequest.destinations(ArgumentMatchers.<String>any())).thenReturn(matrixRequest);
+    when(matrixRequest.mode(any())).thenReturn(matrixRequest);
+    mockDistanceMatrixCallback(matrixRequest, buildDistanceMatrix(numPois + 1, 600));
+    PowerMockito.mockStatic(DistanceMatrixApi.class);
+    when(DistanceMatrixApi.newRequest(any())).thenReturn(matrixRequest);
+
+    // Build every request and response before starting the threads.
+    List<HttpServletRequest> requests = new ArrayList<>();
+    List<HttpServletResponse> responses = new ArrayList<>();
+    for (int i = 0; i < numRequests; i++) {
+      HttpServletRequest tripRequest = mock(HttpServletRequest.class);
+      when(tripRequest.getParameter("inputTripName")).thenReturn("Trip " + i);
+      when(tripRequest.getParameter("inputDestination")).thenReturn("Hotel " + i);
+      when(tripRequest.getParameter("inputDayOfTravel")).thenReturn("2020-07-15");
+      String[] pois = new String[numPois];
+      for (int j = 0; j < numPois; j++) {
+        pois[j] = poiName(i, j) + ", City " + i;
+      }
+      when(tripRequest.getParameterValues("poiList")).thenReturn(pois);
+      requests.add(tripRequest);
+      responses.add(mock(HttpServletResponse.class));
+    }
+
+    // Release all requests at once; worker threads need the test's App 
+    // Engine environment to reach the local datastore.
+    tripServlet.init();
+    ApiProxy.Environment environment = ApiProxy.getCurrentEnvironment();
+    CountDownLatch startSignal = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(numRequests);
+    List<Future<?>> results = new ArrayList<>();
+    for (int i = 0; i < numRequests; i++) {
+      final int index = i;
+      results.add(executor.submit(() -> {
+        ApiProxy.setEnvironmentForCurrentThread(environment);
+        startSignal.await();
+        tripServlet.doPost(requests.get(index), responses.get(index));
+        return null;
+      }));
+    }
+    startSignal.countDown();
+    for (Future<?> result : results) {
+      result.get(30, TimeUnit.SECONDS);
+    }
+    executor.shutdown();
+
+    // Each redirect points at a trip that holds only that request's data.
+    for (int i = 0; i < numRequests; i++) {
+      ArgumentCaptor<String> redirect = ArgumentCaptor.forClass(String.class);
+      verify(responses.get(i)).sendRedirect(redirect.capture());
+      Key tripKey = KeyFactory.stringToKey(
+        redirect.getValue().substring("/maps.html?tripKey=".length()));
+
+      Entity tripEntity = datastore.get(tripKey);
+      Assert.assertEquals("Trip " + i, tripEntity.getProperty(Trip.TRIP_NAME));
+      Assert.assertEquals("Destination " + i, tripEntity.getProperty(Trip.DESTINATION_NAME));
+
+      Entity tripDayEntity = datastore.prepare(new Query(TripDay.QUERY_STRING)
+        .setAncestor(tripKey)).asSingleEntity();
+      Assert.assertEquals("Hotel " + i, tripDayEntity.getProperty(TripDay.ORIGIN));
+
+      List<Event> events = new TripRepository(datastore).getEventsByTripDay(tripKey)
+        .get(tripDayEntity.getKey());
+      Assert.assertEquals(numPois, events.size());
+      for (Event event : events) {
+        String name = event.getName();
+        int poiIndex = name.charAt(name.length() - 1) - '0';
+        Assert.assertEquals(poiName(i, poiIndex), name);
+        Assert.assertEquals("poi-" + i + "-" + poiIndex, event.getPlaceId());
+      }
+    }
+  }
+
+  // Test that a three-day trip stores one TripDay per date, and plans each
+  // POI on exactly one of them.
+  @Test
+  public void testPlanTripMultipleDays() throws Exception {
+    final int numPois = 4;
+    Entity userEntity = new com.google.sps.data.User(EMAIL).buildEntity();
+    datastore.put(userEntity);
+
+    PowerMockito.mockStatic(PlacesApi.class);
+    FindPlaceFromTextRequest hotelRequest = PowerMockito.mock(FindPlaceFromTextRequest.class);
+    mockFindPlaceCallback(hotelRequest, buildFindPlaceResult("hotel"));
+    when(PlacesApi.findPlaceFromText(any(), eq("Hotel"), any())).thenReturn(hotelRequest);
+    String[] pois = new String[numPois];
+    for (int j = 0; j < numPois; j++) {
+      pois[j] = poiName(0, j);
+      FindPlaceFromTextRequest poiRequest = PowerMockito.mock(FindPlaceFromTextRequest.class);
+      mockFindPlaceCallback(poiRequest, buildFindPlaceResult("poi-" + j));
+      when(PlacesApi.findPlaceFromText(any(), eq(pois[j]), any())).thenReturn(poiRequest);
+      mockPlaceDetails("poi-" + j, pois[j], "Address " + j);
+    }
+
+    DistanceMatrixApiRequest matrixRequest = PowerMockito.mock(DistanceMatrixApiRequest.class);
+    when(matrixRequest.origins(ArgumentMatchers.<String>any())).thenReturn(matrixRequest);
+    when(matrixRequest.destinations(ArgumentMatchers.<String>any())).thenReturn(matrixRequest);
+    when(matrixRequest.mode(any())).thenReturn(matrixRequest);
+    mockDistanceMatrixCallback(matrixRequest, buildDistanceMatrix(numPois + 1, 600));
+    PowerMockito.mockStatic(DistanceMatrixApi.class);
+    when(DistanceMatrixApi.newRequest(any())).thenReturn(matrixRequest);
+
+    tripServlet.init();
+    PlanningContext planningContext = new PlanningContext("Trip", "Hotel", "2020-07-15",
+      "2020-07-17", Arrays.asList(pois), "Destination", "photo");
+    Key tripKey = Trip.allocateKey(datastore, userEntity.getKey());
+    tripServlet.planTrip(planningContext, tripKey, stage -> {});
+
+    // The Trip Entity is stored under the user, and the user's list of trips
+    // gets a new version.
+    Entity tripEntity = datastore.get(tripKey);
+    Assert.assertEquals(userEntity.getKey(), tripEntity.getParent());
+    Assert.assertEquals("Trip", tripEntity.getProperty(Trip.TRIP_NAME));
+    Assert.assertEquals("photo", tripEntity.getProperty(Trip.IMAGE_SRC));
+    Assert.assertEquals(PropertyCodec.fromDateString("2020-07-17"),
+      tripEntity.getProperty(Trip.END_DATE));
+    Assert.assertEquals(1, new UserRepository(datastore).getTripsVersion(userEntity.getKey()));
+    List<Entity> tripDayEntities = datastore.prepare(new Query(TripDay.QUERY_STRING)
+      .setAncestor(tripKey)).asList(FetchOptions.Builder.withDefaults());
+    Assert.assertEquals(3, tripDayEntities.size());
+
+    List<String> plannedPois = new ArrayList<>();
+    List<String> dates = new ArrayList<>();
+    Map<Key, List<Event>> eventsByTripDay = 
+      new TripRepository(datastore).getEventsByTripDay(tripKey);
+    for (Entity tripDayEntity : tripDayEntities) {
+      String date = PropertyCodec.toLocalDate(tripDayEntity.getProperty(TripDay.DATE)).toString();
+      dates.add(date);
+      List<Event> events = eventsByTripDay.get(tripDayEntity.getKey());
+      Assert.assertFalse(events.isEmpty());
+      for (Event event : events) {
+        Assert.assertEquals(date, event.getStartTime().toLocalDate().toString());
+        plannedPois.add(event.getName());
+      }
+    }
+    Collections.sort(dates);
+    Collections.sort(plannedPois);
+    Assert.assertEquals(Arrays.asList("2020-07-15", "2020-07-16", "2020-07-17"), dates);
+    Assert.assertEquals(Arrays.asList(pois), plannedPois);
+
+    // The read view is written with the trip, with the days in date order.
+    TripView tripView = TripView.fromEntity(datastore.get(TripView.getViewKey(tripKey)));
+    Assert.assertEquals(3, tripView.getDays().size());
+    Assert.assertEquals("2020-07-15", tripView.getDays().get(0).getDate());
+    Assert.assertEquals("2020-07-17", tripView.getDays().get(2).getDate());
+  }
+
+  // Test that events and days of resolved POIs refer to one shared place
+  // entity, which holds only Place Details fields and none of the text the
+  // users typed.
+  @Test
+  public void testPlanTripRefersToSharedPlaces() throws Exception {
+    String[] pois = {"Eiffel Tower, Paris", "la tour eiffel"};
+    PowerMockito.mockStatic(PlacesApi.class);
+    FindPlaceFromTextRequest hotelRequest = PowerMockito.mock(FindPlaceFromTextRequest.class);
+    mockFindPlaceCallback(hotelRequest, buildFindPlaceResult("hotel"));
+    when(PlacesApi.findPlaceFromText(any(), eq("Hotel"), any())).thenReturn(hotelRequest);
+    for (String poi : pois) {
+      FindPlaceFromTextRequest poiRequest = PowerMockito.mock(FindPlaceFromTextRequest.class);
+      mockFindPlaceCallback(poiRequest, buildFindPlaceResult(PLACE_ID));
+      when(PlacesApi.findPlaceFromText(any(), eq(poi), any())).thenReturn(poiRequest);
+    }
+    mockPlaceDetails(PLACE_ID, "Tour Eiffel", "Champ de Mars, 75007 Paris, France");
+
+    DistanceMatrixApiRequest matrixRequest = PowerMockito.mock(DistanceMatrixApiRequest.class);
+    when(matrixRequest.origins(ArgumentMatchers.<String>any())).thenReturn(matrixRequest);
+    when(matrixRequest.destinations(ArgumentMatchers.<String>any())).thenReturn(matrixRequest);
+    when(matrixRequest.mode(any())).thenReturn(matrixRequest);
+    mockDistanceMatrixCallback(matrixRequest, buildDistanceMatrix(2, 600));
+    PowerMockito.mockStatic(DistanceMatrixApi.class);
+    when(DistanceMatrixApi.newRequest(any())).thenReturn(matrixRequest);
+
+    tripServlet.init();
+    for (int i = 0; i < pois.length; i++) {
+      Entity userEntity = new com.google.sps.data.User("user" + i + "@example.com").buildEntity();
+      datastore.put(userEntity);
+      PlanningContext planningContext = new PlanningContext("Trip", "Hotel", "2020-07-15",
+        "2020-07-15", Arrays.asList(pois[i]), "Destination", "photo");
+      Key tripKey = Trip.allocateKey(datastore, userEntity.getKey());
+      tripServlet.planTrip(planningContext, tripKey, stage -> {});
+
+      // The event and the day store the place ID, not the typed text.
+      Entity eventEntity = datastore.prepare(new Query(Event.QUERY_STRING)
+        .setAncestor(tripKey)).asSingleEntity();
+      Assert.assertEquals(PLACE_ID, Event.getPlaceReference(eventEntity));
+      Entity tripDayEntity = datastore.prepare(new Query(TripDay.QUERY_STRING)
+        .setAncestor(tripKey)).asSingleEntity();
+      Assert.assertEquals(Arrays.asList(PLACE_ID), TripDay.placeIdsFromEntity(tripDayEntity));
+      Assert.assertEquals(Arrays.asList((String) null), 
+        TripDay.locationsFromEntity(tripDayEntity));
+
+      // Reads resolve them from the place.
+      TripView.Day day = TripView.fromEntity(datastore.get(TripView.getViewKey(tripKey)))
+        .getDays().get(0);
+      Assert.assertEquals(Arrays.asList("Champ de Mars, 75007 Paris, France"), 
+        day.getLocations());
+      Assert.assertEquals("Tour Eiffel", day.getEvents().get(0).getName());
+      TripView.rebuild(datastore, tripKey);
+      Assert.assertEquals("Tour Eiffel", new TripRepository(datastore)
+        .getEventsByTripDay(tripKey).get(tripDayEntity.getKey()).get(0).getName());
+    }
+
+    Entity placeEntity = datastore.get(PlaceStore.toKey(PLACE_ID));
+    Assert.assertEquals("Tour Eiffel", placeEntity.getProperty(PlaceStore.NAME));
+    Assert.assertEquals("Champ de Mars, 75007 Paris, France", 
+      placeEntity.getProperty(PlaceStore.ADDRESS));
+  }
+
+  // Test that the days of a multi-day trip are routed separately, and that
+  // their orders use the POI indices of the whole trip.
+  @Test
+  public void testOptimizeDayWaypointOrders() {
+    // Hotel at 0, POIs 0 and 2 close to each other, POIs 1 and 3 too.
+    int[] positions = {0, -1000, 1000, -1010, 1010};
+    int size = positions.length;
+    int[] durations = new int[size * size];
+    for (int from = 0; from < size; from++) {
+      for (int to = 0; to < size; to++) {
+        durations[from * size + to] = Math.abs(positions[from] - positions[to]);
+      }
+    }
+
+    int[][] dayOrders = TripServlet.optimizeDayWaypointOrders(durations, size, 2);
+
+    Assert.assertEquals(2, dayOrders.length);
+    for (int[] dayOrder : dayOrders) {
+      Assert.assertEquals(2, dayOrder.length);
+      Assert.assertEquals(dayOrder[0] % 2, dayOrder[1] % 2);
+    }
+    Assert.assertArrayEquals(new int[][] {TripServlet.optimizeWaypointOrder(durations, size)},
+      TripServlet.optimizeDayWaypointOrders(durations, size, 1));
+  }
+
+  // Test that trips up to 15 POIs are routed exactly, and that the solver
+  // kept for the thread also routes smaller trips after a larger one.
+  @Test
+  public void testOptimizeWaypointOrderExact() {
+    int[] positions = new int[16];
+    for (int poi = 0; poi < 15; poi++) {
+      positions[poi + 1] = ((poi * 7) % 15 - 7) * 100;
+    }
+    Assert.assertEquals(2 * 1400, routeDuration(positions));
+
+    int[] smallPositions = {0, 300, -100, 200};
+    Assert.assertEquals(2 * 400, routeDuration(smallPositions));
+  }
+
+  /**
+   * Helper method to return the duration of the route TripServlet finds
+   * between locations on a line, with the hotel at index 0.
+   */
+  private static int routeDuration(int[] positions) {
+    int size = positions.length;
+    int[] durations = new int[size * size];
+    for (int from = 0; from < size; from++) {
+      for (int to = 0; to < size; to++) {
+        durations[from * size + to] = Math.abs(positions[from] - positions[to]);
+      }
+    }
+
+    int[] waypointOrder = TripServlet.optimizeWaypointOrder(durations, size);
+    int duration = 0;
+    int from = 0;
+    for (int waypoint : waypointOrder) {
+      duration += durations[from * size + waypoint + 1];
+      from = waypoint + 1;
+    }
+    return duration + durations[from * size];
+  }
+
+  /**
+   * Helper method to name POI j of request i.
+   */
+  private static String poiName(int i, int j) {
+    return "Attraction " + i + "-" + j;
+  }
+
+  /**
+   * Helper method to create a size x size Distance Matrix response where 
+   * every leg takes the same number of seconds.
+   */
+  private static DistanceMatrix buildDistanceMatrix(int size, long seconds) {
+    DistanceMatrixRow[] rows = new DistanceMatrixRow[size];
+    for (int row = 0; row < size; row++) {
+      rows[row] = new DistanceMatrixRow();
+      rows[row].elements = new DistanceMatrixElement[size];
+      for (int column = 0; column < size; column++) {
+        DistanceMatrixElement element = new DistanceMatrixElement();
+        element.status = DistanceMatrixElementStatus.OK;
+        element.duration = new Duration();
+        element.duration.inSeconds = seconds;
+        rows[row].elements[column] = element;
+      }
+    }
+    return new DistanceMatrix(new String[size], new String[size], rows);
+  }
+
   @Test
-  public void testPutTripDayInDatastore() throws Exception {
+  public void testAddTripDayToBatch() throws Exception {
     // create key
     Key testKey = KeyFactory.createKey("test", ((long) 123));
+    Key tripDayKey = datastore.allocateIds(testKey, TripDay.QUERY_STRING, 1).getStart();
 
-    // put entity in datastore and query it
-    Entity tripDayEntity = tripServlet.putTripDayInDatastore(INPUT_DESTINATION, datastore, INPUT_DATE, testKey);
+    // add the entity to a batch, write it and query it
+    EntityWriteBatch writeBatch = new EntityWriteBatch(datastore);
+    Entity tripDayEntity = tripServlet.addTripDayToBatch(INPUT_DESTINATION, 
+      Arrays.asList(POI_ONE), Arrays.asList((String) null), writeBatch, INPUT_DATE, tripDayKey);
+    writeBatch.commit();
     Query query = new Query(TripDay.QUERY_STRING);
     PreparedQuery results = datastore.prepare(query);
     List<Entity> listResults = results.asList(FetchOptions.Builder.withDefaults());
@@ -242,55 +618,17 @@ public final class TripServletTest {
     // check size, tripDayEntity is correctly added
     Assert.assertEquals(1, listResults.size());
     Assert.assertEquals(listResults.get(0), tripDayEntity);
+    Assert.assertEquals(Arrays.asList(POI_ONE), TripDay.locationsFromEntity(tripDayEntity));
   }
 
   @Test
-  public void testPutEventsInDatastore() throws Exception {
-    // Mock the GeoApiContext object to be passed into PlacesApi methods,
-    // and the FindPlaceFromTextRequest.
-    GeoApiContext mockGeoApiContext = mock(GeoApiContext.class);
-    FindPlaceFromTextRequest findPlaceRequest = 
-      PowerMockito.mock(FindPlaceFromTextRequest.class);
-
-    // Create the FindPlaceFromText object with a valid place ID.
-    FindPlaceFromText findPlaceResult = new FindPlaceFromText();
-    findPlaceResult.candidates = new PlacesSearchResult[2];
-    findPlaceResult.candidates[0] = new PlacesSearchResult();
-    findPlaceResult.candidates[0].placeId = PLACE_ID_1;
-    findPlaceResult.candidates[1] = new PlacesSearchResult();
-    findPlaceResult.candidates[1].placeId = PLACE_ID_2;
-
-    // Have the findPlaceRequest.await() method return the FindPlaceFromText
-    // object using PowerMockito, as await() is a final method.
-    PowerMockito.when(findPlaceRequest.await()).thenReturn(findPlaceResult);
-
-    // Mock the PlacesApi object.
-    PowerMockito.mockStatic(PlacesApi.class);
-    when(PlacesApi.findPlaceFromText(any(), anyString(), any()))
-      .thenReturn(findPlaceRequest);
-
-    // Run the getPlaceIdFromTextSearch(...) method to test the result.
-    String placeIdResult = tripServlet.getPlaceIdFromTextSearch(mockGeoApiContext, 
-      TEXT_LOCATION_SEARCH);
-      
-    // set mock object behavior
-    when(request.getParameter("poi-1")).thenReturn(POI_ONE);
-    when(request.getParameter("poi-2")).thenReturn(POI_TWO);
-
-    // manually create params list
-    List<String> paramsList = new ArrayList<>();
-    paramsList.add("inputDestination");
-    paramsList.add("inputDayOfTravel");
-    paramsList.add("inputTripName");
-    paramsList.add("poi-1");
-    paramsList.add("poi-2");
-    Enumeration<String> params = Collections.enumeration(paramsList);
-
+  public void testAddEventsToBatch() throws Exception {
     // Manually create list of ordered locations
     List<String> orderedLocations = new ArrayList<>();
     orderedLocations.add("MoPOP, 5th Avenue North, Seattle, WA, USA");
     orderedLocations.add("Space Needle, Broad Street, Seattle, WA, USA");
     orderedLocations.add("Alki Beach, Seattle, WA, USA");
+    List<String> placeIds = Arrays.asList(null, null, null);
 
     // Manually create list of travelTimes
     List<Integer> travelTimes = new ArrayList<>();
@@ -299,18 +637,18 @@ public final class TripServletTest {
     travelTimes.add(25);
     travelTimes.add(35);
 
-    // initialize datastore
-    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-
-    // create tripDay entity, needed for put events in datastore
+    // create tripDay entity, the parent of the events
     Entity tripDayEntity = new Entity(TripDay.QUERY_STRING);
     tripDayEntity.setProperty("origin", INPUT_DESTINATION);
     tripDayEntity.setProperty("destination", INPUT_DESTINATION);
     tripDayEntity.setProperty("date", INPUT_DATE.toString());
     datastore.put(tripDayEntity);
 
-    // put entities in datastore and query them
-    List<Entity> eventEntities = tripServlet.putEventsInDatastore(tripDayEntity, INPUT_DATE, datastore, orderedLocations, travelTimes);
+    // add the entities to a batch, write them and query them
+    EntityWriteBatch writeBatch = new EntityWriteBatch(datastore);
+    List<Entity> eventEntities = tripServlet.addEventsToBatch(tripDayEntity, INPUT_DATE, 
+      writeBatch, orderedLocations, placeIds, travelTimes);
+    writeBatch.commit();
     Query query = new Query(Event.QUERY_STRING);
     PreparedQuery results = datastore.prepare(query);
     List<Entity> listResults = results.asList(FetchOptions.Builder.withDefaults());
@@ -386,124 +724,225 @@ public final class TripServletTest {
   }
 
   @Test
-  public void testStoreTripEntityLoggedIn() throws Exception {
-    // Mock response.      
-    HttpServletResponse responseMock = mock(HttpServletResponse.class);
-    
-    // Create Trip Entity properties.
-    final String tripName = "Family Vacation";
-    final String destinationName = "Island of Hawai'i";
-    final String tripDayOfTravel = "2020-07-17";
-    final String photoSrc = "../images/placeholder_image.png";
-
-    // Mock UserService methods as logged-in user.
-    UserService userServiceMock = mock(UserService.class);
-    when(userServiceMock.isUserLoggedIn()).thenReturn(true);
-    // This is the User object from Google Appengine (full path given to avoid
-    // confusion with local User.java file).
-    when(userServiceMock.getCurrentUser()).thenReturn(
-        new com.google.appengine.api.users.User(EMAIL, AUTH_DOMAIN));
-    when(userServiceMock.createLogoutURL(AuthServlet.redirectUrl)).thenReturn(LOGOUT_URL);
+  public void testGetPlaceIdsFromTextSearchesRouteOrder() throws Exception {
+    GeoApiContext mockGeoApiContext = mock(GeoApiContext.class);
 
-    // PowerMock static getUserService() method, which is used to get the user.
-    PowerMockito.mockStatic(UserServiceFactory.class);
-    when(UserServiceFactory.getUserService()).thenReturn(userServiceMock);
+    // Create one request per POI, each resolving to a different place ID.
+    FindPlaceFromTextRequest findPlaceRequest1 = 
+      PowerMockito.mock(FindPlaceFromTextRequest.class);
+    FindPlaceFromTextRequest findPlaceRequest2 = 
+      PowerMockito.mock(FindPlaceFromTextRequest.class);
+    mockFindPlaceCallback(findPlaceRequest1, buildFindPlaceResult(PLACE_ID_1));
+    mockFindPlaceCallback(findPlaceRequest2, buildFindPlaceResult(PLACE_ID_2));
 
-    // Run storeTripEntity(...), with the User logged in (so trip is stored).
-    Entity tripEntityReturn = tripServlet.storeTripEntity(responseMock,
-      tripName, destinationName, tripDayOfTravel, photoSrc, datastore);
+    // Mock the PlacesApi object so that each POI gets its own request.
+    PowerMockito.mockStatic(PlacesApi.class);
+    when(PlacesApi.findPlaceFromText(any(), eq(POI_ONE), any()))
+      .thenReturn(findPlaceRequest1);
+    when(PlacesApi.findPlaceFromText(any(), eq(POI_TWO), any()))
+      .thenReturn(findPlaceRequest2);
+
+    // Resolve the POIs in reverse order, and confirm the order is kept.
+    List<String> pois = new ArrayList<>();
+    pois.add(POI_TWO);
+    pois.add(POI_ONE);
+    List<String> placeIds = 
+      tripServlet.getPlaceIdsFromTextSearches(mockGeoApiContext, pois);
+
+    List<String> expectedPlaceIds = new ArrayList<>();
+    expectedPlaceIds.add(PLACE_ID_2);
+    expectedPlaceIds.add(PLACE_ID_1);
+    Assert.assertEquals(expectedPlaceIds, placeIds);
+  }
 
-    // Retrieve the datastore results.
-    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-    Query query = new Query(Trip.TRIP);
-    PreparedQuery results = datastore.prepare(query);
-    List<Entity> listResults = results.asList(FetchOptions.Builder.withDefaults());
+  @Test
+  public void testGetPlaceIdsFromTextSearchesNoCandidates() throws Exception {
+    GeoApiContext mockGeoApiContext = mock(GeoApiContext.class);
+    FindPlaceFromTextRequest findPlaceRequest = 
+      PowerMockito.mock(FindPlaceFromTextRequest.class);
+    mockFindPlaceCallback(findPlaceRequest, new FindPlaceFromText());
 
-    // Check whether the proper Entity and count were returned.
-    Assert.assertEquals(1, listResults.size());
-    Assert.assertEquals(tripName, listResults.get(0).getProperty(Trip.TRIP_NAME));
-    Assert.assertEquals(destinationName, listResults.get(0).getProperty(Trip.DESTINATION_NAME));
-    Assert.assertEquals(tripDayOfTravel, listResults.get(0).getProperty(Trip.START_DATE));
-    Assert.assertEquals(tripDayOfTravel, listResults.get(0).getProperty(Trip.END_DATE));
-    Assert.assertEquals(photoSrc, listResults.get(0).getProperty(Trip.IMAGE_SRC));
-    
-    // Confirm that the Entity in the database matches the method return.
-    Assert.assertEquals(listResults.get(0), tripEntityReturn);
+    PowerMockito.mockStatic(PlacesApi.class);
+    when(PlacesApi.findPlaceFromText(any(), anyString(), any()))
+      .thenReturn(findPlaceRequest);
+
+    List<String> pois = new ArrayList<>();
+    pois.add(POI_ONE);
+    List<String> placeIds = 
+      tripServlet.getPlaceIdsFromTextSearches(mockGeoApiContext, pois);
+
+    // Confirm that a search without candidates maps to null.
+    Assert.assertEquals(1, placeIds.size());
+    Assert.assertNull(placeIds.get(0));
   }
 
-  @Test
-  public void testStoreTripEntityLoggedInCheckUser() throws Exception {
-    // Mock response.      
-    HttpServletResponse responseMock = mock(HttpServletResponse.class);
-    
-    // Create Trip Entity properties.
-    final String tripName = "Family Vacation";
-    final String destinationName = "Island of Hawai'i";
-    final String tripDayOfTravel = "2020-07-17";
-    final String photoSrc = "../images/placeholder_image.png";
-
-    // Mock UserService methods as logged-in user.
-    UserService userServiceMock = mock(UserService.class);
-    when(userServiceMock.isUserLoggedIn()).thenReturn(true);
-    // This is the User object from Google Appengine (full path given to avoid
-    // confusion with local User.java file).
-    when(userServiceMock.getCurrentUser()).thenReturn(
-        new com.google.appengine.api.users.User(EMAIL, AUTH_DOMAIN));
-    when(userServiceMock.createLogoutURL(AuthServlet.redirectUrl)).thenReturn(LOGOUT_URL);
+  @Test(expected = IOException.class)
+  public void testGetPlaceIdsFromTextSearchesFailure() throws Exception {
+    GeoApiContext mockGeoApiContext = mock(GeoApiContext.class);
+    FindPlaceFromTextRequest findPlaceRequest = 
+      PowerMockito.mock(FindPlaceFromTextRequest.class);
 
-    // PowerMock static getUserService() method, which is used to get the user.
-    PowerMockito.mockStatic(UserServiceFactory.class);
-    when(UserServiceFactory.getUserService()).thenReturn(userServiceMock);
+    // Have the async request fail from another thread.
+    PowerMockito.doAnswer(invocation -> {
+      PendingResult.Callback<FindPlaceFromText> callback = invocation.getArgument(0);
+      new Thread(() -> callback.onFailure(new IOException("request failed"))).start();
+      return null;
+    }).when(findPlaceRequest).setCallback(any());
 
-    // Run storeTripEntity(...), with the User logged in (so trip is stored).
-    tripServlet.storeTripEntity(responseMock, tripName, destinationName, 
-      tripDayOfTravel, photoSrc, datastore);
+    PowerMockito.mockStatic(PlacesApi.class);
+    when(PlacesApi.findPlaceFromText(any(), anyString(), any()))
+      .thenReturn(findPlaceRequest);
 
-    // Retrieve the datastore results.
-    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-    Query query = new Query(Trip.TRIP);
-    PreparedQuery results = datastore.prepare(query);
-    List<Entity> listResults = results.asList(FetchOptions.Builder.withDefaults());
+    List<String> pois = new ArrayList<>();
+    pois.add(POI_ONE);
+    tripServlet.getPlaceIdsFromTextSearches(mockGeoApiContext, pois);
+  }
 
-    // Check that the Trip Entity has the User as an ancestor / parent.
-    Key userAncestorKey = listResults.get(0).getParent();
-    Entity userEntity = datastore.get(userAncestorKey);
-    Assert.assertEquals(User.USER, userEntity.getKind());
-    Assert.assertEquals(EMAIL, userEntity.getProperty(User.USER_EMAIL));
+  // Test that repeated searches are answered from the place ID cache.
+  @Test
+  public void testGetPlaceIdsFromTextSearchesCached() throws Exception {
+    GeoApiContext mockGeoApiContext = mock(GeoApiContext.class);
+    FindPlaceFromTextRequest findPlaceRequest1 = 
+      PowerMockito.mock(FindPlaceFromTextRequest.class);
+    FindPlaceFromTextRequest findPlaceRequest2 = 
+      PowerMockito.mock(FindPlaceFromTextRequest.class);
+    mockFindPlaceCallback(findPlaceRequest1, buildFindPlaceResult(PLACE_ID_1));
+    mockFindPlaceCallback(findPlaceRequest2, new FindPlaceFromText());
+
+    PowerMockito.mockStatic(PlacesApi.class);
+    when(PlacesApi.findPlaceFromText(any(), eq(POI_ONE), any()))
+      .thenReturn(findPlaceRequest1);
+    when(PlacesApi.findPlaceFromText(any(), eq(POI_TWO), any()))
+      .thenReturn(findPlaceRequest2);
+
+    // The same POI twice in one trip, differing only in case, is searched once.
+    List<String> pois = new ArrayList<>();
+    pois.add(POI_ONE);
+    pois.add(POI_TWO);
+    pois.add(POI_ONE.toUpperCase());
+    List<String> placeIds = 
+      tripServlet.getPlaceIdsFromTextSearches(mockGeoApiContext, pois);
+
+    // A repeat trip, also on a new servlet instance, makes no Find Place calls.
+    List<String> repeatPlaceIds = 
+      tripServlet.getPlaceIdsFromTextSearches(mockGeoApiContext, pois);
+    List<String> otherInstancePlaceIds = 
+      new TripServlet().getPlaceIdsFromTextSearches(mockGeoApiContext, pois);
+    String singlePlaceId = 
+      new TripServlet().getPlaceIdFromTextSearch(mockGeoApiContext, POI_ONE);
+
+    List<String> expectedPlaceIds = new ArrayList<>();
+    expectedPlaceIds.add(PLACE_ID_1);
+    expectedPlaceIds.add(null);
+    expectedPlaceIds.add(PLACE_ID_1);
+    Assert.assertEquals(expectedPlaceIds, placeIds);
+    Assert.assertEquals(expectedPlaceIds, repeatPlaceIds);
+    Assert.assertEquals(expectedPlaceIds, otherInstancePlaceIds);
+    Assert.assertEquals(PLACE_ID_1, singlePlaceId);
+
+    PowerMockito.verifyStatic(PlacesApi.class, times(1));
+    PlacesApi.findPlaceFromText(any(), eq(POI_ONE), any());
+    PowerMockito.verifyStatic(PlacesApi.class, times(1));
+    PlacesApi.findPlaceFromText(any(), eq(POI_TWO), any());
+    PowerMockito.verifyStatic(PlacesApi.class, never());
+    PlacesApi.findPlaceFromText(any(), eq(POI_ONE.toUpperCase()), any());
   }
 
+  // Test that place details are requested once, with only the summary fields.
   @Test
-  public void testStoreTripEntityNotLoggedIn() throws Exception {
-    // Mock response.      
-    HttpServletResponse responseMock = mock(HttpServletResponse.class);
-    
-    // Create Trip Entity properties.
-    final String tripName = "Family Vacation";
-    final String destinationName = "Island of Hawai'i";
-    final String tripDayOfTravel = "2020-07-17";
-    final String photoSrc = "../images/placeholder_image.png";
-
-    // Mock UserService methods as logged-out user.
-    UserService userServiceMock = mock(UserService.class);
-    when(userServiceMock.isUserLoggedIn()).thenReturn(false);
-    when(userServiceMock.createLoginURL(AuthServlet.redirectUrl)).thenReturn(LOGIN_URL);
+  public void testGetPlaceSummaryCached() throws Exception {
+    GeoApiContext mockGeoApiContext = mock(GeoApiContext.class);
+    PlaceDetailsRequest placeDetailsRequest = PowerMockito.mock(PlaceDetailsRequest.class);
+
+    PlaceDetails placeDetails = new PlaceDetails();
+    placeDetails.name = "Island of Hawai'i";
+    placeDetails.photos = new Photo[1];
+    placeDetails.photos[0] = new Photo();
+    placeDetails.photos[0].photoReference = "photo-reference";
+    placeDetails.geometry = new Geometry();
+    placeDetails.geometry.location = new LatLng(19.5429, -155.6659);
+    when(placeDetailsRequest.fields(ArgumentMatchers.<PlaceDetailsRequest.FieldMask>any()))
+      .thenReturn(placeDetailsRequest);
+    PowerMockito.when(placeDetailsRequest.await()).thenReturn(placeDetails);
 
-    // PowerMock static getUserService() method, which is used to get the user.
-    PowerMockito.mockStatic(UserServiceFactory.class);
-    when(UserServiceFactory.getUserService()).thenReturn(userServiceMock);
+    PowerMockito.mockStatic(PlacesApi.class);
+    when(PlacesApi.placeDetails(any(), eq(PLACE_ID))).thenReturn(placeDetailsRequest);
+
+    PlaceSummary place = tripServlet.getPlaceSummary(mockGeoApiContext, PLACE_ID);
+    PlaceSummary repeatPlace = tripServlet.getPlaceSummary(mockGeoApiContext, PLACE_ID);
+    PlaceSummary otherInstancePlace = 
+      new TripServlet().getPlaceSummary(mockGeoApiContext, PLACE_ID);
+
+    Assert.assertEquals("Island of Hawai'i", place.getName());
+    Assert.assertEquals("photo-reference", place.getPhotoReference());
+    Assert.assertEquals(19.5429, place.getLatitude(), 0);
+    Assert.assertSame(place, repeatPlace);
+    Assert.assertEquals("photo-reference", otherInstancePlace.getPhotoReference());
+
+    PowerMockito.verifyStatic(PlacesApi.class, times(1));
+    PlacesApi.placeDetails(any(), eq(PLACE_ID));
+    verify(placeDetailsRequest).fields(PlaceSummary.FIELDS);
+  }
+
+  /**
+   * Helper method to create a FindPlaceFromText result with one candidate.
+   */
+  private static FindPlaceFromText buildFindPlaceResult(String placeId) {
+    FindPlaceFromText findPlaceResult = new FindPlaceFromText();
+    findPlaceResult.candidates = new PlacesSearchResult[1];
+    findPlaceResult.candidates[0] = new PlacesSearchResult();
+    findPlaceResult.candidates[0].placeId = placeId;
+    return findPlaceResult;
+  }
 
-    // Run storeTripEntity(...), with the User not logged in (so nothing is stored).
-    Entity tripEntityReturn = tripServlet.storeTripEntity(responseMock,
-      tripName, destinationName, tripDayOfTravel, photoSrc, datastore);
+  /**
+   * Helper method to have a mocked request deliver its result to the callback
+   * passed into setCallback(...) from another thread, as the real client does.
+   */
+  private static void mockFindPlaceCallback(FindPlaceFromTextRequest findPlaceRequest,
+    FindPlaceFromText findPlaceResult) {
+
+    PowerMockito.doAnswer(invocation -> {
+      PendingResult.Callback<FindPlaceFromText> callback = invocation.getArgument(0);
+      new Thread(() -> callback.onResult(findPlaceResult)).start();
+      return null;
+    }).when(findPlaceRequest).setCallback(any());
+  }
 
-    // Retrieve the datastore results.
-    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-    Query query = new Query(User.USER);
-    PreparedQuery results = datastore.prepare(query);
-    List<Entity> listResults = results.asList(FetchOptions.Builder.withDefaults());
+  /**
+   * Helper method to have Place Details requests for the place ID return the
+   * given name and address, both through await() and through the callback
+   * passed into setCallback(...). PlacesApi must already be mocked.
+   */
+  private static void mockPlaceDetails(String placeId, String name, String address)
+    throws Exception {
+
+    PlaceDetails placeDetails = new PlaceDetails();
+    placeDetails.name = name;
+    placeDetails.formattedAddress = address;
+    PlaceDetailsRequest placeDetailsRequest = PowerMockito.mock(PlaceDetailsRequest.class);
+    when(placeDetailsRequest.fields(ArgumentMatchers.<PlaceDetailsRequest.FieldMask>any()))
+      .thenReturn(placeDetailsRequest);
+    PowerMockito.when(placeDetailsRequest.await()).thenReturn(placeDetails);
+    PowerMockito.doAnswer(invocation -> {
+      PendingResult.Callback<PlaceDetails> callback = invocation.getArgument(0);
+      new Thread(() -> callback.onResult(placeDetails)).start();
+      return null;
+    }).when(placeDetailsRequest).setCallback(any());
+    when(PlacesApi.placeDetails(any(), eq(placeId))).thenReturn(placeDetailsRequest);
+  }
 
-    // Check whether the proper Entity and count were returned.
-    Assert.assertEquals(0, listResults.size());
-    Assert.assertNull(tripEntityReturn);
+  /**
+   * Helper method to have the async setCallback(...) method of a Distance
+   * Matrix request deliver the given response.
+   */
+  private static void mockDistanceMatrixCallback(DistanceMatrixApiRequest matrixRequest,
+    DistanceMatrix matrix) {
+
+    PowerMockito.doAnswer(invocation -> {
+      PendingResult.Callback<DistanceMatrix> callback = invocation.getArgument(0);
+      new Thread(() -> callback.onResult(matrix)).start();
+      return null;
+    }).when(matrixRequest).setCallback(any());
   }
 }
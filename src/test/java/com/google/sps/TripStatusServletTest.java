@@ -0,0 +1,159 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import static org.mockito.Mockito.*;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.sps.data.User;
+import com.google.sps.jobs.TripJob;
+import com.google.sps.servlets.AuthServlet;
+import com.google.sps.servlets.TripStatusServlet;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({AuthServlet.class})
+public final class TripStatusServletTest {
+
+  private static final String EMAIL = "test123@gmail.com";
+  private static final String EMAIL2 = "test456@gmail.com";
+  private static final String[] POIS = {"Louvre Museum"};
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+  private TripStatusServlet tripStatusServlet;
+  private DatastoreService datastore;
+  private Entity userEntity;
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    tripStatusServlet = new TripStatusServlet();
+    datastore = DatastoreServiceFactory.getDatastoreService();
+    userEntity = new User(EMAIL).buildEntity();
+    datastore.put(userEntity);
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  // Test that doGet writes the status, stage and trip key of a finished job.
+  @Test
+  public void testDoGetDoneJob() throws Exception {
+    Entity jobEntity = buildJob(userEntity.getKey());
+    jobEntity.setProperty(TripJob.TRIP_KEY, "trip-key-string");
+    TripJob.setProgress(jobEntity, TripJob.Status.DONE, TripJob.STAGE_FINISHED);
+    Key jobKey = datastore.put(jobEntity);
+
+    PowerMockito.mockStatic(AuthServlet.class);
+    PowerMockito.when(AuthServlet.getCurrentUserEntity()).thenReturn(userEntity);
+
+    HttpServletRequest request = mock(HttpServletRequest.class);
+    HttpServletResponse response = mock(HttpServletResponse.class);
+    StringWriter stringWriter = new StringWriter();
+    when(response.getWriter()).thenReturn(new PrintWriter(stringWriter, true));
+    when(request.getParameter("jobId")).thenReturn(KeyFactory.keyToString(jobKey));
+
+    tripStatusServlet.doGet(request, response);
+
+    Assert.assertEquals("{\"status\":\"DONE\",\"stage\":\"Finished\","
+        + "\"tripKey\":\"trip-key-string\"}", stringWriter.toString().trim());
+  }
+
+  // Test that a pending job reports its queued stage.
+  @Test
+  public void testGetJobStatusPending() {
+    Key jobKey = datastore.put(buildJob(userEntity.getKey()));
+
+    TripStatusServlet.JobStatus jobStatus = tripStatusServlet.getJobStatus(datastore, 
+        userEntity.getKey(), KeyFactory.keyToString(jobKey));
+
+    Assert.assertEquals("PENDING", jobStatus.getStatus());
+    Assert.assertEquals(TripJob.STAGE_QUEUED, jobStatus.getStage());
+    Assert.assertNull(jobStatus.getTripKey());
+  }
+
+  // Test that the trip key of a running job, whose trip is not stored yet,
+  // is not reported.
+  @Test
+  public void testGetJobStatusRunningHidesTripKey() {
+    Entity jobEntity = buildJob(userEntity.getKey());
+    jobEntity.setProperty(TripJob.TRIP_KEY, "trip-key-string");
+    TripJob.setProgress(jobEntity, TripJob.Status.RUNNING, TripJob.STAGE_SAVING_TRIP);
+    Key jobKey = datastore.put(jobEntity);
+
+    TripStatusServlet.JobStatus jobStatus = tripStatusServlet.getJobStatus(datastore, 
+        userEntity.getKey(), KeyFactory.keyToString(jobKey));
+
+    Assert.assertEquals("RUNNING", jobStatus.getStatus());
+    Assert.assertNull(jobStatus.getTripKey());
+  }
+
+  // Test that jobs of other users, and malformed or non-job IDs, are not found.
+  @Test
+  public void testGetJobStatusNotFound() {
+    Entity otherUserEntity = new User(EMAIL2).buildEntity();
+    datastore.put(otherUserEntity);
+    Key otherJobKey = datastore.put(buildJob(otherUserEntity.getKey()));
+
+    Assert.assertNull(tripStatusServlet.getJobStatus(datastore, userEntity.getKey(), 
+        KeyFactory.keyToString(otherJobKey)));
+    Assert.assertNull(tripStatusServlet.getJobStatus(datastore, userEntity.getKey(), 
+        "not-a-key"));
+    Assert.assertNull(tripStatusServlet.getJobStatus(datastore, userEntity.getKey(), 
+        KeyFactory.keyToString(userEntity.getKey())));
+  }
+
+  // Test that a missing jobId parameter is a bad request.
+  @Test
+  public void testDoGetMissingJobId() throws Exception {
+    PowerMockito.mockStatic(AuthServlet.class);
+    PowerMockito.when(AuthServlet.getCurrentUserEntity()).thenReturn(userEntity);
+
+    HttpServletRequest request = mock(HttpServletRequest.class);
+    HttpServletResponse response = mock(HttpServletResponse.class);
+
+    tripStatusServlet.doGet(request, response);
+
+    verify(response).sendError(HttpServletResponse.SC_BAD_REQUEST);
+  }
+
+  /**
+   * Helper method to build a pending job for the user.
+   */
+  private static Entity buildJob(Key userKey) {
+    return TripJob.buildEntity("Trip to Paris", "Eiffel Tower", "2020-07-15", null, POIS,
+        userKey);
+  }
+}
@@ -106,8 +106,10 @@ public final class TripTest {
     Assert.assertEquals(TRIP_NAME, tripEntity.getProperty(Trip.TRIP_NAME));
     Assert.assertEquals(DESTINATION_NAME, tripEntity.getProperty(Trip.DESTINATION_NAME));
     Assert.assertEquals(IMAGE_SRC, tripEntity.getProperty(Trip.IMAGE_SRC));
-    Assert.assertEquals(START_DATE_STRING, tripEntity.getProperty(Trip.START_DATE));
-    Assert.assertEquals(END_DATE_STRING, tripEntity.getProperty(Trip.END_DATE));
+    Assert.assertEquals(PropertyCodec.fromDateString(START_DATE_STRING),
+      tripEntity.getProperty(Trip.START_DATE));
+    Assert.assertEquals(PropertyCodec.fromDateString(END_DATE_STRING),
+      tripEntity.getProperty(Trip.END_DATE));
   }
 
   // Test the trip build trip from entity
@@ -0,0 +1,188 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.sps.data.Event;
+import com.google.sps.data.User;
+import com.google.sps.places.PlaceStore;
+import com.google.sps.places.PlaceSummary;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class TripViewTest {
+
+  private static final String TRIP_NAME = "Trip to California";
+  private static final String DESTINATION_NAME = "California";
+  private static final String IMAGE_SRC = "https://example.com/photo.jpg";
+  private static final String HOTEL = "4265 24th Street San Francisco, CA, 94114";
+  private static final String FIRST_DAY = "2020-07-15";
+  private static final String SECOND_DAY = "2020-07-16";
+  private static final String DOME = "Half Dome, CA";
+  private static final String YOSEMITE = "Upper Yosemite Fall, CA";
+  private static final String PLACE_ID = "1234";
+  private static final int HALF_HOUR = 30;
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+  private DatastoreService datastore;
+  private Key userKey;
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    datastore = DatastoreServiceFactory.getDatastoreService();
+    userKey = datastore.put(new User("test@example.com").buildEntity());
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  // Test that a missing view is rebuilt from the normalized entities, with
+  // the days in date order and the locations in route order, and stored.
+  @Test
+  public void testLoadRebuildsMissingView() throws Exception {
+    Key tripKey = putTrip();
+
+    TripView tripView = TripView.load(datastore, userKey, tripKey);
+
+    Assert.assertEquals(TRIP_NAME, tripView.getTripName());
+    Assert.assertEquals(2, tripView.getDays().size());
+    TripView.Day firstDay = tripView.getDays().get(0);
+    Assert.assertEquals(FIRST_DAY, firstDay.getDate());
+    Assert.assertEquals(HOTEL, firstDay.getOrigin());
+    Assert.assertEquals(Arrays.asList(YOSEMITE, DOME), firstDay.getLocations());
+    Assert.assertEquals(1, firstDay.getEvents().size());
+    Assert.assertEquals(DOME, firstDay.getEvents().get(0).getAddress());
+    Assert.assertEquals("Half Dome", firstDay.getEvents().get(0).getName());
+    Assert.assertEquals(SECOND_DAY, tripView.getDays().get(1).getDate());
+    Assert.assertTrue(tripView.getDays().get(1).getLocations().isEmpty());
+
+    TripView storedView = TripView.fromEntity(datastore.get(TripView.getViewKey(tripKey)));
+    Assert.assertEquals(firstDay.getLocations(),
+        storedView.getDays().get(0).getLocations());
+    Assert.assertEquals(firstDay.getEvents().get(0).getStartTime(),
+        storedView.getDays().get(0).getEvents().get(0).getStartTime());
+  }
+
+  // Test that a stored view is served as is, without reading the
+  // normalized entities again.
+  @Test
+  public void testLoadServesStoredView() throws Exception {
+    Key tripKey = putTrip();
+    TripView.load(datastore, userKey, tripKey);
+
+    // Remove the first day's events; the stored view still has them.
+    for (Entity eventEntity : Event.getEventEntitiesOfTrip(datastore, tripKey)) {
+      datastore.delete(eventEntity.getKey());
+    }
+    Assert.assertEquals(1,
+        TripView.load(datastore, userKey, tripKey).getDays().get(0).getEvents().size());
+
+    // A rebuild picks up the change.
+    Assert.assertTrue(
+        TripView.rebuild(datastore, tripKey).getDays().get(0).getEvents().isEmpty());
+    Assert.assertTrue(TripView.load(datastore, userKey, tripKey).getDays().get(0)
+        .getEvents().isEmpty());
+  }
+
+  // Test that trips of other users and missing trips have no view.
+  @Test
+  public void testLoadOtherUserOrMissingTrip() throws Exception {
+    Key tripKey = putTrip();
+    Key otherUserKey = datastore.put(new User("other@example.com").buildEntity());
+
+    Assert.assertNull(TripView.load(datastore, otherUserKey, tripKey));
+
+    datastore.delete(tripKey);
+    Assert.assertNull(TripView.load(datastore, userKey, tripKey));
+    try {
+      datastore.get(TripView.getViewKey(tripKey));
+      Assert.fail("The view of a missing trip should not be stored");
+    } catch (EntityNotFoundException e) {
+      // Expected: nothing is stored for a missing trip.
+    }
+  }
+
+  // Test that the locations of a day written before the locations property
+  // are read from its Location Entities, in route order.
+  @Test
+  public void testRebuildReadsLegacyLocationEntities() throws Exception {
+    Key tripKey = putTrip();
+    Entity firstDayEntity = new TripRepository(datastore).getTripDayEntities(tripKey).get(0);
+    firstDayEntity.removeProperty(TripDay.LOCATIONS);
+    datastore.put(firstDayEntity);
+    // Store the locations out of route order.
+    datastore.put(buildLocationEntity(firstDayEntity.getKey(), DOME, 1));
+    datastore.put(buildLocationEntity(firstDayEntity.getKey(), YOSEMITE, 0));
+
+    TripView tripView = TripView.rebuild(datastore, tripKey);
+
+    Assert.assertEquals(Arrays.asList(YOSEMITE, DOME), tripView.getDays().get(0).getLocations());
+    Assert.assertTrue(tripView.getDays().get(1).getLocations().isEmpty());
+  }
+
+  private static Entity buildLocationEntity(Key tripDayKey, String name, int order) {
+    Entity locationEntity = new Entity(TripDay.LOCATION_ENTITY_TYPE, tripDayKey);
+    locationEntity.setProperty(TripDay.NAME, name);
+    locationEntity.setProperty(TripDay.ORDER, order);
+    return locationEntity;
+  }
+
+  /**
+   * Puts a two-day trip, with the second day stored first, and returns the
+   * key of the Trip Entity. The first day has two locations and one event;
+   * the second location and the event refer to a place.
+   */
+  private Key putTrip() {
+    Entity tripEntity = Trip.buildEntity(TRIP_NAME, DESTINATION_NAME, IMAGE_SRC,
+        FIRST_DAY, SECOND_DAY, userKey);
+    Key tripKey = datastore.put(tripEntity);
+    datastore.put(PlaceStore.toEntity(
+        new PlaceSummary(PLACE_ID, "Half Dome", null, DOME, null, null, null)));
+
+    datastore.put(new TripDay(HOTEL, HOTEL, new ArrayList<>(), LocalDate.parse(SECOND_DAY))
+        .buildEntity(tripKey));
+    TripDay firstDay = new TripDay(HOTEL, HOTEL, Arrays.asList(YOSEMITE, DOME),
+        LocalDate.parse(FIRST_DAY));
+    firstDay.setPlaceIds(Arrays.asList(null, PLACE_ID));
+    Key firstDayKey = datastore.put(firstDay.buildEntity(tripKey));
+
+    datastore.put(new Event("Half Dome", DOME, PLACE_ID,
+        LocalDateTime.of(LocalDate.parse(FIRST_DAY), LocalTime.of(10, 0)), HALF_HOUR)
+        .eventToEntity(firstDayKey));
+    return tripKey;
+  }
+}
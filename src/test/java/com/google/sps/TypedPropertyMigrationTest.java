@@ -0,0 +1,169 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.sps.data.Event;
+import com.google.sps.data.User;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class TypedPropertyMigrationTest {
+
+  private static final String TRIP_NAME = "Trip to California";
+  private static final String DESTINATION_NAME = "California";
+  private static final String IMAGE_SRC = "https://example.com/photo.jpg";
+  private static final String HOTEL = "4265 24th Street San Francisco, CA, 94114";
+  private static final String DOME = "Half Dome, CA";
+  private static final String PLACE_ID = "1234";
+  private static final String FIRST_DAY = "2020-07-15";
+  private static final int NUM_DAYS = 3;
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+  private DatastoreService datastore;
+  private Key tripKey;
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    datastore = DatastoreServiceFactory.getDatastoreService();
+    Key userKey = datastore.put(new User("test@example.com").buildEntity());
+    tripKey = putLegacyTrip(userKey);
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  // Test that every entity is rewritten with native values over several
+  // batches, and that the entities still read back the same.
+  @Test
+  public void testMigratesAllKinds() {
+    Assert.assertFalse(SchemaVersion.isMigrated(datastore));
+    TripView before = TripView.rebuild(datastore, tripKey);
+
+    Assert.assertTrue(SchemaVersion.newMigrationRunner(datastore).run(20, 2));
+
+    Assert.assertTrue(SchemaVersion.isMigrated(datastore));
+    for (String kind : TypedPropertyMigration.KINDS) {
+      for (Entity entity : datastore.prepare(new Query(kind)).asIterable()) {
+        Assert.assertFalse(TypedPropertyMigration.isLegacy(entity));
+        Assert.assertEquals(SchemaVersion.current(kind), SchemaVersion.of(entity));
+      }
+    }
+    Entity tripEntity = getUnchecked(tripKey);
+    Assert.assertEquals(PropertyCodec.fromDateString(FIRST_DAY),
+      tripEntity.getProperty(Trip.START_DATE));
+    Assert.assertEquals(TRIP_NAME, tripEntity.getProperty(Trip.TRIP_NAME));
+    Assert.assertEquals(JsonSerializer.GSON.toJson(before),
+      JsonSerializer.GSON.toJson(TripView.rebuild(datastore, tripKey)));
+  }
+
+  // Test that a new migration resumes from the checkpoint of the last batch.
+  @Test
+  public void testResumesFromCheckpoint() {
+    Assert.assertFalse(SchemaVersion.newMigrationRunner(datastore).runBatch(1));
+    // The only trip was migrated in the first batch; the cursor is past it.
+    Assert.assertFalse(TypedPropertyMigration.isLegacy(getUnchecked(tripKey)));
+
+    int batches = 1;
+    while (!SchemaVersion.newMigrationRunner(datastore).runBatch(1)) {
+      batches++;
+    }
+    // One batch per entity, plus the batches that find a kind exhausted.
+    Assert.assertTrue(batches <= 1 + 2 * NUM_DAYS + TypedPropertyMigration.KINDS.size());
+    Assert.assertTrue(SchemaVersion.isMigrated(datastore));
+  }
+
+  // Test that a calendar window finds both native and string events until
+  // the migration is done.
+  @Test
+  public void testRangeQueryReadsBothFormsDuringMigration() {
+    Entity tripDayEntity = new TripDay(HOTEL, HOTEL, new ArrayList<>(),
+      LocalDate.parse(FIRST_DAY)).buildEntity(tripKey);
+    datastore.put(tripDayEntity);
+    datastore.put(new Event(DOME, DOME, PLACE_ID, LocalDateTime.of(2020, 7, 16, 9, 0), 30)
+      .eventToEntity(tripDayEntity.getKey()));
+
+    List<Event> events = new TripRepository(datastore).getEventsInRange(tripKey,
+      LocalDateTime.of(2020, 7, 15, 0, 0), LocalDateTime.of(2020, 7, 18, 0, 0));
+
+    // Three string events at 10:00 on each day, and the native one at 9:00 on the 16th.
+    Assert.assertEquals(NUM_DAYS + 1, events.size());
+    Assert.assertEquals(LocalDateTime.of(2020, 7, 15, 10, 0), events.get(0).getStartTime());
+    Assert.assertEquals(LocalDateTime.of(2020, 7, 16, 9, 0), events.get(1).getStartTime());
+    Assert.assertEquals(LocalDateTime.of(2020, 7, 16, 10, 0), events.get(2).getStartTime());
+  }
+
+  /**
+   * Puts a trip, its days and one event a day, with the string properties
+   * written before native properties.
+   */
+  private Key putLegacyTrip(Key userKey) {
+    Entity tripEntity = new Entity(Trip.TRIP, userKey);
+    tripEntity.setProperty(Trip.TRIP_NAME, TRIP_NAME);
+    tripEntity.setProperty(Trip.DESTINATION_NAME, DESTINATION_NAME);
+    tripEntity.setProperty(Trip.IMAGE_SRC, IMAGE_SRC);
+    tripEntity.setProperty(Trip.START_DATE, FIRST_DAY);
+    tripEntity.setProperty(Trip.END_DATE,
+      LocalDate.parse(FIRST_DAY).plusDays(NUM_DAYS - 1).toString());
+    Key key = datastore.put(tripEntity);
+
+    for (int day = 0; day < NUM_DAYS; day++) {
+      LocalDate date = LocalDate.parse(FIRST_DAY).plusDays(day);
+      Entity tripDayEntity = new Entity(TripDay.QUERY_STRING, key);
+      tripDayEntity.setProperty(TripDay.ORIGIN, HOTEL);
+      tripDayEntity.setProperty(TripDay.DESTINATION, HOTEL);
+      tripDayEntity.setProperty(TripDay.DATE, date.toString());
+      datastore.put(tripDayEntity);
+
+      Entity eventEntity = new Entity(Event.QUERY_STRING, tripDayEntity.getKey());
+      eventEntity.setProperty("name", DOME);
+      eventEntity.setProperty("address", DOME);
+      eventEntity.setProperty("placeId", PLACE_ID);
+      eventEntity.setProperty(Event.START_TIME, date.atTime(10, 0).toString() + ":00");
+      eventEntity.setProperty(Event.TRAVEL_TIME, "30");
+      datastore.put(eventEntity);
+    }
+    return key;
+  }
+
+  private Entity getUnchecked(Key key) {
+    try {
+      return datastore.get(key);
+    } catch (EntityNotFoundException e) {
+      throw new AssertionError(e);
+    }
+  }
+}
@@ -0,0 +1,141 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import static org.mockito.Mockito.*;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.sps.data.User;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.AdditionalAnswers;
+
+@RunWith(JUnit4.class)
+public final class UserRepositoryTest {
+
+  private static final String EMAIL = "test@example.com";
+  private static final String SECOND_EMAIL = "other@example.com";
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+  private DatastoreService datastore;
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    UserRepository.clearCache();
+    datastore = DatastoreServiceFactory.getDatastoreService();
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  // Test that a new user is keyed by email, and that later lookups are
+  // served from memory without touching datastore.
+  @Test
+  public void testCreatedUserIsKeyedByEmailAndCached() {
+    Entity userEntity = new UserRepository(datastore).getOrCreateUser(EMAIL);
+    Assert.assertEquals(User.createKey(EMAIL), userEntity.getKey());
+
+    DatastoreService countingDatastore =
+        mock(DatastoreService.class, AdditionalAnswers.delegatesTo(datastore));
+    Entity cachedUserEntity = new UserRepository(countingDatastore).getOrCreateUser(EMAIL);
+
+    Assert.assertEquals(userEntity, cachedUserEntity);
+    Assert.assertEquals(EMAIL, cachedUserEntity.getProperty(User.USER_EMAIL));
+    verifyZeroInteractions(countingDatastore);
+  }
+
+  // Test that an email-keyed user is found with a get, without any query.
+  @Test
+  public void testGetUserWithoutQuery() {
+    datastore.put(new User(EMAIL).buildEntity());
+    DatastoreService countingDatastore =
+        mock(DatastoreService.class, AdditionalAnswers.delegatesTo(datastore));
+
+    Entity userEntity = new UserRepository(countingDatastore).getUser(EMAIL);
+
+    Assert.assertEquals(User.createKey(EMAIL), userEntity.getKey());
+    verify(countingDatastore, never()).prepare(any(Query.class));
+  }
+
+  // Test that a legacy user keeps its key, and is found through its alias
+  // (without a query) once it has been found by the email query.
+  @Test
+  public void testLegacyUserFoundThroughAlias() {
+    Entity legacyUserEntity = new Entity(User.USER);
+    legacyUserEntity.setProperty(User.USER_EMAIL, EMAIL);
+    Key legacyUserKey = datastore.put(legacyUserEntity);
+
+    Assert.assertEquals(legacyUserKey,
+        new UserRepository(datastore).getOrCreateUser(EMAIL).getKey());
+
+    UserRepository.clearCache();
+    DatastoreService countingDatastore =
+        mock(DatastoreService.class, AdditionalAnswers.delegatesTo(datastore));
+    Assert.assertEquals(legacyUserKey,
+        new UserRepository(countingDatastore).getOrCreateUser(EMAIL).getKey());
+    verify(countingDatastore, never()).prepare(any(Query.class));
+    Assert.assertEquals(1, datastore.prepare(new Query(User.USER))
+        .countEntities(FetchOptions.Builder.withDefaults()));
+  }
+
+  // Test that the migration pages through the users, one batch at a time,
+  // and writes one alias per legacy user, once.
+  @Test
+  public void testMigrateLegacyUsers() throws Exception {
+    List<Key> legacyUserKeys = new ArrayList<>();
+    for (String email : new String[] {EMAIL, SECOND_EMAIL}) {
+      Entity legacyUserEntity = new Entity(User.USER);
+      legacyUserEntity.setProperty(User.USER_EMAIL, email);
+      legacyUserKeys.add(datastore.put(legacyUserEntity));
+    }
+    datastore.put(new User("new@example.com").buildEntity());
+
+    UserRepository repository = new UserRepository(datastore);
+    Assert.assertFalse(repository.newLegacyUserMigrationRunner().runBatch(1));
+    Assert.assertEquals(1, datastore.prepare(new Query(UserRepository.USER_ALIAS))
+        .countEntities(FetchOptions.Builder.withDefaults()));
+
+    Assert.assertTrue(repository.newLegacyUserMigrationRunner().run(10, 1));
+    Assert.assertTrue(repository.newLegacyUserMigrationRunner().isDone());
+    Assert.assertEquals(2, datastore.prepare(new Query(UserRepository.USER_ALIAS))
+        .countEntities(FetchOptions.Builder.withDefaults()));
+    for (int i = 0; i < legacyUserKeys.size(); i++) {
+      Assert.assertEquals(legacyUserKeys.get(i), datastore.get(UserRepository.createAliasKey(
+          i == 0 ? EMAIL : SECOND_EMAIL)).getProperty(UserRepository.USER_KEY));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testEmptyEmail() {
+    new UserRepository(datastore).getUser("");
+  }
+}
@@ -30,6 +30,9 @@ import com.google.sps.servlets.UserTripServlet;
 import com.google.sps.Trip;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -216,4 +219,92 @@ public final class UserTripServletTest {
     writer.flush(); // Flush the writer.
     Assert.assertTrue(stringWriter.toString().contains(expectedJson));
   }
+
+  // Test that trips are paged in start date order, and that the cursor 
+  // returned with a page continues with the next one.
+  @Test
+  public void testWriteTripsToFilePagesByStartDate() throws Exception {
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    Entity userEntity = new Entity(User.USER);
+    userEntity.setProperty(User.USER_EMAIL, EMAIL);
+    datastore.put(userEntity);
+    Key userEntityKey = userEntity.getKey();
+
+    // Store the trips out of start date order.
+    String[] startDates = {"2020-07-17", "2020-02-29", "2020-05-01"};
+    for (String startDate : startDates) {
+      datastore.put(Trip.buildEntity(TRIP_NAME, DESTINATION_NAME, IMAGE_SRC, startDate, 
+        startDate, userEntityKey));
+    }
+    Assert.assertTrue(SchemaVersion.newMigrationRunner(datastore)
+      .run(10, MigrationRunner.DEFAULT_BATCH_SIZE));
+
+    TripPage firstPage = writeTripPage(userEntityKey, 2, null);
+    Assert.assertEquals(2, firstPage.getTrips().size());
+    Assert.assertEquals("2020-02-29", firstPage.getTrips().get(0).getStartDate().toString());
+    Assert.assertEquals("2020-05-01", firstPage.getTrips().get(1).getStartDate().toString());
+    Assert.assertNotNull(firstPage.getNextCursor());
+
+    TripPage secondPage = writeTripPage(userEntityKey, 2, firstPage.getNextCursor());
+    Assert.assertEquals(1, secondPage.getTrips().size());
+    Assert.assertEquals("2020-07-17", secondPage.getTrips().get(0).getStartDate().toString());
+    Assert.assertEquals(IMAGE_SRC, secondPage.getTrips().get(0).getImageSrc());
+    Assert.assertNull(secondPage.getNextCursor());
+  }
+
+  // Test that, while start dates are still a mix of strings and Dates, the
+  // trips are paged in key order, each trip once.
+  @Test
+  public void testWriteTripsToFilePagesMixedDatesByKey() throws Exception {
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    Entity userEntity = new Entity(User.USER);
+    userEntity.setProperty(User.USER_EMAIL, EMAIL);
+    Key userEntityKey = datastore.put(userEntity);
+
+    // The second trip is stored as before the migration.
+    String[] startDates = {"2020-07-17", "2020-02-29", "2020-05-01"};
+    for (int i = 0; i < startDates.length; i++) {
+      Entity tripEntity = Trip.buildEntity(TRIP_NAME, DESTINATION_NAME, IMAGE_SRC,
+        startDates[i], startDates[i], userEntityKey);
+      if (i == 1) {
+        tripEntity.setProperty(Trip.START_DATE, startDates[i]);
+        tripEntity.setProperty(Trip.END_DATE, startDates[i]);
+        tripEntity.removeProperty(SchemaVersion.PROPERTY);
+      }
+      datastore.put(tripEntity);
+    }
+
+    TripPage firstPage = writeTripPage(userEntityKey, 2, null);
+    TripPage secondPage = writeTripPage(userEntityKey, 2, firstPage.getNextCursor());
+    Assert.assertNull(secondPage.getNextCursor());
+    List<String> pagedDates = new ArrayList<>();
+    for (TripPage page : new TripPage[] {firstPage, secondPage}) {
+      for (Trip trip : page.getTrips()) {
+        pagedDates.add(trip.getStartDate().toString());
+      }
+    }
+    Assert.assertEquals(Arrays.asList(startDates), pagedDates);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testWriteTripsToFilePageSizeTooLarge() throws Exception {
+    userTripServlet.writeTripsToFile(mock(HttpServletResponse.class), 
+      new Entity(User.USER).getKey(), TripRepository.MAX_PAGE_SIZE + 1, null);
+  }
+
+  /**
+   * Runs writeTripsToFile(...) for a page, and reads the written page back.
+   */
+  private TripPage writeTripPage(Key userEntityKey, int pageSize, String cursor) 
+      throws Exception {
+    HttpServletResponse responseMock = mock(HttpServletResponse.class);
+    StringWriter stringWriter = new StringWriter();
+    PrintWriter writer = new PrintWriter(stringWriter);
+    when(responseMock.getWriter()).thenReturn(writer);
+
+    userTripServlet.writeTripsToFile(responseMock, userEntityKey, pageSize, cursor);
+
+    writer.flush();
+    return JsonSerializer.GSON.fromJson(stringWriter.toString(), TripPage.class);
+  }
 }